@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link ConcurrencyLimitedCamerasDataSource} with many concurrent readers against
+ * {@link CamerasRemoteDataSource} on a backend that slows down past its capacity, and checks
+ * that the limit settles around that capacity and shrinks when it drops. The limit keeps probing
+ * above the capacity and backing off, so it is averaged over the second half of each run. Also
+ * runs the same burst on {@link NetworkProfile#BUSY_BACKEND} without a limit and with the adaptive
+ * limit, to compare the reads they complete and their tail latency, and checks that the reads of
+ * the hash tree take slots like the other reads.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ConcurrencyLimitedCamerasDataSourceTest {
+
+    private static final int SERVER_CAPACITY = 8;
+
+    private static final int READERS = 32;
+
+    private static final int READS = 600;
+
+    private static final int BURST_READERS = 20;
+
+    private static final long BURST_MILLIS = 5000;
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private CamerasRemoteDataSource mRemoteDataSource;
+
+    private NetworkProfile mPreviousProfile;
+
+    /**
+     * The average limit over the second half of the last {@link #drive}.
+     */
+    private double mSettledLimit;
+
+    @Before
+    public void setup() {
+        mRemoteDataSource = CamerasRemoteDataSource.getInstance();
+        mPreviousProfile = mRemoteDataSource.getNetworkProfile();
+    }
+
+    @After
+    public void cleanup() {
+        mRemoteDataSource.setNetworkProfile(mPreviousProfile);
+    }
+
+    @Test
+    public void initialLimit_growsToTheServerCapacity() throws Exception {
+        mRemoteDataSource.setNetworkProfile(profileWithCapacity(SERVER_CAPACITY));
+        ConcurrencyLimitedCamerasDataSource limitedDataSource = newLimitedDataSource();
+
+        ConcurrencyLimitedCamerasDataSource.Stats stats = drive(limitedDataSource);
+
+        assertLimitNear(SERVER_CAPACITY);
+        assertTrue(mSettledLimit > ConcurrencyLimitedCamerasDataSource.DEFAULT_INITIAL_LIMIT);
+        assertTrue(stats.limitDecreases > 0);
+        assertEquals(READS, stats.sent);
+        assertEquals(0, stats.expired);
+    }
+
+    @Test
+    public void capacityDrop_shrinksTheLimit() throws Exception {
+        mRemoteDataSource.setNetworkProfile(profileWithCapacity(SERVER_CAPACITY));
+        ConcurrencyLimitedCamerasDataSource limitedDataSource = newLimitedDataSource();
+        drive(limitedDataSource);
+        double limitBeforeDrop = mSettledLimit;
+
+        mRemoteDataSource.setNetworkProfile(profileWithCapacity(SERVER_CAPACITY / 4));
+        drive(limitedDataSource);
+
+        // The latency baseline rises with the load it keeps seeing, so the limit ends up above
+        // the new capacity, but well below where it was.
+        assertTrue("Limit didn't shrink: " + limitBeforeDrop + " -> " + mSettledLimit,
+                mSettledLimit < limitBeforeDrop * AdaptiveConcurrencyLimit.BACKOFF_RATIO);
+        assertTrue(mSettledLimit >= 1);
+    }
+
+    @Test
+    public void busyBackend_adaptiveLimitCompletesMoreReadsWithLowerTail() throws Exception {
+        mRemoteDataSource.setNetworkProfile(NetworkProfile.BUSY_BACKEND);
+
+        Burst unlimited = burst(mRemoteDataSource);
+        Burst adaptive = burst(newLimitedDataSource());
+
+        String results = "unlimited " + unlimited + ", adaptive " + adaptive;
+        assertTrue(results, adaptive.completed > unlimited.completed);
+        assertTrue(results, adaptive.p99Millis < unlimited.p99Millis);
+    }
+
+    @Test
+    public void bucketReads_takeSlotsLikeOtherReads() throws Exception {
+        mRemoteDataSource.setNetworkProfile(profileWithCapacity(SERVER_CAPACITY));
+        final ConcurrencyLimitedCamerasDataSource limitedDataSource = newLimitedDataSource();
+        final int reads = 2 * ConcurrencyLimitedCamerasDataSource.DEFAULT_INITIAL_LIMIT;
+        final ConcurrencyLimitedCamerasDataSource.Stats[] stats =
+                new ConcurrencyLimitedCamerasDataSource.Stats[2];
+        final CountDownLatch latch = new CountDownLatch(reads);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < reads; i++) {
+                    limitedDataSource.getCamerasInBuckets(new int[]{i},
+                            new CamerasDataSource.LoadCameraChangesCallback() {
+                                @Override
+                                public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                                  List<String> deletedCameraIds,
+                                                                  long latestVersion) {
+                                    latch.countDown();
+                                    if (latch.getCount() == 0) {
+                                        stats[1] = limitedDataSource.getStats();
+                                    }
+                                }
+
+                                @Override
+                                public void onDataNotAvailable() {
+                                }
+                            });
+                }
+                stats[0] = limitedDataSource.getStats();
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(ConcurrencyLimitedCamerasDataSource.DEFAULT_INITIAL_LIMIT,
+                stats[0].inFlight);
+        assertEquals(reads - ConcurrencyLimitedCamerasDataSource.DEFAULT_INITIAL_LIMIT,
+                stats[0].waiting);
+        assertEquals(reads, stats[1].sent);
+        assertEquals(0, stats[1].inFlight);
+    }
+
+    private static NetworkProfile profileWithCapacity(int serverCapacity) {
+        return new NetworkProfile.Builder("capacity " + serverCapacity)
+                .setLatency(LatencyDistribution.fixed(20))
+                .setServerCapacity(serverCapacity)
+                .build();
+    }
+
+    private ConcurrencyLimitedCamerasDataSource newLimitedDataSource() {
+        return new ConcurrencyLimitedCamerasDataSource(mRemoteDataSource,
+                ConcurrencyLimitedCamerasDataSource.DEFAULT_INITIAL_LIMIT,
+                ConcurrencyLimitedCamerasDataSource.DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * The latency grows with the square of the overload, so the average latency passes the
+     * tolerance of the limit a little above the capacity, and the limit probes a round beyond.
+     */
+    private void assertLimitNear(int capacity) {
+        assertTrue("Limit too low: " + mSettledLimit, mSettledLimit >= capacity / 2.0);
+        assertTrue("Limit too high: " + mSettledLimit, mSettledLimit <= capacity * 2.5);
+    }
+
+    /**
+     * Keeps {@link #READERS} reads going through {@code limitedDataSource} until {@link #READS}
+     * have answered, and returns its stats at that point. Also sets {@link #mSettledLimit}.
+     */
+    private ConcurrencyLimitedCamerasDataSource.Stats drive(
+            final ConcurrencyLimitedCamerasDataSource limitedDataSource)
+            throws InterruptedException {
+        final ConcurrencyLimitedCamerasDataSource.Stats[] stats =
+                new ConcurrencyLimitedCamerasDataSource.Stats[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        // Like the repository, the limiter and the simulated backend run on the main thread.
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                CamerasDataSource.LoadCameraChangesCallback reader =
+                        new CamerasDataSource.LoadCameraChangesCallback() {
+                            private int mStarted = READERS;
+
+                            private int mAnswered = 0;
+
+                            private long mLimitSum = 0;
+
+                            @Override
+                            public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                              List<String> deletedCameraIds,
+                                                              long latestVersion) {
+                                onAnswered();
+                            }
+
+                            @Override
+                            public void onDataNotAvailable() {
+                                onAnswered();
+                            }
+
+                            private void onAnswered() {
+                                mAnswered++;
+                                if (mAnswered > READS / 2) {
+                                    mLimitSum += limitedDataSource.getStats().limit;
+                                }
+                                if (mAnswered == READS) {
+                                    mSettledLimit = (double) mLimitSum / (READS - READS / 2);
+                                    stats[0] = limitedDataSource.getStats();
+                                    latch.countDown();
+                                } else if (mStarted < READS) {
+                                    mStarted++;
+                                    limitedDataSource.getCamerasChangedSince(0, this);
+                                }
+                            }
+                        };
+                for (int i = 0; i < READERS; i++) {
+                    limitedDataSource.getCamerasChangedSince(0, reader);
+                }
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return stats[0];
+    }
+
+    /**
+     * The reads of a burst that returned cameras, and the 99th percentile of their latency, from
+     * the call to the answer, waiting for a slot included. Reads the backend shed fail fast, so
+     * they are left out of the latency.
+     */
+    private static final class Burst {
+
+        int started;
+
+        int completed;
+
+        long p99Millis;
+
+        @Override
+        public String toString() {
+            return "completed=" + completed + "/" + started + " p99=" + p99Millis + "ms";
+        }
+    }
+
+    /**
+     * Keeps {@link #BURST_READERS} reads going through {@code dataSource} for
+     * {@link #BURST_MILLIS}, then waits for the last ones to answer.
+     */
+    private Burst burst(final CamerasDataSource dataSource) throws InterruptedException {
+        final Burst burst = new Burst();
+        final List<Long> latencies = new ArrayList<>();
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BURST_MILLIS);
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+
+            private int mInFlight = 0;
+
+            @Override
+            public void run() {
+                for (int i = 0; i < BURST_READERS; i++) {
+                    read();
+                }
+            }
+
+            private void read() {
+                burst.started++;
+                mInFlight++;
+                final long start = System.nanoTime();
+                dataSource.getCamerasChangedSince(0,
+                        new CamerasDataSource.LoadCameraChangesCallback() {
+                            @Override
+                            public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                              List<String> deletedCameraIds,
+                                                              long latestVersion) {
+                                burst.completed++;
+                                latencies.add(TimeUnit.NANOSECONDS.toMillis(
+                                        System.nanoTime() - start));
+                                onAnswered();
+                            }
+
+                            @Override
+                            public void onDataNotAvailable() {
+                                onAnswered();
+                            }
+                        });
+            }
+
+            private void onAnswered() {
+                mInFlight--;
+                if (System.nanoTime() < end) {
+                    read();
+                } else if (mInFlight == 0) {
+                    Collections.sort(latencies);
+                    burst.p99Millis = latencies.isEmpty() ? Long.MAX_VALUE
+                            : latencies.get(latencies.size() * 99 / 100);
+                    latch.countDown();
+                }
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return burst;
+    }
+}
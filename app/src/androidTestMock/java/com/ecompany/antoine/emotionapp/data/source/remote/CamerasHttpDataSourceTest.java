@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.FakeCamerasHttpServer;
+import com.ecompany.antoine.emotionapp.data.FakeCamerasRemoteDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasMerkleTree;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Integration test of {@link CamerasHttpDataSource} against {@link FakeCamerasHttpServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CamerasHttpDataSourceTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final Camera CAMERA1 = new Camera("Title1", "Description1", "id1");
+
+    private static final Camera CAMERA2 = new Camera("Title2", "Description2", "id2");
+
+    private static final Camera CAMERA3 = new Camera("Title3", "Description3", "id3");
+
+    private FakeCamerasHttpServer mServer;
+
+    private CamerasHttpDataSource mDataSource;
+
+    @Before
+    public void setup() throws Exception {
+        FakeCamerasRemoteDataSource.getInstance().deleteAllCameras();
+        FakeCamerasRemoteDataSource.getInstance().addCameras(CAMERA1, CAMERA2, CAMERA3);
+        mServer = FakeCamerasHttpServer.start();
+        CamerasHttpDataSource.destroyInstance();
+        mDataSource = CamerasHttpDataSource.getInstance(mServer.getBaseUrl(), new AppExecutors());
+    }
+
+    @After
+    public void cleanup() {
+        CamerasHttpDataSource.destroyInstance();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void unchangedCameras_areRevalidatedWithNotModified() throws Exception {
+        long version = getCamerasChangedSince(0).getVersion();
+
+        CamerasPayload first = getCamerasChangedSince(version - 1);
+        CamerasPayload second = getCamerasChangedSince(version - 1);
+
+        // The second answer is the cached payload, which can't be changed by the caller.
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertSame(first.getCameras(), second.getCameras());
+        try {
+            second.getCameras().clear();
+            fail("A cached payload can be modified");
+        } catch (UnsupportedOperationException expected) {
+            // The cache stays intact.
+        }
+    }
+
+    @Test
+    public void cameraLookups_areNotRevalidated() throws Exception {
+        assertEquals(CAMERA1, getCamera(CAMERA1.getId()));
+        // Drops the camera from the lookup cache without changing it on the server.
+        mDataSource.enqueueMutation(CameraMutation.activate(CAMERA1.getId()), null);
+        assertEquals(CAMERA1, getCamera(CAMERA1.getId()));
+
+        assertEquals(0, mServer.getNotModifiedCount());
+    }
+
+    @Test
+    public void sequentialRequests_reuseOneConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            getCamerasChangedSince(0);
+        }
+
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void cameraLists_areSentInTheBinaryFormat() throws Exception {
+        CamerasPayload payload = getCamerasChangedSince(0);
+
+        assertEquals(3, payload.getCameras().size());
+        assertTrue(payload.getCameras().contains(CAMERA2));
+        assertEquals(1, mServer.getBinaryCount());
+        // The binary format is compressed by its codec, not by gzip.
+        assertEquals(0, mServer.getGzippedCount());
+    }
+
+    @Test
+    public void jsonResponses_areGzipped() throws Exception {
+        final long[][] expectedHashes = new long[1][];
+        FakeCamerasRemoteDataSource.getInstance().getTreeChildHashes(0, new int[]{0},
+                new CamerasTreeSource.LoadTreeHashesCallback() {
+                    @Override
+                    public void onTreeHashesLoaded(long[] hashes, long latestVersion) {
+                        expectedHashes[0] = hashes;
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        fail("The fake keeps a tree");
+                    }
+                });
+
+        final long[][] hashes = new long[1][];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mDataSource.getTreeChildHashes(0, new int[]{0},
+                new CamerasTreeSource.LoadTreeHashesCallback() {
+                    @Override
+                    public void onTreeHashesLoaded(long[] loadedHashes, long latestVersion) {
+                        hashes[0] = loadedHashes;
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        latch.countDown();
+                    }
+                });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertArrayEquals(expectedHashes[0], hashes[0]);
+        assertEquals(1, mServer.getGzippedCount());
+    }
+
+    @Test
+    public void failingNetwork_reportsDataNotAvailable() throws Exception {
+        mServer.setNetworkProfile(new NetworkProfile.Builder("down").setErrorRate(1).build());
+
+        assertNull(getCamerasChangedSince(0));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void changeFeed_answersOnceCamerasChange() throws Exception {
+        long version = getCamerasChangedSince(0).getVersion();
+
+        assertNull(mDataSource.pollChanges(version, 200));
+
+        final Camera newCamera = new Camera("Title4", "Description4", "id4");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FakeCamerasRemoteDataSource data = FakeCamerasRemoteDataSource.getInstance();
+                synchronized (data) {
+                    data.addCameras(newCamera);
+                }
+            }
+        }).start();
+        CamerasPayload changes = mDataSource.pollChanges(version,
+                TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertNotNull(changes);
+        assertEquals(1, changes.getCameras().size());
+        assertEquals(newCamera, changes.getCameras().get(0));
+    }
+
+    @Test
+    public void concurrentLookups_areFetchedInOneRequest() throws Exception {
+        final List<Camera> cameras = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        CamerasDataSource.GetCameraCallback callback = new CamerasDataSource.GetCameraCallback() {
+            @Override
+            public void onCameraLoaded(Camera camera) {
+                cameras.add(camera);
+                latch.countDown();
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                latch.countDown();
+            }
+        };
+
+        mDataSource.getCamera(CAMERA1.getId(), callback);
+        mDataSource.getCamera(CAMERA2.getId(), callback);
+        mDataSource.getCamera(CAMERA3.getId(), callback);
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(3, cameras.size());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void treeBuckets_returnTheirCameras() throws Exception {
+        int bucket = new CamerasMerkleTree().getBucket(CAMERA1.getId());
+        final List<Camera> cameras = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mDataSource.getCamerasInBuckets(new int[]{bucket},
+                new CamerasDataSource.LoadCameraChangesCallback() {
+                    @Override
+                    public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                      List<String> deletedCameraIds,
+                                                      long latestVersion) {
+                        cameras.addAll(changedCameras);
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        latch.countDown();
+                    }
+                });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertTrue(cameras.contains(CAMERA1));
+    }
+
+    @Test
+    public void burstOfMutations_isSentInOneBatch() throws Exception {
+        final int[] appliedCount = new int[1];
+        final CountDownLatch latch = new CountDownLatch(10);
+        CamerasMutationBatcher.MutationCallback callback =
+                new CamerasMutationBatcher.MutationCallback() {
+                    @Override
+                    public void onMutationApplied() {
+                        appliedCount[0]++;
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onMutationFailed(int statusCode) {
+                        latch.countDown();
+                    }
+                };
+
+        for (int i = 0; i < 10; i++) {
+            Camera camera = new Camera("Title", "Description", "burst" + i);
+            mDataSource.enqueueMutation(CameraMutation.save(camera), callback);
+        }
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(10, appliedCount[0]);
+        assertEquals(1, mServer.getBatchCount());
+        assertEquals(13, getCamerasChangedSince(0).getCameras().size());
+    }
+
+    /**
+     * Returns the cameras changed since {@code version}, or null if they weren't available.
+     */
+    private CamerasPayload getCamerasChangedSince(long version) throws InterruptedException {
+        final CamerasPayload[] payload = new CamerasPayload[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mDataSource.getCamerasChangedSince(version,
+                new CamerasDataSource.LoadCameraChangesCallback() {
+                    @Override
+                    public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                      List<String> deletedCameraIds,
+                                                      long latestVersion) {
+                        payload[0] = new CamerasPayload(latestVersion, changedCameras,
+                                deletedCameraIds);
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        latch.countDown();
+                    }
+                });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return payload[0];
+    }
+
+    private Camera getCamera(String cameraId) throws InterruptedException {
+        final Camera[] camera = new Camera[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        mDataSource.getCamera(cameraId, new CamerasDataSource.GetCameraCallback() {
+            @Override
+            public void onCameraLoaded(Camera loadedCamera) {
+                camera[0] = loadedCamera;
+                latch.countDown();
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return camera[0];
+    }
+}
@@ -46,6 +46,7 @@ public class CameraDetailActivity extends AppCompatActivity {
         new CameraDetailPresenter(
                 cameraId,
                 Injection.provideCamerasRepository(getApplicationContext()),
+                Injection.provideCamerasHistorySource(getApplicationContext()),
                 cameraDetailFragment);
     }
 
@@ -41,6 +41,8 @@ public interface CameraDetailContract {
 
         void showClosingStatus(boolean complete);
 
+        void showStatusTimes(long activeMillis, long closedMillis);
+
         void showEditCamera(String cameraId);
 
         void showCameraDeleted();
@@ -24,6 +24,7 @@ import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -37,6 +38,7 @@ import android.widget.TextView;
 import com.ecompany.antoine.emotionapp.R;
 import com.ecompany.antoine.emotionapp.addeditcamera.AddEditCameraActivity;
 import com.ecompany.antoine.emotionapp.addeditcamera.AddEditCameraFragment;
+import com.ecompany.antoine.emotionapp.util.FrameMonitor;
 import com.google.common.base.Preconditions;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -52,12 +54,19 @@ public class CameraDetailFragment extends Fragment implements CameraDetailContra
     @NonNull
     private static final int REQUEST_EDIT_CAMERA = 1;
 
+    /**
+     * Name of the screen in the {@link FrameMonitor} report.
+     */
+    private static final String FRAME_MONITOR_SCREEN = "camera_detail";
+
     private CameraDetailContract.Presenter mPresenter;
 
     private TextView mDetailTitle;
 
     private TextView mDetailDescription;
 
+    private TextView mDetailStatusTimes;
+
     private CheckBox mDetailClosedStatus;
 
     public static CameraDetailFragment newInstance(@Nullable String cameraId) {
@@ -71,9 +80,16 @@ public class CameraDetailFragment extends Fragment implements CameraDetailContra
     @Override
     public void onResume() {
         super.onResume();
+        FrameMonitor.getInstance().startScreen(FRAME_MONITOR_SCREEN);
         mPresenter.start();
     }
 
+    @Override
+    public void onPause() {
+        FrameMonitor.getInstance().stopScreen(FRAME_MONITOR_SCREEN);
+        super.onPause();
+    }
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -82,6 +98,7 @@ public class CameraDetailFragment extends Fragment implements CameraDetailContra
         setHasOptionsMenu(true);
         mDetailTitle = (TextView) root.findViewById(R.id.camera_detail_title);
         mDetailDescription = (TextView) root.findViewById(R.id.camera_detail_description);
+        mDetailStatusTimes = (TextView) root.findViewById(R.id.camera_detail_status_times);
         mDetailClosedStatus = (CheckBox) root.findViewById(R.id.camera_detail_closed);
 
         // Set up floating action button
@@ -160,6 +177,14 @@ public class CameraDetailFragment extends Fragment implements CameraDetailContra
                 });
     }
 
+    @Override
+    public void showStatusTimes(long activeMillis, long closedMillis) {
+        mDetailStatusTimes.setVisibility(View.VISIBLE);
+        mDetailStatusTimes.setText(getString(R.string.camera_detail_status_times,
+                DateUtils.formatElapsedTime(activeMillis / DateUtils.SECOND_IN_MILLIS),
+                DateUtils.formatElapsedTime(closedMillis / DateUtils.SECOND_IN_MILLIS)));
+    }
+
     @Override
     public void showEditCamera(@NonNull String cameraId) {
         Intent intent = new Intent(getContext(), AddEditCameraActivity.class);
@@ -21,8 +21,11 @@ import android.support.annotation.Nullable;
 
 
 import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CameraStatusTimes;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasHistorySource;
 import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
+import com.ecompany.antoine.emotionapp.util.FrameMonitor;
 import com.google.common.base.Strings;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -35,6 +38,8 @@ public class CameraDetailPresenter implements CameraDetailContract.Presenter {
 
     private final CamerasRepository mCamerasRepository;
 
+    private final CamerasHistorySource mCamerasHistorySource;
+
     private final CameraDetailContract.View mCameraDetailView;
 
     @Nullable
@@ -42,9 +47,12 @@ public class CameraDetailPresenter implements CameraDetailContract.Presenter {
 
     public CameraDetailPresenter(@Nullable String cameraId,
                                  @NonNull CamerasRepository camerasRepository,
+                                 @NonNull CamerasHistorySource camerasHistorySource,
                                  @NonNull CameraDetailContract.View cameraDetailView) {
         mCameraId = cameraId;
         mCamerasRepository = checkNotNull(camerasRepository, "camerasRepository cannot be null!");
+        mCamerasHistorySource =
+                checkNotNull(camerasHistorySource, "camerasHistorySource cannot be null!");
         mCameraDetailView = checkNotNull(cameraDetailView, "cameraDetailView cannot be null!");
 
         mCameraDetailView.setPresenter(this);
@@ -65,15 +73,20 @@ public class CameraDetailPresenter implements CameraDetailContract.Presenter {
         mCamerasRepository.getCamera(mCameraId, new CamerasDataSource.GetCameraCallback() {
             @Override
             public void onCameraLoaded(Camera camera) {
-                // The view may not be able to handle UI updates anymore
-                if (!mCameraDetailView.isActive()) {
-                    return;
-                }
-                mCameraDetailView.setLoadingIndicator(false);
-                if (null == camera) {
-                    mCameraDetailView.showMissingCamera();
-                } else {
-                    showCamera(camera);
+                FrameMonitor.getInstance().beginWork("CameraDetailPresenter.onCameraLoaded");
+                try {
+                    // The view may not be able to handle UI updates anymore
+                    if (!mCameraDetailView.isActive()) {
+                        return;
+                    }
+                    mCameraDetailView.setLoadingIndicator(false);
+                    if (null == camera) {
+                        mCameraDetailView.showMissingCamera();
+                    } else {
+                        showCamera(camera);
+                    }
+                } finally {
+                    FrameMonitor.getInstance().endWork();
                 }
             }
 
@@ -143,5 +156,31 @@ public class CameraDetailPresenter implements CameraDetailContract.Presenter {
             mCameraDetailView.showDescription(description);
         }
         mCameraDetailView.showClosingStatus(camera.isClosed());
+        loadStatusTimes(camera.getId());
+    }
+
+    private void loadStatusTimes(@NonNull String cameraId) {
+        mCamerasHistorySource.getStatusTimes(cameraId,
+                new CamerasHistorySource.GetStatusTimesCallback() {
+                    @Override
+                    public void onStatusTimesLoaded(CameraStatusTimes statusTimes) {
+                        FrameMonitor.getInstance().beginWork("CameraDetailPresenter.onStatusTimes");
+                        try {
+                            // The view may not be able to handle UI updates anymore
+                            if (!mCameraDetailView.isActive()) {
+                                return;
+                            }
+                            mCameraDetailView.showStatusTimes(
+                                    statusTimes.getActiveMillis(), statusTimes.getClosedMillis());
+                        } finally {
+                            FrameMonitor.getInstance().endWork();
+                        }
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        // Not stored locally yet, so there is no history to show.
+                    }
+                });
     }
 }
@@ -2,6 +2,8 @@ package com.ecompany.antoine.emotionapp.cameras;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.NavigationView;
@@ -15,24 +17,52 @@ import android.support.v7.widget.Toolbar;
 import android.view.View;
 import android.view.MenuItem;
 
+import com.ecompany.antoine.emotionapp.BuildConfig;
 import com.ecompany.antoine.emotionapp.R;
 import com.ecompany.antoine.emotionapp.Injection;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasDbMaintenanceService;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasLocalDataSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasChangeFeed;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasCodecBenchmark;
+import com.ecompany.antoine.emotionapp.data.source.remote.ConcurrencyLimitedCamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.RemoteRequestScheduler;
+import com.ecompany.antoine.emotionapp.data.source.remote.ResilientCamerasDataSource;
 import com.ecompany.antoine.emotionapp.statistics.StatisticsActivity;
 import com.ecompany.antoine.emotionapp.util.ActivityUtils;
 import com.ecompany.antoine.emotionapp.util.EspressoIdlingResource;
+import com.ecompany.antoine.emotionapp.util.FrameMonitor;
+import com.ecompany.antoine.emotionapp.util.StartupTrace;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
 
 public class CamerasActivity extends AppCompatActivity {
 
     private static final String CURRENT_FILTERING_KEY = "CURRENT_FILTERING_KEY";
 
+    private static final String CURRENT_SORTING_KEY = "CURRENT_SORTING_KEY";
+
     private DrawerLayout mDrawerLayout;
 
     private CamerasPresenter mCamerasPresenter;
 
+    @Nullable
+    private CamerasChangeFeed mCamerasChangeFeed;
+
+    private boolean mStarted = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace startupTrace = StartupTrace.getInstance();
+        startupTrace.beginSection("CamerasActivity.onCreate");
         super.onCreate(savedInstanceState);
+        startupTrace.watchFirstFrame(this);
+        startupTrace.beginSection("setContentView");
         setContentView(R.layout.cameras_act);
+        startupTrace.endSection("setContentView");
 
         // Set up the toolbar.
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
@@ -58,15 +88,22 @@ public class CamerasActivity extends AppCompatActivity {
                     getSupportFragmentManager(), camerasFragment, R.id.contentFrame);
         }
 
-        // Create the presenter
+        // Create the presenter. The data layer is only opened when it starts, after the first
+        // frame.
         mCamerasPresenter = new CamerasPresenter(
-                Injection.provideCamerasRepository(getApplicationContext()), camerasFragment);
+                Injection.provideCamerasRepositoryLazily(getApplicationContext()),
+                camerasFragment, Injection.provideAppExecutors());
 
         // Load previously saved state, if available.
         if (savedInstanceState != null) {
             CamerasFilterType currentFiltering =
                     (CamerasFilterType) savedInstanceState.getSerializable(CURRENT_FILTERING_KEY);
             mCamerasPresenter.setFiltering(currentFiltering);
+            CamerasSortType currentSorting =
+                    (CamerasSortType) savedInstanceState.getSerializable(CURRENT_SORTING_KEY);
+            if (currentSorting != null) {
+                mCamerasPresenter.setSorting(currentSorting);
+            }
         }
 
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab_add_camera);
@@ -77,11 +114,48 @@ public class CamerasActivity extends AppCompatActivity {
                         .setAction("Action", null).show();
             }
         });
+
+        startupTrace.runAfterFirstFrame(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinishing()) {
+                    return;
+                }
+                // Keep the local database compact while the device is idle and charging.
+                CamerasDbMaintenanceService.schedule(getApplicationContext());
+
+                mCamerasChangeFeed = Injection.provideCamerasChangeFeed(getApplicationContext());
+                if (mStarted && mCamerasChangeFeed != null) {
+                    mCamerasChangeFeed.start();
+                }
+            }
+        });
+        startupTrace.endSection("CamerasActivity.onCreate");
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mStarted = true;
+        // Listen to remote changes only while the list is visible.
+        if (mCamerasChangeFeed != null) {
+            mCamerasChangeFeed.start();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        mStarted = false;
+        if (mCamerasChangeFeed != null) {
+            mCamerasChangeFeed.stop();
+        }
+        super.onStop();
     }
 
     @Override
     public void onSaveInstanceState(Bundle outState) {
         outState.putSerializable(CURRENT_FILTERING_KEY, mCamerasPresenter.getFiltering());
+        outState.putSerializable(CURRENT_SORTING_KEY, mCamerasPresenter.getSorting());
 
         super.onSaveInstanceState(outState);
     }
@@ -125,6 +199,56 @@ public class CamerasActivity extends AppCompatActivity {
                 });
     }
 
+    /**
+     * In debug builds, {@code adb shell dumpsys activity} also prints the times of the cold start,
+     * the frame times of the screens, the recent local database statements, where the slow-query
+     * log is, the queueing delays of the remote requests, and the retries and concurrency limit of
+     * the remote reads. It runs {@link CamerasCodecBenchmark} when given the
+     * {@code codec-benchmark} argument, and writes the frame times to
+     * {@link FrameMonitor#REPORT_FILE_NAME} when given {@code frame-report}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (BuildConfig.DEBUG) {
+            StartupTrace.getInstance().dump(writer);
+            FrameMonitor.getInstance().dump(writer);
+            if (args != null && Arrays.asList(args).contains("frame-report")) {
+                exportFrameReport(writer);
+            }
+            CamerasLocalDataSource.getInstance(getApplicationContext(),
+                    Injection.provideAppExecutors()).getQueryProfiler()
+                    .dump(writer);
+            RemoteRequestScheduler requestScheduler = Injection.provideRemoteRequestScheduler();
+            if (requestScheduler != null) {
+                requestScheduler.dump(writer);
+            }
+            ResilientCamerasDataSource resilientDataSource =
+                    Injection.provideResilientCamerasDataSource();
+            if (resilientDataSource != null) {
+                resilientDataSource.dump(writer);
+            }
+            ConcurrencyLimitedCamerasDataSource limitedDataSource =
+                    Injection.provideConcurrencyLimitedCamerasDataSource();
+            if (limitedDataSource != null) {
+                limitedDataSource.dump(writer);
+            }
+            if (args != null && Arrays.asList(args).contains("codec-benchmark")) {
+                CamerasCodecBenchmark.dump(writer);
+            }
+        }
+    }
+
+    private void exportFrameReport(@NonNull PrintWriter writer) {
+        File reportFile = new File(getFilesDir(), FrameMonitor.REPORT_FILE_NAME);
+        try {
+            FrameMonitor.getInstance().export(reportFile);
+            writer.println("Frame report written to " + reportFile.getAbsolutePath());
+        } catch (IOException e) {
+            writer.println("Could not write the frame report: " + e);
+        }
+    }
+
     @VisibleForTesting
     public IdlingResource getCountingIdlingResource() {
         return EspressoIdlingResource.getIdlingResource();
@@ -17,6 +17,7 @@
 package com.ecompany.antoine.emotionapp.cameras;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.ecompany.antoine.emotionapp.BasePresenter;
 import com.ecompany.antoine.emotionapp.BaseView;
@@ -59,6 +60,8 @@ public interface CamerasContract {
 
         void showNoClosedCamera();
 
+        void showNoSearchResults();
+
         void showSuccessfullySavedMessage();
 
         boolean isActive();
@@ -68,6 +71,11 @@ public interface CamerasContract {
 
     interface Presenter extends BasePresenter {
 
+        /**
+         * Stops following the changes that {@link #start()} subscribed to.
+         */
+        void stop();
+
         void result(int requestCode, int resultCode);
 
         void loadCameras(boolean forceUpdate);
@@ -85,5 +93,15 @@ public interface CamerasContract {
         void setFiltering(CamerasFilterType requestType);
 
         CamerasFilterType getFiltering();
+
+        void setSorting(@NonNull CamerasSortType sortType);
+
+        @NonNull
+        CamerasSortType getSorting();
+
+        /**
+         * @param query the text of the search box, or null when it is closed
+         */
+        void setSearchQuery(@Nullable String query);
     }
 }
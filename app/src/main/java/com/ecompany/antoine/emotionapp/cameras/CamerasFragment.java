@@ -17,6 +17,7 @@
 package com.ecompany.antoine.emotionapp.cameras;
 
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -24,28 +25,40 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
-import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import com.ecompany.antoine.emotionapp.Injection;
 import com.ecompany.antoine.emotionapp.R;
 import com.ecompany.antoine.emotionapp.addeditcamera.AddEditCameraActivity;
 import com.ecompany.antoine.emotionapp.cameradetail.CameraDetailActivity;
 import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+import com.ecompany.antoine.emotionapp.util.EspressoIdlingResource;
+import com.ecompany.antoine.emotionapp.util.FrameMonitor;
+import com.ecompany.antoine.emotionapp.util.StartupTrace;
+import com.google.common.base.Objects;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -54,8 +67,35 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class CamerasFragment extends Fragment implements CamerasContract.View {
 
+    /**
+     * Name of the screen in the {@link FrameMonitor} report.
+     */
+    private static final String FRAME_MONITOR_SCREEN = "cameras";
+
+    /**
+     * Rows inflated off the main thread while the first cameras load, about a screen of them.
+     */
+    private static final int PREINFLATED_ROWS = 12;
+
     private CamerasContract.Presenter mPresenter;
 
+    private boolean mResumed = false;
+
+    private boolean mPresenterStarted = false;
+
+    /**
+     * Starts the presenter, which loads the cameras, once the first frame of the app is drawn.
+     */
+    private final Runnable mStartPresenter = new Runnable() {
+        @Override
+        public void run() {
+            if (mResumed && !mPresenterStarted) {
+                mPresenterStarted = true;
+                mPresenter.start();
+            }
+        }
+    };
+
     private CamerasAdapter mListAdapter;
 
     private View mNoCameraView;
@@ -81,13 +121,27 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mListAdapter = new CamerasAdapter(new ArrayList<Camera>(0), mItemListener);
+        mListAdapter = new CamerasAdapter(new ArrayList<Camera>(0), mItemListener,
+                Injection.provideAppExecutors());
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        mPresenter.start();
+        FrameMonitor.getInstance().startScreen(FRAME_MONITOR_SCREEN);
+        mResumed = true;
+        StartupTrace.getInstance().runAfterFirstFrame(mStartPresenter);
+    }
+
+    @Override
+    public void onPause() {
+        mResumed = false;
+        if (mPresenterStarted) {
+            mPresenterStarted = false;
+            mPresenter.stop();
+        }
+        FrameMonitor.getInstance().stopScreen(FRAME_MONITOR_SCREEN);
+        super.onPause();
     }
 
     @Override
@@ -107,8 +161,11 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
         View root = inflater.inflate(R.layout.cameras_frag, container, false);
 
         // Set up cameras view
-        ListView listView = (ListView) root.findViewById(R.id.cameras_list);
+        RecyclerView listView = (RecyclerView) root.findViewById(R.id.cameras_list);
+        listView.setLayoutManager(new LinearLayoutManager(getContext()));
+        listView.setHasFixedSize(true);
         listView.setAdapter(mListAdapter);
+        preinflateRows(listView);
         mFilteringLabelView = (TextView) root.findViewById(R.id.filteringLabel);
         mCamerasView = (LinearLayout) root.findViewById(R.id.camerasLL);
 
@@ -159,6 +216,33 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
         return root;
     }
 
+    @Override
+    public void onDestroyView() {
+        mListAdapter.clearPreinflatedRows();
+        super.onDestroyView();
+    }
+
+    /**
+     * Inflates the first rows of {@code listView} on a background thread, so that showing the
+     * first cameras only binds them.
+     */
+    private void preinflateRows(@NonNull RecyclerView listView) {
+        AsyncLayoutInflater inflater = new AsyncLayoutInflater(getContext());
+        AsyncLayoutInflater.OnInflateFinishedListener listener =
+                new AsyncLayoutInflater.OnInflateFinishedListener() {
+                    @Override
+                    public void onInflateFinished(@NonNull View view, int resid,
+                            @Nullable ViewGroup parent) {
+                        if (getView() != null) {
+                            mListAdapter.addPreinflatedRow(view);
+                        }
+                    }
+                };
+        for (int i = 0; i < PREINFLATED_ROWS; i++) {
+            inflater.inflate(R.layout.camera_item, listView, listener);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -171,6 +255,18 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
             case R.id.menu_refresh:
                 mPresenter.loadCameras(true);
                 break;
+            case R.id.sort_added:
+                sortBy(item, CamerasSortType.ADDED);
+                break;
+            case R.id.sort_title:
+                sortBy(item, CamerasSortType.TITLE);
+                break;
+            case R.id.sort_status:
+                sortBy(item, CamerasSortType.STATUS);
+                break;
+            case R.id.sort_recently_changed:
+                sortBy(item, CamerasSortType.RECENTLY_CHANGED);
+                break;
         }
         return true;
     }
@@ -178,6 +274,61 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.cameras_fragment_menu, menu);
+        setUpSearch(menu.findItem(R.id.menu_search));
+        menu.findItem(getSortItemId(mPresenter.getSorting())).setChecked(true);
+    }
+
+    private void sortBy(@NonNull MenuItem item, @NonNull CamerasSortType sortType) {
+        item.setChecked(true);
+        mPresenter.setSorting(sortType);
+    }
+
+    private static int getSortItemId(@NonNull CamerasSortType sortType) {
+        switch (sortType) {
+            case TITLE:
+                return R.id.sort_title;
+            case STATUS:
+                return R.id.sort_status;
+            case RECENTLY_CHANGED:
+                return R.id.sort_recently_changed;
+            default:
+                return R.id.sort_added;
+        }
+    }
+
+    /**
+     * Searches on every keystroke while the search box is open.
+     */
+    private void setUpSearch(@NonNull MenuItem searchItem) {
+        final SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // The results are already shown, just hide the keyboard.
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPresenter.setSearchQuery(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        mPresenter.setSearchQuery("");
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        mPresenter.setSearchQuery(null);
+                        return true;
+                    }
+                });
     }
 
     @Override
@@ -198,7 +349,6 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
                         mPresenter.setFiltering(CamerasFilterType.ALL_CAMERAS);
                         break;
                 }
-                mPresenter.loadCameras(false);
                 return true;
             }
         });
@@ -207,7 +357,7 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
     }
 
     /**
-     * Listener for clicks on cameras in the ListView.
+     * Listener for clicks on cameras in the list.
      */
     CameraItemListener mItemListener = new CameraItemListener() {
         @Override
@@ -250,6 +400,7 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
 
         mCamerasView.setVisibility(View.VISIBLE);
         mNoCameraView.setVisibility(View.GONE);
+        onContentShown();
     }
 
     @Override
@@ -279,6 +430,15 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
         );
     }
 
+    @Override
+    public void showNoSearchResults() {
+        showNoCameraViews(
+                getResources().getString(R.string.no_camera_search),
+                R.drawable.ic_assignment_turned_in_24dp,
+                false
+        );
+    }
+
     @Override
     public void showSuccessfullySavedMessage() {
         showMessage(getString(R.string.successfully_saved_camera_message));
@@ -291,6 +451,21 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
         mNoCameraMainView.setText(mainText);
         mNoCameraIcon.setImageDrawable(getResources().getDrawable(iconRes));
         mNoCameraAddView.setVisibility(showAddView ? View.VISIBLE : View.GONE);
+        onContentShown();
+    }
+
+    /**
+     * Ends the cold start the first time cameras, or their absence, are shown.
+     */
+    private void onContentShown() {
+        StartupTrace startupTrace = StartupTrace.getInstance();
+        if (startupTrace.isFinished()) {
+            return;
+        }
+        startupTrace.finish(getContext(), Injection.provideAppExecutors().diskIO());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            getActivity().reportFullyDrawn();
+        }
     }
 
     @Override
@@ -352,72 +527,143 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
         return isAdded();
     }
 
-    private static class CamerasAdapter extends BaseAdapter {
+    /**
+     * Shows the cameras with one {@link CameraViewHolder} per visible row. A new list is diffed
+     * with the shown one on {@link AppExecutors#computation()}, so only the rows that changed are
+     * bound again. Ids are stable, so rows keep their views when cameras move.
+     */
+    private static class CamerasAdapter extends RecyclerView.Adapter<CameraViewHolder> {
+
+        private final CameraItemListener mItemListener;
+
+        private final AppExecutors mAppExecutors;
 
         private List<Camera> mCameras;
-        private CameraItemListener mItemListener;
 
-        public CamerasAdapter(List<Camera> cameras, CameraItemListener itemListener) {
-            setList(cameras);
-            mItemListener = itemListener;
+        /**
+         * Rows inflated ahead of time, used before inflating new ones.
+         */
+        private final List<View> mPreinflatedRows = new ArrayList<>();
+
+        /**
+         * Row ids of the camera ids seen so far, since a {@link RecyclerView} id is a long.
+         */
+        private final Map<String, Long> mItemIds = new HashMap<>();
+
+        /**
+         * Incremented for each new list, so a diff finishing after a newer list was submitted is
+         * dropped.
+         */
+        private int mGeneration = 0;
+
+        public CamerasAdapter(List<Camera> cameras, CameraItemListener itemListener,
+                              AppExecutors appExecutors) {
+            mCameras = checkNotNull(cameras);
+            mItemListener = checkNotNull(itemListener);
+            mAppExecutors = checkNotNull(appExecutors);
+            setHasStableIds(true);
         }
 
         public void replaceData(List<Camera> cameras) {
-            setList(cameras);
-            notifyDataSetChanged();
-        }
+            final List<Camera> oldCameras = mCameras;
+            final List<Camera> newCameras = new ArrayList<>(checkNotNull(cameras));
+            final int generation = ++mGeneration;
+            if (oldCameras.isEmpty() || newCameras.isEmpty()) {
+                // Nothing to diff.
+                mCameras = newCameras;
+                notifyDataSetChanged();
+                return;
+            }
 
-        private void setList(List<Camera> cameras) {
-            mCameras = checkNotNull(cameras);
+            EspressoIdlingResource.increment(); // App is busy until the diff is applied.
+            mAppExecutors.computation().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                            new CamerasDiffCallback(oldCameras, newCameras), false);
+                    mAppExecutors.mainThread().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == mGeneration) {
+                                FrameMonitor.getInstance().beginWork(
+                                        "CamerasAdapter.dispatchUpdates");
+                                mCameras = newCameras;
+                                diff.dispatchUpdatesTo(CamerasAdapter.this);
+                                FrameMonitor.getInstance().endWork();
+                            }
+                            EspressoIdlingResource.decrement();
+                        }
+                    });
+                }
+            });
         }
 
         @Override
-        public int getCount() {
+        public int getItemCount() {
             return mCameras.size();
         }
 
         @Override
-        public Camera getItem(int i) {
-            return mCameras.get(i);
+        public long getItemId(int position) {
+            String cameraId = mCameras.get(position).getId();
+            Long itemId = mItemIds.get(cameraId);
+            if (itemId == null) {
+                itemId = (long) mItemIds.size();
+                mItemIds.put(cameraId, itemId);
+            }
+            return itemId;
+        }
+
+        void addPreinflatedRow(@NonNull View rowView) {
+            mPreinflatedRows.add(checkNotNull(rowView));
+        }
+
+        void clearPreinflatedRows() {
+            mPreinflatedRows.clear();
         }
 
         @Override
-        public long getItemId(int i) {
-            return i;
+        public CameraViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View rowView = !mPreinflatedRows.isEmpty()
+                    ? mPreinflatedRows.remove(mPreinflatedRows.size() - 1)
+                    : LayoutInflater.from(parent.getContext())
+                            .inflate(R.layout.camera_item, parent, false);
+            return new CameraViewHolder(rowView, mItemListener);
         }
 
         @Override
-        public View getView(int i, View view, ViewGroup viewGroup) {
-            View rowView = view;
-            if (rowView == null) {
-                LayoutInflater inflater = LayoutInflater.from(viewGroup.getContext());
-                rowView = inflater.inflate(R.layout.camera_item, viewGroup, false);
-            }
+        public void onBindViewHolder(CameraViewHolder holder, int position) {
+            FrameMonitor.getInstance().beginWork("CamerasAdapter.onBindViewHolder");
+            holder.bind(mCameras.get(position));
+            FrameMonitor.getInstance().endWork();
+        }
+    }
 
-            final Camera camera = getItem(i);
+    /**
+     * The views of a row, looked up and given their listeners once when the row is created.
+     */
+    private static class CameraViewHolder extends RecyclerView.ViewHolder {
 
-            TextView titleTV = (TextView) rowView.findViewById(R.id.title);
-            titleTV.setText(camera.getTitleForList());
+        private final TextView mTitleView;
 
-            CheckBox closeCB = (CheckBox) rowView.findViewById(R.id.closed);
+        private final CompoundButton mClosedView;
 
-            // Active/closed camera UI
-            closeCB.setChecked(camera.isClosed());
-            if (camera.isClosed()) {
-                rowView.setBackgroundDrawable(viewGroup.getContext()
-                        .getResources().getDrawable(R.drawable.list_closed_touch_feedback));
-            } else {
-                rowView.setBackgroundDrawable(viewGroup.getContext()
-                        .getResources().getDrawable(R.drawable.touch_feedback));
-            }
+        private Camera mCamera;
+
+        private Boolean mShowsClosedBackground;
 
-            closeCB.setOnClickListener(new View.OnClickListener() {
+        CameraViewHolder(View rowView, final CameraItemListener itemListener) {
+            super(rowView);
+            mTitleView = (TextView) rowView.findViewById(R.id.title);
+            mClosedView = (CompoundButton) rowView.findViewById(R.id.closed);
+
+            mClosedView.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (!camera.isClosed()) {
-                        mItemListener.onClosedCameraClick(camera);
+                    if (!mCamera.isClosed()) {
+                        itemListener.onClosedCameraClick(mCamera);
                     } else {
-                        mItemListener.onActivateCameraClick(camera);
+                        itemListener.onActivateCameraClick(mCamera);
                     }
                 }
             });
@@ -425,11 +671,62 @@ public class CamerasFragment extends Fragment implements CamerasContract.View {
             rowView.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    mItemListener.onCameraClick(camera);
+                    itemListener.onCameraClick(mCamera);
                 }
             });
+        }
+
+        void bind(Camera camera) {
+            mCamera = camera;
+            mTitleView.setText(camera.getTitleForList());
+
+            // Active/closed camera UI
+            mClosedView.setChecked(camera.isClosed());
+            if (mShowsClosedBackground == null || mShowsClosedBackground != camera.isClosed()) {
+                itemView.setBackgroundResource(camera.isClosed()
+                        ? R.drawable.list_closed_touch_feedback : R.drawable.touch_feedback);
+                mShowsClosedBackground = camera.isClosed();
+            }
+        }
+    }
+
+    /**
+     * Rows are the same camera if they have the same id, and need no new binding if the camera
+     * shows the same title and state.
+     */
+    private static class CamerasDiffCallback extends DiffUtil.Callback {
 
-            return rowView;
+        private final List<Camera> mOldCameras;
+
+        private final List<Camera> mNewCameras;
+
+        CamerasDiffCallback(List<Camera> oldCameras, List<Camera> newCameras) {
+            mOldCameras = oldCameras;
+            mNewCameras = newCameras;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldCameras.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewCameras.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldCameras.get(oldItemPosition).getId()
+                    .equals(mNewCameras.get(newItemPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Camera oldCamera = mOldCameras.get(oldItemPosition);
+            Camera newCamera = mNewCameras.get(newItemPosition);
+            return Objects.equal(oldCamera.getTitleForList(), newCamera.getTitleForList())
+                    && oldCamera.isClosed() == newCamera.isClosed();
         }
     }
 
@@ -18,16 +18,25 @@ package com.ecompany.antoine.emotionapp.cameras;
 
 import android.app.Activity;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 
 import com.ecompany.antoine.emotionapp.addeditcamera.AddEditCameraActivity;
 import com.ecompany.antoine.emotionapp.data.Camera;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
 import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
 import com.ecompany.antoine.emotionapp.util.EspressoIdlingResource;
+import com.ecompany.antoine.emotionapp.util.FrameMonitor;
+import com.ecompany.antoine.emotionapp.util.ReloadCoalescer;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -38,26 +47,136 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class CamerasPresenter implements CamerasContract.Presenter {
 
-    private final CamerasRepository mCamerasRepository;
+    /**
+     * Edits and pushed changes arriving within this window are shown with a single refresh of the
+     * list.
+     */
+    private static final long REFRESH_WINDOW_MILLIS = 100;
+
+    /**
+     * Most cameras shown for a search, several screens of them.
+     */
+    private static final int MAX_SEARCH_RESULTS = 500;
+
+    /**
+     * Created by the first call to {@link #start()}, so that opening the data layer stays off the
+     * startup critical path.
+     */
+    private final Supplier<CamerasRepository> mCamerasRepository;
 
     private final CamerasContract.View mCamerasView;
 
+    private final AppExecutors mAppExecutors;
+
     private CamerasFilterType mCurrentFiltering = CamerasFilterType.ALL_CAMERAS;
 
+    private CamerasSortType mCurrentSorting = CamerasSortType.ADDED;
+
+    /**
+     * The last cameras loaded, for every filter and in order, so the filter and the order can
+     * change without a reload. Built off the main thread from every list of cameras loaded, and
+     * swapped in on the main thread.
+     */
+    private CamerasProjections mProjections = new CamerasProjections(mCurrentSorting);
+
+    /**
+     * Counts the builds of the projections, only the latest one is swapped in.
+     */
+    private int mProjectionsGeneration = 0;
+
+    /**
+     * The cameras edited since the latest build of the projections started, like
+     * {@link #mSearchIndexEdits}. Null when no build is running.
+     */
+    @Nullable
+    private Map<String, Camera> mProjectionsEdits;
+
+    /**
+     * The search, null while the search box is closed.
+     */
+    @Nullable
+    private String mSearchQuery;
+
+    /**
+     * Built off the main thread the first time the search box opens, then built again off the
+     * main thread from every list of cameras loaded, and swapped in on the main thread.
+     */
+    @Nullable
+    private CamerasSearchIndex mSearchIndex;
+
+    /**
+     * Counts the builds of the search index, only the latest one is swapped in.
+     */
+    private int mSearchIndexGeneration = 0;
+
+    /**
+     * The cameras edited since the latest build of the search index started, to edit again in the
+     * index it builds: the latest version of each, or null if it was removed. Null when no build
+     * is running.
+     */
+    @Nullable
+    private Map<String, Camera> mSearchIndexEdits;
+
+    private final ReloadCoalescer mRefreshCoalescer;
+
+    /**
+     * True if the next refresh must load the cameras again rather than show the projections.
+     */
+    private boolean mReloadRequested = false;
+
     private boolean mFirstLoad = true;
 
-    public CamerasPresenter(@NonNull CamerasRepository CamerasRepository, @NonNull CamerasContract.View CamerasView) {
+    /**
+     * Shows the cameras again when remote changes are pushed into the repository.
+     */
+    private final CamerasRepository.CamerasObserver mCamerasObserver =
+            new CamerasRepository.CamerasObserver() {
+                @Override
+                public void onCamerasChanged() {
+                    requestRefresh(true);
+                }
+            };
+
+    public CamerasPresenter(@NonNull Supplier<CamerasRepository> CamerasRepository,
+                            @NonNull CamerasContract.View CamerasView,
+                            @NonNull AppExecutors appExecutors) {
+        this(CamerasRepository, CamerasView, appExecutors, ReloadCoalescer.mainThreadScheduler());
+    }
+
+    /**
+     * @param refreshScheduler ends the {@link #REFRESH_WINDOW_MILLIS} windows
+     */
+    @VisibleForTesting
+    CamerasPresenter(@NonNull Supplier<CamerasRepository> CamerasRepository,
+                     @NonNull CamerasContract.View CamerasView,
+                     @NonNull AppExecutors appExecutors,
+                     @NonNull ReloadCoalescer.Scheduler refreshScheduler) {
         mCamerasRepository = checkNotNull(CamerasRepository, "camerasRepository cannot be null");
         mCamerasView = checkNotNull(CamerasView, "camerasView cannot be null!");
+        mAppExecutors = checkNotNull(appExecutors, "appExecutors cannot be null!");
+        mRefreshCoalescer = new ReloadCoalescer(REFRESH_WINDOW_MILLIS, new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, refreshScheduler);
 
         mCamerasView.setPresenter(this);
     }
 
     @Override
     public void start() {
+        mCamerasRepository.get().addObserver(mCamerasObserver);
         loadCameras(false);
     }
 
+    @Override
+    public void stop() {
+        mCamerasRepository.get().removeObserver(mCamerasObserver);
+        mRefreshCoalescer.cancel();
+        mReloadRequested = false;
+    }
+
     @Override
     public void result(int requestCode, int resultCode) {
         // If a Camera was successfully added, show snackbar
@@ -77,75 +196,77 @@ public class CamerasPresenter implements CamerasContract.Presenter {
      * @param forceUpdate   Pass in true to refresh the data in the {@link CamerasDataSource}
      * @param showLoadingUI Pass in true to display a loading icon in the UI
      */
-    private void loadCameras(boolean forceUpdate, final boolean showLoadingUI) {
+    private void loadCameras(boolean forceUpdate, boolean showLoadingUI) {
         if (showLoadingUI) {
             mCamerasView.setLoadingIndicator(true);
         }
         if (forceUpdate) {
-            mCamerasRepository.refreshCameras();
+            mCamerasRepository.get().refreshCameras();
         }
 
         // The network request might be handled in a different thread so make sure Espresso knows
         // that the app is busy until the response is handled.
         EspressoIdlingResource.increment(); // App is busy until further notice
 
-        mCamerasRepository.getCameras(new CamerasDataSource.LoadCamerasCallback() {
-            @Override
-            public void onCamerasLoaded(List<Camera> cameras) {
-                List<Camera> camerasToShow = new ArrayList<Camera>();
-
-                // This callback may be called twice, once for the cache and once for loading
-                // the data from the server API, so we check before decrementing, otherwise
-                // it throws "Counter has been corrupted!" exception.
-                if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
-                    EspressoIdlingResource.decrement(); // Set app as idle.
-                }
+        mCamerasRepository.get().getCameras(new CamerasLoadCallback(showLoadingUI));
+    }
 
-                // We filter the Cameras based on the requestType
-                for (Camera camera : cameras) {
-                    switch (mCurrentFiltering) {
-                        case ALL_CAMERAS:
-                            camerasToShow.add(camera);
-                            break;
-                        case ACTIVE_CAMERAS:
-                            if (camera.isActive()) {
-                                camerasToShow.add(camera);
-                            }
-                            break;
-                        case CLOSED_CAMERAS:
-                            if (camera.isClosed()) {
-                                camerasToShow.add(camera);
-                            }
-                            break;
-                        default:
-                            camerasToShow.add(camera);
-                            break;
-                    }
-                }
-                // The view may not be able to handle UI updates anymore
-                if (!mCamerasView.isActive()) {
-                    return;
-                }
-                if (showLoadingUI) {
-                    mCamerasView.setLoadingIndicator(false);
-                }
+    /**
+     * Shows the loaded cameras. On a first load from the network the repository also reports the
+     * cameras received so far, which are shown right away while the loading indicator stays on.
+     * <p>
+     * A load behind the loading indicator is one the user waits for, the others only update the
+     * list on screen.
+     */
+    private class CamerasLoadCallback
+            implements CamerasDataSource.LoadCamerasCallback, CamerasDataSource.CamerasChunkListener,
+            CamerasDataSource.PrioritizedCallback {
+
+        private final boolean mShowLoadingUI;
+
+        CamerasLoadCallback(boolean showLoadingUI) {
+            mShowLoadingUI = showLoadingUI;
+        }
 
-                processCameras(camerasToShow);
+        @NonNull
+        @Override
+        public CamerasDataSource.RequestPriority getRequestPriority() {
+            return mShowLoadingUI ? CamerasDataSource.RequestPriority.INTERACTIVE
+                    : CamerasDataSource.RequestPriority.VISIBLE_PREFETCH;
+        }
+
+        @Override
+        public void onCamerasChunkLoaded(List<Camera> cameras) {
+            replaceProjections(cameras, true, false);
+        }
+
+        @Override
+        public void onCamerasLoaded(List<Camera> cameras) {
+            // This callback may be called twice, once for the cache and once for loading
+            // the data from the server API, so we check before decrementing, otherwise
+            // it throws "Counter has been corrupted!" exception.
+            if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                EspressoIdlingResource.decrement(); // Set app as idle.
             }
 
-            @Override
-            public void onDataNotAvailable() {
-                // The view may not be able to handle UI updates anymore
-                if (!mCamerasView.isActive()) {
-                    return;
-                }
-                mCamerasView.showLoadingCamerasError();
+            replaceProjections(cameras, false, mShowLoadingUI);
+            updateSearchIndex(cameras);
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            // The view may not be able to handle UI updates anymore
+            if (!mCamerasView.isActive()) {
+                return;
             }
-        });
+            mCamerasView.showLoadingCamerasError();
+        }
     }
 
     private void processCameras(List<Camera> cameras) {
-        if (cameras.isEmpty()) {
+        if (cameras.isEmpty() && isSearching()) {
+            mCamerasView.showNoSearchResults();
+        } else if (cameras.isEmpty()) {
             // Show a message indicating there are no Cameras for that filter type.
             processEmptyCameras();
         } else {
@@ -198,28 +319,269 @@ public class CamerasPresenter implements CamerasContract.Presenter {
     @Override
     public void closeCamera(@NonNull Camera closedCamera) {
         checkNotNull(closedCamera, "closedCamera cannot be null!");
-        mCamerasRepository.closeCamera(closedCamera);
+        mCamerasRepository.get().closeCamera(closedCamera);
         mCamerasView.showCameraMarkedClosed();
-        loadCameras(false, false);
+        updateProjections(new Camera(closedCamera.getTitle(), closedCamera.getDescription(),
+                closedCamera.getId(), true));
     }
 
     @Override
     public void activateCamera(@NonNull Camera activeCamera) {
         checkNotNull(activeCamera, "activeCamera cannot be null!");
-        mCamerasRepository.activateCamera(activeCamera);
+        mCamerasRepository.get().activateCamera(activeCamera);
         mCamerasView.showCameraMarkedActive();
-        loadCameras(false, false);
+        updateProjections(new Camera(activeCamera.getTitle(), activeCamera.getDescription(),
+                activeCamera.getId()));
     }
 
     @Override
     public void clearClosedCameras() {
-        mCamerasRepository.clearClosedCameras();
+        mCamerasRepository.get().clearClosedCameras();
         mCamerasView.showClosedCamerasCleared();
-        loadCameras(false, false);
+        if (mProjections.isLoaded()) {
+            for (Camera camera : mProjections.get(CamerasFilterType.CLOSED_CAMERAS)) {
+                editProjections(camera.getId(), null);
+                editSearchIndex(camera.getId(), null);
+            }
+        }
+        requestRefresh(false);
+    }
+
+    /**
+     * Shows {@code camera} as the repository now has it, without loading the other cameras again.
+     */
+    private void updateProjections(@NonNull Camera camera) {
+        editProjections(camera.getId(), camera);
+        editSearchIndex(camera.getId(), camera);
+        requestRefresh(false);
+    }
+
+    /**
+     * Puts {@code camera} in the projections, or removes {@code cameraId} if it is null, and
+     * keeps the edit for the projections being built if any.
+     */
+    private void editProjections(@NonNull String cameraId, @Nullable Camera camera) {
+        if (mProjections.isLoaded()) {
+            if (camera != null) {
+                mProjections.put(camera);
+            } else {
+                mProjections.remove(cameraId);
+            }
+        }
+        if (mProjectionsEdits != null) {
+            mProjectionsEdits.put(cameraId, camera);
+        }
+    }
+
+    /**
+     * Sorts {@code cameras} into new projections off the main thread, with the local change
+     * versions written since the previous build, then swaps them in and shows them on the main
+     * thread, unless later cameras were loaded meanwhile.
+     *
+     * @param chunk                Pass in true if more cameras are coming. An empty chunk isn't
+     *                             shown, the rest of the list may still match the filter
+     * @param hideLoadingIndicator Pass in true if the loading indicator is on until the cameras
+     *                             are loaded
+     */
+    private void replaceProjections(@NonNull List<Camera> cameras, final boolean chunk,
+                                    final boolean hideLoadingIndicator) {
+        final int generation = ++mProjectionsGeneration;
+        mProjectionsEdits = new HashMap<>();
+        final List<Camera> snapshot = new ArrayList<>(cameras);
+        final CamerasSortType sortType = mCurrentSorting;
+        final CamerasProjections.Keys previousKeys = mProjections.getBuiltKeys();
+        final CamerasRepository camerasRepository = mCamerasRepository.get();
+        EspressoIdlingResource.increment(); // App is busy until the projections are swapped in.
+        mAppExecutors.computation().execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Long> versions = camerasRepository.getCameraVersionsSince(
+                        previousKeys.getLatestVersion());
+                final CamerasProjections projections =
+                        CamerasProjections.build(sortType, snapshot, previousKeys, versions);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        FrameMonitor.getInstance().beginWork("CamerasPresenter.onProjectionsBuilt");
+                        try {
+                            boolean latest = generation == mProjectionsGeneration;
+                            if (latest) {
+                                onProjectionsBuilt(projections);
+                            }
+                            // The view may not be able to handle UI updates anymore
+                            if (!mCamerasView.isActive()) {
+                                return;
+                            }
+                            if (hideLoadingIndicator) {
+                                mCamerasView.setLoadingIndicator(false);
+                            }
+                            List<Camera> camerasToShow = getCamerasToShow();
+                            if (latest && !(chunk && camerasToShow.isEmpty())) {
+                                processCameras(camerasToShow);
+                            }
+                        } finally {
+                            FrameMonitor.getInstance().endWork();
+                            EspressoIdlingResource.decrement();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void onProjectionsBuilt(@NonNull CamerasProjections projections) {
+        projections.setSortType(mCurrentSorting);
+        for (Map.Entry<String, Camera> edit : mProjectionsEdits.entrySet()) {
+            if (edit.getValue() != null) {
+                projections.put(edit.getValue());
+            } else {
+                projections.remove(edit.getKey());
+            }
+        }
+        mProjectionsEdits = null;
+        mProjections = projections;
+    }
+
+    /**
+     * Refreshes the list at the end of the current {@link #REFRESH_WINDOW_MILLIS} window, so a
+     * burst of edits renders it once.
+     *
+     * @param reload Pass in true if the cameras changed in the repository and must be loaded again
+     */
+    private void requestRefresh(boolean reload) {
+        mReloadRequested |= reload;
+        mRefreshCoalescer.request();
+    }
+
+    private void refresh() {
+        FrameMonitor.getInstance().beginWork("CamerasPresenter.refresh");
+        try {
+            boolean reload = mReloadRequested || !mProjections.isLoaded();
+            mReloadRequested = false;
+            if (reload) {
+                loadCameras(false, false);
+            } else {
+                showProjection();
+            }
+        } finally {
+            FrameMonitor.getInstance().endWork();
+        }
+    }
+
+    private void showProjection() {
+        if (mCamerasView.isActive()) {
+            processCameras(getCamerasToShow());
+        }
+    }
+
+    /**
+     * Returns the cameras that pass the filter and, once the index is ready, the search, in the
+     * current order.
+     */
+    @NonNull
+    private List<Camera> getCamerasToShow() {
+        if (!isSearching() || mSearchIndex == null) {
+            return mProjections.get(mCurrentFiltering);
+        }
+        final CamerasFilterType filtering = mCurrentFiltering;
+        return mProjections.sort(mSearchIndex.search(mSearchQuery, MAX_SEARCH_RESULTS,
+                new Predicate<Camera>() {
+                    @Override
+                    public boolean apply(Camera camera) {
+                        return CamerasProjections.matches(filtering, camera);
+                    }
+                }));
+    }
+
+    private boolean isSearching() {
+        return mSearchQuery != null && !mSearchQuery.trim().isEmpty();
+    }
+
+    /**
+     * Shows the cameras whose title has words starting with the words of {@code query}, right
+     * away: a search of the index takes well under a millisecond.
+     */
+    @Override
+    public void setSearchQuery(@Nullable String query) {
+        mSearchQuery = query;
+        if (query != null && mSearchIndex == null && mSearchIndexEdits == null
+                && mProjections.isLoaded()) {
+            buildSearchIndex(mProjections.get(CamerasFilterType.ALL_CAMERAS));
+        }
+        if (mProjections.isLoaded()) {
+            showProjection();
+        }
+    }
+
+    /**
+     * Builds the search index again from {@code cameras} if it is in use.
+     */
+    private void updateSearchIndex(@NonNull List<Camera> cameras) {
+        if (mSearchIndex != null || mSearchIndexEdits != null || mSearchQuery != null) {
+            buildSearchIndex(cameras);
+        }
     }
 
     /**
-     * Sets the current Camera filtering type.
+     * Puts {@code camera} in the search index, or removes {@code cameraId} if it is null, and
+     * keeps the edit for the index being built if any.
+     */
+    private void editSearchIndex(@NonNull String cameraId, @Nullable Camera camera) {
+        if (mSearchIndex != null) {
+            if (camera != null) {
+                mSearchIndex.put(camera);
+            } else {
+                mSearchIndex.remove(cameraId);
+            }
+        }
+        if (mSearchIndexEdits != null) {
+            mSearchIndexEdits.put(cameraId, camera);
+        }
+    }
+
+    /**
+     * Indexes {@code cameras} off the main thread, while searches keep using the current index.
+     */
+    private void buildSearchIndex(@NonNull List<Camera> cameras) {
+        final int generation = ++mSearchIndexGeneration;
+        mSearchIndexEdits = new HashMap<>();
+        final List<Camera> snapshot = new ArrayList<>(cameras);
+        EspressoIdlingResource.increment(); // App is busy until the index is swapped in.
+        mAppExecutors.computation().execute(new Runnable() {
+            @Override
+            public void run() {
+                final CamerasSearchIndex searchIndex = new CamerasSearchIndex(snapshot);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mSearchIndexGeneration) {
+                            onSearchIndexBuilt(searchIndex);
+                        }
+                        EspressoIdlingResource.decrement();
+                    }
+                });
+            }
+        });
+    }
+
+    private void onSearchIndexBuilt(@NonNull CamerasSearchIndex searchIndex) {
+        for (Map.Entry<String, Camera> edit : mSearchIndexEdits.entrySet()) {
+            if (edit.getValue() != null) {
+                searchIndex.put(edit.getValue());
+            } else {
+                searchIndex.remove(edit.getKey());
+            }
+        }
+        mSearchIndexEdits = null;
+        mSearchIndex = searchIndex;
+        if (isSearching() && mProjections.isLoaded()) {
+            showProjection();
+        }
+    }
+
+    /**
+     * Sets the current Camera filtering type, and shows the cameras that pass it if there are
+     * cameras loaded already.
      *
      * @param requestType Can be {@link CamerasFilterType#ALL_CAMERAS},
      *                    {@link CamerasFilterType#CLOSED_CAMERAS}, or
@@ -228,6 +590,9 @@ public class CamerasPresenter implements CamerasContract.Presenter {
     @Override
     public void setFiltering(CamerasFilterType requestType) {
         mCurrentFiltering = requestType;
+        if (mProjections.isLoaded()) {
+            showProjection();
+        }
     }
 
     @Override
@@ -235,4 +600,23 @@ public class CamerasPresenter implements CamerasContract.Presenter {
         return mCurrentFiltering;
     }
 
+    /**
+     * Sets the order of the cameras, and shows them in it if there are cameras loaded already.
+     * The projections sort again with the keys they already have, without loading the cameras.
+     */
+    @Override
+    public void setSorting(@NonNull CamerasSortType sortType) {
+        mCurrentSorting = checkNotNull(sortType);
+        mProjections.setSortType(sortType);
+        if (mProjections.isLoaded()) {
+            showProjection();
+        }
+    }
+
+    @NonNull
+    @Override
+    public CamerasSortType getSorting() {
+        return mCurrentSorting;
+    }
+
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.cameras;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.google.common.base.Strings;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The cameras shown for each {@link CamerasFilterType}, kept up to date and in order as cameras
+ * change so that switching filters doesn't go through the whole list again.
+ * <p>
+ * The projections are sorted by a {@link CamerasSortType}. {@link CamerasSortType#ADDED} is the
+ * order of the list they were built from, new cameras coming last, and
+ * {@link CamerasSortType#RECENTLY_CHANGED} the order of the local change versions of the cameras,
+ * which the local data source keeps across restarts. Every camera gets a {@link SortKey} holding
+ * what it is sorted by, computed once: the collation key of its title is only computed again when
+ * the title changes, so that sorting compares bytes instead of going through the {@link Collator}
+ * on every comparison.
+ * <p>
+ * Projections are built off the main thread by {@link #build}, which reuses the keys of the
+ * previous build, then used on the main thread, where a camera that changes moves to its new place
+ * in {@code O(log n)}. The list of a projection is only copied again after it changed.
+ */
+class CamerasProjections {
+
+    /**
+     * What a camera is sorted by, taken when it was put.
+     */
+    private static final class SortKey {
+
+        private final Camera mCamera;
+
+        private final CollationKey mTitleKey;
+
+        /**
+         * Place of the camera in the order of the list.
+         */
+        private final int mPosition;
+
+        /**
+         * Local change version of the camera, see {@link CamerasSortType#RECENTLY_CHANGED}.
+         */
+        private final long mVersion;
+
+        SortKey(@NonNull Camera camera, @NonNull CollationKey titleKey, int position,
+                long version) {
+            mCamera = camera;
+            mTitleKey = titleKey;
+            mPosition = position;
+            mVersion = version;
+        }
+    }
+
+    /**
+     * The keys of a build, for the next one to reuse. Never changed, so it can be read on any
+     * thread.
+     */
+    static final class Keys {
+
+        static final Keys NONE = new Keys(Collections.<String, SortKey>emptyMap(), 0);
+
+        private final Map<String, SortKey> mKeys;
+
+        /**
+         * The latest local change version read, the next build only reads the ones after it.
+         */
+        private final long mLatestVersion;
+
+        private Keys(@NonNull Map<String, SortKey> keys, long latestVersion) {
+            mKeys = keys;
+            mLatestVersion = latestVersion;
+        }
+
+        long getLatestVersion() {
+            return mLatestVersion;
+        }
+    }
+
+    private static final Comparator<SortKey> BY_POSITION = new Comparator<SortKey>() {
+        @Override
+        public int compare(SortKey first, SortKey second) {
+            return compareInts(first.mPosition, second.mPosition);
+        }
+    };
+
+    private static final Comparator<SortKey> BY_TITLE = new Comparator<SortKey>() {
+        @Override
+        public int compare(SortKey first, SortKey second) {
+            int result = first.mTitleKey.compareTo(second.mTitleKey);
+            return result != 0 ? result : BY_POSITION.compare(first, second);
+        }
+    };
+
+    private static final Comparator<SortKey> BY_STATUS = new Comparator<SortKey>() {
+        @Override
+        public int compare(SortKey first, SortKey second) {
+            boolean firstClosed = first.mCamera.isClosed();
+            if (firstClosed != second.mCamera.isClosed()) {
+                return firstClosed ? 1 : -1;
+            }
+            return BY_POSITION.compare(first, second);
+        }
+    };
+
+    private static final Comparator<SortKey> BY_VERSION = new Comparator<SortKey>() {
+        @Override
+        public int compare(SortKey first, SortKey second) {
+            // Latest first. A local write stamps all the cameras it writes with one version.
+            int result = compareLongs(second.mVersion, first.mVersion);
+            return result != 0 ? result : BY_POSITION.compare(first, second);
+        }
+    };
+
+    private final Collator mCollator = Collator.getInstance();
+
+    private final Map<String, SortKey> mKeys = new HashMap<>();
+
+    private final Map<CamerasFilterType, TreeSet<SortKey>> mCameras =
+            new EnumMap<>(CamerasFilterType.class);
+
+    /**
+     * Copies of the projections handed out, dropped when they change.
+     */
+    private final Map<CamerasFilterType, List<Camera>> mLists =
+            new EnumMap<>(CamerasFilterType.class);
+
+    private CamerasSortType mSortType;
+
+    private int mNextPosition = 0;
+
+    /**
+     * The keys as built, see {@link #getBuiltKeys()}.
+     */
+    private Keys mBuiltKeys = Keys.NONE;
+
+    /**
+     * Given to the cameras changed on the main thread, until the next build reads the versions
+     * their local writes got.
+     */
+    private long mNextEditVersion = 1;
+
+    private boolean mLoaded = false;
+
+    CamerasProjections(@NonNull CamerasSortType sortType) {
+        mSortType = checkNotNull(sortType);
+        createProjections();
+    }
+
+    /**
+     * Returns projections holding {@code cameras}, in this order, sorted by {@code sortType}.
+     * {@code versions} are the local change versions read after
+     * {@link Keys#getLatestVersion()} of {@code previous}, whose keys are reused for the cameras
+     * that didn't change. Can run on any thread, the projections returned must then be used on
+     * one.
+     */
+    @NonNull
+    static CamerasProjections build(@NonNull CamerasSortType sortType,
+            @NonNull List<Camera> cameras, @NonNull Keys previous,
+            @NonNull Map<String, Long> versions) {
+        CamerasProjections projections = new CamerasProjections(sortType);
+        long latestVersion = previous.mLatestVersion;
+        for (Long version : versions.values()) {
+            latestVersion = Math.max(latestVersion, version);
+        }
+        for (Camera camera : cameras) {
+            SortKey previousKey = previous.mKeys.get(camera.getId());
+            Long version = versions.get(camera.getId());
+            SortKey key = projections.createKey(camera, previousKey,
+                    projections.mNextPosition++, version != null ? version
+                            : previousKey != null ? previousKey.mVersion : 0);
+            projections.mKeys.put(camera.getId(), key);
+            projections.addToProjections(key);
+        }
+        projections.mBuiltKeys = new Keys(new HashMap<>(projections.mKeys), latestVersion);
+        projections.mNextEditVersion = latestVersion + 1;
+        projections.mLoaded = true;
+        return projections;
+    }
+
+    /**
+     * Returns true once built from a list of cameras.
+     */
+    boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the keys as they were built, without the changes made since, for the next build.
+     */
+    @NonNull
+    Keys getBuiltKeys() {
+        return mBuiltKeys;
+    }
+
+    @NonNull
+    CamerasSortType getSortType() {
+        return mSortType;
+    }
+
+    /**
+     * Sorts the projections again by {@code sortType}, with the keys already computed.
+     */
+    void setSortType(@NonNull CamerasSortType sortType) {
+        if (mSortType == checkNotNull(sortType)) {
+            return;
+        }
+        mSortType = sortType;
+        createProjections();
+        mLists.clear();
+        for (SortKey key : mKeys.values()) {
+            addToProjections(key);
+        }
+    }
+
+    /**
+     * Adds {@code camera} at the end, or moves it to its new place if it is already there. A
+     * camera that changed becomes the latest changed.
+     */
+    void put(@NonNull Camera camera) {
+        SortKey previous = mKeys.get(camera.getId());
+        if (previous != null && !hasChanged(previous.mCamera, camera)) {
+            return;
+        }
+        if (previous != null) {
+            removeFromProjections(previous);
+        }
+        SortKey key = createKey(camera, previous,
+                previous != null ? previous.mPosition : mNextPosition++, mNextEditVersion++);
+        mKeys.put(camera.getId(), key);
+        addToProjections(key);
+    }
+
+    void remove(@NonNull String cameraId) {
+        SortKey key = mKeys.remove(checkNotNull(cameraId));
+        if (key != null) {
+            removeFromProjections(key);
+        }
+    }
+
+    /**
+     * Returns the cameras that pass {@code filterType}, in order. The list must not be changed.
+     */
+    @NonNull
+    List<Camera> get(@NonNull CamerasFilterType filterType) {
+        List<Camera> cameras = mLists.get(filterType);
+        if (cameras == null) {
+            TreeSet<SortKey> projection = mCameras.get(filterType);
+            List<Camera> copy = new ArrayList<>(projection.size());
+            for (SortKey key : projection) {
+                copy.add(key.mCamera);
+            }
+            cameras = Collections.unmodifiableList(copy);
+            mLists.put(filterType, cameras);
+        }
+        return cameras;
+    }
+
+    /**
+     * Returns {@code cameras} in the order of the projections, without the ones they don't hold.
+     */
+    @NonNull
+    List<Camera> sort(@NonNull List<Camera> cameras) {
+        List<SortKey> keys = new ArrayList<>(cameras.size());
+        for (Camera camera : cameras) {
+            SortKey key = mKeys.get(camera.getId());
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys, comparatorFor(mSortType));
+        List<Camera> sorted = new ArrayList<>(keys.size());
+        for (SortKey key : keys) {
+            sorted.add(key.mCamera);
+        }
+        return sorted;
+    }
+
+    static boolean matches(@NonNull CamerasFilterType filterType, @NonNull Camera camera) {
+        switch (filterType) {
+            case ACTIVE_CAMERAS:
+                return camera.isActive();
+            case CLOSED_CAMERAS:
+                return camera.isClosed();
+            default:
+                return true;
+        }
+    }
+
+    private void createProjections() {
+        Comparator<SortKey> comparator = comparatorFor(mSortType);
+        for (CamerasFilterType filterType : CamerasFilterType.values()) {
+            mCameras.put(filterType, new TreeSet<>(comparator));
+        }
+    }
+
+    /**
+     * Returns the key of {@code camera}, reusing the collation key of {@code previous}, the key
+     * of its former version if any, if the title didn't change.
+     */
+    @NonNull
+    private SortKey createKey(@NonNull Camera camera, @Nullable SortKey previous,
+            int position, long version) {
+        String title = Strings.nullToEmpty(camera.getTitleForList());
+        CollationKey titleKey = previous != null
+                && previous.mTitleKey.getSourceString().equals(title)
+                ? previous.mTitleKey : mCollator.getCollationKey(title);
+        return new SortKey(camera, titleKey, position, version);
+    }
+
+    private void addToProjections(@NonNull SortKey key) {
+        for (CamerasFilterType filterType : CamerasFilterType.values()) {
+            if (matches(filterType, key.mCamera)) {
+                mCameras.get(filterType).add(key);
+                mLists.remove(filterType);
+            }
+        }
+    }
+
+    private void removeFromProjections(@NonNull SortKey key) {
+        for (CamerasFilterType filterType : CamerasFilterType.values()) {
+            if (mCameras.get(filterType).remove(key)) {
+                mLists.remove(filterType);
+            }
+        }
+    }
+
+    private static boolean hasChanged(@NonNull Camera previous, @NonNull Camera camera) {
+        return !previous.equals(camera) || previous.isClosed() != camera.isClosed();
+    }
+
+    @NonNull
+    private static Comparator<SortKey> comparatorFor(@NonNull CamerasSortType sortType) {
+        switch (sortType) {
+            case TITLE:
+                return BY_TITLE;
+            case STATUS:
+                return BY_STATUS;
+            case RECENTLY_CHANGED:
+                return BY_VERSION;
+            default:
+                return BY_POSITION;
+        }
+    }
+
+    private static int compareInts(int first, int second) {
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+
+    private static int compareLongs(long first, long second) {
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.cameras;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Prefix index over the words of the camera titles, for search as you type.
+ * <p>
+ * Titles are split into words, which are lower-cased and stripped of their accents. The index is
+ * a sorted map from every word to the cameras that have it, so the cameras with a word starting
+ * with a prefix are one range of it, found in {@code O(log n)}, and a camera whose title changes
+ * only moves between the words it lost and gained. A search with several words returns the
+ * cameras that have a word starting with each of them.
+ * <p>
+ * This class is not thread-safe. It can be built on any thread, then must be used on one.
+ */
+class CamerasSearchIndex {
+
+    private static final String[] NO_WORDS = new String[0];
+
+    /**
+     * The latest version of an indexed camera and the words of its title.
+     */
+    private static final class Entry {
+
+        Camera mCamera;
+
+        String[] mWords;
+
+        Entry(@NonNull Camera camera, @NonNull String[] words) {
+            mCamera = camera;
+            mWords = words;
+        }
+    }
+
+    private final TreeMap<String, Set<Entry>> mWordEntries = new TreeMap<>();
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    CamerasSearchIndex() {
+    }
+
+    CamerasSearchIndex(@NonNull List<Camera> cameras) {
+        for (Camera camera : cameras) {
+            put(camera);
+        }
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Adds {@code camera}, or updates it, which only touches the words if its title changed.
+     */
+    void put(@NonNull Camera camera) {
+        Entry entry = mEntries.get(camera.getId());
+        if (entry != null && Strings.nullToEmpty(entry.mCamera.getTitle())
+                .equals(Strings.nullToEmpty(camera.getTitle()))) {
+            entry.mCamera = camera;
+            return;
+        }
+        if (entry != null) {
+            removeWords(entry);
+            entry.mCamera = camera;
+            entry.mWords = split(camera.getTitle());
+        } else {
+            entry = new Entry(camera, split(camera.getTitle()));
+            mEntries.put(camera.getId(), entry);
+        }
+        for (String word : entry.mWords) {
+            Set<Entry> entries = mWordEntries.get(word);
+            if (entries == null) {
+                entries = new LinkedHashSet<>();
+                mWordEntries.put(word, entries);
+            }
+            entries.add(entry);
+        }
+    }
+
+    void remove(@NonNull String cameraId) {
+        Entry entry = mEntries.remove(checkNotNull(cameraId));
+        if (entry != null) {
+            removeWords(entry);
+        }
+    }
+
+    /**
+     * Returns at most {@code limit} cameras that match {@code query} and {@code filter}, in the
+     * order of their matching words.
+     */
+    @NonNull
+    List<Camera> search(@NonNull String query, int limit, @NonNull Predicate<Camera> filter) {
+        checkArgument(limit > 0);
+        List<Camera> cameras = new ArrayList<>();
+        String[] prefixes = split(query);
+        if (prefixes.length == 0) {
+            return cameras;
+        }
+        // Go through the range of the longest prefix, the smallest one in general.
+        int longest = 0;
+        for (int i = 1; i < prefixes.length; i++) {
+            if (prefixes[i].length() > prefixes[longest].length()) {
+                longest = i;
+            }
+        }
+        Set<Entry> found = new HashSet<>();
+        String range = prefixes[longest];
+        for (Set<Entry> entries : mWordEntries.subMap(
+                range, true, range + Character.MAX_VALUE, false).values()) {
+            for (Entry entry : entries) {
+                if (filter.apply(entry.mCamera) && matchesOthers(entry.mWords, prefixes, longest)
+                        && found.add(entry)) {
+                    cameras.add(entry.mCamera);
+                    if (cameras.size() == limit) {
+                        return cameras;
+                    }
+                }
+            }
+        }
+        return cameras;
+    }
+
+    /**
+     * Returns the words of {@code text}, lower-cased and without accents, without duplicates.
+     */
+    @NonNull
+    static String[] split(@Nullable String text) {
+        if (text == null || text.isEmpty()) {
+            return NO_WORDS;
+        }
+        String normalized = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) {
+                normalized = stripAccents(text);
+                break;
+            }
+        }
+        normalized = normalized.toLowerCase(Locale.ROOT);
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean inWord = i < normalized.length()
+                    && Character.isLetterOrDigit(normalized.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    @NonNull
+    private static String stripAccents(@NonNull String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type != Character.NON_SPACING_MARK && type != Character.COMBINING_SPACING_MARK
+                    && type != Character.ENCLOSING_MARK) {
+                stripped.append(c);
+            }
+        }
+        return stripped.toString();
+    }
+
+    private void removeWords(@NonNull Entry entry) {
+        for (String word : entry.mWords) {
+            Set<Entry> entries = mWordEntries.get(word);
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    mWordEntries.remove(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if each of {@code prefixes} but the one at {@code skipped} starts a word.
+     */
+    private static boolean matchesOthers(@NonNull String[] words, @NonNull String[] prefixes,
+            int skipped) {
+        for (int i = 0; i < prefixes.length; i++) {
+            if (i == skipped) {
+                continue;
+            }
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(prefixes[i])) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.cameras;
+
+/**
+ * Used with the sort menu in the cameras list.
+ */
+public enum CamerasSortType {
+    /**
+     * The order the cameras were added in.
+     */
+    ADDED,
+
+    /**
+     * Alphabetical order of the titles, in the language of the device.
+     */
+    TITLE,
+
+    /**
+     * Active cameras first, then the closed ones.
+     */
+    STATUS,
+
+    /**
+     * The cameras changed most recently first, as stored locally, so the order survives a
+     * restart.
+     */
+    RECENTLY_CHANGED
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+/**
+ * The time one camera spent active and closed since it was first stored, see
+ * {@link CamerasHistorySource}. Time spent deleted is not counted.
+ */
+public final class CameraStatusTimes {
+
+    private final long mActiveMillis;
+
+    private final long mClosedMillis;
+
+    private final long mSince;
+
+    public CameraStatusTimes(long activeMillis, long closedMillis, long since) {
+        mActiveMillis = activeMillis;
+        mClosedMillis = closedMillis;
+        mSince = since;
+    }
+
+    public long getActiveMillis() {
+        return mActiveMillis;
+    }
+
+    public long getClosedMillis() {
+        return mClosedMillis;
+    }
+
+    /**
+     * Returns when the camera got its current status.
+     */
+    public long getSince() {
+        return mSince;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraStatusTimes{active=" + mActiveMillis + "ms, closed=" + mClosedMillis
+                + "ms, since=" + mSince + '}';
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps a monotonically increasing change version for every camera of an in-memory data source,
+ * and a tombstone for every deleted camera, so the data source can answer
+ * {@link CamerasDataSource#getCamerasChangedSince(long, CamerasDataSource.LoadCameraChangesCallback)}.
+ */
+public class CamerasChangeLog {
+
+    private long mLatestVersion = 0;
+
+    private final Map<String, Long> mVersions = new HashMap<>();
+
+    private final Map<String, Long> mTombstones = new HashMap<>();
+
+    public synchronized long getLatestVersion() {
+        return mLatestVersion;
+    }
+
+    /**
+     * Records that the camera with {@code cameraId} was created or modified.
+     */
+    public synchronized long recordChange(@NonNull String cameraId) {
+        checkNotNull(cameraId);
+        mLatestVersion++;
+        mVersions.put(cameraId, mLatestVersion);
+        mTombstones.remove(cameraId);
+        return mLatestVersion;
+    }
+
+    /**
+     * Records that the camera with {@code cameraId} was deleted, replacing its version with a
+     * tombstone.
+     */
+    public synchronized long recordDeletion(@NonNull String cameraId) {
+        checkNotNull(cameraId);
+        mLatestVersion++;
+        mVersions.remove(cameraId);
+        mTombstones.put(cameraId, mLatestVersion);
+        return mLatestVersion;
+    }
+
+    /**
+     * Returns true if the camera was changed after {@code version}. Cameras the log has never seen
+     * are reported as changed, so they are never silently skipped.
+     */
+    public synchronized boolean hasChangedSince(@NonNull String cameraId, long version) {
+        Long cameraVersion = mVersions.get(cameraId);
+        return cameraVersion == null || cameraVersion > version;
+    }
+
+    /**
+     * Returns the ids of the cameras deleted after {@code version}.
+     */
+    public synchronized List<String> getDeletedSince(long version) {
+        List<String> deletedCameraIds = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : mTombstones.entrySet()) {
+            if (entry.getValue() > version) {
+                deletedCameraIds.add(entry.getKey());
+            }
+        }
+        return deletedCameraIds;
+    }
+}
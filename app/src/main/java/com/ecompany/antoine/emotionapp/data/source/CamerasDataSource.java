@@ -46,10 +46,64 @@ public interface CamerasDataSource {
         void onDataNotAvailable();
     }
 
+    interface LoadCameraChangesCallback {
+
+        void onCameraChangesLoaded(List<Camera> changedCameras, List<String> deletedCameraIds,
+                                   long latestVersion);
+
+        void onDataNotAvailable();
+    }
+
+    /**
+     * Can be implemented by a load callback that wants to show cameras before the whole list has
+     * arrived. Data sources that stream their results report each chunk as it is read, before the
+     * final callback with the complete result. Others ignore it.
+     */
+    interface CamerasChunkListener {
+
+        void onCamerasChunkLoaded(List<Camera> cameras);
+    }
+
+    /**
+     * How urgently the result of a read is needed, from the most to the least urgent.
+     */
+    enum RequestPriority {
+        /**
+         * The user is waiting for it, e.g. after tapping a camera or pulling to refresh.
+         */
+        INTERACTIVE,
+        /**
+         * It will be shown on the screen currently visible.
+         */
+        VISIBLE_PREFETCH,
+        /**
+         * Nothing shows it yet.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * Can be implemented by a callback to give its read a {@link RequestPriority}. Data sources
+     * that queue reads for a limited resource, like the network, serve the most urgent ones
+     * first. Others ignore it.
+     */
+    interface PrioritizedCallback {
+
+        @NonNull
+        RequestPriority getRequestPriority();
+    }
+
     void getCameras(@NonNull LoadCamerasCallback callback);
 
     void getCamera(@NonNull String cameraId, @NonNull GetCameraCallback callback);
 
+    /**
+     * Gets the cameras created or modified after {@code version}, and the ids of the cameras deleted
+     * after it. Pass 0 to get every camera. The {@code latestVersion} reported to the callback is
+     * the one to pass in on the next call.
+     */
+    void getCamerasChangedSince(long version, @NonNull LoadCameraChangesCallback callback);
+
     void saveCamera(@NonNull Camera camera);
 
     void closeCamera(@NonNull Camera camera);
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * History of the status of the cameras: the time each camera spent active and closed, and the
+ * fleet-wide counts over time, rolled up per hour and per day as the cameras change so that
+ * reading a range only reads one row per bucket.
+ */
+public interface CamerasHistorySource {
+
+    long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    interface LoadStatusRollupsCallback {
+
+        void onStatusRollupsLoaded(List<StatusRollup> rollups);
+
+        void onDataNotAvailable();
+    }
+
+    interface GetStatusTimesCallback {
+
+        void onStatusTimesLoaded(CameraStatusTimes statusTimes);
+
+        void onDataNotAvailable();
+    }
+
+    /**
+     * Loads one {@link StatusRollup} per bucket of {@code periodMillis}, {@link #HOUR_MILLIS} or
+     * {@link #DAY_MILLIS}, from the bucket holding {@code fromMillis} to the one holding
+     * {@code toMillis} or now, whichever is earlier, oldest first. Buckets are aligned on the
+     * epoch, so days are UTC days.
+     */
+    void getStatusRollups(long periodMillis, long fromMillis, long toMillis,
+                          @NonNull LoadStatusRollupsCallback callback);
+
+    /**
+     * Note: {@link GetStatusTimesCallback#onDataNotAvailable()} is fired if the camera was never
+     * stored.
+     */
+    void getStatusTimes(@NonNull String cameraId, @NonNull GetStatusTimesCallback callback);
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Hash tree over a set of cameras, kept up to date as cameras change, so two copies of the set
+ * can find where they differ by comparing a few hashes instead of every camera.
+ * <p>
+ * Cameras are spread over {@code 16^depth} buckets, the leaves, by the MD5 of their id: the
+ * bucket is the first {@code 4 * depth} bits of it, so bucket {@code b} of level {@code k}
+ * covers the ids whose hash starts with the {@code k} hex digits of {@code b}. Every node of
+ * level {@code k} has the 16 nodes of level {@code k + 1} that share its digits as children.
+ * <p>
+ * A camera hashes to the first 8 bytes, big-endian, of the MD5 of its id, title, description
+ * and {@code "1"} if closed or {@code "0"}, each followed by a zero byte, with missing fields left
+ * empty. A node hashes to the XOR of the hashes of the cameras under it, so the set hashes the
+ * same whatever the order the cameras were added in, and a change only updates the path from its
+ * bucket to the root. Any copy of the set, server side included, must use the same depth and
+ * hashes.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class CamerasMerkleTree {
+
+    public static final int FANOUT = 16;
+
+    /**
+     * 4096 buckets: about 25 cameras each for 100 000 cameras.
+     */
+    public static final int DEFAULT_DEPTH = 3;
+
+    private static final int MAX_DEPTH = 6;
+
+    private static final String CHARSET = "UTF-8";
+
+    private final int mDepth;
+
+    /**
+     * The node hashes of every level, the root first.
+     */
+    private final long[][] mLevels;
+
+    private final Map<String, Long> mCameraHashes = new HashMap<>();
+
+    private final Map<Integer, Set<String>> mBucketIds = new HashMap<>();
+
+    public CamerasMerkleTree() {
+        this(DEFAULT_DEPTH);
+    }
+
+    public CamerasMerkleTree(int depth) {
+        checkArgument(depth >= 1 && depth <= MAX_DEPTH);
+        mDepth = depth;
+        mLevels = new long[depth + 1][];
+        for (int level = 0; level <= depth; level++) {
+            mLevels[level] = new long[1 << (4 * level)];
+        }
+    }
+
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public int size() {
+        return mCameraHashes.size();
+    }
+
+    public long getRootHash() {
+        return mLevels[0][0];
+    }
+
+    public long getHash(int level, int node) {
+        return mLevels[level][node];
+    }
+
+    /**
+     * Returns the hashes of the {@link #FANOUT} children of each of {@code nodes}, which are on
+     * {@code level}, one after the other.
+     */
+    @NonNull
+    public long[] getChildHashes(int level, @NonNull int[] nodes) {
+        checkArgument(level >= 0 && level < mDepth);
+        long[] children = mLevels[level + 1];
+        long[] hashes = new long[nodes.length * FANOUT];
+        for (int i = 0; i < nodes.length; i++) {
+            checkArgument(nodes[i] >= 0 && nodes[i] < mLevels[level].length);
+            System.arraycopy(children, nodes[i] * FANOUT, hashes, i * FANOUT, FANOUT);
+        }
+        return hashes;
+    }
+
+    /**
+     * Adds {@code camera}, or updates it if a camera with the same id is already in the tree.
+     */
+    public void put(@NonNull Camera camera) {
+        String id = camera.getId();
+        long hash = hashCamera(camera);
+        Long previous = mCameraHashes.put(id, hash);
+        int bucket = getBucket(id);
+        update(bucket, previous == null ? hash : hash ^ previous);
+        Set<String> ids = mBucketIds.get(bucket);
+        if (ids == null) {
+            ids = new HashSet<>();
+            mBucketIds.put(bucket, ids);
+        }
+        ids.add(id);
+    }
+
+    public void remove(@NonNull String cameraId) {
+        Long previous = mCameraHashes.remove(checkNotNull(cameraId));
+        if (previous != null) {
+            int bucket = getBucket(cameraId);
+            update(bucket, previous);
+            Set<String> ids = mBucketIds.get(bucket);
+            ids.remove(cameraId);
+            if (ids.isEmpty()) {
+                mBucketIds.remove(bucket);
+            }
+        }
+    }
+
+    public void clear() {
+        mCameraHashes.clear();
+        mBucketIds.clear();
+        for (long[] level : mLevels) {
+            Arrays.fill(level, 0);
+        }
+    }
+
+    /**
+     * Returns true if the tree holds {@code camera} exactly as it is.
+     */
+    public boolean contains(@NonNull Camera camera) {
+        Long hash = mCameraHashes.get(camera.getId());
+        return hash != null && hash == hashCamera(camera);
+    }
+
+    /**
+     * Returns the ids of the cameras of {@code bucket}.
+     */
+    @NonNull
+    public Set<String> getCameraIds(int bucket) {
+        Set<String> ids = mBucketIds.get(bucket);
+        return ids == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Returns the leaf {@code cameraId} belongs to, whether it is in the tree or not.
+     */
+    public int getBucket(@NonNull String cameraId) {
+        byte[] digest = md5(cameraId);
+        int prefix = ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16)
+                | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+        return prefix >>> (32 - 4 * mDepth);
+    }
+
+    public static long hashCamera(@NonNull Camera camera) {
+        byte[] digest = md5(camera.getId() + '\0' + nullToEmpty(camera.getTitle()) + '\0'
+                + nullToEmpty(camera.getDescription()) + '\0' + (camera.isClosed() ? '1' : '0')
+                + '\0');
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    /**
+     * XORs {@code delta} into {@code bucket} and its ancestors.
+     */
+    private void update(int bucket, long delta) {
+        int node = bucket;
+        for (int level = mDepth; level >= 0; level--) {
+            mLevels[level][node] ^= delta;
+            node /= FANOUT;
+        }
+    }
+
+    @NonNull
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    @NonNull
+    private static byte[] md5(@NonNull String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes(CHARSET));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
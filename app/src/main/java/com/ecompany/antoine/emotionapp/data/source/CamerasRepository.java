@@ -18,14 +18,18 @@ package com.ecompany.antoine.emotionapp.data.source;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.ecompany.antoine.emotionapp.data.Camera;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -37,10 +41,16 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p>
  * For simplicity, this implements a dumb synchronisation between locally persisted data and data
  * obtained from the server, by using the remote data source only if the local database doesn't
- * exist or is empty.
+ * exist or is empty. Once a full copy has been fetched from the remote, later refreshes only pull
+ * the cameras changed since the last remote version that was merged. A local data source that is
+ * a {@link CamerasSyncStore} merges in one transaction and remembers that version across restarts.
+ * A local copy whose version is unknown is compared with the remote one by hash trees, and only
+ * the ranges that differ are downloaded.
  */
 public class CamerasRepository implements CamerasDataSource {
 
+    private static final String TAG = "CamerasRepository";
+
     private static CamerasRepository INSTANCE = null;
 
     private final CamerasDataSource mCamerasRemoteDataSource;
@@ -58,6 +68,42 @@ public class CamerasRepository implements CamerasDataSource {
      */
     boolean mCacheIsDirty = false;
 
+    /**
+     * The latest remote change version merged into the cache, or 0 if the cache was never filled
+     * from the remote nor from a {@link CamerasSyncStore} that knew it. This variable has package
+     * local visibility so it can be accessed from tests.
+     */
+    long mRemoteVersion = 0;
+
+    private final List<CamerasObserver> mObservers = new ArrayList<>();
+
+    @Nullable
+    private CamerasTreeSource mRemoteTreeSource;
+
+    @Nullable
+    private CamerasShardedFetch mShardedFetch;
+
+    /**
+     * Hash tree of the cached cameras, built on the first sync with the remote tree source and
+     * kept up to date with the cache after that.
+     */
+    @Nullable
+    private CamerasMerkleTree mTree;
+
+    /**
+     * Counts of the cached cameras, kept up to date with the cache.
+     */
+    private final CamerasStatistics mStatistics = new CamerasStatistics();
+
+    /**
+     * Notified when cameras change without having been asked for, e.g. when a change feed applies
+     * remote changes with {@link #applyRemoteChanges(List, List, long)}.
+     */
+    public interface CamerasObserver {
+
+        void onCamerasChanged();
+    }
+
     // Prevent direct instantiation.
     private CamerasRepository(@NonNull CamerasDataSource camerasRemoteDataSource,
                               @NonNull CamerasDataSource camerasLocalDataSource) {
@@ -88,6 +134,89 @@ public class CamerasRepository implements CamerasDataSource {
         INSTANCE = null;
     }
 
+    public void addObserver(@NonNull CamerasObserver observer) {
+        checkNotNull(observer);
+        if (!mObservers.contains(observer)) {
+            mObservers.add(observer);
+        }
+    }
+
+    public void removeObserver(@NonNull CamerasObserver observer) {
+        mObservers.remove(checkNotNull(observer));
+    }
+
+    /**
+     * Returns the counts of the cached cameras, which follow every change of the cache.
+     */
+    @NonNull
+    public CamerasStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Sets the tree of the remote cameras that a cache loaded from the local data source is
+     * compared with, instead of downloading every remote camera, see {@link CamerasTreeSync}.
+     */
+    public void setRemoteTreeSource(@Nullable CamerasTreeSource remoteTreeSource) {
+        setRemoteTreeSource(remoteTreeSource, CamerasShardedFetch.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Like {@link #setRemoteTreeSource(CamerasTreeSource)}, also downloading full reloads from it
+     * in {@code fullReloadParallelism} shards fetched at once, see {@link CamerasShardedFetch}.
+     */
+    public void setRemoteTreeSource(@Nullable CamerasTreeSource remoteTreeSource,
+                                    int fullReloadParallelism) {
+        mRemoteTreeSource = remoteTreeSource;
+        mShardedFetch = remoteTreeSource == null ? null : new CamerasShardedFetch(
+                remoteTreeSource, fullReloadParallelism, CamerasShardedFetch.DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Returns the latest remote change version merged, the one a change feed resumes from.
+     */
+    public long getRemoteVersion() {
+        return mRemoteVersion;
+    }
+
+    /**
+     * Returns the local change version of every camera stored after {@code version}, see
+     * {@link CamerasSyncStore#getCameraVersionsSince(long)}, or nothing if the local data source
+     * doesn't keep them. Only reads the local data source, so it can be called off the main
+     * thread.
+     */
+    @NonNull
+    public Map<String, Long> getCameraVersionsSince(long version) {
+        return mCamerasLocalDataSource instanceof CamerasSyncStore
+                ? ((CamerasSyncStore) mCamerasLocalDataSource).getCameraVersionsSince(version)
+                : Collections.<String, Long>emptyMap();
+    }
+
+    /**
+     * Merges changes pushed by the remote into the cache and the local data source, then notifies
+     * the observers. Changes that are not newer than {@link #getRemoteVersion()} were already
+     * merged and are ignored.
+     */
+    public void applyRemoteChanges(@NonNull List<Camera> changedCameras,
+                                   @NonNull List<String> deletedCameraIds, long latestVersion) {
+        checkNotNull(changedCameras);
+        checkNotNull(deletedCameraIds);
+        if (latestVersion <= mRemoteVersion) {
+            return;
+        }
+        if (mCachedCameras == null || mRemoteVersion == 0) {
+            // Changes since version 0 are the whole list.
+            refreshCache(changedCameras);
+            refreshLocalDataSource(changedCameras, latestVersion);
+        } else {
+            applyChanges(changedCameras, deletedCameraIds, latestVersion);
+        }
+        mRemoteVersion = latestVersion;
+        for (CamerasObserver observer : new ArrayList<>(mObservers)) {
+            observer.onCamerasChanged();
+        }
+    }
+
     /**
      * Gets cameras from cache, local data source (SQLite) or remote data source, whichever is
      * available first.
@@ -114,6 +243,9 @@ public class CamerasRepository implements CamerasDataSource {
                 @Override
                 public void onCamerasLoaded(List<Camera> cameras) {
                     refreshCache(cameras);
+                    mRemoteVersion = mCamerasLocalDataSource instanceof CamerasSyncStore
+                            ? ((CamerasSyncStore) mCamerasLocalDataSource).getRemoteVersion()
+                            : 0;
                     callback.onCamerasLoaded(new ArrayList<>(mCachedCameras.values()));
                 }
 
@@ -132,10 +264,7 @@ public class CamerasRepository implements CamerasDataSource {
         mCamerasLocalDataSource.saveCamera(camera);
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedCameras == null) {
-            mCachedCameras = new LinkedHashMap<>();
-        }
-        mCachedCameras.put(camera.getId(), camera);
+        cacheCamera(camera);
     }
 
     @Override
@@ -147,10 +276,7 @@ public class CamerasRepository implements CamerasDataSource {
         Camera completedCamera = new Camera(camera.getTitle(), camera.getDescription(), camera.getId(), true);
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedCameras == null) {
-            mCachedCameras = new LinkedHashMap<>();
-        }
-        mCachedCameras.put(camera.getId(), completedCamera);
+        cacheCamera(completedCamera);
     }
 
     @Override
@@ -168,10 +294,7 @@ public class CamerasRepository implements CamerasDataSource {
         Camera activeCamera = new Camera(camera.getTitle(), camera.getDescription(), camera.getId());
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedCameras == null) {
-            mCachedCameras = new LinkedHashMap<>();
-        }
-        mCachedCameras.put(camera.getId(), activeCamera);
+        cacheCamera(activeCamera);
     }
 
     @Override
@@ -188,14 +311,19 @@ public class CamerasRepository implements CamerasDataSource {
         // Do in memory cache update to keep the app UI up to date
         if (mCachedCameras == null) {
             mCachedCameras = new LinkedHashMap<>();
+            mStatistics.reset(mCachedCameras.values());
         }
         Iterator<Map.Entry<String, Camera>> it = mCachedCameras.entrySet().iterator();
         while (it.hasNext()) {
             Map.Entry<String, Camera> entry = it.next();
             if (entry.getValue().isClosed()) {
                 it.remove();
+                if (mTree != null) {
+                    mTree.remove(entry.getKey());
+                }
             }
         }
+        mStatistics.clearClosed();
     }
 
     /**
@@ -225,10 +353,7 @@ public class CamerasRepository implements CamerasDataSource {
             @Override
             public void onCameraLoaded(Camera camera) {
                 // Do in memory cache update to keep the app UI up to date
-                if (mCachedCameras == null) {
-                    mCachedCameras = new LinkedHashMap<>();
-                }
-                mCachedCameras.put(camera.getId(), camera);
+                cacheCamera(camera);
                 callback.onCameraLoaded(camera);
             }
 
@@ -238,10 +363,7 @@ public class CamerasRepository implements CamerasDataSource {
                     @Override
                     public void onCameraLoaded(Camera camera) {
                         // Do in memory cache update to keep the app UI up to date
-                        if (mCachedCameras == null) {
-                            mCachedCameras = new LinkedHashMap<>();
-                        }
-                        mCachedCameras.put(camera.getId(), camera);
+                        cacheCamera(camera);
                         callback.onCameraLoaded(camera);
                     }
 
@@ -254,6 +376,17 @@ public class CamerasRepository implements CamerasDataSource {
         });
     }
 
+    /**
+     * Gets the changes recorded by the local data source, which mirrors every mutation made through
+     * this repository and every delta merged from the remote data source.
+     */
+    @Override
+    public void getCamerasChangedSince(long version,
+                                       @NonNull LoadCameraChangesCallback callback) {
+        checkNotNull(callback);
+        mCamerasLocalDataSource.getCamerasChangedSince(version, callback);
+    }
+
     @Override
     public void refreshCameras() {
         mCacheIsDirty = true;
@@ -268,6 +401,10 @@ public class CamerasRepository implements CamerasDataSource {
             mCachedCameras = new LinkedHashMap<>();
         }
         mCachedCameras.clear();
+        if (mTree != null) {
+            mTree.clear();
+        }
+        mStatistics.reset(mCachedCameras.values());
     }
 
     @Override
@@ -275,25 +412,164 @@ public class CamerasRepository implements CamerasDataSource {
         mCamerasRemoteDataSource.deleteCamera(checkNotNull(cameraId));
         mCamerasLocalDataSource.deleteCamera(checkNotNull(cameraId));
 
-        mCachedCameras.remove(cameraId);
+        uncacheCamera(cameraId);
+    }
+
+    /**
+     * Does a full reload the first time, then only pulls the changes since {@link #mRemoteVersion}.
+     * When the cache was loaded from the local data source but was never merged with the remote,
+     * e.g. after the app restarted, it is repaired with a {@link CamerasTreeSync} instead of being
+     * downloaded again, if there is a remote tree source.
+     */
+    private void getCamerasFromRemoteDataSource(@NonNull LoadCamerasCallback callback) {
+        boolean fullReload = mCachedCameras == null || mRemoteVersion == 0;
+        if (!fullReload) {
+            mCamerasRemoteDataSource.getCamerasChangedSince(mRemoteVersion,
+                    new RemoteCamerasCallback(callback, false));
+        } else if (mRemoteTreeSource != null && mCachedCameras != null
+                && !mCachedCameras.isEmpty()) {
+            syncWithRemoteTree(callback);
+        } else {
+            reloadAllFromRemote(callback);
+        }
     }
 
-    private void getCamerasFromRemoteDataSource(@NonNull final LoadCamerasCallback callback) {
-        mCamerasRemoteDataSource.getCameras(new LoadCamerasCallback() {
+    /**
+     * Downloads every remote camera, in shards if there is a remote tree source.
+     */
+    private void reloadAllFromRemote(@NonNull LoadCamerasCallback callback) {
+        if (mShardedFetch != null) {
+            mShardedFetch.fetchAll(new RemoteCamerasCallback(callback, true));
+        } else {
+            mCamerasRemoteDataSource.getCamerasChangedSince(0,
+                    new RemoteCamerasCallback(callback, true));
+        }
+    }
+
+    /**
+     * Replaces the cached cameras of the buckets that differ from the remote with the remote ones,
+     * or falls back to a full reload if the remote tree can't be read.
+     */
+    private void syncWithRemoteTree(@NonNull final LoadCamerasCallback callback) {
+        new CamerasTreeSync(mRemoteTreeSource).sync(getTree(), new CamerasTreeSync.SyncCallback() {
             @Override
-            public void onCamerasLoaded(List<Camera> cameras) {
-                refreshCache(cameras);
-                refreshLocalDataSource(cameras);
+            public void onDifferencesLoaded(int[] buckets, List<Camera> remoteCameras,
+                                            long latestVersion, CamerasTreeSync.Stats stats) {
+                Log.i(TAG, "Synced with the remote tree: " + stats);
+                repairBuckets(buckets, remoteCameras, latestVersion);
+                mRemoteVersion = latestVersion;
                 callback.onCamerasLoaded(new ArrayList<>(mCachedCameras.values()));
             }
 
             @Override
-            public void onDataNotAvailable() {
-                callback.onDataNotAvailable();
+            public void onSyncFailed() {
+                reloadAllFromRemote(callback);
             }
         });
     }
 
+    private void repairBuckets(@NonNull int[] buckets, @NonNull List<Camera> remoteCameras,
+                               long latestVersion) {
+        CamerasMerkleTree tree = getTree();
+        List<Camera> changedCameras = new ArrayList<>();
+        Set<String> remoteIds = new HashSet<>();
+        for (Camera camera : remoteCameras) {
+            remoteIds.add(camera.getId());
+            if (!tree.contains(camera)) {
+                changedCameras.add(camera);
+            }
+        }
+        List<String> deletedCameraIds = new ArrayList<>();
+        for (int bucket : buckets) {
+            for (String cameraId : tree.getCameraIds(bucket)) {
+                if (!remoteIds.contains(cameraId)) {
+                    deletedCameraIds.add(cameraId);
+                }
+            }
+        }
+        applyChanges(changedCameras, deletedCameraIds, latestVersion);
+    }
+
+    /**
+     * Returns the tree of the cached cameras, building it the first time.
+     */
+    @NonNull
+    private CamerasMerkleTree getTree() {
+        if (mTree == null) {
+            mTree = new CamerasMerkleTree();
+            if (mCachedCameras != null) {
+                for (Camera camera : mCachedCameras.values()) {
+                    mTree.put(camera);
+                }
+            }
+        }
+        return mTree;
+    }
+
+    /**
+     * Merges what the remote data source returns. When there is nothing to show yet and
+     * {@code callback} is a {@link CamerasChunkListener}, the cameras received so far are passed on
+     * as the remote data source streams them, so the first rows can be shown while the rest of a
+     * full reload is still downloading.
+     * <p>
+     * The read keeps the priority of {@code callback}, and is for a visible screen if it doesn't
+     * have one.
+     */
+    private class RemoteCamerasCallback
+            implements LoadCameraChangesCallback, CamerasChunkListener, PrioritizedCallback {
+
+        private final LoadCamerasCallback mCallback;
+
+        private final boolean mFullReload;
+
+        @Nullable
+        private final CamerasChunkListener mChunkListener;
+
+        private final List<Camera> mReceivedCameras = new ArrayList<>();
+
+        RemoteCamerasCallback(@NonNull LoadCamerasCallback callback, boolean fullReload) {
+            mCallback = callback;
+            mFullReload = fullReload;
+            mChunkListener = fullReload && (mCachedCameras == null || mCachedCameras.isEmpty())
+                    && callback instanceof CamerasChunkListener
+                    ? (CamerasChunkListener) callback : null;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return mCallback instanceof PrioritizedCallback
+                    ? ((PrioritizedCallback) mCallback).getRequestPriority()
+                    : RequestPriority.VISIBLE_PREFETCH;
+        }
+
+        @Override
+        public void onCamerasChunkLoaded(List<Camera> cameras) {
+            if (mChunkListener != null) {
+                mReceivedCameras.addAll(cameras);
+                mChunkListener.onCamerasChunkLoaded(new ArrayList<>(mReceivedCameras));
+            }
+        }
+
+        @Override
+        public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                          List<String> deletedCameraIds, long latestVersion) {
+            if (mFullReload) {
+                refreshCache(changedCameras);
+                refreshLocalDataSource(changedCameras, latestVersion);
+            } else {
+                applyChanges(changedCameras, deletedCameraIds, latestVersion);
+            }
+            mRemoteVersion = latestVersion;
+            mCallback.onCamerasLoaded(new ArrayList<>(mCachedCameras.values()));
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mCallback.onDataNotAvailable();
+        }
+    }
+
     private void refreshCache(List<Camera> cameras) {
         if (mCachedCameras == null) {
             mCachedCameras = new LinkedHashMap<>();
@@ -302,10 +578,67 @@ public class CamerasRepository implements CamerasDataSource {
         for (Camera camera : cameras) {
             mCachedCameras.put(camera.getId(), camera);
         }
+        mStatistics.reset(mCachedCameras.values());
+        // Built again from the new cameras when needed.
+        mTree = null;
         mCacheIsDirty = false;
     }
 
-    private void refreshLocalDataSource(List<Camera> cameras) {
+    /**
+     * Merges remote changes up to {@code latestVersion} into the cache and the local data source.
+     */
+    private void applyChanges(List<Camera> changedCameras, List<String> deletedCameraIds,
+                              long latestVersion) {
+        for (Camera camera : changedCameras) {
+            cacheCamera(camera);
+        }
+        for (String cameraId : deletedCameraIds) {
+            uncacheCamera(cameraId);
+        }
+        if (mCamerasLocalDataSource instanceof CamerasSyncStore) {
+            ((CamerasSyncStore) mCamerasLocalDataSource)
+                    .applyCameraChanges(changedCameras, deletedCameraIds, latestVersion);
+        } else {
+            for (Camera camera : changedCameras) {
+                mCamerasLocalDataSource.saveCamera(camera);
+            }
+            for (String cameraId : deletedCameraIds) {
+                mCamerasLocalDataSource.deleteCamera(cameraId);
+            }
+        }
+        mCacheIsDirty = false;
+    }
+
+    private void cacheCamera(@NonNull Camera camera) {
+        if (mCachedCameras == null) {
+            mCachedCameras = new LinkedHashMap<>();
+            mStatistics.reset(mCachedCameras.values());
+        }
+        Camera previous = mCachedCameras.put(camera.getId(), camera);
+        if (mTree != null) {
+            mTree.put(camera);
+        }
+        mStatistics.update(previous, camera);
+    }
+
+    private void uncacheCamera(@NonNull String cameraId) {
+        if (mCachedCameras != null) {
+            mStatistics.update(mCachedCameras.remove(cameraId), null);
+        }
+        if (mTree != null) {
+            mTree.remove(cameraId);
+        }
+    }
+
+    /**
+     * Replaces the content of the local data source with the whole remote list at
+     * {@code latestVersion}.
+     */
+    private void refreshLocalDataSource(List<Camera> cameras, long latestVersion) {
+        if (mCamerasLocalDataSource instanceof CamerasSyncStore) {
+            ((CamerasSyncStore) mCamerasLocalDataSource).replaceAllCameras(cameras, latestVersion);
+            return;
+        }
         mCamerasLocalDataSource.deleteAllCameras();
         for (Camera camera : cameras) {
             mCamerasLocalDataSource.saveCamera(camera);
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.CamerasChunkListener;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.LoadCameraChangesCallback;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.PrioritizedCallback;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.RequestPriority;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Downloads every remote camera in shards fetched concurrently, instead of in one request, so a
+ * full reload takes about as long as its largest shard rather than the whole list.
+ * <p>
+ * There are as many shards as the given parallelism, all requested at once, so a fetch takes a
+ * single round trip, like one request: splitting the list only pays off on the transfer, and a
+ * backend whose latency doesn't depend on the size of the answer loses nothing. Each shard is the
+ * cameras of a range of consecutive buckets of the {@link CamerasMerkleTree} of the remote, read
+ * with {@link CamerasTreeSource#getCamerasInBuckets(int[], LoadCameraChangesCallback)}. A shard
+ * that fails is asked for again, up to the given number of attempts, before the whole fetch
+ * fails.
+ * <p>
+ * Callbacks that implement {@link CamerasChunkListener} get each shard as a chunk, in shard
+ * order, as soon as the shards before it have arrived. Shard requests keep the priority of a
+ * callback that implements {@link PrioritizedCallback}.
+ * <p>
+ * The remote must answer on the thread {@link #fetchAll(LoadCameraChangesCallback)} is called on.
+ */
+public class CamerasShardedFetch {
+
+    public static final int MAX_PARALLELISM = CamerasMerkleTree.FANOUT;
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final int BUCKET_COUNT = 1 << (4 * CamerasMerkleTree.DEFAULT_DEPTH);
+
+    private final CamerasTreeSource mRemote;
+
+    private final int mParallelism;
+
+    private final int mMaxAttempts;
+
+    public CamerasShardedFetch(@NonNull CamerasTreeSource remote) {
+        this(remote, DEFAULT_PARALLELISM, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param parallelism number of shards, all in flight at once, from 1 to
+     *                    {@link #MAX_PARALLELISM}
+     * @param maxAttempts number of times a shard is asked for before the fetch fails
+     */
+    public CamerasShardedFetch(@NonNull CamerasTreeSource remote, int parallelism,
+                               int maxAttempts) {
+        checkArgument(parallelism >= 1 && parallelism <= MAX_PARALLELISM);
+        checkArgument(maxAttempts >= 1);
+        mRemote = checkNotNull(remote);
+        mParallelism = parallelism;
+        mMaxAttempts = maxAttempts;
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Reports every remote camera as changed, with no deleted ones, and the lowest change version
+     * of the shards: every remote change after it may or may not be included.
+     */
+    public void fetchAll(@NonNull LoadCameraChangesCallback callback) {
+        new Run(checkNotNull(callback)).requestShards();
+    }
+
+    /**
+     * The state of one fetch.
+     */
+    private final class Run {
+
+        final LoadCameraChangesCallback mCallback;
+
+        final RequestPriority mPriority;
+
+        final List<List<Camera>> mShards = new ArrayList<>(mParallelism);
+
+        final List<Camera> mCameras = new ArrayList<>();
+
+        int mNextShard = 0;
+
+        int mNextShardToDeliver = 0;
+
+        int mInFlight = 0;
+
+        long mVersion = -1;
+
+        boolean mFailed = false;
+
+        Run(@NonNull LoadCameraChangesCallback callback) {
+            mCallback = callback;
+            mPriority = callback instanceof PrioritizedCallback
+                    ? ((PrioritizedCallback) callback).getRequestPriority()
+                    : RequestPriority.BACKGROUND;
+            for (int shard = 0; shard < mParallelism; shard++) {
+                mShards.add(null);
+            }
+        }
+
+        void requestShards() {
+            while (!mFailed && mInFlight < mParallelism && mNextShard < mParallelism) {
+                requestShard(mNextShard++, 1);
+            }
+        }
+
+        void requestShard(int shard, int attempt) {
+            mInFlight++;
+            mRemote.getCamerasInBuckets(bucketsOf(shard), new ShardCallback(shard, attempt));
+        }
+
+        void onShardLoaded(int shard, @NonNull List<Camera> cameras, long latestVersion) {
+            if (mVersion < 0 || latestVersion < mVersion) {
+                mVersion = latestVersion;
+            }
+            mShards.set(shard, cameras);
+            while (mNextShardToDeliver < mParallelism
+                    && mShards.get(mNextShardToDeliver) != null) {
+                List<Camera> chunk = mShards.get(mNextShardToDeliver);
+                mCameras.addAll(chunk);
+                if (mCallback instanceof CamerasChunkListener && !chunk.isEmpty()) {
+                    ((CamerasChunkListener) mCallback).onCamerasChunkLoaded(chunk);
+                }
+                mNextShardToDeliver++;
+            }
+            if (mNextShardToDeliver == mParallelism) {
+                mCallback.onCameraChangesLoaded(mCameras, new ArrayList<String>(), mVersion);
+            } else {
+                requestShards();
+            }
+        }
+
+        void onShardFailed(int shard, int attempt) {
+            if (attempt < mMaxAttempts) {
+                requestShard(shard, attempt + 1);
+            } else {
+                mFailed = true;
+                mCallback.onDataNotAvailable();
+            }
+        }
+
+        private final class ShardCallback
+                implements LoadCameraChangesCallback, PrioritizedCallback {
+
+            private final int mShard;
+
+            private final int mAttempt;
+
+            ShardCallback(int shard, int attempt) {
+                mShard = shard;
+                mAttempt = attempt;
+            }
+
+            @NonNull
+            @Override
+            public RequestPriority getRequestPriority() {
+                return mPriority;
+            }
+
+            @Override
+            public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                              List<String> deletedCameraIds,
+                                              long latestVersion) {
+                mInFlight--;
+                if (!mFailed) {
+                    onShardLoaded(mShard, changedCameras, latestVersion);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                mInFlight--;
+                if (!mFailed) {
+                    onShardFailed(mShard, mAttempt);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the buckets of {@code shard}, one of {@link #mParallelism} ranges of sizes that
+     * differ by one bucket at most.
+     */
+    @NonNull
+    private int[] bucketsOf(int shard) {
+        int first = shard * BUCKET_COUNT / mParallelism;
+        int[] buckets = new int[(shard + 1) * BUCKET_COUNT / mParallelism - first];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = first + i;
+        }
+        return buckets;
+    }
+}
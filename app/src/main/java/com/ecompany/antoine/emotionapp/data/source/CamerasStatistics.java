@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts of the active and closed cameras of the {@link CamerasRepository} cache, adjusted by the
+ * repository on every change of the cache so that reading them doesn't go through the cameras.
+ * <p>
+ * The counts are only meaningful once the cache was filled, see {@link #isLoaded()}. Listeners
+ * are told about every change, on the thread the repository is used from.
+ */
+public class CamerasStatistics {
+
+    /**
+     * Notified when the counts change.
+     */
+    public interface Listener {
+
+        void onStatisticsChanged(@NonNull CamerasStatistics statistics);
+    }
+
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private int mActiveCount = 0;
+
+    private int mClosedCount = 0;
+
+    private boolean mLoaded = false;
+
+    CamerasStatistics() {
+    }
+
+    /**
+     * Returns true once the counts reflect a filled cache.
+     */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    public int getClosedCount() {
+        return mClosedCount;
+    }
+
+    public int getTotalCount() {
+        return mActiveCount + mClosedCount;
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        checkNotNull(listener);
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(checkNotNull(listener));
+    }
+
+    /**
+     * Counts {@code cameras} again, after the whole cache was replaced.
+     */
+    void reset(@NonNull Collection<Camera> cameras) {
+        int activeCount = 0;
+        int closedCount = 0;
+        for (Camera camera : cameras) {
+            if (camera.isClosed()) {
+                closedCount++;
+            } else {
+                activeCount++;
+            }
+        }
+        mActiveCount = activeCount;
+        mClosedCount = closedCount;
+        mLoaded = true;
+        notifyListeners();
+    }
+
+    /**
+     * Adjusts the counts after a camera of the cache was replaced by another one, {@code null}
+     * standing for no camera: {@code previous} is null for a new camera and {@code current} is
+     * null for a removed one.
+     */
+    void update(@Nullable Camera previous, @Nullable Camera current) {
+        boolean wasClosed = previous != null && previous.isClosed();
+        boolean isClosed = current != null && current.isClosed();
+        if (previous != null && current != null && wasClosed == isClosed) {
+            // Edited in place.
+            return;
+        }
+        if (previous != null) {
+            if (wasClosed) {
+                mClosedCount--;
+            } else {
+                mActiveCount--;
+            }
+        }
+        if (current != null) {
+            if (isClosed) {
+                mClosedCount++;
+            } else {
+                mActiveCount++;
+            }
+        }
+        if (previous != null || current != null) {
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Drops the closed cameras from the counts, after they were all removed from the cache.
+     */
+    void clearClosed() {
+        if (mClosedCount != 0) {
+            mClosedCount = 0;
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onStatisticsChanged(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CamerasStatistics{active=" + mActiveCount + ", closed=" + mClosedCount
+                + ", loaded=" + mLoaded + '}';
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local data source that merges what was read from the remote data source in one transaction,
+ * and remembers the remote change version it was merged up to, so a restarted app can pull only
+ * the changes since then.
+ */
+public interface CamerasSyncStore {
+
+    /**
+     * Returns the remote version of the last merge, or 0 if nothing was merged yet.
+     */
+    long getRemoteVersion();
+
+    /**
+     * Returns the local change version of every stored camera written after {@code version}.
+     * Every local write stamps the cameras it writes with a version greater than all before it,
+     * so the versions order the cameras by their latest change, across restarts.
+     */
+    @NonNull
+    Map<String, Long> getCameraVersionsSince(long version);
+
+    /**
+     * Replaces every stored camera with {@code cameras}, the whole remote list at
+     * {@code remoteVersion}.
+     */
+    void replaceAllCameras(@NonNull List<Camera> cameras, long remoteVersion);
+
+    /**
+     * Stores the cameras changed and deletes the ones deleted on the remote up to
+     * {@code remoteVersion}.
+     */
+    void applyCameraChanges(@NonNull List<Camera> changedCameras,
+                            @NonNull List<String> deletedCameraIds, long remoteVersion);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A data source that keeps a {@link CamerasMerkleTree} of the default depth over its cameras, so
+ * a copy of them can be compared and repaired range by range, see {@link CamerasTreeSync}.
+ */
+public interface CamerasTreeSource {
+
+    interface LoadTreeHashesCallback {
+
+        /**
+         * @param hashes        the hashes asked for
+         * @param latestVersion the change version of the cameras the hashes were computed from
+         */
+        void onTreeHashesLoaded(long[] hashes, long latestVersion);
+
+        void onDataNotAvailable();
+    }
+
+    /**
+     * Gets the hashes of the children of {@code nodes}, which are on {@code level}, as returned
+     * by {@link CamerasMerkleTree#getChildHashes(int, int[])}.
+     */
+    void getTreeChildHashes(int level, @NonNull int[] nodes,
+                            @NonNull LoadTreeHashesCallback callback);
+
+    /**
+     * Gets every camera of the given leaves of the tree. They are reported as changed cameras,
+     * with no deleted ones.
+     */
+    void getCamerasInBuckets(@NonNull int[] buckets,
+                             @NonNull CamerasDataSource.LoadCameraChangesCallback callback);
+}
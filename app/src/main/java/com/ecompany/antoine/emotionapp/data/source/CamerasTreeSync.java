@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.LoadCameraChangesCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds the cameras that differ between a local {@link CamerasMerkleTree} and a remote
+ * {@link CamerasTreeSource} without downloading them all (anti-entropy).
+ * <p>
+ * The trees are compared top-down, one level per round trip: only the children of the nodes
+ * whose hashes differ are asked for, and at the bottom only the cameras of the buckets that
+ * differ are downloaded. Two copies that differ by a few cameras are compared with a few
+ * kilobytes of hashes, whatever their size. Requests carry at most
+ * {@link #MAX_NODES_PER_REQUEST} nodes, so the ones of a level may be sent in several parts.
+ * <p>
+ * The remote must answer on the thread {@link #sync(CamerasMerkleTree, SyncCallback)} is called
+ * on, and the local tree must not change during the sync.
+ */
+public class CamerasTreeSync {
+
+    static final int MAX_NODES_PER_REQUEST = 256;
+
+    /**
+     * Size of a node or bucket number in a request, to estimate the bytes exchanged.
+     */
+    private static final int NODE_BYTES = 4;
+
+    private static final int HASH_BYTES = 8;
+
+    /**
+     * Size of a camera in JSON around its strings.
+     */
+    private static final int CAMERA_OVERHEAD_BYTES = 64;
+
+    private final CamerasTreeSource mRemote;
+
+    public interface SyncCallback {
+
+        /**
+         * @param buckets       the buckets that differ, possibly none
+         * @param remoteCameras every remote camera of these buckets
+         * @param latestVersion the remote change version the comparison started from: every
+         *                      remote change after it may or may not be included
+         */
+        void onDifferencesLoaded(int[] buckets, List<Camera> remoteCameras, long latestVersion,
+                                 Stats stats);
+
+        void onSyncFailed();
+    }
+
+    /**
+     * What a sync exchanged.
+     */
+    public static final class Stats {
+
+        public final int roundTrips;
+
+        public final int requests;
+
+        public final int hashesReceived;
+
+        public final int bucketsFetched;
+
+        public final int camerasReceived;
+
+        /**
+         * Payload bytes of the requests and answers, estimated from the node numbers, hashes and
+         * cameras they carry.
+         */
+        public final long bytesTransferred;
+
+        Stats(int roundTrips, int requests, int hashesReceived, int bucketsFetched,
+              int camerasReceived, long bytesTransferred) {
+            this.roundTrips = roundTrips;
+            this.requests = requests;
+            this.hashesReceived = hashesReceived;
+            this.bucketsFetched = bucketsFetched;
+            this.camerasReceived = camerasReceived;
+            this.bytesTransferred = bytesTransferred;
+        }
+
+        @Override
+        public String toString() {
+            return "roundTrips=" + roundTrips + " requests=" + requests + " hashes="
+                    + hashesReceived + " buckets=" + bucketsFetched + " cameras="
+                    + camerasReceived + " bytes=" + bytesTransferred;
+        }
+    }
+
+    public CamerasTreeSync(@NonNull CamerasTreeSource remote) {
+        mRemote = checkNotNull(remote);
+    }
+
+    public void sync(@NonNull CamerasMerkleTree localTree, @NonNull SyncCallback callback) {
+        checkArgument(localTree.getDepth() == CamerasMerkleTree.DEFAULT_DEPTH,
+                "the remote tree has the default depth");
+        new Run(localTree, checkNotNull(callback)).compareChildren(0, new int[]{0});
+    }
+
+    /**
+     * The state of one sync.
+     */
+    private final class Run {
+
+        final CamerasMerkleTree mLocalTree;
+
+        final SyncCallback mCallback;
+
+        long mVersion = -1;
+
+        int mRoundTrips = 0;
+
+        int mRequests = 0;
+
+        int mHashesReceived = 0;
+
+        int mBucketsFetched = 0;
+
+        int mCamerasReceived = 0;
+
+        long mBytes = 0;
+
+        boolean mFailed = false;
+
+        Run(@NonNull CamerasMerkleTree localTree, @NonNull SyncCallback callback) {
+            mLocalTree = localTree;
+            mCallback = callback;
+        }
+
+        /**
+         * Asks for the children of {@code nodes}, and goes on with the ones that differ.
+         */
+        void compareChildren(final int level, @NonNull int[] nodes) {
+            mRoundTrips++;
+            final List<int[]> parts = split(nodes);
+            final List<Integer> differing = new ArrayList<>();
+            final int[] pending = {parts.size()};
+            for (final int[] part : parts) {
+                mRequests++;
+                mBytes += part.length * NODE_BYTES;
+                mRemote.getTreeChildHashes(level, part,
+                        new CamerasTreeSource.LoadTreeHashesCallback() {
+                            @Override
+                            public void onTreeHashesLoaded(long[] hashes, long latestVersion) {
+                                if (mFailed) {
+                                    return;
+                                }
+                                if (mVersion < 0 || latestVersion < mVersion) {
+                                    mVersion = latestVersion;
+                                }
+                                mHashesReceived += hashes.length;
+                                mBytes += hashes.length * HASH_BYTES;
+                                for (int i = 0; i < hashes.length; i++) {
+                                    int child = part[i / CamerasMerkleTree.FANOUT]
+                                            * CamerasMerkleTree.FANOUT
+                                            + i % CamerasMerkleTree.FANOUT;
+                                    if (hashes[i] != mLocalTree.getHash(level + 1, child)) {
+                                        differing.add(child);
+                                    }
+                                }
+                                if (--pending[0] == 0) {
+                                    onLevelCompared(level + 1, toSortedArray(differing));
+                                }
+                            }
+
+                            @Override
+                            public void onDataNotAvailable() {
+                                fail();
+                            }
+                        });
+            }
+        }
+
+        void onLevelCompared(int level, @NonNull int[] differing) {
+            if (differing.length == 0) {
+                finish(differing, Collections.<Camera>emptyList());
+            } else if (level < mLocalTree.getDepth()) {
+                compareChildren(level, differing);
+            } else {
+                fetchBuckets(differing);
+            }
+        }
+
+        void fetchBuckets(@NonNull final int[] buckets) {
+            mRoundTrips++;
+            final List<int[]> parts = split(buckets);
+            final List<Camera> cameras = new ArrayList<>();
+            final int[] pending = {parts.size()};
+            mBucketsFetched = buckets.length;
+            for (int[] part : parts) {
+                mRequests++;
+                mBytes += part.length * NODE_BYTES;
+                mRemote.getCamerasInBuckets(part, new LoadCameraChangesCallback() {
+                    @Override
+                    public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                      List<String> deletedCameraIds,
+                                                      long latestVersion) {
+                        if (mFailed) {
+                            return;
+                        }
+                        cameras.addAll(changedCameras);
+                        mCamerasReceived += changedCameras.size();
+                        for (Camera camera : changedCameras) {
+                            mBytes += estimateBytes(camera);
+                        }
+                        if (--pending[0] == 0) {
+                            finish(buckets, cameras);
+                        }
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        fail();
+                    }
+                });
+            }
+        }
+
+        void finish(@NonNull int[] buckets, @NonNull List<Camera> cameras) {
+            mCallback.onDifferencesLoaded(buckets, cameras, mVersion, new Stats(mRoundTrips,
+                    mRequests, mHashesReceived, mBucketsFetched, mCamerasReceived, mBytes));
+        }
+
+        void fail() {
+            if (!mFailed) {
+                mFailed = true;
+                mCallback.onSyncFailed();
+            }
+        }
+    }
+
+    private static int estimateBytes(@NonNull Camera camera) {
+        return CAMERA_OVERHEAD_BYTES + camera.getId().length()
+                + (camera.getTitle() == null ? 0 : camera.getTitle().length())
+                + (camera.getDescription() == null ? 0 : camera.getDescription().length());
+    }
+
+    @NonNull
+    private static List<int[]> split(@NonNull int[] nodes) {
+        List<int[]> parts = new ArrayList<>();
+        for (int start = 0; start < nodes.length; start += MAX_NODES_PER_REQUEST) {
+            parts.add(Arrays.copyOfRange(nodes, start,
+                    Math.min(nodes.length, start + MAX_NODES_PER_REQUEST)));
+        }
+        return parts;
+    }
+
+    @NonNull
+    private static int[] toSortedArray(@NonNull List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source;
+
+/**
+ * The status of the cameras during one hour or one day, see {@link CamerasHistorySource}.
+ */
+public final class StatusRollup {
+
+    private final long mBucketStart;
+
+    private final long mDurationMillis;
+
+    private final int mActiveCount;
+
+    private final int mClosedCount;
+
+    private final int mActivations;
+
+    private final int mClosings;
+
+    private final long mActiveMillis;
+
+    private final long mClosedMillis;
+
+    /**
+     * @param durationMillis the part of the bucket that is over, the whole bucket unless it is
+     *                       the current one
+     */
+    public StatusRollup(long bucketStart, long durationMillis, int activeCount, int closedCount,
+                        int activations, int closings, long activeMillis, long closedMillis) {
+        mBucketStart = bucketStart;
+        mDurationMillis = durationMillis;
+        mActiveCount = activeCount;
+        mClosedCount = closedCount;
+        mActivations = activations;
+        mClosings = closings;
+        mActiveMillis = activeMillis;
+        mClosedMillis = closedMillis;
+    }
+
+    public long getBucketStart() {
+        return mBucketStart;
+    }
+
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    /**
+     * Returns the number of active cameras at the end of the bucket, or now for the current one.
+     */
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * Returns the number of closed cameras at the end of the bucket, or now for the current one.
+     */
+    public int getClosedCount() {
+        return mClosedCount;
+    }
+
+    public int getActivations() {
+        return mActivations;
+    }
+
+    public int getClosings() {
+        return mClosings;
+    }
+
+    /**
+     * Returns the time spent active during the bucket, summed over the cameras.
+     */
+    public long getActiveMillis() {
+        return mActiveMillis;
+    }
+
+    /**
+     * Returns the time spent closed during the bucket, summed over the cameras.
+     */
+    public long getClosedMillis() {
+        return mClosedMillis;
+    }
+
+    /**
+     * Returns the average number of active cameras during the bucket.
+     */
+    public double getAverageActiveCount() {
+        return mDurationMillis == 0 ? mActiveCount : (double) mActiveMillis / mDurationMillis;
+    }
+
+    /**
+     * Returns the average number of closed cameras during the bucket.
+     */
+    public double getAverageClosedCount() {
+        return mDurationMillis == 0 ? mClosedCount : (double) mClosedMillis / mDurationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusRollup{start=" + mBucketStart + ", active=" + mActiveCount
+                + ", closed=" + mClosedCount + ", activations=" + mActivations
+                + ", closings=" + mClosings + ", activeMillis=" + mActiveMillis
+                + ", closedMillis=" + mClosedMillis + '}';
+    }
+}
@@ -20,8 +20,11 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.CameraEntry;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.SyncStateEntry;
+
 public class CamerasDbHelper extends SQLiteOpenHelper {
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 5;
 
     public static final String DATABASE_NAME = "Cameras.db";
 
@@ -29,29 +32,112 @@ public class CamerasDbHelper extends SQLiteOpenHelper {
 
     private static final String BOOLEAN_TYPE = " INTEGER";
 
+    private static final String INTEGER_TYPE = " INTEGER";
+
+    private static final String NOT_NULL_DEFAULT_ZERO = " NOT NULL DEFAULT 0";
+
     private static final String COMMA_SEP = ",";
 
-    private static final String SQL_CREATE_ENTRIES =
-            "CREATE TABLE " + CamerasPersistenceContract.CameraEntry.TABLE_NAME + " (" +
-                    CamerasPersistenceContract.CameraEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE + " PRIMARY KEY," +
-                    CamerasPersistenceContract.CameraEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
-                    CamerasPersistenceContract.CameraEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
-                    CamerasPersistenceContract.CameraEntry.COLUMN_NAME_CLOSED + BOOLEAN_TYPE +
-            " )";
+    private static final String TEMP_TABLE_NAME = CameraEntry.TABLE_NAME + "_new";
+
+    private static final String SQL_CREATE_ENTRIES = createEntriesSql(CameraEntry.TABLE_NAME);
+
+    private static final String SQL_CREATE_ENTRY_ID_INDEX =
+            "CREATE UNIQUE INDEX " + CameraEntry.TABLE_NAME + "_entryid_idx ON " +
+                    CameraEntry.TABLE_NAME + " (" + CameraEntry.COLUMN_NAME_ENTRY_ID + ")";
+
+    private static final String SQL_CREATE_VERSION_INDEX =
+            "CREATE INDEX " + CameraEntry.TABLE_NAME + "_version_idx ON " +
+                    CameraEntry.TABLE_NAME + " (" + CameraEntry.COLUMN_NAME_VERSION + ")";
+
+    private static final String SQL_CREATE_SYNC_STATE =
+            "CREATE TABLE " + SyncStateEntry.TABLE_NAME + " (" +
+                    SyncStateEntry.COLUMN_NAME_KEY + TEXT_TYPE + " PRIMARY KEY" + COMMA_SEP +
+                    SyncStateEntry.COLUMN_NAME_VALUE + INTEGER_TYPE + NOT_NULL_DEFAULT_ZERO +
+                    " )";
+
+    private static final String SQL_ENTRY_COLUMNS =
+            CameraEntry.COLUMN_NAME_ENTRY_ID + COMMA_SEP +
+                    CameraEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    CameraEntry.COLUMN_NAME_DESCRIPTION + COMMA_SEP +
+                    CameraEntry.COLUMN_NAME_CLOSED + COMMA_SEP +
+                    CameraEntry.COLUMN_NAME_VERSION + COMMA_SEP +
+                    CameraEntry.COLUMN_NAME_DELETED;
 
     public CamerasDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * The integer {@link CameraEntry#_ID} is the rowid, so rows are clustered on it and other
+     * tables reference cameras by it. The UUID {@link CameraEntry#COLUMN_NAME_ENTRY_ID} is a
+     * secondary column with a unique index.
+     */
+    private static String createEntriesSql(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
+                CameraEntry._ID + INTEGER_TYPE + " PRIMARY KEY" + COMMA_SEP +
+                CameraEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE + " NOT NULL" + COMMA_SEP +
+                CameraEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
+                CameraEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
+                CameraEntry.COLUMN_NAME_CLOSED + BOOLEAN_TYPE + COMMA_SEP +
+                CameraEntry.COLUMN_NAME_VERSION + INTEGER_TYPE + NOT_NULL_DEFAULT_ZERO + COMMA_SEP +
+                CameraEntry.COLUMN_NAME_DELETED + BOOLEAN_TYPE + NOT_NULL_DEFAULT_ZERO +
+                " )";
+    }
+
+    /**
+     * Asks for incremental auto vacuum, which only takes effect on a database without tables,
+     * i.e. before {@link #onCreate(SQLiteDatabase)}, so that {@link CamerasDbMaintenance} can
+     * reclaim free pages without rewriting the whole file. This isn't called before API 16, so
+     * older devices get there on the first maintenance instead.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_ENTRY_ID_INDEX);
+        db.execSQL(SQL_CREATE_VERSION_INDEX);
+        CamerasHistoryTables.create(db);
+        db.execSQL(SQL_CREATE_SYNC_STATE);
     }
 
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Not required as at version 1
+        if (oldVersion < 2) {
+            // Version 2 adds change versions and tombstones. Existing rows all start at version 0.
+            db.execSQL("ALTER TABLE " + CameraEntry.TABLE_NAME +
+                    " ADD COLUMN " + CameraEntry.COLUMN_NAME_VERSION +
+                    INTEGER_TYPE + NOT_NULL_DEFAULT_ZERO);
+            db.execSQL("ALTER TABLE " + CameraEntry.TABLE_NAME +
+                    " ADD COLUMN " + CameraEntry.COLUMN_NAME_DELETED +
+                    BOOLEAN_TYPE + NOT_NULL_DEFAULT_ZERO);
+            db.execSQL(SQL_CREATE_VERSION_INDEX);
+        }
+        if (oldVersion < 3) {
+            // Version 3 replaces the TEXT primary key with an integer rowid. SQLite can't change a
+            // primary key in place, so the rows are copied into a new table.
+            db.execSQL(createEntriesSql(TEMP_TABLE_NAME));
+            db.execSQL("INSERT INTO " + TEMP_TABLE_NAME + " (" + SQL_ENTRY_COLUMNS + ") SELECT " +
+                    SQL_ENTRY_COLUMNS + " FROM " + CameraEntry.TABLE_NAME);
+            db.execSQL("DROP TABLE " + CameraEntry.TABLE_NAME);
+            db.execSQL("ALTER TABLE " + TEMP_TABLE_NAME + " RENAME TO " + CameraEntry.TABLE_NAME);
+            db.execSQL(SQL_CREATE_ENTRY_ID_INDEX);
+            db.execSQL(SQL_CREATE_VERSION_INDEX);
+        }
+        if (oldVersion < 4) {
+            // Version 4 adds the status history, which starts at the upgrade.
+            CamerasHistoryTables.create(db);
+        }
+        if (oldVersion < 5) {
+            // Version 5 remembers the remote version merged. Until the next merge it is unknown,
+            // which the repository treats as never merged.
+            db.execSQL(SQL_CREATE_SYNC_STATE);
+        }
     }
 
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Not required as at version 1
+        // Not required as at version 5
     }
 }
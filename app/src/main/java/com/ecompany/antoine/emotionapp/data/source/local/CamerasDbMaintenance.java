@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.local;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the cameras database compact. Deletes only leave tombstones, which take space until they
+ * are purged, and purging them leaves free pages behind.
+ * <p>
+ * {@link #run()} first purges the old tombstones, see
+ * {@link CamerasLocalDataSource#purgeTombstones()}, then measures the free-page ratio, and only
+ * when it crosses its threshold it reclaims the free pages, refreshes the query planner
+ * statistics with {@code ANALYZE} and checks the integrity of the file. The file size alone is
+ * not a trigger: a large fleet makes a large file that no maintenance can shrink.
+ * <p>
+ * It runs on the connection of the {@link CamerasLocalDataSource}, so that it never competes for
+ * the file with a second connection. The data source keeps that connection open for the life of
+ * the process, so a run on a worker thread isn't cut short by the app's reads and writes, which
+ * the connection runs one at a time with the steps of the run.
+ */
+public class CamerasDbMaintenance {
+
+    public static final double DEFAULT_FREE_PAGE_RATIO_THRESHOLD = 0.2;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * What a maintenance run found and did.
+     */
+    public static final class Report {
+
+        private final int mPurgedTombstones;
+
+        private final long mSizeBeforeBytes;
+
+        private final long mSizeAfterBytes;
+
+        private final double mFreePageRatio;
+
+        private final boolean mMaintained;
+
+        private final boolean mIntegrityOk;
+
+        private final long mDurationMillis;
+
+        Report(int purgedTombstones, long sizeBeforeBytes, long sizeAfterBytes,
+               double freePageRatio, boolean maintained, boolean integrityOk,
+               long durationMillis) {
+            mPurgedTombstones = purgedTombstones;
+            mSizeBeforeBytes = sizeBeforeBytes;
+            mSizeAfterBytes = sizeAfterBytes;
+            mFreePageRatio = freePageRatio;
+            mMaintained = maintained;
+            mIntegrityOk = integrityOk;
+            mDurationMillis = durationMillis;
+        }
+
+        public int getPurgedTombstones() {
+            return mPurgedTombstones;
+        }
+
+        public long getSizeBeforeBytes() {
+            return mSizeBeforeBytes;
+        }
+
+        public long getSizeAfterBytes() {
+            return mSizeAfterBytes;
+        }
+
+        public long getReclaimedBytes() {
+            return mSizeBeforeBytes - mSizeAfterBytes;
+        }
+
+        /**
+         * Returns the ratio measured after the tombstones were purged.
+         */
+        public double getFreePageRatio() {
+            return mFreePageRatio;
+        }
+
+        /**
+         * Returns false if the threshold wasn't crossed, so nothing but the purge and the
+         * measurement was done.
+         */
+        public boolean isMaintained() {
+            return mMaintained;
+        }
+
+        public boolean isIntegrityOk() {
+            return mIntegrityOk;
+        }
+
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "maintained=" + mMaintained + " purgedTombstones=" + mPurgedTombstones
+                    + " reclaimed=" + getReclaimedBytes() + "B size=" + mSizeAfterBytes
+                    + "B freePageRatio=" + mFreePageRatio + " integrityOk=" + mIntegrityOk
+                    + " took=" + mDurationMillis + "ms";
+        }
+    }
+
+    private final CamerasLocalDataSource mLocalDataSource;
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    private final double mFreePageRatioThreshold;
+
+    public CamerasDbMaintenance(@NonNull CamerasLocalDataSource localDataSource) {
+        this(localDataSource, DEFAULT_FREE_PAGE_RATIO_THRESHOLD);
+    }
+
+    public CamerasDbMaintenance(@NonNull CamerasLocalDataSource localDataSource,
+                                double freePageRatioThreshold) {
+        mLocalDataSource = checkNotNull(localDataSource);
+        mDbHelper = localDataSource.getDbHelper();
+        mFreePageRatioThreshold = freePageRatioThreshold;
+    }
+
+    @WorkerThread
+    @NonNull
+    public Report run() {
+        long start = System.currentTimeMillis();
+        int purgedTombstones = mLocalDataSource.purgeTombstones();
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long pageSize = pragma(db, "page_size");
+        long pageCount = pragma(db, "page_count");
+        long sizeBefore = pageSize * pageCount;
+        double freePageRatio = pageCount == 0 ? 0
+                : (double) pragma(db, "freelist_count") / pageCount;
+
+        if (freePageRatio < mFreePageRatioThreshold) {
+            return new Report(purgedTombstones, sizeBefore, sizeBefore, freePageRatio, false,
+                    true, System.currentTimeMillis() - start);
+        }
+
+        if (pragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Databases created before the helper set incremental auto vacuum use none. Switching
+            // mode only takes effect after one full VACUUM, after which incremental vacuums are
+            // enough.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            // The pragma frees pages as it is stepped, so the cursor has to be drained.
+            Cursor c = db.rawQuery("PRAGMA incremental_vacuum", null);
+            while (c.moveToNext()) {
+                // Nothing to read.
+            }
+            c.close();
+        }
+        db.execSQL("ANALYZE");
+        boolean integrityOk = "ok".equalsIgnoreCase(
+                DatabaseUtils.stringForQuery(db, "PRAGMA quick_check", null));
+
+        long sizeAfter = pageSize * pragma(db, "page_count");
+
+        return new Report(purgedTombstones, sizeBefore, sizeAfter, freePageRatio, true,
+                integrityOk, System.currentTimeMillis() - start);
+    }
+
+    private static long pragma(@NonNull SQLiteDatabase db, @NonNull String name) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + name, null);
+    }
+}
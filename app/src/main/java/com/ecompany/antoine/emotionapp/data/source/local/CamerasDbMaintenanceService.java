@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.local;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteException;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.ecompany.antoine.emotionapp.Injection;
+
+/**
+ * Runs {@link CamerasDbMaintenance} in the background, but only while the device is charging and
+ * its screen is off. It is woken up every hour; the maintenance itself decides whether there is
+ * anything to do.
+ * <p>
+ * The last report is kept in the {@link #PREFERENCES_NAME} shared preferences.
+ */
+public class CamerasDbMaintenanceService extends IntentService {
+
+    public static final String PREFERENCES_NAME = "cameras_db_maintenance";
+
+    public static final String KEY_LAST_RUN_MILLIS = "last_run_millis";
+
+    public static final String KEY_LAST_RECLAIMED_BYTES = "last_reclaimed_bytes";
+
+    public static final String KEY_LAST_DURATION_MILLIS = "last_duration_millis";
+
+    public static final String KEY_TOTAL_RECLAIMED_BYTES = "total_reclaimed_bytes";
+
+    private static final String TAG = "CamerasDbMaintenance";
+
+    public CamerasDbMaintenanceService() {
+        super(TAG);
+    }
+
+    /**
+     * Schedules the hourly wake up, unless it is already scheduled.
+     */
+    public static void schedule(@NonNull Context context) {
+        Intent intent = new Intent(context, CamerasDbMaintenanceService.class);
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, intent, 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+                AlarmManager.INTERVAL_HOUR, pendingIntent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!isIdleAndCharging()) {
+            return;
+        }
+
+        // Share the connection of the app: a second one would fail with "database is locked"
+        // whenever both write at the same time.
+        CamerasLocalDataSource localDataSource = CamerasLocalDataSource.getInstance(
+                getApplicationContext(), Injection.provideAppExecutors());
+        try {
+            CamerasDbMaintenance.Report report = new CamerasDbMaintenance(localDataSource).run();
+            Log.i(TAG, report.toString());
+            if (report.isMaintained()) {
+                saveReport(report);
+            }
+        } catch (SQLiteException e) {
+            // The next wake up will try again.
+            Log.w(TAG, "Database maintenance failed", e);
+        }
+    }
+
+    private boolean isIdleAndCharging() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = battery != null
+                && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        return charging && !isInteractive();
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isInteractive() {
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return powerManager.isInteractive();
+        }
+        return powerManager.isScreenOn();
+    }
+
+    private void saveReport(@NonNull CamerasDbMaintenance.Report report) {
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+        preferences.edit()
+                .putLong(KEY_LAST_RUN_MILLIS, System.currentTimeMillis())
+                .putLong(KEY_LAST_RECLAIMED_BYTES, report.getReclaimedBytes())
+                .putLong(KEY_LAST_DURATION_MILLIS, report.getDurationMillis())
+                .putLong(KEY_TOTAL_RECLAIMED_BYTES,
+                        preferences.getLong(KEY_TOTAL_RECLAIMED_BYTES, 0)
+                                + report.getReclaimedBytes())
+                .commit();
+    }
+}
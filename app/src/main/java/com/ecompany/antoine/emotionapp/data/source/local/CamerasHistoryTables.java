@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.local;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.source.CamerasHistorySource;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.CameraEntry;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.CameraStatusTimeEntry;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.StatusRollupEntry;
+
+/**
+ * The tables behind {@link CamerasHistorySource}, and the triggers that keep them up to date.
+ * <p>
+ * Triggers on the cameras table run on every status transition, i.e. when a row is inserted or
+ * its closed or deleted flag changes, in the statement that made the change. They add the time
+ * since the previous transition to the camera's row of {@link CameraStatusTimeEntry}, and update
+ * the row of the current hour and of the current day of {@link StatusRollupEntry}:
+ * <ul>
+ * <li>the counts of active and closed cameras after the change,</li>
+ * <li>the number of activations and closings in the bucket,</li>
+ * <li>the camera-time spent active and closed in the bucket up to the change, i.e. the counts
+ * multiplied by the time they lasted.</li>
+ * </ul>
+ * A bucket without changes has no row: its counts are those of the latest row before it. Re-saving
+ * a camera with the same status, as a full reload does, is not a transition and costs nothing.
+ * <p>
+ * Buckets are aligned on the epoch, so days are UTC days.
+ */
+final class CamerasHistoryTables {
+
+    private static final String NOW =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    private static final String INTEGER_DEFAULT_ZERO = " INTEGER NOT NULL DEFAULT 0";
+
+    private static final long[] PERIODS = {
+            CamerasHistorySource.HOUR_MILLIS, CamerasHistorySource.DAY_MILLIS
+    };
+
+    private static final String SQL_CREATE_STATUS_TIMES =
+            "CREATE TABLE " + CameraStatusTimeEntry.TABLE_NAME + " (" +
+                    CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY + " INTEGER PRIMARY KEY," +
+                    CameraStatusTimeEntry.COLUMN_NAME_SINCE + " INTEGER NOT NULL," +
+                    CameraStatusTimeEntry.COLUMN_NAME_ACTIVE_MILLIS + INTEGER_DEFAULT_ZERO + "," +
+                    CameraStatusTimeEntry.COLUMN_NAME_CLOSED_MILLIS + INTEGER_DEFAULT_ZERO +
+                    " )";
+
+    private static final String SQL_CREATE_ROLLUPS =
+            "CREATE TABLE " + StatusRollupEntry.TABLE_NAME + " (" +
+                    StatusRollupEntry.COLUMN_NAME_PERIOD + " INTEGER NOT NULL," +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + " INTEGER NOT NULL," +
+                    StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT + INTEGER_DEFAULT_ZERO + "," +
+                    StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT + INTEGER_DEFAULT_ZERO + "," +
+                    StatusRollupEntry.COLUMN_NAME_ACTIVATIONS + INTEGER_DEFAULT_ZERO + "," +
+                    StatusRollupEntry.COLUMN_NAME_CLOSINGS + INTEGER_DEFAULT_ZERO + "," +
+                    StatusRollupEntry.COLUMN_NAME_ACTIVE_MILLIS + INTEGER_DEFAULT_ZERO + "," +
+                    StatusRollupEntry.COLUMN_NAME_CLOSED_MILLIS + INTEGER_DEFAULT_ZERO + "," +
+                    StatusRollupEntry.COLUMN_NAME_UPDATED_AT + " INTEGER NOT NULL," +
+                    " PRIMARY KEY (" + StatusRollupEntry.COLUMN_NAME_PERIOD + ", " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + ")" +
+                    " )";
+
+    private CamerasHistoryTables() {
+    }
+
+    /**
+     * Creates the tables and triggers, with the history starting now from the cameras already
+     * stored.
+     */
+    static void create(@NonNull SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_STATUS_TIMES);
+        db.execSQL(SQL_CREATE_ROLLUPS);
+        db.execSQL("INSERT INTO " + CameraStatusTimeEntry.TABLE_NAME + " (" +
+                CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY + ", " +
+                CameraStatusTimeEntry.COLUMN_NAME_SINCE + ") SELECT " +
+                CameraEntry._ID + ", " + NOW + " FROM " + CameraEntry.TABLE_NAME);
+        for (long period : PERIODS) {
+            db.execSQL("INSERT INTO " + StatusRollupEntry.TABLE_NAME + " (" +
+                    StatusRollupEntry.COLUMN_NAME_PERIOD + ", " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + ", " +
+                    StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT + ", " +
+                    StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT + ", " +
+                    StatusRollupEntry.COLUMN_NAME_UPDATED_AT + ") SELECT " +
+                    period + ", " + bucketOf(period) + ", " +
+                    "IFNULL(SUM(" + isActive(CameraEntry.TABLE_NAME) + "), 0), " +
+                    "IFNULL(SUM(" + isClosed(CameraEntry.TABLE_NAME) + "), 0), " +
+                    NOW + " FROM " + CameraEntry.TABLE_NAME);
+        }
+        db.execSQL(createInsertTriggerSql());
+        db.execSQL(createUpdateTriggerSql());
+    }
+
+    private static String createInsertTriggerSql() {
+        StringBuilder sql = new StringBuilder("CREATE TRIGGER " + CameraEntry.TABLE_NAME +
+                "_history_insert AFTER INSERT ON " + CameraEntry.TABLE_NAME + " BEGIN ");
+        sql.append("INSERT OR REPLACE INTO ").append(CameraStatusTimeEntry.TABLE_NAME).append(" (")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY).append(", ")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_SINCE).append(") VALUES (NEW.")
+                .append(CameraEntry._ID).append(", ").append(NOW).append("); ");
+        appendRollupUpdates(sql, isActive("NEW"), isClosed("NEW"), "0", "0");
+        return sql.append("END").toString();
+    }
+
+    private static String createUpdateTriggerSql() {
+        StringBuilder sql = new StringBuilder("CREATE TRIGGER " + CameraEntry.TABLE_NAME +
+                "_history_update AFTER UPDATE OF " + CameraEntry.COLUMN_NAME_CLOSED + ", " +
+                CameraEntry.COLUMN_NAME_DELETED + " ON " + CameraEntry.TABLE_NAME +
+                " WHEN " + closed("OLD") + " != " + closed("NEW") +
+                " OR OLD." + CameraEntry.COLUMN_NAME_DELETED +
+                " != NEW." + CameraEntry.COLUMN_NAME_DELETED + " BEGIN ");
+        String elapsed = "MAX(" + NOW + " - " + CameraStatusTimeEntry.COLUMN_NAME_SINCE + ", 0)";
+        sql.append("UPDATE ").append(CameraStatusTimeEntry.TABLE_NAME).append(" SET ")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_ACTIVE_MILLIS).append(" = ")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_ACTIVE_MILLIS).append(" + CASE WHEN ")
+                .append(isActive("OLD")).append(" THEN ").append(elapsed).append(" ELSE 0 END, ")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_CLOSED_MILLIS).append(" = ")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_CLOSED_MILLIS).append(" + CASE WHEN ")
+                .append(isClosed("OLD")).append(" THEN ").append(elapsed).append(" ELSE 0 END, ")
+                .append(CameraStatusTimeEntry.COLUMN_NAME_SINCE).append(" = ").append(NOW)
+                .append(" WHERE ").append(CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY)
+                .append(" = NEW.").append(CameraEntry._ID).append("; ");
+        String bothPresent = "OLD." + CameraEntry.COLUMN_NAME_DELETED + " = 0 AND NEW." +
+                CameraEntry.COLUMN_NAME_DELETED + " = 0";
+        String activated = "(" + bothPresent + " AND " + closed("OLD") + " = 1 AND " +
+                closed("NEW") + " = 0)";
+        String closedNow = "(" + bothPresent + " AND " + closed("OLD") + " = 0 AND " +
+                closed("NEW") + " = 1)";
+        appendRollupUpdates(sql,
+                "(" + isActive("NEW") + " - " + isActive("OLD") + ")",
+                "(" + isClosed("NEW") + " - " + isClosed("OLD") + ")",
+                activated, closedNow);
+        return sql.append("END").toString();
+    }
+
+    /**
+     * Appends the statements that apply a transition to the current bucket of every period,
+     * creating the bucket with the counts of the previous one first if needed.
+     */
+    private static void appendRollupUpdates(@NonNull StringBuilder sql, @NonNull String activeDelta,
+                                            @NonNull String closedDelta,
+                                            @NonNull String activations,
+                                            @NonNull String closings) {
+        for (long period : PERIODS) {
+            String bucket = bucketOf(period);
+            String latest = " FROM " + StatusRollupEntry.TABLE_NAME + " WHERE " +
+                    StatusRollupEntry.COLUMN_NAME_PERIOD + " = " + period + " ORDER BY " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + " DESC LIMIT 1";
+            sql.append("INSERT OR IGNORE INTO ").append(StatusRollupEntry.TABLE_NAME).append(" (")
+                    .append(StatusRollupEntry.COLUMN_NAME_PERIOD).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_BUCKET_START).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_UPDATED_AT).append(") SELECT ")
+                    .append(period).append(", ").append(bucket).append(", ")
+                    .append("IFNULL((SELECT ").append(StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT)
+                    .append(latest).append("), 0), ")
+                    .append("IFNULL((SELECT ").append(StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT)
+                    .append(latest).append("), 0), ")
+                    .append(bucket).append("; ");
+            String elapsed =
+                    "MAX(" + NOW + " - " + StatusRollupEntry.COLUMN_NAME_UPDATED_AT + ", 0)";
+            sql.append("UPDATE ").append(StatusRollupEntry.TABLE_NAME).append(" SET ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVE_MILLIS).append(" = ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVE_MILLIS).append(" + ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT).append(" * ")
+                    .append(elapsed).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSED_MILLIS).append(" = ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSED_MILLIS).append(" + ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT).append(" * ")
+                    .append(elapsed).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_UPDATED_AT).append(" = ").append(NOW)
+                    .append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT).append(" = ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT).append(" + ")
+                    .append(activeDelta).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT).append(" = ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT).append(" + ")
+                    .append(closedDelta).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVATIONS).append(" = ")
+                    .append(StatusRollupEntry.COLUMN_NAME_ACTIVATIONS).append(" + ")
+                    .append(activations).append(", ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSINGS).append(" = ")
+                    .append(StatusRollupEntry.COLUMN_NAME_CLOSINGS).append(" + ")
+                    .append(closings)
+                    .append(" WHERE ").append(StatusRollupEntry.COLUMN_NAME_PERIOD).append(" = ")
+                    .append(period).append(" AND ")
+                    .append(StatusRollupEntry.COLUMN_NAME_BUCKET_START).append(" = ")
+                    .append(bucket).append("; ");
+        }
+    }
+
+    @NonNull
+    private static String bucketOf(long period) {
+        return "(" + NOW + " / " + period + " * " + period + ")";
+    }
+
+    @NonNull
+    private static String closed(@NonNull String row) {
+        return "IFNULL(" + row + "." + CameraEntry.COLUMN_NAME_CLOSED + ", 0)";
+    }
+
+    @NonNull
+    private static String isActive(@NonNull String row) {
+        return "(" + row + "." + CameraEntry.COLUMN_NAME_DELETED + " = 0 AND " + closed(row) +
+                " = 0)";
+    }
+
+    @NonNull
+    private static String isClosed(@NonNull String row) {
+        return "(" + row + "." + CameraEntry.COLUMN_NAME_DELETED + " = 0 AND " + closed(row) +
+                " = 1)";
+    }
+}
@@ -3,42 +3,160 @@ package com.ecompany.antoine.emotionapp.data.source.local;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.support.annotation.NonNull;
 
 
 import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CameraStatusTimes;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasHistorySource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasSyncStore;
+import com.ecompany.antoine.emotionapp.data.source.StatusRollup;
 import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.CameraEntry;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.CameraStatusTimeEntry;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.StatusRollupEntry;
+import com.ecompany.antoine.emotionapp.data.source.local.CamerasPersistenceContract.SyncStateEntry;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 
 /**
  * Concrete implementation of a data source as a db.
+ * <p>
+ * Every write stamps the row with the next change version, in the same transaction, and deletes
+ * only mark the row as a tombstone, so {@link #getCamerasChangedSince(long,
+ * LoadCameraChangesCallback)} can report them. Tombstones older than the last
+ * {@link #DEFAULT_RETAINED_VERSIONS} versions are purged, see {@link #purgeTombstones()}.
+ * Every statement goes through the {@link CamerasQueryProfiler} returned by
+ * {@link #getQueryProfiler()}.
+ * <p>
+ * The status history is kept up to date by triggers of the cameras table, see
+ * {@link CamerasHistoryTables}, so writes don't do anything more for it.
+ * <p>
+ * The database stays open for the life of the process: {@link #getCameraVersionsSince(long)} is
+ * read off the main thread and {@link CamerasDbMaintenance} runs on its own thread, both on the
+ * same connection, so closing it after a statement would close it under them. The connection
+ * serializes the statements of all threads.
  */
-public class CamerasLocalDataSource implements CamerasDataSource {
+public class CamerasLocalDataSource
+        implements CamerasDataSource, CamerasHistorySource, CamerasSyncStore {
 
     private static CamerasLocalDataSource INSTANCE;
 
+    /**
+     * Returned by {@link #getCameraKey(String)} for a camera that was never stored.
+     */
+    public static final long NO_KEY = -1;
+
+    /**
+     * Number of the latest versions whose tombstones are kept, so that readers of the changes
+     * since one of them still learn about the deletes.
+     */
+    public static final long DEFAULT_RETAINED_VERSIONS = 1000;
+
+    private static final String SQL_NEXT_VERSION =
+            "SELECT IFNULL(MAX(" + CameraEntry.COLUMN_NAME_VERSION + "), 0) + 1 FROM " +
+                    CameraEntry.TABLE_NAME;
+
+    private static final String SELECTION_NOT_DELETED = CameraEntry.COLUMN_NAME_DELETED + " = 0";
+
+    private static final String SQL_LATEST_ROLLUP_BEFORE =
+            "SELECT " + StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT + ", " +
+                    StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT + " FROM " +
+                    StatusRollupEntry.TABLE_NAME + " WHERE " +
+                    StatusRollupEntry.COLUMN_NAME_PERIOD + " = ? AND " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + " < ? ORDER BY " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + " DESC LIMIT 1";
+
+    private static final String SQL_ROLLUPS_BETWEEN =
+            "SELECT * FROM " + StatusRollupEntry.TABLE_NAME + " WHERE " +
+                    StatusRollupEntry.COLUMN_NAME_PERIOD + " = ? AND " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START + " BETWEEN ? AND ? ORDER BY " +
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START;
+
+    private static final String SQL_STATUS_TIMES =
+            "SELECT t." + CameraStatusTimeEntry.COLUMN_NAME_SINCE + ", t." +
+                    CameraStatusTimeEntry.COLUMN_NAME_ACTIVE_MILLIS + ", t." +
+                    CameraStatusTimeEntry.COLUMN_NAME_CLOSED_MILLIS + ", c." +
+                    CameraEntry.COLUMN_NAME_CLOSED + ", c." +
+                    CameraEntry.COLUMN_NAME_DELETED + " FROM " +
+                    CameraStatusTimeEntry.TABLE_NAME + " t, " + CameraEntry.TABLE_NAME +
+                    " c WHERE t." + CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY + " = ? AND c." +
+                    CameraEntry._ID + " = t." + CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY;
+
+    private static final String SELECTION_ID_NOT_DELETED =
+            CameraEntry.COLUMN_NAME_ENTRY_ID + " = ? AND " + SELECTION_NOT_DELETED;
+
+    private static final String SELECTION_ID = CameraEntry.COLUMN_NAME_ENTRY_ID + " = ?";
+
+    private static final String SELECTION_PURGEABLE = CameraEntry.COLUMN_NAME_DELETED +
+            " = 1 AND " + CameraEntry.COLUMN_NAME_VERSION + " <= ?";
+
+    private static final String SQL_DELETE_PURGEABLE_STATUS_TIMES =
+            "DELETE FROM " + CameraStatusTimeEntry.TABLE_NAME + " WHERE " +
+                    CameraStatusTimeEntry.COLUMN_NAME_CAMERA_KEY + " IN (SELECT " +
+                    CameraEntry._ID + " FROM " + CameraEntry.TABLE_NAME + " WHERE " +
+                    SELECTION_PURGEABLE + ")";
+
+    private static final String SQL_SYNC_STATE =
+            "SELECT " + SyncStateEntry.COLUMN_NAME_VALUE + " FROM " + SyncStateEntry.TABLE_NAME +
+                    " WHERE " + SyncStateEntry.COLUMN_NAME_KEY + " = ?";
+
     private CamerasDbHelper mDbHelper;
 
+    private final CamerasQueryProfiler mQueryProfiler;
+
+    /**
+     * Dictionary from camera UUIDs to their integer keys. Deletes only leave tombstones, so a key
+     * doesn't change once assigned until the tombstone is purged, which clears the dictionary.
+     */
+    private final Map<String, Long> mCameraKeys = new ConcurrentHashMap<>();
+
     // Prevent direct instantiation.
-    private CamerasLocalDataSource(@NonNull Context context) {
+    private CamerasLocalDataSource(@NonNull Context context, @NonNull AppExecutors appExecutors) {
         checkNotNull(context);
+        checkNotNull(appExecutors);
         mDbHelper = new CamerasDbHelper(context);
+        mQueryProfiler = new CamerasQueryProfiler(
+                new File(context.getFilesDir(), CamerasQueryProfiler.SLOW_QUERY_LOG_FILE_NAME),
+                CamerasQueryProfiler.DEFAULT_CAPACITY,
+                CamerasQueryProfiler.DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS,
+                appExecutors.diskIO());
     }
 
-    public static CamerasLocalDataSource getInstance(@NonNull Context context) {
+    public static CamerasLocalDataSource getInstance(@NonNull Context context,
+                                                     @NonNull AppExecutors appExecutors) {
         if (INSTANCE == null) {
-            INSTANCE = new CamerasLocalDataSource(context);
+            INSTANCE = new CamerasLocalDataSource(context, appExecutors);
         }
         return INSTANCE;
     }
 
+    @NonNull
+    public CamerasQueryProfiler getQueryProfiler() {
+        return mQueryProfiler;
+    }
+
+    /**
+     * Returns the helper of the database, for {@link CamerasDbMaintenance}.
+     */
+    @NonNull
+    CamerasDbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
     /**
      * Note: {@link LoadCamerasCallback#onDataNotAvailable()} is fired if the database doesn't exist
      * or the table is empty.
@@ -55,27 +173,17 @@ public class CamerasLocalDataSource implements CamerasDataSource {
                 CameraEntry.COLUMN_NAME_CLOSED
         };
 
-        Cursor c = db.query(
-                CameraEntry.TABLE_NAME, projection, null, null, null, null, null);
+        Cursor c = query(db, projection, SELECTION_NOT_DELETED, null, null);
 
         if (c != null && c.getCount() > 0) {
             while (c.moveToNext()) {
-                String itemId = c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_ENTRY_ID));
-                String title = c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_TITLE));
-                String description =
-                        c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_DESCRIPTION));
-                boolean closed =
-                        c.getInt(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_CLOSED)) == 1;
-                Camera camera = new Camera(title, description, itemId, closed);
-                cameras.add(camera);
+                cameras.add(readCamera(c));
             }
         }
         if (c != null) {
             c.close();
         }
 
-        db.close();
-
         if (cameras.isEmpty()) {
             // This will be called if the table is new or just empty.
             callback.onDataNotAvailable();
@@ -100,30 +208,20 @@ public class CamerasLocalDataSource implements CamerasDataSource {
                 CameraEntry.COLUMN_NAME_CLOSED
         };
 
-        String selection = CameraEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
         String[] selectionArgs = { cameraId };
 
-        Cursor c = db.query(
-                CameraEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, null);
+        Cursor c = query(db, projection, SELECTION_ID_NOT_DELETED, selectionArgs, null);
 
         Camera camera = null;
 
         if (c != null && c.getCount() > 0) {
             c.moveToFirst();
-            String itemId = c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_ENTRY_ID));
-            String title = c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_TITLE));
-            String description =
-                    c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_DESCRIPTION));
-            boolean closed =
-                    c.getInt(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_CLOSED)) == 1;
-            camera = new Camera(title, description, itemId, closed);
+            camera = readCamera(c);
         }
         if (c != null) {
             c.close();
         }
 
-        db.close();
-
         if (camera != null) {
             callback.onCameraLoaded(camera);
         } else {
@@ -131,56 +229,235 @@ public class CamerasLocalDataSource implements CamerasDataSource {
         }
     }
 
+    /**
+     * Reports the rows written after {@code version}, tombstones included, with empty lists if
+     * nothing changed.
+     * <p>
+     * Note: {@link LoadCameraChangesCallback#onDataNotAvailable()} is fired if tombstones written
+     * after {@code version} may have been purged already, so that the caller reloads everything.
+     */
     @Override
-    public void saveCamera(@NonNull Camera camera) {
-        checkNotNull(camera);
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+    public void getCamerasChangedSince(long version, @NonNull LoadCameraChangesCallback callback) {
+        List<Camera> changedCameras = new ArrayList<>();
+        List<String> deletedCameraIds = new ArrayList<>();
+        long latestVersion = version;
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
-        ContentValues values = new ContentValues();
-        values.put(CameraEntry.COLUMN_NAME_ENTRY_ID, camera.getId());
-        values.put(CameraEntry.COLUMN_NAME_TITLE, camera.getTitle());
-        values.put(CameraEntry.COLUMN_NAME_DESCRIPTION, camera.getDescription());
-        values.put(CameraEntry.COLUMN_NAME_CLOSED, camera.isClosed());
+        if (version > 0 && version < readSyncState(db, SyncStateEntry.KEY_PURGED_VERSION)) {
+            callback.onDataNotAvailable();
+            return;
+        }
 
-        db.insert(CameraEntry.TABLE_NAME, null, values);
+        String[] projection = {
+                CameraEntry.COLUMN_NAME_ENTRY_ID,
+                CameraEntry.COLUMN_NAME_TITLE,
+                CameraEntry.COLUMN_NAME_DESCRIPTION,
+                CameraEntry.COLUMN_NAME_CLOSED,
+                CameraEntry.COLUMN_NAME_VERSION,
+                CameraEntry.COLUMN_NAME_DELETED
+        };
+
+        String selection = CameraEntry.COLUMN_NAME_VERSION + " > ?";
+        String[] selectionArgs = { String.valueOf(version) };
+
+        Cursor c = query(db, projection, selection, selectionArgs, CameraEntry.COLUMN_NAME_VERSION);
+
+        if (c != null && c.getCount() > 0) {
+            while (c.moveToNext()) {
+                latestVersion = Math.max(latestVersion,
+                        c.getLong(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_VERSION)));
+                boolean deleted =
+                        c.getInt(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_DELETED)) == 1;
+                if (deleted) {
+                    deletedCameraIds.add(
+                            c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_ENTRY_ID)));
+                } else {
+                    changedCameras.add(readCamera(c));
+                }
+            }
+        }
+        if (c != null) {
+            c.close();
+        }
+
+        callback.onCameraChangesLoaded(changedCameras, deletedCameraIds, latestVersion);
+    }
+
+    /**
+     * Returns the integer key of the camera with {@code cameraId}, to be used instead of the UUID
+     * when other tables reference a camera, or {@link #NO_KEY} if the camera was never stored.
+     */
+    public long getCameraKey(@NonNull String cameraId) {
+        checkNotNull(cameraId);
+        Long cachedKey = mCameraKeys.get(cameraId);
+        if (cachedKey != null) {
+            return cachedKey;
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        String[] projection = { CameraEntry._ID };
+        String selection = CameraEntry.COLUMN_NAME_ENTRY_ID + " = ?";
+        String[] selectionArgs = { cameraId };
+
+        Cursor c = query(db, projection, selection, selectionArgs, null);
+
+        long key = NO_KEY;
+        if (c != null && c.moveToFirst()) {
+            key = c.getLong(c.getColumnIndexOrThrow(CameraEntry._ID));
+            mCameraKeys.put(cameraId, key);
+        }
+        if (c != null) {
+            c.close();
+        }
 
-        db.close();
+        return key;
     }
 
+    /**
+     * Reads at most one row per bucket, plus the latest one before the range for the counts of
+     * the buckets without changes at its start.
+     */
     @Override
-    public void closeCamera(@NonNull Camera camera) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+    public void getStatusRollups(long periodMillis, long fromMillis, long toMillis,
+                                 @NonNull LoadStatusRollupsCallback callback) {
+        checkArgument(periodMillis == HOUR_MILLIS || periodMillis == DAY_MILLIS);
+        checkNotNull(callback);
+        long now = System.currentTimeMillis();
+        long firstBucket = fromMillis - fromMillis % periodMillis;
+        long end = Math.min(toMillis, now);
+        long lastBucket = end - end % periodMillis;
+        List<StatusRollup> rollups = new ArrayList<>();
+        if (firstBucket > lastBucket) {
+            callback.onStatusRollupsLoaded(rollups);
+            return;
+        }
 
-        ContentValues values = new ContentValues();
-        values.put(CameraEntry.COLUMN_NAME_CLOSED, true);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
-        String selection = CameraEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = { camera.getId() };
+        int activeCount = 0;
+        int closedCount = 0;
+        Cursor c = rawQuery(db, SQL_LATEST_ROLLUP_BEFORE,
+                new String[]{ String.valueOf(periodMillis), String.valueOf(firstBucket) });
+        if (c != null && c.moveToFirst()) {
+            activeCount = c.getInt(0);
+            closedCount = c.getInt(1);
+        }
+        if (c != null) {
+            c.close();
+        }
 
-        db.update(CameraEntry.TABLE_NAME, values, selection, selectionArgs);
+        c = rawQuery(db, SQL_ROLLUPS_BETWEEN, new String[]{ String.valueOf(periodMillis),
+                String.valueOf(firstBucket), String.valueOf(lastBucket) });
+        boolean hasRow = c != null && c.moveToFirst();
+        for (long bucket = firstBucket; bucket <= lastBucket; bucket += periodMillis) {
+            long bucketEnd = Math.min(bucket + periodMillis, now);
+            long activeMillis;
+            long closedMillis;
+            int activations = 0;
+            int closings = 0;
+            if (hasRow && c.getLong(c.getColumnIndexOrThrow(
+                    StatusRollupEntry.COLUMN_NAME_BUCKET_START)) == bucket) {
+                // The row stops at its last change, the counts it ends with last until the end.
+                long rest = Math.max(bucketEnd - c.getLong(
+                        c.getColumnIndexOrThrow(StatusRollupEntry.COLUMN_NAME_UPDATED_AT)), 0);
+                activeCount = c.getInt(
+                        c.getColumnIndexOrThrow(StatusRollupEntry.COLUMN_NAME_ACTIVE_COUNT));
+                closedCount = c.getInt(
+                        c.getColumnIndexOrThrow(StatusRollupEntry.COLUMN_NAME_CLOSED_COUNT));
+                activations = c.getInt(
+                        c.getColumnIndexOrThrow(StatusRollupEntry.COLUMN_NAME_ACTIVATIONS));
+                closings = c.getInt(
+                        c.getColumnIndexOrThrow(StatusRollupEntry.COLUMN_NAME_CLOSINGS));
+                activeMillis = c.getLong(c.getColumnIndexOrThrow(
+                        StatusRollupEntry.COLUMN_NAME_ACTIVE_MILLIS)) + activeCount * rest;
+                closedMillis = c.getLong(c.getColumnIndexOrThrow(
+                        StatusRollupEntry.COLUMN_NAME_CLOSED_MILLIS)) + closedCount * rest;
+                hasRow = c.moveToNext();
+            } else {
+                // Nothing changed during the bucket.
+                activeMillis = activeCount * (bucketEnd - bucket);
+                closedMillis = closedCount * (bucketEnd - bucket);
+            }
+            rollups.add(new StatusRollup(bucket, bucketEnd - bucket, activeCount, closedCount,
+                    activations, closings, activeMillis, closedMillis));
+        }
+        if (c != null) {
+            c.close();
+        }
 
-        db.close();
+        callback.onStatusRollupsLoaded(rollups);
     }
 
     @Override
-    public void closeCamera(@NonNull String cameraId) {
-        // Not required for the local data source because the {@link CamerasRepository} handles
-        // converting from a {@code cameraId} to a {@link camera} using its cached data.
+    public void getStatusTimes(@NonNull String cameraId,
+                               @NonNull GetStatusTimesCallback callback) {
+        checkNotNull(callback);
+        long key = getCameraKey(cameraId);
+        if (key == NO_KEY) {
+            callback.onDataNotAvailable();
+            return;
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        Cursor c = rawQuery(db, SQL_STATUS_TIMES, new String[]{ String.valueOf(key) });
+
+        CameraStatusTimes statusTimes = null;
+        if (c != null && c.moveToFirst()) {
+            long since = c.getLong(0);
+            long activeMillis = c.getLong(1);
+            long closedMillis = c.getLong(2);
+            boolean closed = c.getInt(3) == 1;
+            boolean deleted = c.getInt(4) == 1;
+            // The time since the last transition isn't stored yet.
+            long current = Math.max(System.currentTimeMillis() - since, 0);
+            if (!deleted && closed) {
+                closedMillis += current;
+            } else if (!deleted) {
+                activeMillis += current;
+            }
+            statusTimes = new CameraStatusTimes(activeMillis, closedMillis, since);
+        }
+        if (c != null) {
+            c.close();
+        }
+
+        if (statusTimes != null) {
+            callback.onStatusTimesLoaded(statusTimes);
+        } else {
+            callback.onDataNotAvailable();
+        }
     }
 
     @Override
-    public void activateCamera(@NonNull Camera camera) {
+    public void saveCamera(@NonNull Camera camera) {
+        checkNotNull(camera);
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        ContentValues values = new ContentValues();
-        values.put(CameraEntry.COLUMN_NAME_CLOSED, false);
+        db.beginTransaction();
+        try {
+            writeCamera(db, camera, nextVersion(db));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
 
-        String selection = CameraEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = { camera.getId() };
+    @Override
+    public void closeCamera(@NonNull Camera camera) {
+        updateStatus(camera, true);
+    }
 
-        db.update(CameraEntry.TABLE_NAME, values, selection, selectionArgs);
+    @Override
+    public void closeCamera(@NonNull String cameraId) {
+        // Not required for the local data source because the {@link CamerasRepository} handles
+        // converting from a {@code cameraId} to a {@link camera} using its cached data.
+    }
 
-        db.close();
+    @Override
+    public void activateCamera(@NonNull Camera camera) {
+        updateStatus(camera, false);
     }
 
     @Override
@@ -191,14 +468,9 @@ public class CamerasLocalDataSource implements CamerasDataSource {
 
     @Override
     public void clearClosedCameras() {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String selection = CameraEntry.COLUMN_NAME_CLOSED + " = 1 AND " + SELECTION_NOT_DELETED;
 
-        String selection = CameraEntry.COLUMN_NAME_CLOSED + " LIKE ?";
-        String[] selectionArgs = { "1" };
-
-        db.delete(CameraEntry.TABLE_NAME, selection, selectionArgs);
-
-        db.close();
+        tombstone(selection, null);
     }
 
     @Override
@@ -209,22 +481,345 @@ public class CamerasLocalDataSource implements CamerasDataSource {
 
     @Override
     public void deleteAllCameras() {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        tombstone(SELECTION_NOT_DELETED, null);
+    }
 
-        db.delete(CameraEntry.TABLE_NAME, null, null);
+    @Override
+    public void deleteCamera(@NonNull String cameraId) {
+        String[] selectionArgs = { cameraId };
 
-        db.close();
+        tombstone(SELECTION_ID_NOT_DELETED, selectionArgs);
     }
 
     @Override
-    public void deleteCamera(@NonNull String cameraId) {
+    public long getRemoteVersion() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        long remoteVersion = readSyncState(db, SyncStateEntry.KEY_REMOTE_VERSION);
+
+        return remoteVersion;
+    }
+
+    /**
+     * Only reads the ids and versions, from the index on the version column.
+     */
+    @NonNull
+    @Override
+    public Map<String, Long> getCameraVersionsSince(long version) {
+        Map<String, Long> versions = new HashMap<>();
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+
+        String[] projection = {
+                CameraEntry.COLUMN_NAME_ENTRY_ID,
+                CameraEntry.COLUMN_NAME_VERSION
+        };
+
+        String selection = CameraEntry.COLUMN_NAME_VERSION + " > ? AND " + SELECTION_NOT_DELETED;
+        String[] selectionArgs = { String.valueOf(version) };
+
+        Cursor c = query(db, projection, selection, selectionArgs, null);
+
+        if (c != null && c.getCount() > 0) {
+            int idColumn = c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_ENTRY_ID);
+            int versionColumn = c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_VERSION);
+            while (c.moveToNext()) {
+                versions.put(c.getString(idColumn), c.getLong(versionColumn));
+            }
+        }
+        if (c != null) {
+            c.close();
+        }
+
+        return versions;
+    }
+
+    /**
+     * Only writes the cameras that differ from the stored ones, all with the same version, so a
+     * reload of an unchanged list costs a single read. The stored cameras missing from
+     * {@code cameras} become tombstones.
+     */
+    @Override
+    public void replaceAllCameras(@NonNull List<Camera> cameras, long remoteVersion) {
+        checkNotNull(cameras);
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        String selection = CameraEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = { cameraId };
+        db.beginTransaction();
+        try {
+            Map<String, Camera> storedCameras = readStoredCameras(db);
+            long version = nextVersion(db);
+            for (Camera camera : cameras) {
+                Camera storedCamera = storedCameras.remove(camera.getId());
+                if (storedCamera == null || storedCamera.isClosed() != camera.isClosed()
+                        || !storedCamera.equals(camera)) {
+                    writeCamera(db, camera, version);
+                }
+            }
+            for (String cameraId : storedCameras.keySet()) {
+                update(db, tombstoneValues(version), SELECTION_ID, new String[]{ cameraId });
+            }
+            writeSyncState(db, SyncStateEntry.KEY_REMOTE_VERSION, remoteVersion);
+            purgeTombstones(db, version - DEFAULT_RETAINED_VERSIONS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void applyCameraChanges(@NonNull List<Camera> changedCameras,
+                                   @NonNull List<String> deletedCameraIds, long remoteVersion) {
+        checkNotNull(changedCameras);
+        checkNotNull(deletedCameraIds);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            long version = nextVersion(db);
+            for (Camera camera : changedCameras) {
+                writeCamera(db, camera, version);
+            }
+            for (String cameraId : deletedCameraIds) {
+                update(db, tombstoneValues(version), SELECTION_ID_NOT_DELETED,
+                        new String[]{ cameraId });
+            }
+            writeSyncState(db, SyncStateEntry.KEY_REMOTE_VERSION, remoteVersion);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the tombstones older than the last {@link #DEFAULT_RETAINED_VERSIONS} versions,
+     * along with their status times. The changes since a version before them can't be read any
+     * more.
+     *
+     * @return the number of tombstones deleted
+     */
+    public int purgeTombstones() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        int purged;
+        db.beginTransaction();
+        try {
+            purged = purgeTombstones(db, nextVersion(db) - 1 - DEFAULT_RETAINED_VERSIONS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return purged;
+    }
+
+    @NonNull
+    private static Camera readCamera(@NonNull Cursor c) {
+        String itemId = c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_ENTRY_ID));
+        String title = c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_TITLE));
+        String description =
+                c.getString(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_DESCRIPTION));
+        boolean closed =
+                c.getInt(c.getColumnIndexOrThrow(CameraEntry.COLUMN_NAME_CLOSED)) == 1;
+        return new Camera(title, description, itemId, closed);
+    }
+
+    /**
+     * Runs a query on the cameras table and records it in the profiler. The query only really runs
+     * when the cursor is first filled, so the row count is read here to include it in the timing.
+     */
+    private Cursor query(@NonNull SQLiteDatabase db, String[] projection, String selection,
+                         String[] selectionArgs, String orderBy) {
+        long start = mQueryProfiler.start();
+        Cursor c = db.query(
+                CameraEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, orderBy);
+        int rows = c != null ? c.getCount() : 0;
+        mQueryProfiler.record(SQLiteQueryBuilder.buildQueryString(false, CameraEntry.TABLE_NAME,
+                projection, selection, null, null, orderBy, null), rows, start);
+        return c;
+    }
+
+    /**
+     * Runs a query on any table and records it in the profiler, like
+     * {@link #query(SQLiteDatabase, String[], String, String[], String)}.
+     */
+    private Cursor rawQuery(@NonNull SQLiteDatabase db, @NonNull String sql,
+                            String[] selectionArgs) {
+        long start = mQueryProfiler.start();
+        Cursor c = db.rawQuery(sql, selectionArgs);
+        int rows = c != null ? c.getCount() : 0;
+        mQueryProfiler.record(sql, rows, start);
+        return c;
+    }
+
+    private int update(@NonNull SQLiteDatabase db, @NonNull ContentValues values,
+                       String selection, String[] selectionArgs) {
+        long start = mQueryProfiler.start();
+        int rows = db.update(CameraEntry.TABLE_NAME, values, selection, selectionArgs);
+        mQueryProfiler.record("UPDATE " + CameraEntry.TABLE_NAME + " SET " + columnsOf(values) +
+                " WHERE " + selection, rows, start);
+        return rows;
+    }
+
+    private long insert(@NonNull SQLiteDatabase db, @NonNull ContentValues values) {
+        long start = mQueryProfiler.start();
+        long rowId = db.insert(CameraEntry.TABLE_NAME, null, values);
+        mQueryProfiler.record("INSERT INTO " + CameraEntry.TABLE_NAME + " (" + columnsOf(values) +
+                ")", rowId == NO_KEY ? 0 : 1, start);
+        return rowId;
+    }
+
+    @NonNull
+    private static String columnsOf(@NonNull ContentValues values) {
+        StringBuilder columns = new StringBuilder();
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(value.getKey());
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Returns the version to stamp on the next write. The version column is indexed so this is a
+     * single index lookup. It must be called inside the transaction of the write, which is
+     * exclusive, so that two writes can't get the same version.
+     */
+    private long nextVersion(@NonNull SQLiteDatabase db) {
+        long start = mQueryProfiler.start();
+        long version = DatabaseUtils.longForQuery(db, SQL_NEXT_VERSION, null);
+        mQueryProfiler.record(SQL_NEXT_VERSION, 1, start);
+        return version;
+    }
+
+    /**
+     * Updates the camera in place, so an edited or re-saved camera keeps its integer key, or
+     * inserts it.
+     */
+    private void writeCamera(@NonNull SQLiteDatabase db, @NonNull Camera camera, long version) {
+        ContentValues values = new ContentValues();
+        values.put(CameraEntry.COLUMN_NAME_TITLE, camera.getTitle());
+        values.put(CameraEntry.COLUMN_NAME_DESCRIPTION, camera.getDescription());
+        values.put(CameraEntry.COLUMN_NAME_CLOSED, camera.isClosed());
+        values.put(CameraEntry.COLUMN_NAME_VERSION, version);
+        values.put(CameraEntry.COLUMN_NAME_DELETED, false);
+
+        String[] selectionArgs = { camera.getId() };
 
-        db.delete(CameraEntry.TABLE_NAME, selection, selectionArgs);
+        if (update(db, values, SELECTION_ID, selectionArgs) == 0) {
+            values.put(CameraEntry.COLUMN_NAME_ENTRY_ID, camera.getId());
+            long key = insert(db, values);
+            if (key != NO_KEY) {
+                mCameraKeys.put(camera.getId(), key);
+            }
+        }
+    }
+
+    private void updateStatus(@NonNull Camera camera, boolean closed) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        String[] selectionArgs = { camera.getId() };
+
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(CameraEntry.COLUMN_NAME_CLOSED, closed);
+            values.put(CameraEntry.COLUMN_NAME_VERSION, nextVersion(db));
+            update(db, values, SELECTION_ID_NOT_DELETED, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void tombstone(@NonNull String selection, String[] selectionArgs) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        db.close();
+        db.beginTransaction();
+        try {
+            update(db, tombstoneValues(nextVersion(db)), selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @NonNull
+    private static ContentValues tombstoneValues(long version) {
+        ContentValues values = new ContentValues();
+        values.put(CameraEntry.COLUMN_NAME_DELETED, true);
+        values.put(CameraEntry.COLUMN_NAME_VERSION, version);
+        return values;
+    }
+
+    /**
+     * Returns the cameras that are not deleted, by id.
+     */
+    @NonNull
+    private Map<String, Camera> readStoredCameras(@NonNull SQLiteDatabase db) {
+        String[] projection = {
+                CameraEntry.COLUMN_NAME_ENTRY_ID,
+                CameraEntry.COLUMN_NAME_TITLE,
+                CameraEntry.COLUMN_NAME_DESCRIPTION,
+                CameraEntry.COLUMN_NAME_CLOSED
+        };
+
+        Map<String, Camera> cameras = new HashMap<>();
+        Cursor c = query(db, projection, SELECTION_NOT_DELETED, null, null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                Camera camera = readCamera(c);
+                cameras.put(camera.getId(), camera);
+            }
+            c.close();
+        }
+        return cameras;
+    }
+
+    /**
+     * Deletes the tombstones up to {@code version} and remembers it, so that the changes since an
+     * earlier version are no longer reported.
+     */
+    private int purgeTombstones(@NonNull SQLiteDatabase db, long version) {
+        if (version <= readSyncState(db, SyncStateEntry.KEY_PURGED_VERSION)) {
+            return 0;
+        }
+        String[] selectionArgs = { String.valueOf(version) };
+
+        long start = mQueryProfiler.start();
+        db.execSQL(SQL_DELETE_PURGEABLE_STATUS_TIMES, selectionArgs);
+        int purged = db.delete(CameraEntry.TABLE_NAME, SELECTION_PURGEABLE, selectionArgs);
+        mQueryProfiler.record("DELETE FROM " + CameraEntry.TABLE_NAME + " WHERE " +
+                SELECTION_PURGEABLE, purged, start);
+
+        writeSyncState(db, SyncStateEntry.KEY_PURGED_VERSION, version);
+        if (purged > 0) {
+            // The keys of purged cameras may be given to new ones.
+            mCameraKeys.clear();
+        }
+        return purged;
+    }
+
+    private long readSyncState(@NonNull SQLiteDatabase db, @NonNull String key) {
+        Cursor c = rawQuery(db, SQL_SYNC_STATE, new String[]{ key });
+        long value = 0;
+        if (c != null && c.moveToFirst()) {
+            value = c.getLong(0);
+        }
+        if (c != null) {
+            c.close();
+        }
+        return value;
+    }
+
+    private void writeSyncState(@NonNull SQLiteDatabase db, @NonNull String key, long value) {
+        ContentValues values = new ContentValues();
+        values.put(SyncStateEntry.COLUMN_NAME_KEY, key);
+        values.put(SyncStateEntry.COLUMN_NAME_VALUE, value);
+
+        long start = mQueryProfiler.start();
+        long rowId = db.insertWithOnConflict(SyncStateEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        mQueryProfiler.record("INSERT OR REPLACE INTO " + SyncStateEntry.TABLE_NAME + " (" +
+                columnsOf(values) + ")", rowId == NO_KEY ? 0 : 1, start);
     }
 }
@@ -34,5 +34,39 @@ public final class CamerasPersistenceContract {
         public static final String COLUMN_NAME_TITLE = "title";
         public static final String COLUMN_NAME_DESCRIPTION = "description";
         public static final String COLUMN_NAME_CLOSED = "closed";
+        public static final String COLUMN_NAME_VERSION = "version";
+        public static final String COLUMN_NAME_DELETED = "deleted";
+    }
+
+    /* Time each camera spent active and closed, one row per camera key */
+    public static abstract class CameraStatusTimeEntry {
+        public static final String TABLE_NAME = "camera_status_times";
+        public static final String COLUMN_NAME_CAMERA_KEY = "camera_key";
+        public static final String COLUMN_NAME_SINCE = "since";
+        public static final String COLUMN_NAME_ACTIVE_MILLIS = "active_millis";
+        public static final String COLUMN_NAME_CLOSED_MILLIS = "closed_millis";
+    }
+
+    /* Fleet-wide counts per hour and per day, one row per period and bucket with a change */
+    public static abstract class StatusRollupEntry {
+        public static final String TABLE_NAME = "status_rollups";
+        public static final String COLUMN_NAME_PERIOD = "period";
+        public static final String COLUMN_NAME_BUCKET_START = "bucket_start";
+        public static final String COLUMN_NAME_ACTIVE_COUNT = "active_count";
+        public static final String COLUMN_NAME_CLOSED_COUNT = "closed_count";
+        public static final String COLUMN_NAME_ACTIVATIONS = "activations";
+        public static final String COLUMN_NAME_CLOSINGS = "closings";
+        public static final String COLUMN_NAME_ACTIVE_MILLIS = "active_millis";
+        public static final String COLUMN_NAME_CLOSED_MILLIS = "closed_millis";
+        public static final String COLUMN_NAME_UPDATED_AT = "updated_at";
+    }
+
+    /* State of the sync with the remote that outlives the process, one row per key */
+    public static abstract class SyncStateEntry {
+        public static final String TABLE_NAME = "sync_state";
+        public static final String COLUMN_NAME_KEY = "key";
+        public static final String COLUMN_NAME_VALUE = "value";
+        public static final String KEY_REMOTE_VERSION = "remote_version";
+        public static final String KEY_PURGED_VERSION = "purged_version";
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.local;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Records the statement text, row count and wall time of every statement run by
+ * {@link CamerasLocalDataSource} into a fixed size ring buffer.
+ * <p>
+ * Statements slower than the threshold are also appended to a slow-query log file, which can be
+ * pulled off the device with {@code adb shell run-as <package> cat files/slow_queries.log}. The
+ * file is written on the executor given to the constructor, never on the thread that ran the
+ * statement. Once it reaches {@link #MAX_SLOW_QUERY_LOG_BYTES} it replaces the previous log,
+ * {@code slow_queries.log.1}, so at most the last two logs are kept. The buffer and the log are
+ * printed by {@link #dump(PrintWriter)}, which {@code CamerasActivity} exposes through
+ * {@code adb shell dumpsys activity}.
+ */
+public class CamerasQueryProfiler {
+
+    public static final String SLOW_QUERY_LOG_FILE_NAME = "slow_queries.log";
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    public static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 16;
+
+    public static final long MAX_SLOW_QUERY_LOG_BYTES = 64 * 1024;
+
+    private static final String PREVIOUS_LOG_SUFFIX = ".1";
+
+    private static final String TAG = "CamerasQueryProfiler";
+
+    /**
+     * One recorded statement.
+     */
+    public static final class Sample {
+
+        @NonNull
+        private final String mSql;
+
+        private final int mRows;
+
+        private final long mDurationNanos;
+
+        private final long mTimestampMillis;
+
+        Sample(@NonNull String sql, int rows, long durationNanos, long timestampMillis) {
+            mSql = sql;
+            mRows = rows;
+            mDurationNanos = durationNanos;
+            mTimestampMillis = timestampMillis;
+        }
+
+        @NonNull
+        public String getSql() {
+            return mSql;
+        }
+
+        public int getRows() {
+            return mRows;
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        public long getTimestampMillis() {
+            return mTimestampMillis;
+        }
+
+        @Override
+        public String toString() {
+            return mTimestampMillis + " " + TimeUnit.NANOSECONDS.toMicros(mDurationNanos) + "us "
+                    + mRows + " rows: " + mSql;
+        }
+    }
+
+    private final Sample[] mSamples;
+
+    private int mNextSample = 0;
+
+    private int mSampleCount = 0;
+
+    private volatile long mSlowQueryThresholdNanos;
+
+    @Nullable
+    private final File mSlowQueryLogFile;
+
+    private final Executor mLogExecutor;
+
+    /**
+     * @param slowQueryLogFile file slow statements are appended to, or null to only log them
+     * @param capacity         number of statements kept in the ring buffer
+     * @param slowQueryThresholdMillis statements taking longer than this go to the slow-query log
+     * @param logExecutor      executor the slow-query log file is written on, e.g. the disk one
+     */
+    public CamerasQueryProfiler(@Nullable File slowQueryLogFile, int capacity,
+                                long slowQueryThresholdMillis, @NonNull Executor logExecutor) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        mSlowQueryLogFile = slowQueryLogFile;
+        mLogExecutor = checkNotNull(logExecutor);
+        mSamples = new Sample[capacity];
+        setSlowQueryThresholdMillis(slowQueryThresholdMillis);
+    }
+
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        mSlowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+    }
+
+    @Nullable
+    public File getSlowQueryLogFile() {
+        return mSlowQueryLogFile;
+    }
+
+    /**
+     * Returns the start time to pass to {@link #record(String, int, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a statement that started at {@code startNanos} and has just completed.
+     */
+    public void record(@NonNull String sql, int rows, long startNanos) {
+        checkNotNull(sql);
+        long durationNanos = System.nanoTime() - startNanos;
+        Sample sample = new Sample(sql, rows, durationNanos, System.currentTimeMillis());
+
+        synchronized (this) {
+            mSamples[mNextSample] = sample;
+            mNextSample = (mNextSample + 1) % mSamples.length;
+            mSampleCount = Math.min(mSampleCount + 1, mSamples.length);
+        }
+
+        if (durationNanos > mSlowQueryThresholdNanos) {
+            logSlowQuery(sample);
+        }
+    }
+
+    /**
+     * Returns the recorded statements, oldest first.
+     */
+    @NonNull
+    public synchronized List<Sample> getSamples() {
+        List<Sample> samples = new ArrayList<>(mSampleCount);
+        int first = (mNextSample - mSampleCount + mSamples.length) % mSamples.length;
+        for (int i = 0; i < mSampleCount; i++) {
+            samples.add(mSamples[(first + i) % mSamples.length]);
+        }
+        return samples;
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Recent statements:");
+        for (Sample sample : getSamples()) {
+            writer.println("  " + sample);
+        }
+        if (mSlowQueryLogFile != null) {
+            writer.println("Slow-query log: " + mSlowQueryLogFile.getAbsolutePath()
+                    + " (previous one: " + mSlowQueryLogFile.getName() + PREVIOUS_LOG_SUFFIX + ")");
+        }
+    }
+
+    private void logSlowQuery(@NonNull final Sample sample) {
+        Log.w(TAG, "Slow query: " + sample);
+        if (mSlowQueryLogFile == null) {
+            return;
+        }
+        mLogExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                appendToSlowQueryLog(mSlowQueryLogFile, sample);
+            }
+        });
+    }
+
+    private static void appendToSlowQueryLog(@NonNull File logFile, @NonNull Sample sample) {
+        synchronized (logFile) {
+            if (logFile.length() >= MAX_SLOW_QUERY_LOG_BYTES) {
+                File previousLogFile = new File(logFile.getPath() + PREVIOUS_LOG_SUFFIX);
+                if (previousLogFile.exists() && !previousLogFile.delete()
+                        || !logFile.renameTo(previousLogFile)) {
+                    Log.e(TAG, "Could not rotate the slow-query log");
+                    return;
+                }
+            }
+            FileWriter writer = null;
+            try {
+                writer = new FileWriter(logFile, true);
+                writer.write(sample.toString());
+                writer.write('\n');
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write to the slow-query log", e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException ignored) {
+                        // Nothing else to do.
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Number of requests a backend may have in flight, adjusted from the latency and the failures of
+ * their answers the way TCP adjusts its congestion window (AIMD).
+ * <p>
+ * The baseline is the 25th percentile of the recent latencies: what the backend answers in when
+ * nothing queues in it. Congestion is a failure, or a moving average of the last answers above
+ * {@link #LATENCY_TOLERANCE} times the baseline. It multiplies the limit by
+ * {@link #BACKOFF_RATIO}, at most once per round of {@code limit} answers since the answers of
+ * one round all saw the same load. Without congestion the limit grows by one per round, as long
+ * as it is actually being used.
+ */
+class AdaptiveConcurrencyLimit {
+
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    static final double BACKOFF_RATIO = 0.75;
+
+    private static final double BASELINE_PERCENTILE = 0.25;
+
+    private static final int BASELINE_WINDOW_SIZE = 200;
+
+    /**
+     * Answers between two computations of the baseline, which sorts the window.
+     */
+    private static final int BASELINE_PERIOD = 20;
+
+    private static final double AVERAGE_WEIGHT = 0.2;
+
+    private final int mMinLimit;
+
+    private final int mMaxLimit;
+
+    private final LatencyWindow mLatencies = new LatencyWindow(BASELINE_WINDOW_SIZE);
+
+    private double mLimit;
+
+    private long mBaselineMillis = -1;
+
+    private double mAverageMillis = -1;
+
+    private int mSamplesSinceBaseline = 0;
+
+    private int mSamplesSinceDecrease = 0;
+
+    private int mDecreaseCount = 0;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        checkArgument(minLimit >= 1 && minLimit <= initialLimit && initialLimit <= maxLimit);
+        mLimit = initialLimit;
+        mMinLimit = minLimit;
+        mMaxLimit = maxLimit;
+    }
+
+    synchronized int getLimit() {
+        return (int) mLimit;
+    }
+
+    /**
+     * Returns the latency of the backend when nothing queues in it, or -1 before the first
+     * answer.
+     */
+    synchronized long getBaselineLatencyMillis() {
+        return mBaselineMillis;
+    }
+
+    /**
+     * Returns the number of times the limit was lowered.
+     */
+    synchronized int getDecreaseCount() {
+        return mDecreaseCount;
+    }
+
+    /**
+     * Reports the outcome of a request.
+     *
+     * @param latencyMillis time from sending the request to its answer
+     * @param inFlight      requests in flight when it was sent, itself included
+     * @param failed        true if it failed or timed out
+     */
+    synchronized void onSample(long latencyMillis, int inFlight, boolean failed) {
+        mSamplesSinceDecrease++;
+        if (!failed) {
+            recordLatency(latencyMillis);
+        }
+        boolean congested = failed || mAverageMillis > mBaselineMillis * LATENCY_TOLERANCE;
+        if (congested) {
+            if (mSamplesSinceDecrease >= mLimit) {
+                mLimit = Math.max(mMinLimit, mLimit * BACKOFF_RATIO);
+                mSamplesSinceDecrease = 0;
+                mDecreaseCount++;
+            }
+        } else if (inFlight * 2 >= mLimit) {
+            // Nothing is learnt from a limit that isn't reached.
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+        }
+    }
+
+    private void recordLatency(long latencyMillis) {
+        mLatencies.record(latencyMillis);
+        if (mAverageMillis < 0) {
+            mAverageMillis = latencyMillis;
+        } else {
+            mAverageMillis += (latencyMillis - mAverageMillis) * AVERAGE_WEIGHT;
+        }
+        if (mBaselineMillis < 0 || ++mSamplesSinceBaseline == BASELINE_PERIOD) {
+            mBaselineMillis = mLatencies.getPercentile(BASELINE_PERCENTILE);
+            mSamplesSinceBaseline = 0;
+        }
+    }
+}
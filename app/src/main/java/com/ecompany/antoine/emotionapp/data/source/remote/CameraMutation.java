@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable description of one change to the cameras of the web service, as sent in a batch by
+ * {@link CamerasMutationBatcher}. The type names are the ones used on the wire.
+ */
+public final class CameraMutation {
+
+    public static final String TYPE_SAVE = "save";
+
+    public static final String TYPE_CLOSE = "close";
+
+    public static final String TYPE_ACTIVATE = "activate";
+
+    public static final String TYPE_DELETE = "delete";
+
+    public static final String TYPE_CLEAR_CLOSED = "clear-closed";
+
+    public static final String TYPE_DELETE_ALL = "delete-all";
+
+    @NonNull
+    private final String mType;
+
+    @Nullable
+    private final String mCameraId;
+
+    @Nullable
+    private final Camera mCamera;
+
+    private CameraMutation(@NonNull String type, @Nullable String cameraId,
+                           @Nullable Camera camera) {
+        mType = type;
+        mCameraId = cameraId;
+        mCamera = camera;
+    }
+
+    @NonNull
+    public static CameraMutation save(@NonNull Camera camera) {
+        checkNotNull(camera);
+        return new CameraMutation(TYPE_SAVE, camera.getId(), camera);
+    }
+
+    @NonNull
+    public static CameraMutation close(@NonNull String cameraId) {
+        return new CameraMutation(TYPE_CLOSE, checkNotNull(cameraId), null);
+    }
+
+    @NonNull
+    public static CameraMutation activate(@NonNull String cameraId) {
+        return new CameraMutation(TYPE_ACTIVATE, checkNotNull(cameraId), null);
+    }
+
+    @NonNull
+    public static CameraMutation delete(@NonNull String cameraId) {
+        return new CameraMutation(TYPE_DELETE, checkNotNull(cameraId), null);
+    }
+
+    @NonNull
+    public static CameraMutation clearClosed() {
+        return new CameraMutation(TYPE_CLEAR_CLOSED, null, null);
+    }
+
+    @NonNull
+    public static CameraMutation deleteAll() {
+        return new CameraMutation(TYPE_DELETE_ALL, null, null);
+    }
+
+    @NonNull
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * Returns the id of the camera changed, or null for the mutations on the whole list.
+     */
+    @Nullable
+    public String getCameraId() {
+        return mCameraId;
+    }
+
+    /**
+     * Returns the camera to save, or null if this isn't a {@link #TYPE_SAVE} mutation.
+     */
+    @Nullable
+    public Camera getCamera() {
+        return mCamera;
+    }
+
+    @Override
+    public String toString() {
+        return mCameraId == null ? mType : mType + " " + mCameraId;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.GetCameraCallback;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.RequestPriority;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Gathers the single camera lookups made at about the same time into one request for all their
+ * ids, in the manner of a DataLoader.
+ * <p>
+ * The ids asked for within {@link #DEFAULT_WINDOW_MILLIS} of the first one, or until
+ * {@link #DEFAULT_MAX_BATCH_SIZE} are waiting, are fetched together, at the most urgent
+ * {@link RequestPriority} of their callbacks. Each id is fetched once however many callbacks ask
+ * for it, including the ones that ask while it is being fetched. Loaded cameras are cached for
+ * {@link #DEFAULT_CACHE_MILLIS}, or until {@link #invalidate(String)} says they changed.
+ * <p>
+ * Callbacks are called on the main thread, with {@link GetCameraCallback#onDataNotAvailable()}
+ * for the ids the server doesn't know and for every id of a batch that failed.
+ */
+public class CamerasBatchLoader {
+
+    private static final String TAG = "CamerasBatchLoader";
+
+    public static final long DEFAULT_WINDOW_MILLIS = 4;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+
+    public static final long DEFAULT_CACHE_MILLIS = 10000;
+
+    /**
+     * Fetches the cameras with the given ids. Ids without a camera are left out of the result.
+     */
+    interface Fetcher {
+
+        @WorkerThread
+        @NonNull
+        List<Camera> fetch(@NonNull List<String> cameraIds) throws IOException;
+    }
+
+    private static final class CachedCamera {
+
+        final Camera mCamera;
+
+        final long mLoadedAtMillis;
+
+        CachedCamera(Camera camera, long loadedAtMillis) {
+            mCamera = camera;
+            mLoadedAtMillis = loadedAtMillis;
+        }
+    }
+
+    private final Fetcher mFetcher;
+
+    private final RemoteRequestScheduler mRequestScheduler;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ScheduledExecutorService mTimer;
+
+    private final long mWindowMillis;
+
+    private final int mMaxBatchSize;
+
+    private final long mCacheMillis;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Callbacks of the ids waiting for the next batch, in the order they were first asked for.
+     */
+    private final Map<String, List<GetCameraCallback>> mPending = new LinkedHashMap<>();
+
+    /**
+     * Callbacks of the ids being fetched.
+     */
+    private final Map<String, List<GetCameraCallback>> mInFlight = new HashMap<>();
+
+    private final Map<String, CachedCamera> mCache = new HashMap<>();
+
+    /**
+     * Bumped on every invalidation, so the batches sent before it, which may have read the old
+     * cameras, don't fill the cache.
+     */
+    private int mGeneration = 0;
+
+    private int mBatchCount = 0;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    CamerasBatchLoader(@NonNull Fetcher fetcher, @NonNull RemoteRequestScheduler requestScheduler,
+                       @NonNull AppExecutors appExecutors) {
+        this(fetcher, requestScheduler, appExecutors, Executors.newSingleThreadScheduledExecutor(),
+                DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_BATCH_SIZE, DEFAULT_CACHE_MILLIS);
+    }
+
+    @VisibleForTesting
+    CamerasBatchLoader(@NonNull Fetcher fetcher, @NonNull RemoteRequestScheduler requestScheduler,
+                       @NonNull AppExecutors appExecutors, @NonNull ScheduledExecutorService timer,
+                       long windowMillis, int maxBatchSize, long cacheMillis) {
+        mFetcher = checkNotNull(fetcher);
+        mRequestScheduler = checkNotNull(requestScheduler);
+        mAppExecutors = checkNotNull(appExecutors);
+        mTimer = checkNotNull(timer);
+        mWindowMillis = windowMillis;
+        mMaxBatchSize = maxBatchSize;
+        mCacheMillis = cacheMillis;
+    }
+
+    public void load(@NonNull String cameraId, @NonNull GetCameraCallback callback) {
+        checkNotNull(cameraId);
+        checkNotNull(callback);
+        int pendingCount;
+        synchronized (mLock) {
+            CachedCamera cached = mCache.get(cameraId);
+            if (cached != null) {
+                if (SystemClock.elapsedRealtime() - cached.mLoadedAtMillis < mCacheMillis) {
+                    deliver(callback, cached.mCamera);
+                    return;
+                }
+                mCache.remove(cameraId);
+            }
+            List<GetCameraCallback> inFlight = mInFlight.get(cameraId);
+            if (inFlight != null) {
+                inFlight.add(callback);
+                return;
+            }
+            List<GetCameraCallback> callbacks = mPending.get(cameraId);
+            if (callbacks == null) {
+                callbacks = new ArrayList<>();
+                mPending.put(cameraId, callbacks);
+            }
+            callbacks.add(callback);
+            pendingCount = mPending.size();
+        }
+        if (pendingCount == mMaxBatchSize) {
+            mTimer.execute(mFlushTask);
+        } else if (pendingCount == 1) {
+            mTimer.schedule(mFlushTask, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Drops the cached camera {@code cameraId}, after it was changed.
+     */
+    public void invalidate(@NonNull String cameraId) {
+        synchronized (mLock) {
+            mCache.remove(checkNotNull(cameraId));
+            mGeneration++;
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (mLock) {
+            mCache.clear();
+            mGeneration++;
+        }
+    }
+
+    /**
+     * Returns the number of batches fetched so far.
+     */
+    public int getBatchCount() {
+        synchronized (mLock) {
+            return mBatchCount;
+        }
+    }
+
+    public void shutdown() {
+        mTimer.shutdown();
+    }
+
+    /**
+     * Sends everything waiting so far, in batches of at most the maximum size.
+     */
+    private void flush() {
+        while (true) {
+            final Map<String, List<GetCameraCallback>> batch = new LinkedHashMap<>();
+            final int generation;
+            synchronized (mLock) {
+                for (Map.Entry<String, List<GetCameraCallback>> entry : mPending.entrySet()) {
+                    if (batch.size() == mMaxBatchSize) {
+                        break;
+                    }
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                mPending.keySet().removeAll(batch.keySet());
+                mInFlight.putAll(batch);
+                mBatchCount++;
+                generation = mGeneration;
+            }
+            mRequestScheduler.execute(getPriority(batch), new Runnable() {
+                @Override
+                public void run() {
+                    fetch(new ArrayList<>(batch.keySet()), generation);
+                }
+            });
+        }
+    }
+
+    @NonNull
+    private static RequestPriority getPriority(
+            @NonNull Map<String, List<GetCameraCallback>> batch) {
+        RequestPriority priority = RequestPriority.BACKGROUND;
+        for (List<GetCameraCallback> callbacks : batch.values()) {
+            for (GetCameraCallback callback : callbacks) {
+                RequestPriority callbackPriority =
+                        RemoteRequestScheduler.priorityOf(callback, RequestPriority.INTERACTIVE);
+                if (callbackPriority.compareTo(priority) < 0) {
+                    priority = callbackPriority;
+                }
+            }
+        }
+        return priority;
+    }
+
+    @WorkerThread
+    private void fetch(@NonNull List<String> cameraIds, int generation) {
+        Map<String, Camera> loaded = new HashMap<>();
+        try {
+            for (Camera camera : mFetcher.fetch(cameraIds)) {
+                loaded.put(camera.getId(), camera);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not get a batch of " + cameraIds.size() + " cameras", e);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            for (String cameraId : cameraIds) {
+                Camera camera = loaded.get(cameraId);
+                if (camera != null && generation == mGeneration) {
+                    mCache.put(cameraId, new CachedCamera(camera, now));
+                }
+                for (GetCameraCallback callback : mInFlight.remove(cameraId)) {
+                    deliver(callback, camera);
+                }
+            }
+        }
+    }
+
+    private void deliver(@NonNull final GetCameraCallback callback, final Camera camera) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (camera == null) {
+                    callback.onDataNotAvailable();
+                } else {
+                    callback.onCameraLoaded(camera);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Converts cameras to and from the compact binary format of the cameras web service, which it
+ * serves instead of the {@link CamerasJsonCodec} format to clients that accept
+ * {@link #CONTENT_TYPE}.
+ * <p>
+ * A body starts with a 4 byte header: the magic {@code 'C' 'B'}, the format version and a flags
+ * byte whose lowest bit says that the rest of the body is raw Deflate, compressed with
+ * {@link #PRESET_DICTIONARY}. Then:
+ * <ul>
+ * <li>a camera list is its version, the number of cameras, the cameras, the number of deleted ids
+ * and the ids</li>
+ * <li>a camera is a flags byte (closed, has a title, has a description), its id, then its title
+ * and description if it has them</li>
+ * <li>an id is a 0 followed by 16 bytes when it is a UUID in canonical form, as the ids made by
+ * the app are, or else its UTF-8 length plus one followed by its bytes</li>
+ * <li>numbers and lengths are unsigned LEB128 varints, strings are length-prefixed UTF-8</li>
+ * </ul>
+ * Camera lists are decoded as they are read, like {@link CamerasJsonStreamParser} does.
+ */
+public final class CamerasBinaryCodec {
+
+    public static final String CONTENT_TYPE = "application/x-emotion-cameras";
+
+    /**
+     * Bodies smaller than this are not worth compressing.
+     */
+    public static final int DEFLATE_THRESHOLD_BYTES = 512;
+
+    /**
+     * Primes the Deflate window with the strings that camera titles and descriptions share, so
+     * even short lists compress. Server and client must use the same one: changing it requires a
+     * new {@link #FORMAT_VERSION}.
+     */
+    static final byte[] PRESET_DICTIONARY = utf8("camera Camera entrance Entrance lobby Lobby "
+            + "parking Parking garage Garage floor Floor room Room office Office hall Hall door Door"
+            + " corridor Corridor stairs Stairs elevator Elevator reception Reception meeting "
+            + "Meeting kitchen Kitchen warehouse Warehouse north south east west main Main back "
+            + "Back front Front gate Gate exit Exit level Level building Building ");
+
+    private static final int MAGIC_0 = 'C';
+
+    private static final int MAGIC_1 = 'B';
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int FLAG_DEFLATED = 1;
+
+    private static final int CAMERA_CLOSED = 1;
+
+    private static final int CAMERA_HAS_TITLE = 1 << 1;
+
+    private static final int CAMERA_HAS_DESCRIPTION = 1 << 2;
+
+    private static final int UUID_LENGTH = 36;
+
+    /**
+     * Longest string a body may declare, so a corrupt length fails instead of allocating it.
+     */
+    private static final int MAX_STRING_BYTES = 1 << 20;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String CHARSET = "UTF-8";
+
+    private CamerasBinaryCodec() {}
+
+    /**
+     * Encodes a camera list, compressing it if it is at least {@link #DEFLATE_THRESHOLD_BYTES}.
+     */
+    @NonNull
+    public static byte[] encodePayload(@NonNull CamerasPayload payload) {
+        byte[] plain = encodePayload(payload, false);
+        return plain.length < DEFLATE_THRESHOLD_BYTES ? plain : encodePayload(payload, true);
+    }
+
+    @NonNull
+    public static byte[] encodePayload(@NonNull CamerasPayload payload, boolean deflate) {
+        checkNotNull(payload);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            OutputStream out = openBody(bytes, deflate);
+            writeVarint(out, payload.getVersion());
+            List<Camera> cameras = payload.getCameras();
+            writeVarint(out, cameras.size());
+            for (Camera camera : cameras) {
+                writeCamera(out, camera);
+            }
+            List<String> deletedCameraIds = payload.getDeletedCameraIds();
+            writeVarint(out, deletedCameraIds.size());
+            for (String cameraId : deletedCameraIds) {
+                writeId(out, cameraId);
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    public static byte[] encodeCamera(@NonNull Camera camera) {
+        checkNotNull(camera);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            OutputStream out = openBody(bytes, false);
+            writeCamera(out, camera);
+            out.close();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a camera list, calling {@code listener} as its parts are read.
+     */
+    public static void decodeCameraList(@NonNull InputStream body,
+                                        @NonNull CamerasJsonStreamParser.Listener listener)
+            throws IOException {
+        checkNotNull(listener);
+        DataInputStream in = readHeader(body);
+        listener.onVersion(readVarint(in));
+        for (long count = readVarint(in); count > 0; count--) {
+            listener.onCamera(readCamera(in));
+        }
+        for (long count = readVarint(in); count > 0; count--) {
+            listener.onDeletedCamera(readId(in));
+        }
+    }
+
+    @NonNull
+    public static Camera decodeCamera(@NonNull InputStream body) throws IOException {
+        return readCamera(readHeader(body));
+    }
+
+    @NonNull
+    private static OutputStream openBody(@NonNull OutputStream out, boolean deflate)
+            throws IOException {
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(FORMAT_VERSION);
+        out.write(deflate ? FLAG_DEFLATED : 0);
+        if (!deflate) {
+            return out;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setDictionary(PRESET_DICTIONARY);
+        return new DeflaterOutputStream(out, deflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // Not done by DeflaterOutputStream for a deflater it was given.
+                def.end();
+            }
+        };
+    }
+
+    @NonNull
+    private static DataInputStream readHeader(@NonNull InputStream body) throws IOException {
+        checkNotNull(body);
+        if (body.read() != MAGIC_0 || body.read() != MAGIC_1) {
+            throw new IOException("Not a binary camera body");
+        }
+        int formatVersion = body.read();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary camera format " + formatVersion);
+        }
+        int flags = body.read();
+        if (flags < 0) {
+            throw new EOFException("Truncated binary camera header");
+        }
+        if ((flags & FLAG_DEFLATED) == 0) {
+            return new DataInputStream(body);
+        }
+        Inflater inflater = new Inflater(true);
+        inflater.setDictionary(PRESET_DICTIONARY);
+        // Most reads are a byte or two, too small to go to the inflater one by one.
+        return new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(body, inflater), BUFFER_SIZE));
+    }
+
+    private static void writeCamera(@NonNull OutputStream out, @NonNull Camera camera)
+            throws IOException {
+        int flags = 0;
+        if (camera.isClosed()) {
+            flags |= CAMERA_CLOSED;
+        }
+        if (camera.getTitle() != null) {
+            flags |= CAMERA_HAS_TITLE;
+        }
+        if (camera.getDescription() != null) {
+            flags |= CAMERA_HAS_DESCRIPTION;
+        }
+        out.write(flags);
+        writeId(out, camera.getId());
+        if (camera.getTitle() != null) {
+            writeString(out, camera.getTitle());
+        }
+        if (camera.getDescription() != null) {
+            writeString(out, camera.getDescription());
+        }
+    }
+
+    @NonNull
+    private static Camera readCamera(@NonNull DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+        String id = readId(in);
+        String title = (flags & CAMERA_HAS_TITLE) != 0 ? readString(in) : null;
+        String description = (flags & CAMERA_HAS_DESCRIPTION) != 0 ? readString(in) : null;
+        return new Camera(title, description, id, (flags & CAMERA_CLOSED) != 0);
+    }
+
+    private static void writeId(@NonNull OutputStream out, @NonNull String id) throws IOException {
+        UUID uuid = parseCanonicalUuid(id);
+        if (uuid == null) {
+            byte[] bytes = id.getBytes(CHARSET);
+            writeVarint(out, bytes.length + 1);
+            out.write(bytes);
+            return;
+        }
+        out.write(0);
+        writeLong(out, uuid.getMostSignificantBits());
+        writeLong(out, uuid.getLeastSignificantBits());
+    }
+
+    @NonNull
+    private static String readId(@NonNull DataInputStream in) throws IOException {
+        int length = readLength(in);
+        if (length > 0) {
+            return readUtf8(in, length - 1);
+        }
+        return new UUID(in.readLong(), in.readLong()).toString();
+    }
+
+    /**
+     * Returns the UUID {@code id} is the canonical form of, or null if there is none.
+     */
+    @Nullable
+    private static UUID parseCanonicalUuid(@NonNull String id) {
+        if (id.length() != UUID_LENGTH) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            // fromString() also accepts upper case and missing leading zeros.
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(@NonNull OutputStream out, @NonNull String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(CHARSET);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    @NonNull
+    private static String readString(@NonNull DataInputStream in) throws IOException {
+        return readUtf8(in, readLength(in));
+    }
+
+    @NonNull
+    private static String readUtf8(@NonNull DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static int readLength(@NonNull DataInputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("String of " + length + " bytes in a binary camera body");
+        }
+        return (int) length;
+    }
+
+    private static void writeLong(@NonNull OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarint(@NonNull OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(@NonNull DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in a binary camera body");
+    }
+
+    @NonNull
+    private static byte[] utf8(@NonNull String value) {
+        try {
+            return value.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps {@link CamerasRepository} up to date while the app is in the foreground, by long polling
+ * the change feed of the cameras web service and applying each change as it arrives.
+ * <p>
+ * Every poll asks for the changes after the last version seen, so after a dropped connection or a
+ * {@link #stop()} and {@link #start()} the feed resumes where it was, without a full reload. Polls
+ * that fail are retried after an exponential backoff with jitter.
+ */
+public class CamerasChangeFeed {
+
+    private static final String TAG = "CamerasChangeFeed";
+
+    /**
+     * How long the server holds a poll when nothing changes.
+     */
+    public static final long POLL_WAIT_MILLIS = 25000;
+
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 60000;
+
+    private final CamerasHttpDataSource mDataSource;
+
+    private final CamerasRepository mRepository;
+
+    private final AppExecutors mAppExecutors;
+
+    private final Random mRandom = new Random();
+
+    /**
+     * The thread polling for this feed, or null when it is stopped. A thread that is no longer
+     * this one finishes its current poll and exits.
+     */
+    private volatile Thread mPollingThread;
+
+    private volatile long mLastSeenVersion = 0;
+
+    public CamerasChangeFeed(@NonNull CamerasHttpDataSource dataSource,
+                             @NonNull CamerasRepository repository,
+                             @NonNull AppExecutors appExecutors) {
+        mDataSource = checkNotNull(dataSource);
+        mRepository = checkNotNull(repository);
+        mAppExecutors = checkNotNull(appExecutors);
+    }
+
+    @MainThread
+    public void start() {
+        if (mPollingThread != null) {
+            return;
+        }
+        mLastSeenVersion = Math.max(mLastSeenVersion, mRepository.getRemoteVersion());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, TAG);
+        mPollingThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops polling. A poll in progress is abandoned, but the changes it returns are still applied.
+     */
+    @MainThread
+    public void stop() {
+        Thread thread = mPollingThread;
+        mPollingThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return mPollingThread != null;
+    }
+
+    /**
+     * Returns the version the next poll asks for changes after.
+     */
+    public long getLastSeenVersion() {
+        return mLastSeenVersion;
+    }
+
+    private void poll() {
+        Thread self = Thread.currentThread();
+        int failures = 0;
+        while (mPollingThread == self) {
+            try {
+                final CamerasPayload payload =
+                        mDataSource.pollChanges(mLastSeenVersion, POLL_WAIT_MILLIS);
+                failures = 0;
+                if (payload != null && payload.getVersion() > mLastSeenVersion) {
+                    mLastSeenVersion = payload.getVersion();
+                    mAppExecutors.mainThread().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mRepository.applyRemoteChanges(payload.getCameras(),
+                                    payload.getDeletedCameraIds(), payload.getVersion());
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                failures++;
+                long delayMillis = getReconnectDelayMillis(failures);
+                Log.w(TAG, "Change feed failed, reconnecting in " + delayMillis + " ms", e);
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Half of the exponential delay, plus a random part up to the other half.
+     */
+    private long getReconnectDelayMillis(int failures) {
+        long delayMillis = Math.min(MAX_RECONNECT_DELAY_MILLIS,
+                MIN_RECONNECT_DELAY_MILLIS << Math.min(failures - 1, 16));
+        return delayMillis / 2 + (long) (mRandom.nextDouble() * delayMillis / 2);
+    }
+}
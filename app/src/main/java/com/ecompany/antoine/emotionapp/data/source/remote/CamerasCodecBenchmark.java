@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compares the size and decode time of a camera list in the {@link CamerasJsonCodec} and
+ * {@link CamerasBinaryCodec} formats, each as it would go over the wire: JSON plain and gzipped,
+ * binary plain and deflated.
+ * <p>
+ * The list is synthetic but shaped like real ones: UUID ids, short titles and descriptions made of
+ * a few common words, a quarter of the cameras closed and a few deleted ids. Decode times include
+ * the decompression, and are the median of the runs after a warm-up. {@code CamerasActivity}
+ * prints a run in debug builds with
+ * {@code adb shell dumpsys activity <package>/.cameras.CamerasActivity codec-benchmark}.
+ */
+public final class CamerasCodecBenchmark {
+
+    public static final int DEFAULT_CAMERA_COUNT = 1000;
+
+    public static final int DEFAULT_RUNS = 20;
+
+    private static final String[] PLACES = {"Entrance", "Lobby", "Parking", "Garage", "Office",
+            "Hall", "Corridor", "Stairs", "Elevator", "Reception", "Kitchen", "Warehouse", "Gate"};
+
+    private static final String[] SIDES = {"north", "south", "east", "west", "main", "back"};
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Size and decode time of one format.
+     */
+    public static final class Result {
+
+        @NonNull
+        private final String mFormat;
+
+        private final int mSizeBytes;
+
+        private final long mDecodeNanos;
+
+        Result(@NonNull String format, int sizeBytes, long decodeNanos) {
+            mFormat = format;
+            mSizeBytes = sizeBytes;
+            mDecodeNanos = decodeNanos;
+        }
+
+        @NonNull
+        public String getFormat() {
+            return mFormat;
+        }
+
+        public int getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public long getDecodeNanos() {
+            return mDecodeNanos;
+        }
+    }
+
+    private CamerasCodecBenchmark() {}
+
+    /**
+     * Encodes a list of {@code cameraCount} cameras in every format and decodes it {@code runs}
+     * times. Blocks until all the runs are done.
+     */
+    @NonNull
+    public static List<Result> run(int cameraCount, int runs) throws IOException {
+        checkArgument(cameraCount >= 0 && runs > 0);
+        CamerasPayload payload = createPayload(cameraCount, new Random(cameraCount));
+        byte[] json = CamerasJsonCodec.encodePayload(payload).getBytes(CHARSET);
+
+        List<Result> results = new ArrayList<>();
+        results.add(measure("json", json, false, runs));
+        results.add(measure("json+gzip", gzip(json), false, runs));
+        results.add(measure("binary", CamerasBinaryCodec.encodePayload(payload, false),
+                true, runs));
+        results.add(measure("binary+deflate", CamerasBinaryCodec.encodePayload(payload, true),
+                true, runs));
+        return results;
+    }
+
+    /**
+     * Runs the benchmark with the default sizes and prints a table of the results, with each
+     * size relative to gzipped JSON.
+     */
+    public static void dump(@NonNull PrintWriter writer) {
+        writer.println("Camera codec benchmark, " + DEFAULT_CAMERA_COUNT + " cameras, median of "
+                + DEFAULT_RUNS + " runs:");
+        List<Result> results;
+        try {
+            results = run(DEFAULT_CAMERA_COUNT, DEFAULT_RUNS);
+        } catch (IOException e) {
+            writer.println("  failed: " + e);
+            return;
+        }
+        int baselineBytes = results.get(1).getSizeBytes();
+        for (Result result : results) {
+            writer.println(String.format(Locale.US, "  %-16s %8d bytes %6.0f%% %8.2f ms",
+                    result.getFormat(), result.getSizeBytes(),
+                    100.0 * result.getSizeBytes() / baselineBytes,
+                    result.getDecodeNanos() / 1e6));
+        }
+    }
+
+    @NonNull
+    private static Result measure(@NonNull String format, @NonNull byte[] body,
+                                  boolean binary, int runs) throws IOException {
+        // The first runs warm up the code paths, and are not counted.
+        for (int i = 0; i < Math.min(runs, 5); i++) {
+            decode(body, binary);
+        }
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            decode(body, binary);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return new Result(format, body.length, nanos[runs / 2]);
+    }
+
+    private static int decode(@NonNull byte[] body, boolean binary) throws IOException {
+        final int[] count = new int[1];
+        CamerasJsonStreamParser.Listener listener = new CamerasJsonStreamParser.Listener() {
+            @Override
+            public void onCamera(@NonNull Camera camera) {
+                count[0]++;
+            }
+
+            @Override
+            public void onDeletedCamera(@NonNull String cameraId) {
+                count[0]++;
+            }
+
+            @Override
+            public void onVersion(long version) {
+                // Not needed.
+            }
+        };
+        InputStream in = new ByteArrayInputStream(body);
+        if (binary) {
+            CamerasBinaryCodec.decodeCameraList(in, listener);
+        } else {
+            if (body.length > 1 && body[0] == (byte) 0x1f && body[1] == (byte) 0x8b) {
+                in = new GZIPInputStream(in);
+            }
+            new CamerasJsonStreamParser(new InputStreamReader(in, CHARSET))
+                    .parseCameraList(listener);
+        }
+        return count[0];
+    }
+
+    @NonNull
+    private static byte[] gzip(@NonNull byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write(bytes);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    @NonNull
+    private static CamerasPayload createPayload(int cameraCount, @NonNull Random random) {
+        List<Camera> cameras = new ArrayList<>(cameraCount);
+        for (int i = 0; i < cameraCount; i++) {
+            String place = PLACES[random.nextInt(PLACES.length)];
+            String side = SIDES[random.nextInt(SIDES.length)];
+            cameras.add(new Camera(place + " " + (i % 40 + 1),
+                    "Covers the " + side + " " + place.toLowerCase(Locale.US) + ", level "
+                            + random.nextInt(6),
+                    new UUID(random.nextLong(), random.nextLong()).toString(),
+                    random.nextInt(4) == 0));
+        }
+        List<String> deletedCameraIds = new ArrayList<>();
+        for (int i = 0; i < cameraCount / 50; i++) {
+            deletedCameraIds.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+        return new CamerasPayload(cameraCount, cameras, deletedCameraIds);
+    }
+}
@@ -0,0 +1,813 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasMerkleTree;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Implementation of the data source backed by the cameras web service.
+ * <p>
+ * Requests run on the network executor and callbacks are delivered on the main thread. Connections
+ * are kept alive and pooled by {@link HttpURLConnection}, which does so by default on Android,
+ * which is why every response body is read to the end and closed. Responses are gzipped, and the
+ * camera lists of {@code GET cameras?since=<version>} are revalidated with {@code If-None-Match},
+ * so an unchanged fleet costs a 304 instead of a full payload. Other reads are not cached.
+ * <p>
+ * Camera lists and cameras are requested in the {@link CamerasBinaryCodec} format, with the
+ * {@link CamerasJsonCodec} one as a fallback, and decoded according to the {@code Content-Type}
+ * the server picked, so servers that don't know the binary format keep working.
+ * <p>
+ * Camera lists are parsed while they download. Callbacks that
+ * implement {@link CamerasChunkListener} get the cameras in chunks as they are parsed, the first
+ * one after {@link #FIRST_CHUNK_SIZE} cameras and each next one twice as large.
+ * <p>
+ * The service exposes:
+ * <ul>
+ * <li>{@code GET cameras?since=<version>}: the {@link CamerasPayload} changed since a version</li>
+ * <li>{@code GET cameras/feed?since=<version>&wait=<millis>}: long poll for the changes after a
+ * version, answered with a 204 if nothing changed within the wait</li>
+ * <li>{@code GET cameras?ids=<id>,<id>}: the cameras with these ids, as a {@link CamerasPayload}
+ * without the ones that don't exist</li>
+ * <li>{@code GET cameras/<id>}: one camera, or 404</li>
+ * <li>{@code GET cameras/tree?level=<k>&nodes=<i>,<i>}: the hashes of the children of these
+ * nodes of the {@link CamerasMerkleTree} of the cameras, see {@link CamerasJsonCodec}</li>
+ * <li>{@code GET cameras?buckets=<i>,<i>}: the cameras of these leaves of the tree, as a
+ * {@link CamerasPayload}</li>
+ * <li>{@code PUT cameras/<id>}: creates or replaces a camera</li>
+ * <li>{@code POST cameras/<id>/close} and {@code POST cameras/<id>/activate}</li>
+ * <li>{@code POST cameras/clear-closed}</li>
+ * <li>{@code DELETE cameras/<id>} and {@code DELETE cameras}</li>
+ * <li>{@code POST cameras/batch}: applies several of the mutations above in order</li>
+ * </ul>
+ * Mutations are all sent through a {@link CamerasMutationBatcher}, so a burst of edits costs one
+ * request instead of one each.
+ * <p>
+ * Reads go through a {@link RemoteRequestScheduler}, at the {@link RequestPriority} their callback
+ * asks for. Otherwise {@code getCamera} is {@link RequestPriority#INTERACTIVE} and camera lists are
+ * {@link RequestPriority#BACKGROUND}.
+ */
+public class CamerasHttpDataSource implements CamerasDataSource, CamerasTreeSource {
+
+    private static final String TAG = "CamerasHttpDataSource";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
+    private static final int READ_TIMEOUT_MILLIS = 20000;
+
+    private static final int MAX_CACHED_RESPONSES = 8;
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Prefers the binary format, which is smaller than gzipped JSON and quicker to decode, see
+     * {@link CamerasCodecBenchmark}.
+     */
+    private static final String ACCEPT_CAMERAS =
+            CamerasBinaryCodec.CONTENT_TYPE + ", " + CamerasJsonCodec.CONTENT_TYPE + "; q=0.5";
+
+    /**
+     * Number of cameras in the first chunk reported to a {@link CamerasChunkListener}: about a
+     * screenful.
+     */
+    private static final int FIRST_CHUNK_SIZE = 32;
+
+    private static CamerasHttpDataSource INSTANCE;
+
+    private final String mBaseUrl;
+
+    private final AppExecutors mAppExecutors;
+
+    private final CamerasMutationBatcher mMutationBatcher;
+
+    private final RemoteRequestScheduler mRequestScheduler;
+
+    private final CamerasBatchLoader mCameraLoader;
+
+    /**
+     * Last camera list per {@code GET cameras?since=<version>} URL, with its ETag, in least
+     * recently used order.
+     */
+    private final Map<String, CachedResponse> mResponseCache =
+            new LinkedHashMap<String, CachedResponse>(MAX_CACHED_RESPONSES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                    return size() > MAX_CACHED_RESPONSES;
+                }
+            };
+
+    private static final BodyDecoder<Camera> CAMERA_DECODER = new BodyDecoder<Camera>() {
+        @Override
+        public Camera decode(@NonNull InputStream body, @Nullable String contentType)
+                throws IOException {
+            if (isBinary(contentType)) {
+                return CamerasBinaryCodec.decodeCamera(body);
+            }
+            return new CamerasJsonStreamParser(new InputStreamReader(body, CHARSET)).parseCamera();
+        }
+    };
+
+    private static final BodyDecoder<CamerasJsonCodec.TreeHashes> TREE_HASHES_DECODER =
+            new BodyDecoder<CamerasJsonCodec.TreeHashes>() {
+                @Override
+                public CamerasJsonCodec.TreeHashes decode(@NonNull InputStream body,
+                                                          @Nullable String contentType)
+                        throws IOException {
+                    try {
+                        return CamerasJsonCodec.decodeTreeHashes(readString(body));
+                    } catch (JSONException e) {
+                        throw new IOException("Malformed tree hashes", e);
+                    }
+                }
+            };
+
+    /**
+     * Decodes a response body of the given {@code Content-Type}.
+     */
+    interface BodyDecoder<T> {
+
+        T decode(@NonNull InputStream body, @Nullable String contentType) throws IOException;
+    }
+
+    /**
+     * A camera list and its ETag. The list of every camera, i.e. the changes since version 0, is
+     * only softly referenced so it doesn't stay in memory next to the repository's copy when
+     * memory is short. Once collected, the next request is not conditional.
+     */
+    private static final class CachedResponse {
+
+        final String mETag;
+
+        @Nullable
+        private final CamerasPayload mPayload;
+
+        @Nullable
+        private final SoftReference<CamerasPayload> mSoftPayload;
+
+        CachedResponse(@NonNull String eTag, @NonNull CamerasPayload payload, boolean softly) {
+            mETag = eTag;
+            mPayload = softly ? null : payload;
+            mSoftPayload = softly ? new SoftReference<>(payload) : null;
+        }
+
+        @Nullable
+        CamerasPayload getPayload() {
+            return mSoftPayload != null ? mSoftPayload.get() : mPayload;
+        }
+    }
+
+    // Prevent direct instantiation.
+    private CamerasHttpDataSource(@NonNull String baseUrl, @NonNull AppExecutors appExecutors) {
+        mBaseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        mAppExecutors = checkNotNull(appExecutors);
+        mMutationBatcher = new CamerasMutationBatcher(new CamerasMutationBatcher.Transport() {
+            @NonNull
+            @Override
+            public int[] send(@NonNull List<CameraMutation> mutations) throws IOException {
+                return sendMutations(mutations);
+            }
+        }, appExecutors);
+        mRequestScheduler = new RemoteRequestScheduler(appExecutors.networkIO(),
+                RemoteRequestScheduler.DEFAULT_MAX_RUNNING);
+        mCameraLoader = new CamerasBatchLoader(new CamerasBatchLoader.Fetcher() {
+            @NonNull
+            @Override
+            public List<Camera> fetch(@NonNull List<String> cameraIds) throws IOException {
+                return fetchCameras(cameraIds);
+            }
+        }, mRequestScheduler, appExecutors);
+    }
+
+    /**
+     * Returns the single instance of this class, creating it if necessary.
+     *
+     * @param baseUrl      the root of the cameras web service, e.g. {@code https://host/api/}
+     * @param appExecutors executors for the requests and the callbacks
+     * @return the {@link CamerasHttpDataSource} instance
+     */
+    public static CamerasHttpDataSource getInstance(@NonNull String baseUrl,
+                                                    @NonNull AppExecutors appExecutors) {
+        if (INSTANCE == null) {
+            INSTANCE = new CamerasHttpDataSource(checkNotNull(baseUrl), appExecutors);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Used to force {@link #getInstance(String, AppExecutors)} to create a new instance next time
+     * it's called.
+     */
+    public static void destroyInstance() {
+        if (INSTANCE != null) {
+            INSTANCE.mMutationBatcher.shutdown();
+            INSTANCE.mCameraLoader.shutdown();
+        }
+        INSTANCE = null;
+    }
+
+    @NonNull
+    public RemoteRequestScheduler getRequestScheduler() {
+        return mRequestScheduler;
+    }
+
+    /**
+     * Note: {@link LoadCamerasCallback#onDataNotAvailable()} is fired if the server can't be
+     * contacted or returns an error.
+     */
+    @Override
+    public void getCameras(@NonNull final LoadCamerasCallback callback) {
+        checkNotNull(callback);
+        RequestPriority priority =
+                RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND);
+        mRequestScheduler.execute(priority, new Runnable() {
+            @Override
+            public void run() {
+                final CamerasPayload payload = fetchPayload(0, chunkListenerOf(callback));
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (payload == null) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onCamerasLoaded(payload.getCameras());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Lookups made at about the same time are fetched together, see {@link CamerasBatchLoader}.
+     * <p>
+     * Note: {@link GetCameraCallback#onDataNotAvailable()} is fired if the camera doesn't exist, the
+     * server can't be contacted or it returns an error.
+     */
+    @Override
+    public void getCamera(@NonNull String cameraId, @NonNull GetCameraCallback callback) {
+        mCameraLoader.load(cameraId, callback);
+    }
+
+    /**
+     * Note: {@link LoadCameraChangesCallback#onDataNotAvailable()} is fired if the server can't be
+     * contacted or returns an error.
+     */
+    @Override
+    public void getCamerasChangedSince(final long version,
+                                       @NonNull final LoadCameraChangesCallback callback) {
+        checkNotNull(callback);
+        RequestPriority priority =
+                RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND);
+        mRequestScheduler.execute(priority, new Runnable() {
+            @Override
+            public void run() {
+                final CamerasPayload payload = fetchPayload(version, chunkListenerOf(callback));
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (payload == null) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onCameraChangesLoaded(payload.getCameras(),
+                                    payload.getDeletedCameraIds(), payload.getVersion());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadTreeHashesCallback#onDataNotAvailable()} is fired if the server can't be
+     * contacted, doesn't keep a tree or returns an error.
+     */
+    @Override
+    public void getTreeChildHashes(final int level, @NonNull int[] nodes,
+                                   @NonNull final LoadTreeHashesCallback callback) {
+        checkNotNull(callback);
+        final String path = "cameras/tree?level=" + level + "&nodes=" + join(nodes);
+        mRequestScheduler.execute(RequestPriority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                CamerasJsonCodec.TreeHashes treeHashes;
+                try {
+                    treeHashes = get(path, TREE_HASHES_DECODER);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not get the tree hashes of level " + level, e);
+                    treeHashes = null;
+                }
+                final CamerasJsonCodec.TreeHashes result = treeHashes;
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result == null) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onTreeHashesLoaded(result.mHashes, result.mVersion);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadCameraChangesCallback#onDataNotAvailable()} is fired if the server can't be
+     * contacted, doesn't keep a tree or returns an error.
+     */
+    @Override
+    public void getCamerasInBuckets(@NonNull int[] buckets,
+                                    @NonNull final LoadCameraChangesCallback callback) {
+        checkNotNull(callback);
+        final String path = "cameras?buckets=" + join(buckets);
+        RequestPriority priority =
+                RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND);
+        mRequestScheduler.execute(priority, new Runnable() {
+            @Override
+            public void run() {
+                CamerasPayload payload;
+                try {
+                    payload = get(path, new PayloadDecoder(null));
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not get the cameras of tree buckets", e);
+                    payload = null;
+                }
+                final CamerasPayload result = payload;
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result == null) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onCameraChangesLoaded(result.getCameras(),
+                                    new ArrayList<String>(), result.getVersion());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void saveCamera(@NonNull Camera camera) {
+        checkNotNull(camera);
+        enqueueMutation(CameraMutation.save(camera), null);
+    }
+
+    @Override
+    public void closeCamera(@NonNull Camera camera) {
+        closeCamera(camera.getId());
+    }
+
+    @Override
+    public void closeCamera(@NonNull String cameraId) {
+        enqueueMutation(CameraMutation.close(cameraId), null);
+    }
+
+    @Override
+    public void activateCamera(@NonNull Camera camera) {
+        activateCamera(camera.getId());
+    }
+
+    @Override
+    public void activateCamera(@NonNull String cameraId) {
+        enqueueMutation(CameraMutation.activate(cameraId), null);
+    }
+
+    @Override
+    public void clearClosedCameras() {
+        enqueueMutation(CameraMutation.clearClosed(), null);
+    }
+
+    @Override
+    public void refreshCameras() {
+        // Not required because the {@link CamerasRepository} handles the logic of refreshing the
+        // cameras from all the available data sources.
+    }
+
+    @Override
+    public void deleteAllCameras() {
+        enqueueMutation(CameraMutation.deleteAll(), null);
+    }
+
+    @Override
+    public void deleteCamera(@NonNull String cameraId) {
+        enqueueMutation(CameraMutation.delete(cameraId), null);
+    }
+
+    /**
+     * Returns the cameras changed since {@code version}, or null if they couldn't be fetched. The
+     * request is conditional if the previous answer is still cached, and the cached payload is
+     * returned on a 304. {@code chunkListener} is called on the main thread while the list is
+     * parsed, unless the list comes from the response cache.
+     */
+    @WorkerThread
+    @Nullable
+    private CamerasPayload fetchPayload(long version,
+                                        @Nullable CamerasChunkListener chunkListener) {
+        String url = mBaseUrl + "cameras?since=" + version;
+        CachedResponse cached;
+        synchronized (mResponseCache) {
+            cached = mResponseCache.get(url);
+        }
+        CamerasPayload cachedPayload = cached != null ? cached.getPayload() : null;
+
+        try {
+            HttpURLConnection connection = openConnection(url, "GET");
+            if (cachedPayload != null) {
+                connection.setRequestProperty("If-None-Match", cached.mETag);
+            }
+            if (cachedPayload != null
+                    && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drain(connection);
+                return cachedPayload;
+            }
+            CamerasPayload payload = read(connection, new PayloadDecoder(chunkListener));
+            if (payload == null) {
+                throw new IOException("HTTP 404 for GET " + url);
+            }
+            String eTag = connection.getHeaderField("ETag");
+            synchronized (mResponseCache) {
+                if (eTag != null) {
+                    mResponseCache.put(url, new CachedResponse(eTag, payload, version == 0));
+                } else {
+                    mResponseCache.remove(url);
+                }
+            }
+            return payload;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not get the cameras changed since " + version, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static CamerasChunkListener chunkListenerOf(@NonNull Object callback) {
+        return callback instanceof CamerasChunkListener ? (CamerasChunkListener) callback : null;
+    }
+
+    /**
+     * Builds a {@link CamerasPayload} from a streamed camera list, posting chunks of it to a
+     * {@link CamerasChunkListener} as they are parsed. The lists of the payload can't be modified,
+     * so a cached payload can be handed out again.
+     */
+    private final class PayloadDecoder
+            implements BodyDecoder<CamerasPayload>, CamerasJsonStreamParser.Listener {
+
+        @Nullable
+        private final CamerasChunkListener mChunkListener;
+
+        private final List<Camera> mCameras = new ArrayList<>();
+
+        private final List<String> mDeletedCameraIds = new ArrayList<>();
+
+        private long mVersion = -1;
+
+        private int mChunkStart = 0;
+
+        private int mChunkSize = FIRST_CHUNK_SIZE;
+
+        PayloadDecoder(@Nullable CamerasChunkListener chunkListener) {
+            mChunkListener = chunkListener;
+        }
+
+        @Override
+        public CamerasPayload decode(@NonNull InputStream body, @Nullable String contentType)
+                throws IOException {
+            if (isBinary(contentType)) {
+                CamerasBinaryCodec.decodeCameraList(body, this);
+            } else {
+                new CamerasJsonStreamParser(new InputStreamReader(body, CHARSET))
+                        .parseCameraList(this);
+            }
+            if (mVersion < 0) {
+                throw new IOException("Camera list without a version");
+            }
+            return new CamerasPayload(mVersion, Collections.unmodifiableList(mCameras),
+                    Collections.unmodifiableList(mDeletedCameraIds));
+        }
+
+        @Override
+        public void onCamera(@NonNull Camera camera) {
+            mCameras.add(camera);
+            if (mChunkListener != null && mCameras.size() - mChunkStart == mChunkSize) {
+                final List<Camera> chunk =
+                        new ArrayList<>(mCameras.subList(mChunkStart, mCameras.size()));
+                mChunkStart = mCameras.size();
+                mChunkSize *= 2;
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mChunkListener.onCamerasChunkLoaded(chunk);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onDeletedCamera(@NonNull String cameraId) {
+            mDeletedCameraIds.add(cameraId);
+        }
+
+        @Override
+        public void onVersion(long version) {
+            mVersion = version;
+        }
+    }
+
+    /**
+     * Blocks until the cameras change after {@code version}, for up to {@code waitMillis}.
+     *
+     * @return the changes, or null if there were none within the wait
+     * @throws IOException if the server can't be contacted or returns an error
+     */
+    @WorkerThread
+    @Nullable
+    public CamerasPayload pollChanges(long version, long waitMillis) throws IOException {
+        HttpURLConnection connection = openConnection(
+                mBaseUrl + "cameras/feed?since=" + version + "&wait=" + waitMillis, "GET");
+        connection.setReadTimeout((int) (waitMillis + READ_TIMEOUT_MILLIS));
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+            drain(connection);
+            return null;
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            drain(connection);
+            throw new IOException("HTTP " + responseCode + " for the change feed");
+        }
+        InputStream body = openBody(connection);
+        try {
+            return new PayloadDecoder(null).decode(body, connection.getContentType());
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Does a GET of {@code path}. Returns null on a 404.
+     */
+    @WorkerThread
+    @Nullable
+    <T> T get(@NonNull String path, @NonNull BodyDecoder<T> decoder) throws IOException {
+        return read(openConnection(mBaseUrl + path, "GET"), decoder);
+    }
+
+    /**
+     * Decodes the response of {@code connection}. Returns null on a 404.
+     */
+    @WorkerThread
+    @Nullable
+    private static <T> T read(@NonNull HttpURLConnection connection,
+                              @NonNull BodyDecoder<T> decoder) throws IOException {
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            drain(connection);
+            return null;
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            drain(connection);
+            throw new IOException("HTTP " + responseCode + " for " +
+                    connection.getRequestMethod() + " " + connection.getURL());
+        }
+
+        InputStream body = openBody(connection);
+        try {
+            return decoder.decode(body, connection.getContentType());
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Queues a mutation for the next batch. Failures are logged, and also reported to
+     * {@code callback} if there is one.
+     */
+    public void enqueueMutation(@NonNull final CameraMutation mutation,
+                                @Nullable final CamerasMutationBatcher.MutationCallback callback) {
+        invalidateCachedCameras(mutation);
+        mMutationBatcher.enqueue(mutation, new CamerasMutationBatcher.MutationCallback() {
+            @Override
+            public void onMutationApplied() {
+                // Lookups made while the mutation was queued may have cached the old camera.
+                invalidateCachedCameras(mutation);
+                if (callback != null) {
+                    callback.onMutationApplied();
+                }
+            }
+
+            @Override
+            public void onMutationFailed(int statusCode) {
+                if (callback != null) {
+                    callback.onMutationFailed(statusCode);
+                }
+            }
+        });
+    }
+
+    private void invalidateCachedCameras(@NonNull CameraMutation mutation) {
+        String cameraId = mutation.getCamera() != null
+                ? mutation.getCamera().getId() : mutation.getCameraId();
+        if (cameraId != null) {
+            mCameraLoader.invalidate(cameraId);
+        } else {
+            mCameraLoader.invalidateAll();
+        }
+    }
+
+    /**
+     * Gets the cameras with the given ids with {@code GET cameras?ids=<id>,<id>}, or with
+     * {@code GET cameras/<id>} for a single id or a server that doesn't support the former. Ids
+     * without a camera are left out.
+     */
+    @WorkerThread
+    @NonNull
+    private List<Camera> fetchCameras(@NonNull List<String> cameraIds) throws IOException {
+        if (cameraIds.size() > 1) {
+            StringBuilder path = new StringBuilder("cameras?ids=");
+            for (int i = 0; i < cameraIds.size(); i++) {
+                if (i > 0) {
+                    path.append(',');
+                }
+                path.append(URLEncoder.encode(cameraIds.get(i), CHARSET));
+            }
+            CamerasPayload payload = get(path.toString(), new PayloadDecoder(null));
+            if (payload != null) {
+                return payload.getCameras();
+            }
+            Log.w(TAG, "No multi-id lookup on the server, getting cameras one by one");
+        }
+        List<Camera> cameras = new ArrayList<>(cameraIds.size());
+        for (String cameraId : cameraIds) {
+            Camera camera = get(cameraPath(cameraId), CAMERA_DECODER);
+            if (camera != null) {
+                cameras.add(camera);
+            }
+        }
+        return cameras;
+    }
+
+    @WorkerThread
+    @NonNull
+    private int[] sendMutations(@NonNull List<CameraMutation> mutations) throws IOException {
+        byte[] bytes = CamerasJsonCodec.encodeMutations(mutations).getBytes(CHARSET);
+        HttpURLConnection connection = openConnection(mBaseUrl + "cameras/batch", "POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", CamerasJsonCodec.CONTENT_TYPE);
+        connection.setRequestProperty("Accept", CamerasJsonCodec.CONTENT_TYPE);
+        connection.setFixedLengthStreamingMode(bytes.length);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            drain(connection);
+            throw new IOException("HTTP " + responseCode + " for a batch of " + mutations.size());
+        }
+        InputStream body = openBody(connection);
+        try {
+            return CamerasJsonCodec.decodeMutationResults(readString(body));
+        } catch (JSONException e) {
+            throw new IOException("Malformed batch results", e);
+        } finally {
+            body.close();
+        }
+    }
+
+    @NonNull
+    private static String join(@NonNull int[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                joined.append(',');
+            }
+            joined.append(values[i]);
+        }
+        return joined.toString();
+    }
+
+    @NonNull
+    private static HttpURLConnection openConnection(@NonNull String url, @NonNull String method)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        // Asking for gzip explicitly turns off the transparent decompression of some
+        // implementations, so openBody() always handles it.
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setRequestProperty("Accept", ACCEPT_CAMERAS);
+        return connection;
+    }
+
+    @NonNull
+    static InputStream openBody(@NonNull HttpURLConnection connection) throws IOException {
+        InputStream body = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            body = new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    private static boolean isBinary(@Nullable String contentType) {
+        return contentType != null && contentType.startsWith(CamerasBinaryCodec.CONTENT_TYPE);
+    }
+
+    /**
+     * Reads whatever is left of the response to the end, so the connection goes back to the pool.
+     */
+    private static void drain(@NonNull HttpURLConnection connection) {
+        InputStream in;
+        try {
+            in = connection.getInputStream();
+        } catch (IOException e) {
+            in = connection.getErrorStream();
+        }
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = new byte[1024];
+        try {
+            while (in.read(buffer) != -1) {
+                // Discard.
+            }
+        } catch (IOException ignored) {
+            // The connection won't be reused, nothing else to do.
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // Nothing else to do.
+            }
+        }
+    }
+
+    @NonNull
+    private static String readString(@NonNull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString(CHARSET);
+    }
+
+    @NonNull
+    private static String cameraPath(@NonNull String cameraId) {
+        try {
+            return "cameras/" + URLEncoder.encode(cameraId, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
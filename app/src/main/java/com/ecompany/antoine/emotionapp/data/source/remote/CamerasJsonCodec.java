@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts cameras to and from the JSON format of the cameras web service.
+ * <p>
+ * A camera is {@code {"id": "...", "title": "...", "description": "...", "closed": false}}. A
+ * camera list is {@code {"version": 12, "cameras": [...], "deleted": ["id", ...]}}.
+ * <p>
+ * Camera lists can be large, so they are decoded with {@link CamerasJsonStreamParser} instead.
+ * <p>
+ * A batch of mutations is {@code {"operations": [{"op": "close", "id": "..."}, ...]}}, where a
+ * {@code save} operation carries a {@code "camera"} instead of an id, and its response is
+ * {@code {"results": [204, 404, ...]}} with one HTTP status per operation.
+ * <p>
+ * Hashes of a {@link com.ecompany.antoine.emotionapp.data.source.CamerasMerkleTree} are
+ * {@code {"version": 12, "hashes": ["00ff...", ...]}}, each hash as 16 hex digits since JSON
+ * numbers don't hold 64 bits.
+ */
+public final class CamerasJsonCodec {
+
+    public static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    static final String FIELD_ID = "id";
+
+    static final String FIELD_TITLE = "title";
+
+    static final String FIELD_DESCRIPTION = "description";
+
+    static final String FIELD_CLOSED = "closed";
+
+    static final String FIELD_VERSION = "version";
+
+    static final String FIELD_CAMERAS = "cameras";
+
+    static final String FIELD_DELETED = "deleted";
+
+    static final String FIELD_OPERATIONS = "operations";
+
+    static final String FIELD_OPERATION = "op";
+
+    static final String FIELD_CAMERA = "camera";
+
+    static final String FIELD_RESULTS = "results";
+
+    static final String FIELD_HASHES = "hashes";
+
+    private static final int HASH_DIGITS = 16;
+
+    /**
+     * Decoded hashes of a tree, with the change version they were computed at.
+     */
+    static final class TreeHashes {
+
+        final long[] mHashes;
+
+        final long mVersion;
+
+        TreeHashes(@NonNull long[] hashes, long version) {
+            mHashes = hashes;
+            mVersion = version;
+        }
+    }
+
+    private CamerasJsonCodec() {}
+
+    @NonNull
+    public static String encodeCamera(@NonNull Camera camera) {
+        try {
+            return toJson(camera).toString();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Camera can't be encoded", e);
+        }
+    }
+
+    @NonNull
+    public static Camera decodeCamera(@NonNull String json) throws JSONException {
+        return fromJson(new JSONObject(json));
+    }
+
+    @NonNull
+    public static String encodePayload(@NonNull CamerasPayload payload) {
+        try {
+            JSONArray cameras = new JSONArray();
+            for (Camera camera : payload.getCameras()) {
+                cameras.put(toJson(camera));
+            }
+            JSONArray deleted = new JSONArray();
+            for (String cameraId : payload.getDeletedCameraIds()) {
+                deleted.put(cameraId);
+            }
+            return new JSONObject()
+                    .put(FIELD_VERSION, payload.getVersion())
+                    .put(FIELD_CAMERAS, cameras)
+                    .put(FIELD_DELETED, deleted)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Payload can't be encoded", e);
+        }
+    }
+
+    @NonNull
+    public static String encodeMutations(@NonNull List<CameraMutation> mutations) {
+        try {
+            JSONArray operations = new JSONArray();
+            for (CameraMutation mutation : mutations) {
+                JSONObject operation = new JSONObject().put(FIELD_OPERATION, mutation.getType());
+                if (mutation.getCamera() != null) {
+                    operation.put(FIELD_CAMERA, toJson(mutation.getCamera()));
+                } else if (mutation.getCameraId() != null) {
+                    operation.put(FIELD_ID, mutation.getCameraId());
+                }
+                operations.put(operation);
+            }
+            return new JSONObject().put(FIELD_OPERATIONS, operations).toString();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Mutations can't be encoded", e);
+        }
+    }
+
+    @NonNull
+    public static List<CameraMutation> decodeMutations(@NonNull String json)
+            throws JSONException {
+        JSONArray operations = new JSONObject(json).getJSONArray(FIELD_OPERATIONS);
+        List<CameraMutation> mutations = new ArrayList<>(operations.length());
+        for (int i = 0; i < operations.length(); i++) {
+            JSONObject operation = operations.getJSONObject(i);
+            String type = operation.getString(FIELD_OPERATION);
+            switch (type) {
+                case CameraMutation.TYPE_SAVE:
+                    mutations.add(CameraMutation.save(
+                            fromJson(operation.getJSONObject(FIELD_CAMERA))));
+                    break;
+                case CameraMutation.TYPE_CLOSE:
+                    mutations.add(CameraMutation.close(operation.getString(FIELD_ID)));
+                    break;
+                case CameraMutation.TYPE_ACTIVATE:
+                    mutations.add(CameraMutation.activate(operation.getString(FIELD_ID)));
+                    break;
+                case CameraMutation.TYPE_DELETE:
+                    mutations.add(CameraMutation.delete(operation.getString(FIELD_ID)));
+                    break;
+                case CameraMutation.TYPE_CLEAR_CLOSED:
+                    mutations.add(CameraMutation.clearClosed());
+                    break;
+                case CameraMutation.TYPE_DELETE_ALL:
+                    mutations.add(CameraMutation.deleteAll());
+                    break;
+                default:
+                    throw new JSONException("Unknown operation " + type);
+            }
+        }
+        return mutations;
+    }
+
+    @NonNull
+    public static String encodeMutationResults(@NonNull int[] statuses) {
+        try {
+            JSONArray results = new JSONArray();
+            for (int status : statuses) {
+                results.put(status);
+            }
+            return new JSONObject().put(FIELD_RESULTS, results).toString();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Results can't be encoded", e);
+        }
+    }
+
+    @NonNull
+    public static int[] decodeMutationResults(@NonNull String json) throws JSONException {
+        JSONArray results = new JSONObject(json).getJSONArray(FIELD_RESULTS);
+        int[] statuses = new int[results.length()];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = results.getInt(i);
+        }
+        return statuses;
+    }
+
+    @NonNull
+    public static String encodeTreeHashes(@NonNull long[] hashes, long version) {
+        try {
+            JSONArray array = new JSONArray();
+            for (long hash : hashes) {
+                String hex = Long.toHexString(hash);
+                StringBuilder digits = new StringBuilder(HASH_DIGITS);
+                for (int i = hex.length(); i < HASH_DIGITS; i++) {
+                    digits.append('0');
+                }
+                array.put(digits.append(hex).toString());
+            }
+            return new JSONObject()
+                    .put(FIELD_VERSION, version)
+                    .put(FIELD_HASHES, array)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Hashes can't be encoded", e);
+        }
+    }
+
+    @NonNull
+    static TreeHashes decodeTreeHashes(@NonNull String json) throws JSONException {
+        JSONObject object = new JSONObject(json);
+        JSONArray array = object.getJSONArray(FIELD_HASHES);
+        long[] hashes = new long[array.length()];
+        for (int i = 0; i < hashes.length; i++) {
+            String hex = array.getString(i);
+            if (hex.length() != HASH_DIGITS) {
+                throw new JSONException("Malformed hash " + hex);
+            }
+            try {
+                // Two halves, as Long.parseLong() rejects the hashes with the top bit set.
+                hashes[i] = Long.parseLong(hex.substring(0, HASH_DIGITS / 2), 16) << 32
+                        | Long.parseLong(hex.substring(HASH_DIGITS / 2), 16);
+            } catch (NumberFormatException e) {
+                throw new JSONException("Malformed hash " + hex);
+            }
+        }
+        return new TreeHashes(hashes, object.getLong(FIELD_VERSION));
+    }
+
+    @NonNull
+    private static JSONObject toJson(@NonNull Camera camera) throws JSONException {
+        return new JSONObject()
+                .put(FIELD_ID, camera.getId())
+                .put(FIELD_TITLE, camera.getTitle())
+                .put(FIELD_DESCRIPTION, camera.getDescription())
+                .put(FIELD_CLOSED, camera.isClosed());
+    }
+
+    @NonNull
+    private static Camera fromJson(@NonNull JSONObject object) throws JSONException {
+        String title = object.isNull(FIELD_TITLE) ? null : object.getString(FIELD_TITLE);
+        String description =
+                object.isNull(FIELD_DESCRIPTION) ? null : object.getString(FIELD_DESCRIPTION);
+        return new Camera(title, description, object.getString(FIELD_ID),
+                object.getBoolean(FIELD_CLOSED));
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Pull parser for the {@link CamerasJsonCodec} format that reports every camera as soon as its
+ * closing brace has been read, instead of buffering the whole body into a string and a DOM first.
+ * <p>
+ * Only the characters of the value being read are kept in memory, so the memory used by the
+ * parser doesn't depend on the size of the list. Unknown fields are skipped.
+ */
+public class CamerasJsonStreamParser {
+
+    /**
+     * Receives the content of a camera list in the order it appears in the body.
+     */
+    public interface Listener {
+
+        void onCamera(@NonNull Camera camera);
+
+        void onDeletedCamera(@NonNull String cameraId);
+
+        void onVersion(long version);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader mReader;
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+
+    private int mPosition = 0;
+
+    private int mLimit = 0;
+
+    private long mOffset = 0;
+
+    private final StringBuilder mToken = new StringBuilder();
+
+    public CamerasJsonStreamParser(@NonNull Reader reader) {
+        mReader = checkNotNull(reader);
+    }
+
+    /**
+     * Parses a camera list, calling {@code listener} as its parts are read.
+     */
+    public void parseCameraList(@NonNull Listener listener) throws IOException {
+        checkNotNull(listener);
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                String name = readString();
+                expect(':');
+                if (CamerasJsonCodec.FIELD_VERSION.equals(name)) {
+                    listener.onVersion(readLong());
+                } else if (CamerasJsonCodec.FIELD_CAMERAS.equals(name)) {
+                    expect('[');
+                    if (!consumeIf(']')) {
+                        do {
+                            listener.onCamera(parseCamera());
+                        } while (consumeIf(','));
+                        expect(']');
+                    }
+                } else if (CamerasJsonCodec.FIELD_DELETED.equals(name) && !consumeNull()) {
+                    expect('[');
+                    if (!consumeIf(']')) {
+                        do {
+                            listener.onDeletedCamera(readString());
+                        } while (consumeIf(','));
+                        expect(']');
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+    }
+
+    /**
+     * Parses a single camera object.
+     */
+    @NonNull
+    public Camera parseCamera() throws IOException {
+        String id = null;
+        String title = null;
+        String description = null;
+        boolean closed = false;
+
+        expect('{');
+        if (!consumeIf('}')) {
+            do {
+                String name = readString();
+                expect(':');
+                if (CamerasJsonCodec.FIELD_ID.equals(name)) {
+                    id = readString();
+                } else if (CamerasJsonCodec.FIELD_TITLE.equals(name)) {
+                    title = readNullableString();
+                } else if (CamerasJsonCodec.FIELD_DESCRIPTION.equals(name)) {
+                    description = readNullableString();
+                } else if (CamerasJsonCodec.FIELD_CLOSED.equals(name)) {
+                    closed = readBoolean();
+                } else {
+                    skipValue();
+                }
+            } while (consumeIf(','));
+            expect('}');
+        }
+
+        if (id == null) {
+            throw syntaxError("Camera without an id");
+        }
+        return new Camera(title, description, id, closed);
+    }
+
+    @Nullable
+    private String readNullableString() throws IOException {
+        return consumeNull() ? null : readString();
+    }
+
+    @NonNull
+    private String readString() throws IOException {
+        expect('"');
+        mToken.setLength(0);
+        while (true) {
+            char c = read();
+            if (c == '"') {
+                return mToken.toString();
+            } else if (c == '\\') {
+                char escaped = read();
+                switch (escaped) {
+                    case 'n':
+                        mToken.append('\n');
+                        break;
+                    case 't':
+                        mToken.append('\t');
+                        break;
+                    case 'r':
+                        mToken.append('\r');
+                        break;
+                    case 'b':
+                        mToken.append('\b');
+                        break;
+                    case 'f':
+                        mToken.append('\f');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw syntaxError("Invalid unicode escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        mToken.append((char) code);
+                        break;
+                    default:
+                        // '"', '\\' and '/' stand for themselves.
+                        mToken.append(escaped);
+                        break;
+                }
+            } else {
+                mToken.append(c);
+            }
+        }
+    }
+
+    private long readLong() throws IOException {
+        skipWhitespace();
+        mToken.setLength(0);
+        while (ensureBuffered()) {
+            char c = mBuffer[mPosition];
+            if ((c < '0' || c > '9') && c != '-') {
+                break;
+            }
+            mToken.append(c);
+            mPosition++;
+        }
+        try {
+            return Long.parseLong(mToken.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number");
+        }
+    }
+
+    private boolean readBoolean() throws IOException {
+        if (consumeLiteral("true")) {
+            return true;
+        } else if (consumeLiteral("false")) {
+            return false;
+        }
+        throw syntaxError("Expected a boolean");
+    }
+
+    private boolean consumeNull() throws IOException {
+        return consumeLiteral("null");
+    }
+
+    private boolean consumeLiteral(@NonNull String literal) throws IOException {
+        skipWhitespace();
+        if (!ensureBuffered() || mBuffer[mPosition] != literal.charAt(0)) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips a value of any type, including nested objects and arrays.
+     */
+    private void skipValue() throws IOException {
+        skipWhitespace();
+        if (!ensureBuffered()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        char c = mBuffer[mPosition];
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            mPosition++;
+            if (!consumeIf(close)) {
+                do {
+                    if (close == '}') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (consumeIf(','));
+                expect(close);
+            }
+        } else {
+            // Number or literal: everything up to the next delimiter.
+            while (ensureBuffered()) {
+                c = mBuffer[mPosition];
+                if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                    break;
+                }
+                mPosition++;
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        skipWhitespace();
+        char c = read();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but was '" + c + "'");
+        }
+    }
+
+    private boolean consumeIf(char expected) throws IOException {
+        skipWhitespace();
+        if (ensureBuffered() && mBuffer[mPosition] == expected) {
+            mPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (ensureBuffered() && Character.isWhitespace(mBuffer[mPosition])) {
+            mPosition++;
+        }
+    }
+
+    private char read() throws IOException {
+        if (!ensureBuffered()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return mBuffer[mPosition++];
+    }
+
+    /**
+     * Returns false at the end of the input.
+     */
+    private boolean ensureBuffered() throws IOException {
+        if (mPosition < mLimit) {
+            return true;
+        }
+        mOffset += mLimit;
+        mPosition = 0;
+        mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+        if (mLimit <= 0) {
+            mLimit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    @NonNull
+    private IOException syntaxError(@NonNull String message) {
+        return new IOException(message + " at offset " + (mOffset + mPosition));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Gathers the mutations sent to the cameras web service and sends them together as one
+ * {@code POST cameras/batch} request, once {@link #DEFAULT_WINDOW_MILLIS} have passed since the
+ * first one was queued or as soon as {@link #DEFAULT_MAX_BATCH_SIZE} are waiting.
+ * <p>
+ * Batches are sent one after the other from a single thread, so mutations reach the server in the
+ * order they were queued. The status the server returns for each mutation is reported to the
+ * callback it was queued with, on the main thread.
+ */
+public class CamerasMutationBatcher {
+
+    private static final String TAG = "CamerasMutationBatcher";
+
+    public static final long DEFAULT_WINDOW_MILLIS = 50;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 25;
+
+    /**
+     * Reports the outcome of one queued mutation.
+     */
+    public interface MutationCallback {
+
+        void onMutationApplied();
+
+        /**
+         * @param statusCode the HTTP status the server returned for this mutation, or -1 if the
+         *                   batch couldn't be sent
+         */
+        void onMutationFailed(int statusCode);
+    }
+
+    /**
+     * Sends a batch and returns one HTTP status per mutation, in order.
+     */
+    interface Transport {
+
+        @WorkerThread
+        @NonNull
+        int[] send(@NonNull List<CameraMutation> mutations) throws IOException;
+    }
+
+    private static final class PendingMutation {
+
+        final CameraMutation mMutation;
+
+        @Nullable
+        final MutationCallback mCallback;
+
+        PendingMutation(CameraMutation mutation, @Nullable MutationCallback callback) {
+            mMutation = mutation;
+            mCallback = callback;
+        }
+    }
+
+    private final Transport mTransport;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ScheduledExecutorService mSender;
+
+    private final long mWindowMillis;
+
+    private final int mMaxBatchSize;
+
+    private final List<PendingMutation> mPending = new ArrayList<>();
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    CamerasMutationBatcher(@NonNull Transport transport, @NonNull AppExecutors appExecutors) {
+        this(transport, appExecutors, Executors.newSingleThreadScheduledExecutor(),
+                DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    @VisibleForTesting
+    CamerasMutationBatcher(@NonNull Transport transport, @NonNull AppExecutors appExecutors,
+                           @NonNull ScheduledExecutorService sender, long windowMillis,
+                           int maxBatchSize) {
+        mTransport = checkNotNull(transport);
+        mAppExecutors = checkNotNull(appExecutors);
+        mSender = checkNotNull(sender);
+        mWindowMillis = windowMillis;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Queues {@code mutation} for the next batch.
+     *
+     * @param callback notified of the result of this mutation, or null to only log failures
+     */
+    public void enqueue(@NonNull CameraMutation mutation, @Nullable MutationCallback callback) {
+        checkNotNull(mutation);
+        int pendingCount;
+        synchronized (mPending) {
+            mPending.add(new PendingMutation(mutation, callback));
+            pendingCount = mPending.size();
+        }
+        if (pendingCount == mMaxBatchSize) {
+            mSender.execute(mFlushTask);
+        } else if (pendingCount == 1) {
+            mSender.schedule(mFlushTask, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends what is still queued, then stops the sending thread.
+     */
+    public void shutdown() {
+        mSender.execute(mFlushTask);
+        mSender.shutdown();
+    }
+
+    /**
+     * Sends everything queued so far, in batches of at most the maximum size.
+     */
+    @WorkerThread
+    void flush() {
+        while (true) {
+            List<PendingMutation> batch;
+            synchronized (mPending) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                List<PendingMutation> head =
+                        mPending.subList(0, Math.min(mPending.size(), mMaxBatchSize));
+                batch = new ArrayList<>(head);
+                head.clear();
+            }
+            sendBatch(batch);
+        }
+    }
+
+    @WorkerThread
+    private void sendBatch(@NonNull List<PendingMutation> batch) {
+        List<CameraMutation> mutations = new ArrayList<>(batch.size());
+        for (PendingMutation pending : batch) {
+            mutations.add(pending.mMutation);
+        }
+
+        int[] statuses;
+        try {
+            statuses = mTransport.send(mutations);
+            if (statuses.length != batch.size()) {
+                throw new IOException("Expected " + batch.size() + " results but got "
+                        + statuses.length);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not send a batch of " + batch.size() + " mutations", e);
+            statuses = new int[batch.size()];
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = -1;
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            deliver(batch.get(i), statuses[i]);
+        }
+    }
+
+    private void deliver(@NonNull final PendingMutation pending, final int statusCode) {
+        final boolean applied = statusCode >= HttpURLConnection.HTTP_OK
+                && statusCode < HttpURLConnection.HTTP_MULT_CHOICE;
+        if (!applied && statusCode != -1) {
+            Log.w(TAG, "HTTP " + statusCode + " for " + pending.mMutation);
+        }
+        final MutationCallback callback = pending.mCallback;
+        if (callback == null) {
+            return;
+        }
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (applied) {
+                    callback.onMutationApplied();
+                } else {
+                    callback.onMutationFailed(statusCode);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable body of a camera list response: the cameras changed since the requested version, the
+ * ids of the cameras deleted since then, and the version the server is at.
+ */
+public final class CamerasPayload {
+
+    private final long mVersion;
+
+    @NonNull
+    private final List<Camera> mCameras;
+
+    @NonNull
+    private final List<String> mDeletedCameraIds;
+
+    public CamerasPayload(long version, @NonNull List<Camera> cameras,
+                          @NonNull List<String> deletedCameraIds) {
+        mVersion = version;
+        mCameras = checkNotNull(cameras);
+        mDeletedCameraIds = checkNotNull(deletedCameraIds);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    @NonNull
+    public List<Camera> getCameras() {
+        return mCameras;
+    }
+
+    @NonNull
+    public List<String> getDeletedCameraIds() {
+        return mDeletedCameraIds;
+    }
+}
@@ -18,27 +18,50 @@ package com.ecompany.antoine.emotionapp.data.source.remote;
 
 import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 
 import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasChangeLog;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasMerkleTree;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
 import com.google.common.collect.Lists;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Implementation of the data source that adds a latency simulating network.
+ * Implementation of the data source that simulates a network, following a {@link NetworkProfile}:
+ * reads are delayed by a random latency and the download time of their payload, and some of them
+ * fail or time out.
  */
-public class CamerasRemoteDataSource implements CamerasDataSource {
+public class CamerasRemoteDataSource implements CamerasDataSource, CamerasTreeSource {
 
     private static CamerasRemoteDataSource INSTANCE;
 
-    private static final int SERVICE_LATENCY_IN_MILLIS = 5000;
+    /**
+     * Rough size of a camera list response around the cameras, in bytes.
+     */
+    private static final int PAYLOAD_OVERHEAD_BYTES = 64;
+
+    /**
+     * Size of a tree hash in a response, in bytes.
+     */
+    private static final int HASH_BYTES = 8;
 
     private final static Map<String, Camera> CAMERAS_SERVICE_DATA;
 
+    private final static CamerasChangeLog CHANGE_LOG = new CamerasChangeLog();
+
+    private final static CamerasMerkleTree TREE = new CamerasMerkleTree();
+
     static {
         CAMERAS_SERVICE_DATA = new LinkedHashMap<>(2);
         addCamera("Build tower in Pisa", "Ground looks good, no foundation work required.");
@@ -52,59 +75,208 @@ public class CamerasRemoteDataSource implements CamerasDataSource {
         return INSTANCE;
     }
 
+    private NetworkProfile mNetworkProfile = NetworkProfile.SLOW_FIXED;
+
+    private final Random mRandom = new Random();
+
+    /**
+     * Reads sent to the simulated backend and not answered yet.
+     */
+    private int mInFlight = 0;
+
     // Prevent direct instantiation.
     private CamerasRemoteDataSource() {}
 
+    /**
+     * Changes how the simulated network behaves, e.g. from a test. The default is
+     * {@link NetworkProfile#SLOW_FIXED}.
+     */
+    public void setNetworkProfile(@NonNull NetworkProfile networkProfile) {
+        mNetworkProfile = checkNotNull(networkProfile);
+    }
+
+    @NonNull
+    public NetworkProfile getNetworkProfile() {
+        return mNetworkProfile;
+    }
+
     private static void addCamera(String title, String description) {
         Camera newCamera = new Camera(title, description);
         CAMERAS_SERVICE_DATA.put(newCamera.getId(), newCamera);
+        CHANGE_LOG.recordChange(newCamera.getId());
+        TREE.put(newCamera);
     }
 
     /**
-     * Note: {@link LoadCamerasCallback#onDataNotAvailable()} is never fired. In a real remote data
-     * source implementation, this would be fired if the server can't be contacted or the server
-     * returns an error.
+     * Note: {@link LoadCamerasCallback#onDataNotAvailable()} is fired when the
+     * {@link NetworkProfile} makes the request fail.
      */
     @Override
     public void getCameras(final @NonNull LoadCamerasCallback callback) {
-        // Simulate network by delaying the execution.
-        Handler handler = new Handler();
-        handler.postDelayed(new Runnable() {
+        final List<Camera> cameras = Lists.newArrayList(CAMERAS_SERVICE_DATA.values());
+        simulateNetwork(payloadBytes(cameras), new Runnable() {
             @Override
             public void run() {
-                callback.onCamerasLoaded(Lists.newArrayList(CAMERAS_SERVICE_DATA.values()));
+                callback.onCamerasLoaded(cameras);
             }
-        }, SERVICE_LATENCY_IN_MILLIS);
+        }, new Runnable() {
+            @Override
+            public void run() {
+                callback.onDataNotAvailable();
+            }
+        });
     }
 
     /**
-     * Note: {@link GetCameraCallback#onDataNotAvailable()} is never fired. In a real remote data
-     * source implementation, this would be fired if the server can't be contacted or the server
-     * returns an error.
+     * Note: {@link GetCameraCallback#onDataNotAvailable()} is fired when the
+     * {@link NetworkProfile} makes the request fail.
      */
     @Override
     public void getCamera(@NonNull String cameraId, final @NonNull GetCameraCallback callback) {
         final Camera camera = CAMERAS_SERVICE_DATA.get(cameraId);
 
-        // Simulate network by delaying the execution.
+        simulateNetwork(payloadBytes(camera), new Runnable() {
+            @Override
+            public void run() {
+                callback.onCameraLoaded(camera);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadCameraChangesCallback#onDataNotAvailable()} is fired when the
+     * {@link NetworkProfile} makes the request fail.
+     */
+    @Override
+    public void getCamerasChangedSince(long version,
+                                       final @NonNull LoadCameraChangesCallback callback) {
+        final List<Camera> changedCameras = new ArrayList<>();
+        for (Camera camera : CAMERAS_SERVICE_DATA.values()) {
+            if (CHANGE_LOG.hasChangedSince(camera.getId(), version)) {
+                changedCameras.add(camera);
+            }
+        }
+        final List<String> deletedCameraIds = CHANGE_LOG.getDeletedSince(version);
+        final long latestVersion = CHANGE_LOG.getLatestVersion();
+
+        simulateNetwork(payloadBytes(changedCameras), new Runnable() {
+            @Override
+            public void run() {
+                callback.onCameraChangesLoaded(changedCameras, deletedCameraIds, latestVersion);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadTreeHashesCallback#onDataNotAvailable()} is fired when the
+     * {@link NetworkProfile} makes the request fail.
+     */
+    @Override
+    public void getTreeChildHashes(int level, @NonNull int[] nodes,
+                                   final @NonNull LoadTreeHashesCallback callback) {
+        final long[] hashes = TREE.getChildHashes(level, nodes);
+        final long latestVersion = CHANGE_LOG.getLatestVersion();
+
+        simulateNetwork(PAYLOAD_OVERHEAD_BYTES + hashes.length * HASH_BYTES, new Runnable() {
+            @Override
+            public void run() {
+                callback.onTreeHashesLoaded(hashes, latestVersion);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    /**
+     * Note: {@link LoadCameraChangesCallback#onDataNotAvailable()} is fired when the
+     * {@link NetworkProfile} makes the request fail.
+     */
+    @Override
+    public void getCamerasInBuckets(@NonNull int[] buckets,
+                                    final @NonNull LoadCameraChangesCallback callback) {
+        final List<Camera> cameras = new ArrayList<>();
+        for (int bucket : buckets) {
+            for (String cameraId : TREE.getCameraIds(bucket)) {
+                cameras.add(CAMERAS_SERVICE_DATA.get(cameraId));
+            }
+        }
+        final long latestVersion = CHANGE_LOG.getLatestVersion();
+
+        simulateNetwork(payloadBytes(cameras), new Runnable() {
+            @Override
+            public void run() {
+                callback.onCameraChangesLoaded(cameras, new ArrayList<String>(), latestVersion);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    /**
+     * Runs {@code onSuccess} or {@code onFailure} on this thread once the simulated network
+     * delivers the response. The backend is as loaded as the number of reads in flight when this
+     * one is sent.
+     */
+    private void simulateNetwork(int payloadBytes, @NonNull Runnable onSuccess,
+                                 @NonNull Runnable onFailure) {
+        mInFlight++;
+        NetworkProfile.Outcome outcome = mNetworkProfile.simulate(payloadBytes, mInFlight,
+                mRandom);
+        final Runnable delivery = outcome.isFailed() ? onFailure : onSuccess;
         Handler handler = new Handler();
         handler.postDelayed(new Runnable() {
             @Override
             public void run() {
-                callback.onCameraLoaded(camera);
+                mInFlight--;
+                delivery.run();
             }
-        }, SERVICE_LATENCY_IN_MILLIS);
+        }, outcome.getDelayMillis());
+    }
+
+    private static int payloadBytes(@NonNull List<Camera> cameras) {
+        int bytes = PAYLOAD_OVERHEAD_BYTES;
+        for (Camera camera : cameras) {
+            bytes += payloadBytes(camera);
+        }
+        return bytes;
+    }
+
+    /**
+     * Size of the JSON the cameras web service would send for {@code camera}.
+     */
+    private static int payloadBytes(@Nullable Camera camera) {
+        return camera == null ? 0 : CamerasJsonCodec.encodeCamera(camera).length();
     }
 
     @Override
     public void saveCamera(@NonNull Camera camera) {
         CAMERAS_SERVICE_DATA.put(camera.getId(), camera);
+        CHANGE_LOG.recordChange(camera.getId());
+        TREE.put(camera);
     }
 
     @Override
     public void closeCamera(@NonNull Camera camera) {
         Camera closedCamera = new Camera(camera.getTitle(), camera.getDescription(), camera.getId(), true);
         CAMERAS_SERVICE_DATA.put(camera.getId(), closedCamera);
+        CHANGE_LOG.recordChange(camera.getId());
+        TREE.put(closedCamera);
     }
 
     @Override
@@ -117,6 +289,8 @@ public class CamerasRemoteDataSource implements CamerasDataSource {
     public void activateCamera(@NonNull Camera camera) {
         Camera activeCamera = new Camera(camera.getTitle(), camera.getDescription(), camera.getId());
         CAMERAS_SERVICE_DATA.put(camera.getId(), activeCamera);
+        CHANGE_LOG.recordChange(camera.getId());
+        TREE.put(activeCamera);
     }
 
     @Override
@@ -132,6 +306,8 @@ public class CamerasRemoteDataSource implements CamerasDataSource {
             Map.Entry<String, Camera> entry = it.next();
             if (entry.getValue().isClosed()) {
                 it.remove();
+                CHANGE_LOG.recordDeletion(entry.getKey());
+                TREE.remove(entry.getKey());
             }
         }
     }
@@ -144,11 +320,18 @@ public class CamerasRemoteDataSource implements CamerasDataSource {
 
     @Override
     public void deleteAllCameras() {
+        for (String cameraId : CAMERAS_SERVICE_DATA.keySet()) {
+            CHANGE_LOG.recordDeletion(cameraId);
+            TREE.remove(cameraId);
+        }
         CAMERAS_SERVICE_DATA.clear();
     }
 
     @Override
     public void deleteCamera(@NonNull String cameraId) {
-        CAMERAS_SERVICE_DATA.remove(cameraId);
+        if (CAMERAS_SERVICE_DATA.remove(cameraId) != null) {
+            CHANGE_LOG.recordDeletion(cameraId);
+            TREE.remove(cameraId);
+        }
     }
 }
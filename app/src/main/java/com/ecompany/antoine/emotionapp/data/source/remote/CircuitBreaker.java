@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Stops requests to a backend that keeps failing.
+ * <p>
+ * The circuit opens after a number of consecutive failures and rejects every request for a while.
+ * Then it lets a single trial request through: the circuit closes again if it succeeds, and stays
+ * open for another period if it fails.
+ */
+class CircuitBreaker {
+
+    private static final String TAG = "CircuitBreaker";
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+
+    private final long mOpenMillis;
+
+    private State mState = State.CLOSED;
+
+    private int mConsecutiveFailures = 0;
+
+    private long mOpenedAtMillis;
+
+    private boolean mTrialInFlight = false;
+
+    private int mOpenCount = 0;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * Returns whether a request may be sent now. In the half-open state only the first caller gets
+     * true, until the outcome of its request is reported.
+     */
+    synchronized boolean allowRequest() {
+        if (mState == State.OPEN) {
+            if (SystemClock.elapsedRealtime() - mOpenedAtMillis < mOpenMillis) {
+                return false;
+            }
+            moveTo(State.HALF_OPEN);
+            mTrialInFlight = false;
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mTrialInFlight) {
+                return false;
+            }
+            mTrialInFlight = true;
+        }
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+        if (mState != State.CLOSED) {
+            moveTo(State.CLOSED);
+        }
+    }
+
+    synchronized void onFailure() {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mState == State.HALF_OPEN
+                || (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+            mOpenedAtMillis = SystemClock.elapsedRealtime();
+            mOpenCount++;
+            moveTo(State.OPEN);
+        }
+    }
+
+    /**
+     * Reports a request whose outcome says nothing about the health of the backend, so a trial
+     * request slot isn't held forever.
+     */
+    synchronized void onIgnored() {
+        mTrialInFlight = false;
+    }
+
+    @NonNull
+    synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the number of times the circuit has opened.
+     */
+    synchronized int getOpenCount() {
+        return mOpenCount;
+    }
+
+    private void moveTo(@NonNull State state) {
+        Log.i(TAG, "Circuit " + mState + " -> " + state + " after " + mConsecutiveFailures
+                + " consecutive failures");
+        mState = state;
+    }
+}
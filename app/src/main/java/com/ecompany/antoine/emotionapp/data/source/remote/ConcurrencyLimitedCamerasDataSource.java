@@ -0,0 +1,538 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Wraps the remote data source so it never has more reads in flight than the backend can take,
+ * with a limit that adapts to the backend, see {@link AdaptiveConcurrencyLimit}.
+ * <p>
+ * Reads over the limit wait in a queue per {@link RequestPriority}, and the most urgent one is
+ * sent as soon as a read finishes. A read that waited longer than {@link #MAX_QUEUE_MILLIS} fails
+ * without being sent: its caller has most likely given up on it. A read that doesn't answer
+ * within {@link #SLOT_TIMEOUT_MILLIS} gives its slot back and counts as a failure, but its answer
+ * is still delivered if it comes. A {@link GetCameraCallback#onDataNotAvailable()} also means the
+ * camera doesn't exist, so it doesn't count as a failure. Mutations are passed through.
+ * <p>
+ * If the delegate is a {@link CamerasTreeSource}, so is this data source, and its tree reads take
+ * slots like the other reads.
+ * <p>
+ * This class must be used from the main thread, where the delegate also delivers its callbacks.
+ */
+public class ConcurrencyLimitedCamerasDataSource
+        implements CamerasDataSource, CamerasTreeSource {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+
+    public static final int DEFAULT_MAX_LIMIT = 32;
+
+    static final long MAX_QUEUE_MILLIS = 10000;
+
+    static final long SLOT_TIMEOUT_MILLIS = 15000;
+
+    private final CamerasDataSource mDelegate;
+
+    private final AdaptiveConcurrencyLimit mLimit;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<RequestPriority, ArrayDeque<Read>> mQueues =
+            new EnumMap<>(RequestPriority.class);
+
+    private int mInFlight = 0;
+
+    private int mSentCount = 0;
+
+    private int mQueuedCount = 0;
+
+    private int mExpiredCount = 0;
+
+    private int mSlotTimeoutCount = 0;
+
+    /**
+     * Snapshot of the state of a {@link ConcurrencyLimitedCamerasDataSource}.
+     */
+    public static final class Stats {
+
+        public final int limit;
+
+        public final int inFlight;
+
+        public final int waiting;
+
+        public final int sent;
+
+        /**
+         * Reads that had to wait for a slot.
+         */
+        public final int queued;
+
+        /**
+         * Reads failed without being sent because they waited too long.
+         */
+        public final int expired;
+
+        public final int slotTimeouts;
+
+        public final int limitDecreases;
+
+        /**
+         * The latency of the backend at its usual load, or -1 before the first answer.
+         */
+        public final long baselineLatencyMillis;
+
+        Stats(int limit, int inFlight, int waiting, int sent, int queued, int expired,
+              int slotTimeouts, int limitDecreases, long baselineLatencyMillis) {
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.waiting = waiting;
+            this.sent = sent;
+            this.queued = queued;
+            this.expired = expired;
+            this.slotTimeouts = slotTimeouts;
+            this.limitDecreases = limitDecreases;
+            this.baselineLatencyMillis = baselineLatencyMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "limit=" + limit + " inFlight=" + inFlight + " waiting=" + waiting
+                    + " sent=" + sent + " queued=" + queued + " expired=" + expired
+                    + " slotTimeouts=" + slotTimeouts + " limitDecreases=" + limitDecreases
+                    + " baselineLatency=" + baselineLatencyMillis + "ms";
+        }
+    }
+
+    public ConcurrencyLimitedCamerasDataSource(@NonNull CamerasDataSource delegate) {
+        this(delegate, DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    public ConcurrencyLimitedCamerasDataSource(@NonNull CamerasDataSource delegate,
+                                               int initialLimit, int maxLimit) {
+        mDelegate = checkNotNull(delegate);
+        mLimit = new AdaptiveConcurrencyLimit(initialLimit, 1, maxLimit);
+        for (RequestPriority priority : RequestPriority.values()) {
+            mQueues.put(priority, new ArrayDeque<Read>());
+        }
+    }
+
+    @NonNull
+    public Stats getStats() {
+        int waiting = 0;
+        for (ArrayDeque<Read> queue : mQueues.values()) {
+            waiting += queue.size();
+        }
+        return new Stats(mLimit.getLimit(), mInFlight, waiting, mSentCount, mQueuedCount,
+                mExpiredCount, mSlotTimeoutCount, mLimit.getDecreaseCount(),
+                mLimit.getBaselineLatencyMillis());
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Remote reads concurrency: " + getStats());
+    }
+
+    @Override
+    public void getCameras(@NonNull final LoadCamerasCallback callback) {
+        checkNotNull(callback);
+        execute(new Read(RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND)) {
+            @Override
+            void send() {
+                mDelegate.getCameras(new SlotCamerasCallback(this, callback));
+            }
+
+            @Override
+            void expire() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getCamera(@NonNull final String cameraId,
+                          @NonNull final GetCameraCallback callback) {
+        checkNotNull(cameraId);
+        checkNotNull(callback);
+        execute(new Read(RemoteRequestScheduler.priorityOf(callback,
+                RequestPriority.INTERACTIVE)) {
+            @Override
+            void send() {
+                mDelegate.getCamera(cameraId, new SlotCameraCallback(this, callback));
+            }
+
+            @Override
+            void expire() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getCamerasChangedSince(final long version,
+                                       @NonNull final LoadCameraChangesCallback callback) {
+        checkNotNull(callback);
+        execute(new Read(RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND)) {
+            @Override
+            void send() {
+                mDelegate.getCamerasChangedSince(version, new SlotChangesCallback(this, callback));
+            }
+
+            @Override
+            void expire() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getTreeChildHashes(final int level, @NonNull final int[] nodes,
+                                   @NonNull final LoadTreeHashesCallback callback) {
+        checkNotNull(nodes);
+        checkNotNull(callback);
+        final CamerasTreeSource treeSource = getTreeSource();
+        execute(new Read(RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND)) {
+            @Override
+            void send() {
+                treeSource.getTreeChildHashes(level, nodes,
+                        new SlotHashesCallback(this, callback));
+            }
+
+            @Override
+            void expire() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getCamerasInBuckets(@NonNull final int[] buckets,
+                                    @NonNull final LoadCameraChangesCallback callback) {
+        checkNotNull(buckets);
+        checkNotNull(callback);
+        final CamerasTreeSource treeSource = getTreeSource();
+        execute(new Read(RemoteRequestScheduler.priorityOf(callback, RequestPriority.BACKGROUND)) {
+            @Override
+            void send() {
+                treeSource.getCamerasInBuckets(buckets, new SlotChangesCallback(this, callback));
+            }
+
+            @Override
+            void expire() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void saveCamera(@NonNull Camera camera) {
+        mDelegate.saveCamera(camera);
+    }
+
+    @Override
+    public void closeCamera(@NonNull Camera camera) {
+        mDelegate.closeCamera(camera);
+    }
+
+    @Override
+    public void closeCamera(@NonNull String cameraId) {
+        mDelegate.closeCamera(cameraId);
+    }
+
+    @Override
+    public void activateCamera(@NonNull Camera camera) {
+        mDelegate.activateCamera(camera);
+    }
+
+    @Override
+    public void activateCamera(@NonNull String cameraId) {
+        mDelegate.activateCamera(cameraId);
+    }
+
+    @Override
+    public void clearClosedCameras() {
+        mDelegate.clearClosedCameras();
+    }
+
+    @Override
+    public void refreshCameras() {
+        mDelegate.refreshCameras();
+    }
+
+    @Override
+    public void deleteAllCameras() {
+        mDelegate.deleteAllCameras();
+    }
+
+    @Override
+    public void deleteCamera(@NonNull String cameraId) {
+        mDelegate.deleteCamera(cameraId);
+    }
+
+    @NonNull
+    private CamerasTreeSource getTreeSource() {
+        checkState(mDelegate instanceof CamerasTreeSource, "the delegate keeps no hash tree");
+        return (CamerasTreeSource) mDelegate;
+    }
+
+    @MainThread
+    private void execute(@NonNull Read read) {
+        if (mInFlight < mLimit.getLimit()) {
+            send(read);
+            return;
+        }
+        mQueuedCount++;
+        mQueues.get(read.mPriority).add(read);
+    }
+
+    @MainThread
+    private void send(@NonNull final Read read) {
+        mInFlight++;
+        mSentCount++;
+        read.mInFlightWhenSent = mInFlight;
+        read.mSentAtMillis = SystemClock.elapsedRealtime();
+        mHandler.postDelayed(read.mSlotTimeout, SLOT_TIMEOUT_MILLIS);
+        read.send();
+    }
+
+    /**
+     * Sends the most urgent waiting reads while there are free slots, and fails the ones that
+     * waited too long.
+     */
+    @MainThread
+    private void sendWaitingReads() {
+        long now = SystemClock.elapsedRealtime();
+        for (ArrayDeque<Read> queue : mQueues.values()) {
+            while (!queue.isEmpty() && mInFlight < mLimit.getLimit()) {
+                Read read = queue.poll();
+                if (now - read.mQueuedAtMillis > MAX_QUEUE_MILLIS) {
+                    mExpiredCount++;
+                    read.expire();
+                } else {
+                    send(read);
+                }
+            }
+        }
+    }
+
+    /**
+     * A read waiting for, or holding, a slot.
+     */
+    private abstract class Read {
+
+        final RequestPriority mPriority;
+
+        final long mQueuedAtMillis = SystemClock.elapsedRealtime();
+
+        final Runnable mSlotTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) {
+                    mSlotTimeoutCount++;
+                    release(true);
+                }
+            }
+        };
+
+        long mSentAtMillis;
+
+        int mInFlightWhenSent;
+
+        boolean mReleased = false;
+
+        Read(@NonNull RequestPriority priority) {
+            mPriority = priority;
+        }
+
+        abstract void send();
+
+        /**
+         * Fails the read, which was never sent.
+         */
+        abstract void expire();
+
+        /**
+         * Gives the slot back, once, and reports the outcome to the limit.
+         */
+        void release(boolean failed) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mHandler.removeCallbacks(mSlotTimeout);
+            mInFlight--;
+            mLimit.onSample(SystemClock.elapsedRealtime() - mSentAtMillis, mInFlightWhenSent,
+                    failed);
+            sendWaitingReads();
+        }
+    }
+
+    private static final class SlotCamerasCallback
+            implements LoadCamerasCallback, CamerasChunkListener, PrioritizedCallback {
+
+        private final Read mRead;
+
+        private final LoadCamerasCallback mCallback;
+
+        SlotCamerasCallback(@NonNull Read read, @NonNull LoadCamerasCallback callback) {
+            mRead = read;
+            mCallback = callback;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return mRead.mPriority;
+        }
+
+        @Override
+        public void onCamerasChunkLoaded(List<Camera> cameras) {
+            if (mCallback instanceof CamerasChunkListener) {
+                ((CamerasChunkListener) mCallback).onCamerasChunkLoaded(cameras);
+            }
+        }
+
+        @Override
+        public void onCamerasLoaded(List<Camera> cameras) {
+            mRead.release(false);
+            mCallback.onCamerasLoaded(cameras);
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mRead.release(true);
+            mCallback.onDataNotAvailable();
+        }
+    }
+
+    private static final class SlotCameraCallback
+            implements GetCameraCallback, PrioritizedCallback {
+
+        private final Read mRead;
+
+        private final GetCameraCallback mCallback;
+
+        SlotCameraCallback(@NonNull Read read, @NonNull GetCameraCallback callback) {
+            mRead = read;
+            mCallback = callback;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return mRead.mPriority;
+        }
+
+        @Override
+        public void onCameraLoaded(Camera camera) {
+            mRead.release(false);
+            mCallback.onCameraLoaded(camera);
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mRead.release(false);
+            mCallback.onDataNotAvailable();
+        }
+    }
+
+    private static final class SlotChangesCallback
+            implements LoadCameraChangesCallback, CamerasChunkListener, PrioritizedCallback {
+
+        private final Read mRead;
+
+        private final LoadCameraChangesCallback mCallback;
+
+        SlotChangesCallback(@NonNull Read read, @NonNull LoadCameraChangesCallback callback) {
+            mRead = read;
+            mCallback = callback;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return mRead.mPriority;
+        }
+
+        @Override
+        public void onCamerasChunkLoaded(List<Camera> cameras) {
+            if (mCallback instanceof CamerasChunkListener) {
+                ((CamerasChunkListener) mCallback).onCamerasChunkLoaded(cameras);
+            }
+        }
+
+        @Override
+        public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                          List<String> deletedCameraIds, long latestVersion) {
+            mRead.release(false);
+            mCallback.onCameraChangesLoaded(changedCameras, deletedCameraIds, latestVersion);
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mRead.release(true);
+            mCallback.onDataNotAvailable();
+        }
+    }
+
+    private static final class SlotHashesCallback
+            implements LoadTreeHashesCallback, PrioritizedCallback {
+
+        private final Read mRead;
+
+        private final LoadTreeHashesCallback mCallback;
+
+        SlotHashesCallback(@NonNull Read read, @NonNull LoadTreeHashesCallback callback) {
+            mRead = read;
+            mCallback = callback;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return mRead.mPriority;
+        }
+
+        @Override
+        public void onTreeHashesLoaded(long[] hashes, long latestVersion) {
+            mRead.release(false);
+            mCallback.onTreeHashesLoaded(hashes, latestVersion);
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mRead.release(true);
+            mCallback.onDataNotAvailable();
+        }
+    }
+}
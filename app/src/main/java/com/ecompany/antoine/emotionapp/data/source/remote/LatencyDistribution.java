@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Distribution the simulated round-trip latency of a request is drawn from.
+ */
+public abstract class LatencyDistribution {
+
+    /**
+     * Returns a latency in milliseconds, never negative.
+     */
+    public abstract long sampleMillis(@NonNull Random random);
+
+    /**
+     * Always {@code millis}.
+     */
+    @NonNull
+    public static LatencyDistribution fixed(final long millis) {
+        checkArgument(millis >= 0);
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(@NonNull Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + millis + ")";
+            }
+        };
+    }
+
+    /**
+     * Any value between {@code minMillis} and {@code maxMillis} with the same probability.
+     */
+    @NonNull
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        checkArgument(minMillis >= 0 && maxMillis >= minMillis);
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(@NonNull Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minMillis + ", " + maxMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Log-normal around {@code medianMillis}: the usual shape of network latency, with a long tail
+     * that gets heavier as {@code sigma} grows (0.5 is a stable network, 1 a poor one).
+     */
+    @NonNull
+    public static LatencyDistribution logNormal(final long medianMillis, final double sigma) {
+        checkArgument(medianMillis > 0 && sigma >= 0);
+        final double mu = Math.log(medianMillis);
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(@NonNull Random random) {
+                return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "logNormal(" + medianMillis + ", " + sigma + ")";
+            }
+        };
+    }
+
+    /**
+     * Follows a histogram of measured latencies, e.g. exported from production monitoring. Bucket
+     * {@code i} holds {@code counts[i]} requests that took between {@code upperBoundsMillis[i - 1]}
+     * (or 0) and {@code upperBoundsMillis[i]}; values are uniform within a bucket.
+     */
+    @NonNull
+    public static LatencyDistribution histogram(@NonNull long[] upperBoundsMillis,
+                                                @NonNull long[] counts) {
+        checkNotNull(upperBoundsMillis);
+        checkNotNull(counts);
+        checkArgument(upperBoundsMillis.length == counts.length && counts.length > 0,
+                "one count per bucket is required");
+        final long[] bounds = Arrays.copyOf(upperBoundsMillis, upperBoundsMillis.length);
+        final long[] cumulativeCounts = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            checkArgument(counts[i] >= 0 && (i == 0 || bounds[i] > bounds[i - 1]));
+            total += counts[i];
+            cumulativeCounts[i] = total;
+        }
+        checkArgument(total > 0, "the histogram is empty");
+        final long totalCount = total;
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(@NonNull Random random) {
+                long target = (long) (random.nextDouble() * totalCount);
+                int bucket = 0;
+                while (cumulativeCounts[bucket] <= target) {
+                    bucket++;
+                }
+                long lower = bucket == 0 ? 0 : bounds[bucket - 1];
+                return lower + (long) (random.nextDouble() * (bounds[bucket] - lower));
+            }
+
+            @Override
+            public String toString() {
+                return "histogram(" + Arrays.toString(bounds) + ")";
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import java.util.Arrays;
+
+/**
+ * The last few latencies of a kind of request, in a ring buffer, with their percentiles.
+ */
+class LatencyWindow {
+
+    private final long[] mLatenciesMillis;
+
+    private int mNext = 0;
+
+    private int mCount = 0;
+
+    LatencyWindow(int size) {
+        mLatenciesMillis = new long[size];
+    }
+
+    synchronized void record(long latencyMillis) {
+        mLatenciesMillis[mNext] = latencyMillis;
+        mNext = (mNext + 1) % mLatenciesMillis.length;
+        mCount = Math.min(mCount + 1, mLatenciesMillis.length);
+    }
+
+    synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the latency below which {@code percentile} (between 0 and 1) of the recorded ones
+     * are, or -1 if nothing was recorded yet.
+     */
+    synchronized long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(mLatenciesMillis, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * mCount) - 1;
+        return sorted[Math.max(0, Math.min(index, mCount - 1))];
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Model of the network between the app and a simulated backend: how long requests take, how
+ * often they fail or hang, how fast their payloads download and how many requests the backend
+ * serves at once before it slows down.
+ * <p>
+ * The presets can be selected by name, see {@link #forName(String)}; others are made with
+ * {@link Builder}.
+ */
+public final class NetworkProfile {
+
+    /**
+     * Answers right away and never fails.
+     */
+    public static final NetworkProfile INSTANT = new Builder("instant").build();
+
+    /**
+     * The fixed 5 second latency the simulated remote always had.
+     */
+    public static final NetworkProfile SLOW_FIXED = new Builder("slow-fixed")
+            .setLatency(LatencyDistribution.fixed(5000))
+            .build();
+
+    public static final NetworkProfile WIFI = new Builder("wifi")
+            .setLatency(LatencyDistribution.logNormal(40, 0.4))
+            .setBandwidthBytesPerSecond(2 * 1024 * 1024)
+            .setErrorRate(0.001)
+            .build();
+
+    public static final NetworkProfile LTE = new Builder("lte")
+            .setLatency(LatencyDistribution.logNormal(120, 0.6))
+            .setBandwidthBytesPerSecond(512 * 1024)
+            .setErrorRate(0.005)
+            .setTimeoutRate(0.002)
+            .build();
+
+    /**
+     * A weak mobile connection with a heavy tail, frequent errors and hung requests.
+     */
+    public static final NetworkProfile FLAKY_3G = new Builder("flaky-3g")
+            .setLatency(LatencyDistribution.logNormal(400, 1.0))
+            .setBandwidthBytesPerSecond(48 * 1024)
+            .setErrorRate(0.05)
+            .setTimeoutRate(0.02)
+            .build();
+
+    /**
+     * A fast network to a backend that serves 4 requests at once and degrades beyond that.
+     */
+    public static final NetworkProfile BUSY_BACKEND = new Builder("busy-backend")
+            .setLatency(LatencyDistribution.logNormal(80, 0.3))
+            .setBandwidthBytesPerSecond(2 * 1024 * 1024)
+            .setServerCapacity(4)
+            .build();
+
+    private static final NetworkProfile[] PRESETS =
+            {INSTANT, SLOW_FIXED, WIFI, LTE, FLAKY_3G, BUSY_BACKEND};
+
+    /**
+     * Load, as a multiple of the server capacity, beyond which the backend rejects requests.
+     */
+    private static final int MAX_OVERLOAD = 4;
+
+    @NonNull
+    private final String mName;
+
+    @NonNull
+    private final LatencyDistribution mLatency;
+
+    private final double mErrorRate;
+
+    private final double mTimeoutRate;
+
+    private final long mTimeoutMillis;
+
+    private final long mBandwidthBytesPerSecond;
+
+    private final int mServerCapacity;
+
+    /**
+     * What happens to one simulated request.
+     */
+    public static final class Outcome {
+
+        private final boolean mFailed;
+
+        private final long mDelayMillis;
+
+        Outcome(boolean failed, long delayMillis) {
+            mFailed = failed;
+            mDelayMillis = delayMillis;
+        }
+
+        /**
+         * Returns true if the request fails, after {@link #getDelayMillis()}.
+         */
+        public boolean isFailed() {
+            return mFailed;
+        }
+
+        /**
+         * Returns the time until the response, or until the failure, is delivered.
+         */
+        public long getDelayMillis() {
+            return mDelayMillis;
+        }
+    }
+
+    private NetworkProfile(@NonNull Builder builder) {
+        mName = builder.mName;
+        mLatency = builder.mLatency;
+        mErrorRate = builder.mErrorRate;
+        mTimeoutRate = builder.mTimeoutRate;
+        mTimeoutMillis = builder.mTimeoutMillis;
+        mBandwidthBytesPerSecond = builder.mBandwidthBytesPerSecond;
+        mServerCapacity = builder.mServerCapacity;
+    }
+
+    /**
+     * Returns the preset called {@code name}, or {@link #SLOW_FIXED} if there is none.
+     */
+    @NonNull
+    public static NetworkProfile forName(@Nullable String name) {
+        for (NetworkProfile profile : PRESETS) {
+            if (profile.mName.equals(name)) {
+                return profile;
+            }
+        }
+        return SLOW_FIXED;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Draws the outcome of a request whose response is {@code payloadBytes} long.
+     * <p>
+     * A hung request fails once the timeout has passed. A failed request fails after its latency,
+     * without downloading anything. A successful one takes its latency plus the time to download
+     * the payload at the bandwidth cap.
+     */
+    @NonNull
+    public Outcome simulate(int payloadBytes, @NonNull Random random) {
+        return simulate(payloadBytes, 1, random);
+    }
+
+    /**
+     * Draws the outcome of a request that arrives while {@code inFlight} requests, itself
+     * included, are being served.
+     * <p>
+     * Beyond the server capacity the backend thrashes: the latency grows with the square of the
+     * load over the capacity. Beyond {@link #MAX_OVERLOAD} times the capacity it sheds the request,
+     * which fails after the usual latency.
+     */
+    @NonNull
+    public Outcome simulate(int payloadBytes, int inFlight, @NonNull Random random) {
+        double roll = random.nextDouble();
+        if (roll < mTimeoutRate) {
+            return new Outcome(true, mTimeoutMillis);
+        }
+        long latencyMillis = mLatency.sampleMillis(random);
+        if (roll < mTimeoutRate + mErrorRate
+                || (mServerCapacity > 0 && inFlight > MAX_OVERLOAD * mServerCapacity)) {
+            return new Outcome(true, latencyMillis);
+        }
+        if (mServerCapacity > 0 && inFlight > mServerCapacity) {
+            double overload = (double) inFlight / mServerCapacity;
+            latencyMillis = (long) (latencyMillis * overload * overload);
+        }
+        long transferMillis = mBandwidthBytesPerSecond == 0
+                ? 0 : payloadBytes * 1000L / mBandwidthBytesPerSecond;
+        return new Outcome(false, latencyMillis + transferMillis);
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": latency=" + mLatency + " errors=" + mErrorRate + " timeouts="
+                + mTimeoutRate + " bandwidth=" + mBandwidthBytesPerSecond + "B/s capacity="
+                + mServerCapacity;
+    }
+
+    public static final class Builder {
+
+        private final String mName;
+
+        private LatencyDistribution mLatency = LatencyDistribution.fixed(0);
+
+        private double mErrorRate = 0;
+
+        private double mTimeoutRate = 0;
+
+        private long mTimeoutMillis = 30000;
+
+        private long mBandwidthBytesPerSecond = 0;
+
+        private int mServerCapacity = 0;
+
+        public Builder(@NonNull String name) {
+            mName = checkNotNull(name);
+        }
+
+        @NonNull
+        public Builder setLatency(@NonNull LatencyDistribution latency) {
+            mLatency = checkNotNull(latency);
+            return this;
+        }
+
+        /**
+         * Fraction of requests, between 0 and 1, that fail with an error.
+         */
+        @NonNull
+        public Builder setErrorRate(double errorRate) {
+            checkArgument(errorRate >= 0 && errorRate <= 1);
+            mErrorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Fraction of requests, between 0 and 1, that hang until they time out.
+         */
+        @NonNull
+        public Builder setTimeoutRate(double timeoutRate) {
+            checkArgument(timeoutRate >= 0 && timeoutRate <= 1);
+            mTimeoutRate = timeoutRate;
+            return this;
+        }
+
+        @NonNull
+        public Builder setTimeoutMillis(long timeoutMillis) {
+            checkArgument(timeoutMillis >= 0);
+            mTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Caps the download speed, making the delay grow with the payload. 0 means no cap.
+         */
+        @NonNull
+        public Builder setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+            checkArgument(bandwidthBytesPerSecond >= 0);
+            mBandwidthBytesPerSecond = bandwidthBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Number of requests the backend serves at once at full speed. 0 means no limit.
+         */
+        @NonNull
+        public Builder setServerCapacity(int serverCapacity) {
+            checkArgument(serverCapacity >= 0);
+            mServerCapacity = serverCapacity;
+            return this;
+        }
+
+        @NonNull
+        public NetworkProfile build() {
+            checkArgument(mErrorRate + mTimeoutRate <= 1,
+                    "errors and timeouts can't exceed all requests");
+            return new NetworkProfile(this);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.PrioritizedCallback;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.RequestPriority;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs remote requests on an executor, a limited number at a time, in the order of their
+ * {@link RequestPriority}.
+ * <p>
+ * Each priority has its own queue and cap on running requests. When a request finishes, the next
+ * one comes from the most urgent queue whose cap isn't reached, so an interactive request goes
+ * ahead of all the queued background ones. One slot is kept for interactive requests, so they
+ * never wait for a pool full of prefetches and refreshes. Running requests are never interrupted.
+ * <p>
+ * The time every request waits in its queue is recorded, see {@link #getStats(RequestPriority)}.
+ */
+public class RemoteRequestScheduler {
+
+    /**
+     * The size of the network pool of {@link com.ecompany.antoine.emotionapp.util.AppExecutors}.
+     */
+    public static final int DEFAULT_MAX_RUNNING = 3;
+
+    private static final int MAX_RUNNING_BACKGROUND = 1;
+
+    private static final int QUEUE_DELAY_WINDOW_SIZE = 100;
+
+    private final Executor mExecutor;
+
+    private final int mMaxRunning;
+
+    private final Map<RequestPriority, PriorityClass> mQueues =
+            new EnumMap<>(RequestPriority.class);
+
+    private int mRunning = 0;
+
+    /**
+     * Counters of one priority.
+     */
+    public static final class Stats {
+
+        public final int submitted;
+
+        public final int completed;
+
+        public final int queued;
+
+        public final int running;
+
+        /**
+         * Median time spent queued by the last requests, or -1 if there were none.
+         */
+        public final long medianQueueDelayMillis;
+
+        public final long p95QueueDelayMillis;
+
+        public final long maxQueueDelayMillis;
+
+        Stats(int submitted, int completed, int queued, int running, long medianQueueDelayMillis,
+              long p95QueueDelayMillis, long maxQueueDelayMillis) {
+            this.submitted = submitted;
+            this.completed = completed;
+            this.queued = queued;
+            this.running = running;
+            this.medianQueueDelayMillis = medianQueueDelayMillis;
+            this.p95QueueDelayMillis = p95QueueDelayMillis;
+            this.maxQueueDelayMillis = maxQueueDelayMillis;
+        }
+    }
+
+    private static final class PriorityClass {
+
+        final int mMaxRunning;
+
+        final ArrayDeque<Request> mRequests = new ArrayDeque<>();
+
+        final LatencyWindow mQueueDelays = new LatencyWindow(QUEUE_DELAY_WINDOW_SIZE);
+
+        int mRunning = 0;
+
+        int mSubmitted = 0;
+
+        int mCompleted = 0;
+
+        long mMaxQueueDelayMillis = 0;
+
+        PriorityClass(int maxRunning) {
+            mMaxRunning = maxRunning;
+        }
+    }
+
+    private static final class Request {
+
+        final Runnable mTask;
+
+        final long mQueuedAtMillis = SystemClock.elapsedRealtime();
+
+        Request(Runnable task) {
+            mTask = task;
+        }
+    }
+
+    /**
+     * @param executor   runs the requests; it should have at least {@code maxRunning} threads
+     * @param maxRunning the number of requests run at the same time, at least 2
+     */
+    public RemoteRequestScheduler(@NonNull Executor executor, int maxRunning) {
+        checkArgument(maxRunning >= 2, "one slot is kept for interactive requests");
+        mExecutor = checkNotNull(executor);
+        mMaxRunning = maxRunning;
+        mQueues.put(RequestPriority.INTERACTIVE, new PriorityClass(maxRunning));
+        mQueues.put(RequestPriority.VISIBLE_PREFETCH, new PriorityClass(maxRunning - 1));
+        mQueues.put(RequestPriority.BACKGROUND, new PriorityClass(MAX_RUNNING_BACKGROUND));
+    }
+
+    /**
+     * Returns the priority {@code callback} asks for, or {@code defaultPriority} if it doesn't.
+     */
+    @NonNull
+    public static RequestPriority priorityOf(@NonNull Object callback,
+                                             @NonNull RequestPriority defaultPriority) {
+        return callback instanceof PrioritizedCallback
+                ? ((PrioritizedCallback) callback).getRequestPriority() : defaultPriority;
+    }
+
+    /**
+     * Returns the number of requests of {@code priority} run at the same time, at most.
+     */
+    public int getMaxRunning(@NonNull RequestPriority priority) {
+        return mQueues.get(checkNotNull(priority)).mMaxRunning;
+    }
+
+    public void execute(@NonNull RequestPriority priority, @NonNull Runnable task) {
+        checkNotNull(priority);
+        checkNotNull(task);
+        synchronized (this) {
+            PriorityClass queue = mQueues.get(priority);
+            queue.mRequests.add(new Request(task));
+            queue.mSubmitted++;
+            dispatch();
+        }
+    }
+
+    @NonNull
+    public synchronized Stats getStats(@NonNull RequestPriority priority) {
+        PriorityClass queue = mQueues.get(checkNotNull(priority));
+        return new Stats(queue.mSubmitted, queue.mCompleted, queue.mRequests.size(),
+                queue.mRunning, queue.mQueueDelays.getPercentile(0.5),
+                queue.mQueueDelays.getPercentile(0.95), queue.mMaxQueueDelayMillis);
+    }
+
+    /**
+     * Prints the counters and queueing delays of every priority.
+     */
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Remote requests, queue delay in ms:");
+        for (RequestPriority priority : RequestPriority.values()) {
+            Stats stats = getStats(priority);
+            writer.println(String.format(Locale.US,
+                    "  %-16s submitted=%d completed=%d queued=%d running=%d"
+                            + " p50=%d p95=%d max=%d",
+                    priority, stats.submitted, stats.completed, stats.queued, stats.running,
+                    stats.medianQueueDelayMillis, stats.p95QueueDelayMillis,
+                    stats.maxQueueDelayMillis));
+        }
+    }
+
+    /**
+     * Starts queued requests, the most urgent first, until the caps are reached.
+     */
+    private void dispatch() {
+        while (mRunning < mMaxRunning) {
+            RequestPriority next = null;
+            for (RequestPriority priority : RequestPriority.values()) {
+                PriorityClass queue = mQueues.get(priority);
+                boolean slotFree = priority == RequestPriority.INTERACTIVE
+                        || mRunning < mMaxRunning - 1;
+                if (!queue.mRequests.isEmpty() && queue.mRunning < queue.mMaxRunning
+                        && slotFree) {
+                    next = priority;
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            start(mQueues.get(next));
+        }
+    }
+
+    private void start(@NonNull final PriorityClass queue) {
+        final Request request = queue.mRequests.poll();
+        long queueDelayMillis = SystemClock.elapsedRealtime() - request.mQueuedAtMillis;
+        queue.mQueueDelays.record(queueDelayMillis);
+        queue.mMaxQueueDelayMillis = Math.max(queue.mMaxQueueDelayMillis, queueDelayMillis);
+        queue.mRunning++;
+        mRunning++;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    request.mTask.run();
+                } finally {
+                    finish(queue);
+                }
+            }
+        });
+    }
+
+    private synchronized void finish(@NonNull PriorityClass queue) {
+        queue.mRunning--;
+        queue.mCompleted++;
+        mRunning--;
+        dispatch();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Immutable settings of a {@link ResilientCamerasDataSource}: how reads are retried, when the
+ * circuit breaker opens, and when a read is hedged. Use {@link Builder} to change the defaults.
+ */
+public final class ResiliencePolicy {
+
+    private final int mMaxRetries;
+
+    private final long mBaseBackoffMillis;
+
+    private final long mMaxBackoffMillis;
+
+    private final long mAttemptTimeoutMillis;
+
+    private final int mFailureThreshold;
+
+    private final long mOpenMillis;
+
+    private final boolean mHedgingEnabled;
+
+    private final double mHedgePercentile;
+
+    private final int mMinLatencySamples;
+
+    private final long mMinHedgeDelayMillis;
+
+    private final int mLatencyWindowSize;
+
+    private ResiliencePolicy(@NonNull Builder builder) {
+        mMaxRetries = builder.mMaxRetries;
+        mBaseBackoffMillis = builder.mBaseBackoffMillis;
+        mMaxBackoffMillis = builder.mMaxBackoffMillis;
+        mAttemptTimeoutMillis = builder.mAttemptTimeoutMillis;
+        mFailureThreshold = builder.mFailureThreshold;
+        mOpenMillis = builder.mOpenMillis;
+        mHedgingEnabled = builder.mHedgingEnabled;
+        mHedgePercentile = builder.mHedgePercentile;
+        mMinLatencySamples = builder.mMinLatencySamples;
+        mMinHedgeDelayMillis = builder.mMinHedgeDelayMillis;
+        mLatencyWindowSize = builder.mLatencyWindowSize;
+    }
+
+    @NonNull
+    public static ResiliencePolicy defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * Number of times a failed read is tried again.
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * Upper bound of the random delay before retry {@code n} (from 1): {@code base * 2^(n-1)},
+     * capped at {@link #getMaxBackoffMillis()}.
+     */
+    public long getBaseBackoffMillis() {
+        return mBaseBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return mMaxBackoffMillis;
+    }
+
+    /**
+     * Time after which an attempt that hasn't answered is counted as failed.
+     */
+    public long getAttemptTimeoutMillis() {
+        return mAttemptTimeoutMillis;
+    }
+
+    /**
+     * Number of consecutive failures that opens the circuit.
+     */
+    public int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+
+    /**
+     * Time the circuit stays open before a single trial request is let through.
+     */
+    public long getOpenMillis() {
+        return mOpenMillis;
+    }
+
+    public boolean isHedgingEnabled() {
+        return mHedgingEnabled;
+    }
+
+    /**
+     * Latency percentile after which a duplicate of a read is sent, e.g. 0.95.
+     */
+    public double getHedgePercentile() {
+        return mHedgePercentile;
+    }
+
+    /**
+     * Number of latencies to measure before reads are hedged.
+     */
+    public int getMinLatencySamples() {
+        return mMinLatencySamples;
+    }
+
+    public long getMinHedgeDelayMillis() {
+        return mMinHedgeDelayMillis;
+    }
+
+    /**
+     * Number of recent latencies the hedging percentile is computed from.
+     */
+    public int getLatencyWindowSize() {
+        return mLatencyWindowSize;
+    }
+
+    public static final class Builder {
+
+        private int mMaxRetries = 2;
+
+        private long mBaseBackoffMillis = 250;
+
+        private long mMaxBackoffMillis = 4000;
+
+        private long mAttemptTimeoutMillis = 15000;
+
+        private int mFailureThreshold = 5;
+
+        private long mOpenMillis = 30000;
+
+        private boolean mHedgingEnabled = true;
+
+        private double mHedgePercentile = 0.95;
+
+        private int mMinLatencySamples = 10;
+
+        private long mMinHedgeDelayMillis = 50;
+
+        private int mLatencyWindowSize = 50;
+
+        @NonNull
+        public Builder setMaxRetries(int maxRetries) {
+            checkArgument(maxRetries >= 0);
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        @NonNull
+        public Builder setBackoffMillis(long baseBackoffMillis, long maxBackoffMillis) {
+            checkArgument(baseBackoffMillis >= 0 && maxBackoffMillis >= baseBackoffMillis);
+            mBaseBackoffMillis = baseBackoffMillis;
+            mMaxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        @NonNull
+        public Builder setAttemptTimeoutMillis(long attemptTimeoutMillis) {
+            checkArgument(attemptTimeoutMillis > 0);
+            mAttemptTimeoutMillis = attemptTimeoutMillis;
+            return this;
+        }
+
+        @NonNull
+        public Builder setCircuitBreaker(int failureThreshold, long openMillis) {
+            checkArgument(failureThreshold > 0 && openMillis >= 0);
+            mFailureThreshold = failureThreshold;
+            mOpenMillis = openMillis;
+            return this;
+        }
+
+        @NonNull
+        public Builder setHedgingEnabled(boolean hedgingEnabled) {
+            mHedgingEnabled = hedgingEnabled;
+            return this;
+        }
+
+        @NonNull
+        public Builder setHedging(double percentile, int minLatencySamples,
+                                  long minHedgeDelayMillis) {
+            checkArgument(percentile > 0 && percentile < 1);
+            checkArgument(minLatencySamples > 0 && minHedgeDelayMillis >= 0);
+            mHedgePercentile = percentile;
+            mMinLatencySamples = minLatencySamples;
+            mMinHedgeDelayMillis = minHedgeDelayMillis;
+            return this;
+        }
+
+        @NonNull
+        public Builder setLatencyWindowSize(int latencyWindowSize) {
+            checkArgument(latencyWindowSize > 0);
+            mLatencyWindowSize = latencyWindowSize;
+            return this;
+        }
+
+        @NonNull
+        public ResiliencePolicy build() {
+            checkArgument(mMinLatencySamples <= mLatencyWindowSize,
+                    "minLatencySamples can't exceed the latency window");
+            return new ResiliencePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data.source.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasShardedFetch;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Wraps the remote data source so its reads survive a flaky backend, following a
+ * {@link ResiliencePolicy}:
+ * <ul>
+ * <li>reads that fail or time out are retried after an exponential backoff with full jitter; a
+ * timed-out attempt that answers before any retry has is still used;</li>
+ * <li>a {@link CircuitBreaker} makes reads fail straight away while the backend keeps failing, so
+ * a dead backend doesn't keep the radio and the threads busy;</li>
+ * <li>a read that is slower than the usual latency percentile is hedged: a duplicate is sent, and
+ * whichever answers first wins.</li>
+ * </ul>
+ * {@link GetCameraCallback#onDataNotAvailable()} also means the camera doesn't exist, so
+ * {@link #getCamera(String, GetCameraCallback)} is hedged but not retried, and only its timeouts
+ * count as failures. Mutations are passed through: they have no result to retry on. Reads keep
+ * the {@link RequestPriority} of their callback.
+ * <p>
+ * If the delegate is a {@link CamerasTreeSource}, so is this data source. Its tree reads are
+ * hedged and go through the circuit breaker, but aren't retried: {@link CamerasShardedFetch}
+ * retries its own shards, and a failed tree sync falls back to a full reload.
+ * <p>
+ * This class must be used from the main thread, where the delegate also delivers its callbacks.
+ */
+public class ResilientCamerasDataSource implements CamerasDataSource, CamerasTreeSource {
+
+    private final CamerasDataSource mDelegate;
+
+    private final ResiliencePolicy mPolicy;
+
+    private final CircuitBreaker mCircuitBreaker;
+
+    private final LatencyWindow mLatencies;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Random mRandom = new Random();
+
+    private int mCallCount = 0;
+
+    private int mAttemptCount = 0;
+
+    private int mRetryCount = 0;
+
+    private int mHedgeCount = 0;
+
+    private int mHedgeWinCount = 0;
+
+    private int mTimeoutCount = 0;
+
+    private int mLateSuccessCount = 0;
+
+    private int mRejectedCount = 0;
+
+    private int mFailureCount = 0;
+
+    /**
+     * Snapshot of the counters of a {@link ResilientCamerasDataSource}.
+     */
+    public static final class Stats {
+
+        public final int calls;
+
+        public final int attempts;
+
+        public final int retries;
+
+        public final int hedges;
+
+        /**
+         * Hedged calls answered by the duplicate rather than the original attempt.
+         */
+        public final int hedgeWins;
+
+        public final int timeouts;
+
+        /**
+         * Calls answered by an attempt after it had timed out, before any retry did.
+         */
+        public final int lateSuccesses;
+
+        /**
+         * Calls failed straight away because the circuit was open.
+         */
+        public final int rejected;
+
+        /**
+         * Calls that ended with {@code onDataNotAvailable}, including the rejected ones.
+         */
+        public final int failures;
+
+        public final int circuitOpenings;
+
+        @NonNull
+        public final String circuitState;
+
+        /**
+         * The latency reads are hedged after, or -1 until enough reads have been measured.
+         */
+        public final long hedgeDelayMillis;
+
+        Stats(int calls, int attempts, int retries, int hedges, int hedgeWins, int timeouts,
+              int lateSuccesses, int rejected, int failures, int circuitOpenings,
+              @NonNull String circuitState, long hedgeDelayMillis) {
+            this.calls = calls;
+            this.attempts = attempts;
+            this.retries = retries;
+            this.hedges = hedges;
+            this.hedgeWins = hedgeWins;
+            this.timeouts = timeouts;
+            this.lateSuccesses = lateSuccesses;
+            this.rejected = rejected;
+            this.failures = failures;
+            this.circuitOpenings = circuitOpenings;
+            this.circuitState = circuitState;
+            this.hedgeDelayMillis = hedgeDelayMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + calls + " attempts=" + attempts + " retries=" + retries
+                    + " hedges=" + hedges + " hedgeWins=" + hedgeWins + " timeouts=" + timeouts
+                    + " lateSuccesses=" + lateSuccesses + " rejected=" + rejected + " failures=" + failures
+                    + " circuitOpenings=" + circuitOpenings + " circuit=" + circuitState
+                    + " hedgeDelay=" + hedgeDelayMillis + "ms";
+        }
+    }
+
+    public ResilientCamerasDataSource(@NonNull CamerasDataSource delegate,
+                                      @NonNull ResiliencePolicy policy) {
+        mDelegate = checkNotNull(delegate);
+        mPolicy = checkNotNull(policy);
+        mCircuitBreaker = new CircuitBreaker(policy.getFailureThreshold(), policy.getOpenMillis());
+        mLatencies = new LatencyWindow(policy.getLatencyWindowSize());
+    }
+
+    @NonNull
+    public Stats getStats() {
+        return new Stats(mCallCount, mAttemptCount, mRetryCount, mHedgeCount, mHedgeWinCount,
+                mTimeoutCount, mLateSuccessCount, mRejectedCount, mFailureCount,
+                mCircuitBreaker.getOpenCount(), mCircuitBreaker.getState().name(),
+                getHedgeDelayMillis());
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Resilient remote reads: " + getStats());
+    }
+
+    @Override
+    public void getCameras(@NonNull final LoadCamerasCallback callback) {
+        checkNotNull(callback);
+        execute(new ReadCall(true, true, chunkListenerOf(callback)) {
+            @Override
+            void read(@NonNull Attempt attempt) {
+                mDelegate.getCameras(new AttemptCamerasCallback(attempt, callback));
+            }
+
+            @Override
+            void onFailed() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getCamera(@NonNull final String cameraId,
+                          @NonNull final GetCameraCallback callback) {
+        checkNotNull(cameraId);
+        checkNotNull(callback);
+        execute(new ReadCall(false, false, null) {
+            @Override
+            void read(@NonNull final Attempt attempt) {
+                mDelegate.getCamera(cameraId, new GetCameraCallback() {
+                    @Override
+                    public void onCameraLoaded(final Camera camera) {
+                        attempt.succeed(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onCameraLoaded(camera);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        attempt.fail(false);
+                    }
+                });
+            }
+
+            @Override
+            void onFailed() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getCamerasChangedSince(final long version,
+                                       @NonNull final LoadCameraChangesCallback callback) {
+        checkNotNull(callback);
+        execute(new ReadCall(true, true, chunkListenerOf(callback)) {
+            @Override
+            void read(@NonNull Attempt attempt) {
+                mDelegate.getCamerasChangedSince(version,
+                        new AttemptChangesCallback(attempt, callback));
+            }
+
+            @Override
+            void onFailed() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getTreeChildHashes(final int level, @NonNull final int[] nodes,
+                                   @NonNull final LoadTreeHashesCallback callback) {
+        checkNotNull(nodes);
+        checkNotNull(callback);
+        final CamerasTreeSource treeSource = getTreeSource();
+        execute(new ReadCall(false, true, null) {
+            @Override
+            void read(@NonNull final Attempt attempt) {
+                treeSource.getTreeChildHashes(level, nodes, new LoadTreeHashesCallback() {
+                    @Override
+                    public void onTreeHashesLoaded(final long[] hashes, final long latestVersion) {
+                        attempt.succeed(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onTreeHashesLoaded(hashes, latestVersion);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        attempt.fail(false);
+                    }
+                });
+            }
+
+            @Override
+            void onFailed() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void getCamerasInBuckets(@NonNull final int[] buckets,
+                                    @NonNull final LoadCameraChangesCallback callback) {
+        checkNotNull(buckets);
+        checkNotNull(callback);
+        final CamerasTreeSource treeSource = getTreeSource();
+        execute(new ReadCall(false, true, chunkListenerOf(callback)) {
+            @Override
+            void read(@NonNull Attempt attempt) {
+                treeSource.getCamerasInBuckets(buckets,
+                        new AttemptChangesCallback(attempt, callback));
+            }
+
+            @Override
+            void onFailed() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    @Override
+    public void saveCamera(@NonNull Camera camera) {
+        mDelegate.saveCamera(camera);
+    }
+
+    @Override
+    public void closeCamera(@NonNull Camera camera) {
+        mDelegate.closeCamera(camera);
+    }
+
+    @Override
+    public void closeCamera(@NonNull String cameraId) {
+        mDelegate.closeCamera(cameraId);
+    }
+
+    @Override
+    public void activateCamera(@NonNull Camera camera) {
+        mDelegate.activateCamera(camera);
+    }
+
+    @Override
+    public void activateCamera(@NonNull String cameraId) {
+        mDelegate.activateCamera(cameraId);
+    }
+
+    @Override
+    public void clearClosedCameras() {
+        mDelegate.clearClosedCameras();
+    }
+
+    @Override
+    public void refreshCameras() {
+        mDelegate.refreshCameras();
+    }
+
+    @Override
+    public void deleteAllCameras() {
+        mDelegate.deleteAllCameras();
+    }
+
+    @Override
+    public void deleteCamera(@NonNull String cameraId) {
+        mDelegate.deleteCamera(cameraId);
+    }
+
+    @NonNull
+    private CamerasTreeSource getTreeSource() {
+        checkState(mDelegate instanceof CamerasTreeSource, "the delegate keeps no hash tree");
+        return (CamerasTreeSource) mDelegate;
+    }
+
+    @MainThread
+    private void execute(@NonNull ReadCall call) {
+        mCallCount++;
+        if (!mCircuitBreaker.allowRequest()) {
+            mRejectedCount++;
+            finishWithFailure(call);
+            return;
+        }
+        startAttempt(call, false);
+    }
+
+    @MainThread
+    private void startAttempt(@NonNull final ReadCall call, boolean hedge) {
+        final Attempt attempt = new Attempt(call, hedge);
+        call.mAttempts.add(attempt);
+        mAttemptCount++;
+
+        mHandler.postDelayed(attempt.mTimeout, mPolicy.getAttemptTimeoutMillis());
+
+        long hedgeDelayMillis = getHedgeDelayMillis();
+        if (!hedge && !call.mHedged && hedgeDelayMillis >= 0) {
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (!attempt.mDone && !call.mFinished && !call.mHedged
+                            && mCircuitBreaker.allowRequest()) {
+                        call.mHedged = true;
+                        mHedgeCount++;
+                        startAttempt(call, true);
+                    }
+                }
+            }, hedgeDelayMillis);
+        }
+
+        call.read(attempt);
+    }
+
+    @MainThread
+    private void retryOrFail(@NonNull final ReadCall call) {
+        if (!call.mRetryable || call.mRetries >= mPolicy.getMaxRetries()) {
+            finishWithFailure(call);
+            return;
+        }
+        call.mRetries++;
+        call.mPendingRetry = new Runnable() {
+            @Override
+            public void run() {
+                call.mPendingRetry = null;
+                if (!mCircuitBreaker.allowRequest()) {
+                    mRejectedCount++;
+                    finishWithFailure(call);
+                    return;
+                }
+                mRetryCount++;
+                startAttempt(call, false);
+            }
+        };
+        mHandler.postDelayed(call.mPendingRetry, getBackoffMillis(call.mRetries));
+    }
+
+    private void finishWithFailure(@NonNull ReadCall call) {
+        call.mFinished = true;
+        mFailureCount++;
+        call.onFailed();
+    }
+
+    /**
+     * Full jitter: a random delay up to {@code base * 2^(retry-1)}, capped.
+     */
+    private long getBackoffMillis(int retry) {
+        long ceiling = mPolicy.getBaseBackoffMillis() << Math.min(retry - 1, 30);
+        ceiling = Math.min(ceiling, mPolicy.getMaxBackoffMillis());
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+
+    private long getHedgeDelayMillis() {
+        if (!mPolicy.isHedgingEnabled()
+                || mLatencies.getCount() < mPolicy.getMinLatencySamples()) {
+            return -1;
+        }
+        return Math.max(mPolicy.getMinHedgeDelayMillis(),
+                mLatencies.getPercentile(mPolicy.getHedgePercentile()));
+    }
+
+    @Nullable
+    private static CamerasChunkListener chunkListenerOf(@NonNull Object callback) {
+        return callback instanceof CamerasChunkListener ? (CamerasChunkListener) callback : null;
+    }
+
+    /**
+     * A read from the caller's point of view, made of one or more attempts.
+     */
+    private abstract class ReadCall {
+
+        final boolean mRetryable;
+
+        /**
+         * Whether {@code onDataNotAvailable} counts as a failure for the circuit breaker, rather
+         * than meaning there is nothing to read. Timeouts always do.
+         */
+        final boolean mUnavailableIsFailure;
+
+        @Nullable
+        final CamerasChunkListener mChunkListener;
+
+        /**
+         * Attempts sent and not answered yet.
+         */
+        final List<Attempt> mAttempts = new ArrayList<>(2);
+
+        int mRetries = 0;
+
+        boolean mHedged = false;
+
+        boolean mFinished = false;
+
+        /**
+         * The retry waiting for its backoff to pass, if any.
+         */
+        @Nullable
+        Runnable mPendingRetry;
+
+        /**
+         * The only attempt whose chunks reach the caller, so hedges and retries don't stream the
+         * same cameras twice.
+         */
+        @Nullable
+        Attempt mChunkSource;
+
+        ReadCall(boolean retryable, boolean unavailableIsFailure,
+                 @Nullable CamerasChunkListener chunkListener) {
+            mRetryable = retryable;
+            mUnavailableIsFailure = unavailableIsFailure;
+            mChunkListener = chunkListener;
+        }
+
+        abstract void read(@NonNull Attempt attempt);
+
+        abstract void onFailed();
+    }
+
+    /**
+     * One request sent to the delegate for a {@link ReadCall}.
+     */
+    private final class Attempt {
+
+        final ReadCall mCall;
+
+        final boolean mHedge;
+
+        final long mStartMillis = SystemClock.elapsedRealtime();
+
+        final Runnable mTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (!mDone) {
+                    mTimeoutCount++;
+                    mTimedOut = true;
+                    fail(true);
+                }
+            }
+        };
+
+        boolean mDone = false;
+
+        boolean mTimedOut = false;
+
+        Attempt(@NonNull ReadCall call, boolean hedge) {
+            mCall = call;
+            mHedge = hedge;
+        }
+
+        void succeed(@NonNull Runnable delivery) {
+            // A timed-out attempt may still answer the call while its retry is pending or in
+            // flight: its answer is as fresh as the retry's would be, and already here.
+            boolean late = mDone && mTimedOut && !mCall.mFinished;
+            if (mDone && !late) {
+                return;
+            }
+            finish();
+            mCircuitBreaker.onSuccess();
+            mLatencies.record(SystemClock.elapsedRealtime() - mStartMillis);
+            mCall.mFinished = true;
+            // The other attempt of a hedged call is abandoned: its answer, or its timeout, must
+            // not count for the circuit breaker.
+            for (Attempt attempt : new ArrayList<>(mCall.mAttempts)) {
+                attempt.finish();
+            }
+            if (mCall.mPendingRetry != null) {
+                mHandler.removeCallbacks(mCall.mPendingRetry);
+                mCall.mPendingRetry = null;
+            }
+            if (late) {
+                mLateSuccessCount++;
+            } else if (mHedge) {
+                mHedgeWinCount++;
+            }
+            delivery.run();
+        }
+
+        void fail(boolean timedOut) {
+            if (mDone) {
+                return;
+            }
+            finish();
+            if (timedOut || mCall.mUnavailableIsFailure) {
+                mCircuitBreaker.onFailure();
+            } else {
+                mCircuitBreaker.onIgnored();
+            }
+            if (!mCall.mAttempts.isEmpty()) {
+                // The other attempt of a hedged call may still succeed.
+                return;
+            }
+            retryOrFail(mCall);
+        }
+
+        private void finish() {
+            if (!mDone) {
+                mDone = true;
+                mHandler.removeCallbacks(mTimeout);
+                mCall.mAttempts.remove(this);
+            }
+        }
+
+        void chunk(@NonNull List<Camera> cameras) {
+            if (mDone || mCall.mFinished || mCall.mChunkListener == null) {
+                return;
+            }
+            if (mCall.mChunkSource == null && mCall.mRetries == 0) {
+                mCall.mChunkSource = this;
+            }
+            if (mCall.mChunkSource == this) {
+                mCall.mChunkListener.onCamerasChunkLoaded(cameras);
+            }
+        }
+    }
+
+    private static final class AttemptCamerasCallback
+            implements LoadCamerasCallback, CamerasChunkListener, PrioritizedCallback {
+
+        private final Attempt mAttempt;
+
+        private final LoadCamerasCallback mCallback;
+
+        AttemptCamerasCallback(@NonNull Attempt attempt, @NonNull LoadCamerasCallback callback) {
+            mAttempt = attempt;
+            mCallback = callback;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return RemoteRequestScheduler.priorityOf(mCallback, RequestPriority.BACKGROUND);
+        }
+
+        @Override
+        public void onCamerasChunkLoaded(List<Camera> cameras) {
+            mAttempt.chunk(cameras);
+        }
+
+        @Override
+        public void onCamerasLoaded(final List<Camera> cameras) {
+            mAttempt.succeed(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCamerasLoaded(cameras);
+                }
+            });
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mAttempt.fail(false);
+        }
+    }
+
+    private static final class AttemptChangesCallback
+            implements LoadCameraChangesCallback, CamerasChunkListener, PrioritizedCallback {
+
+        private final Attempt mAttempt;
+
+        private final LoadCameraChangesCallback mCallback;
+
+        AttemptChangesCallback(@NonNull Attempt attempt,
+                               @NonNull LoadCameraChangesCallback callback) {
+            mAttempt = attempt;
+            mCallback = callback;
+        }
+
+        @NonNull
+        @Override
+        public RequestPriority getRequestPriority() {
+            return RemoteRequestScheduler.priorityOf(mCallback, RequestPriority.BACKGROUND);
+        }
+
+        @Override
+        public void onCamerasChunkLoaded(List<Camera> cameras) {
+            mAttempt.chunk(cameras);
+        }
+
+        @Override
+        public void onCameraChangesLoaded(final List<Camera> changedCameras,
+                                          final List<String> deletedCameraIds,
+                                          final long latestVersion) {
+            mAttempt.succeed(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCameraChangesLoaded(changedCameras, deletedCameraIds,
+                            latestVersion);
+                }
+            });
+        }
+
+        @Override
+        public void onDataNotAvailable() {
+            mAttempt.fail(false);
+        }
+    }
+}
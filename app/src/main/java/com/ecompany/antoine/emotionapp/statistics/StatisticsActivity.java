@@ -69,7 +69,9 @@ public class StatisticsActivity extends AppCompatActivity {
         }
 
         new StatisticsPresenter(
-                Injection.provideCamerasRepository(getApplicationContext()), statisticsFragment);
+                Injection.provideCamerasRepository(getApplicationContext()),
+                Injection.provideCamerasHistorySource(getApplicationContext()),
+                statisticsFragment);
     }
 
     @Override
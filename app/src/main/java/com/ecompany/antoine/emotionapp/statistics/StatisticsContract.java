@@ -19,6 +19,9 @@ package com.ecompany.antoine.emotionapp.statistics;
 
 import com.ecompany.antoine.emotionapp.BasePresenter;
 import com.ecompany.antoine.emotionapp.BaseView;
+import com.ecompany.antoine.emotionapp.data.source.StatusRollup;
+
+import java.util.List;
 
 /**
  * This specifies the contract between the view and the presenter.
@@ -33,10 +36,19 @@ public interface StatisticsContract {
 
         void showLoadingStatisticsError();
 
+        /**
+         * Shows the fleet over the last days, one {@link StatusRollup} per day, oldest first.
+         */
+        void showStatusHistory(List<StatusRollup> days);
+
         boolean isActive();
     }
 
     interface Presenter extends BasePresenter {
 
+        /**
+         * Stops following the changes that {@link #start()} subscribed to.
+         */
+        void stop();
     }
 }
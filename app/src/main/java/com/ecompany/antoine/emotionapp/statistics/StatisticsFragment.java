@@ -26,6 +26,14 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.ecompany.antoine.emotionapp.R;
+import com.ecompany.antoine.emotionapp.data.source.StatusRollup;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -36,6 +44,8 @@ public class StatisticsFragment extends Fragment implements StatisticsContract.V
 
     private TextView mStatisticsTV;
 
+    private TextView mHistoryTV;
+
     private StatisticsContract.Presenter mPresenter;
 
     public static StatisticsFragment newInstance() {
@@ -53,6 +63,7 @@ public class StatisticsFragment extends Fragment implements StatisticsContract.V
                              Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.statistics_frag, container, false);
         mStatisticsTV = (TextView) root.findViewById(R.id.statistics);
+        mHistoryTV = (TextView) root.findViewById(R.id.statistics_history);
         return root;
     }
 
@@ -62,6 +73,12 @@ public class StatisticsFragment extends Fragment implements StatisticsContract.V
         mPresenter.start();
     }
 
+    @Override
+    public void onPause() {
+        mPresenter.stop();
+        super.onPause();
+    }
+
     @Override
     public void setProgressIndicator(boolean active) {
         if (active) {
@@ -88,6 +105,24 @@ public class StatisticsFragment extends Fragment implements StatisticsContract.V
         mStatisticsTV.setText(getResources().getString(R.string.statistics_error));
     }
 
+    @Override
+    public void showStatusHistory(@NonNull List<StatusRollup> days) {
+        // The days are UTC days.
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder history = new StringBuilder(
+                getString(R.string.statistics_history_title, days.size()));
+        // Latest first.
+        for (int i = days.size() - 1; i >= 0; i--) {
+            StatusRollup day = days.get(i);
+            history.append('\n').append(getString(R.string.statistics_history_day,
+                    dateFormat.format(new Date(day.getBucketStart())),
+                    day.getAverageActiveCount(), day.getAverageClosedCount(),
+                    day.getActivations(), day.getClosings()));
+        }
+        mHistoryTV.setText(history);
+    }
+
     @Override
     public boolean isActive() {
         return isAdded();
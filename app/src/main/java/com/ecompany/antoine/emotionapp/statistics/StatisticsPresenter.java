@@ -20,7 +20,10 @@ import android.support.annotation.NonNull;
 
 import com.ecompany.antoine.emotionapp.data.Camera;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasHistorySource;
 import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
+import com.ecompany.antoine.emotionapp.data.source.CamerasStatistics;
+import com.ecompany.antoine.emotionapp.data.source.StatusRollup;
 import com.ecompany.antoine.emotionapp.util.EspressoIdlingResource;
 
 import java.util.List;
@@ -33,13 +36,38 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class StatisticsPresenter implements StatisticsContract.Presenter {
 
+    /**
+     * Number of days of history shown, the current one included.
+     */
+    static final int HISTORY_DAYS = 90;
+
     private final CamerasRepository mCamerasRepository;
 
+    private final CamerasHistorySource mCamerasHistorySource;
+
     private final StatisticsContract.View mStatisticsView;
 
+    /**
+     * Keeps the screen up to date with the cameras while it is shown.
+     */
+    private final CamerasStatistics.Listener mStatisticsListener =
+            new CamerasStatistics.Listener() {
+                @Override
+                public void onStatisticsChanged(@NonNull CamerasStatistics statistics) {
+                    if (!statistics.isLoaded() || !mStatisticsView.isActive()) {
+                        return;
+                    }
+                    mStatisticsView.setProgressIndicator(false);
+                    showStatistics(statistics);
+                }
+            };
+
     public StatisticsPresenter(@NonNull CamerasRepository camerasRepository,
+                               @NonNull CamerasHistorySource camerasHistorySource,
                                @NonNull StatisticsContract.View statisticsView) {
         mCamerasRepository = checkNotNull(camerasRepository, "camerasRepository cannot be null");
+        mCamerasHistorySource =
+                checkNotNull(camerasHistorySource, "camerasHistorySource cannot be null");
         mStatisticsView = checkNotNull(statisticsView, "StatisticsView cannot be null!");
 
         mStatisticsView.setPresenter(this);
@@ -47,9 +75,53 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
 
     @Override
     public void start() {
-        loadStatistics();
+        CamerasStatistics statistics = mCamerasRepository.getStatistics();
+        statistics.addListener(mStatisticsListener);
+        if (statistics.isLoaded()) {
+            mStatisticsView.setProgressIndicator(false);
+            showStatistics(statistics);
+        } else {
+            loadStatistics();
+        }
+        loadStatusHistory();
+    }
+
+    @Override
+    public void stop() {
+        mCamerasRepository.getStatistics().removeListener(mStatisticsListener);
+    }
+
+    private void showStatistics(@NonNull CamerasStatistics statistics) {
+        mStatisticsView.showStatistics(statistics.getActiveCount(), statistics.getClosedCount());
     }
 
+    /**
+     * Reads about one row per day, however many transitions there were.
+     */
+    private void loadStatusHistory() {
+        long now = System.currentTimeMillis();
+        mCamerasHistorySource.getStatusRollups(CamerasHistorySource.DAY_MILLIS,
+                now - (HISTORY_DAYS - 1) * CamerasHistorySource.DAY_MILLIS, now,
+                new CamerasHistorySource.LoadStatusRollupsCallback() {
+                    @Override
+                    public void onStatusRollupsLoaded(List<StatusRollup> rollups) {
+                        // The view may not be able to handle UI updates anymore
+                        if (!mStatisticsView.isActive()) {
+                            return;
+                        }
+                        mStatisticsView.showStatusHistory(rollups);
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        // The current counts are still shown.
+                    }
+                });
+    }
+
+    /**
+     * Fills the repository cache, which loads the statistics.
+     */
     private void loadStatistics() {
         mStatisticsView.setProgressIndicator(true);
 
@@ -60,9 +132,6 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
         mCamerasRepository.getCameras(new CamerasDataSource.LoadCamerasCallback() {
             @Override
             public void onCamerasLoaded(List<Camera> cameras) {
-                int activeCameras = 0;
-                int completedCameras = 0;
-
                 // This callback may be called twice, once for the cache and once for loading
                 // the data from the server API, so we check before decrementing, otherwise
                 // it throws "Counter has been corrupted!" exception.
@@ -70,21 +139,13 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
                     EspressoIdlingResource.decrement(); // Set app as idle.
                 }
 
-                // We calculate number of active and completed cameras
-                for (Camera camera : cameras) {
-                    if (camera.isClosed()) {
-                        completedCameras += 1;
-                    } else {
-                        activeCameras += 1;
-                    }
-                }
                 // The view may not be able to handle UI updates anymore
                 if (!mStatisticsView.isActive()) {
                     return;
                 }
                 mStatisticsView.setProgressIndicator(false);
 
-                mStatisticsView.showStatistics(activeCameras, completedCameras);
+                showStatistics(mCamerasRepository.getStatistics());
             }
 
             @Override
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.util;
+
+import android.os.Build;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import com.ecompany.antoine.emotionapp.BuildConfig;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Debug builds only: measures the time between the frames of the screen shown, from the
+ * {@link Choreographer} frame callback, into a histogram per screen.
+ * <p>
+ * The main-thread work that can make a frame late, e.g. the bind of a list row or a presenter
+ * callback, is wrapped in {@link #beginWork(String)} and {@link #endWork()}. A frame longer than
+ * {@link #LONG_FRAME_MILLIS} is attributed to the work that took the most time since the previous
+ * frame, or to layout, drawing and the rest when there was none. The report is printed by
+ * {@link #dump(PrintWriter)} and written to a file by {@link #export(File)}.
+ * <p>
+ * Does nothing in release builds and before API 16. Must be used on the main thread.
+ */
+@MainThread
+public class FrameMonitor {
+
+    public static final String REPORT_FILE_NAME = "frame_report.txt";
+
+    /**
+     * Frames longer than this skipped at least one refresh of the display.
+     */
+    public static final long JANKY_FRAME_MILLIS = 17;
+
+    /**
+     * Frames longer than this are visible stutters, attributed to the work running.
+     */
+    public static final long LONG_FRAME_MILLIS = 33;
+
+    /**
+     * Upper bounds of the buckets of the histograms, the last bucket holding the longer frames.
+     */
+    private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {17, 33, 50, 100, 250, 700};
+
+    private static final String OTHER_WORK = "layout, draw and other work";
+
+    private static final boolean ENABLED = BuildConfig.DEBUG
+            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+    private static FrameMonitor INSTANCE;
+
+    /**
+     * The long frames attributed to one piece of work.
+     */
+    private static final class LongFrames {
+
+        private int mCount = 0;
+
+        private long mTotalMillis = 0;
+
+        @Override
+        public String toString() {
+            return mCount + " (" + mTotalMillis / mCount + " ms on average)";
+        }
+    }
+
+    /**
+     * The frames of one screen.
+     */
+    private static final class ScreenFrames {
+
+        private final int[] mBuckets = new int[BUCKET_UPPER_BOUNDS_MILLIS.length + 1];
+
+        private int mFrameCount = 0;
+
+        private int mJankyFrameCount = 0;
+
+        private final Map<String, LongFrames> mLongFrames = new LinkedHashMap<>();
+
+        void record(long frameMillis, @Nullable String work) {
+            mFrameCount++;
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length
+                    && frameMillis > BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+            if (frameMillis > JANKY_FRAME_MILLIS) {
+                mJankyFrameCount++;
+            }
+            if (frameMillis > LONG_FRAME_MILLIS) {
+                String cause = work != null ? work : OTHER_WORK;
+                LongFrames longFrames = mLongFrames.get(cause);
+                if (longFrames == null) {
+                    longFrames = new LongFrames();
+                    mLongFrames.put(cause, longFrames);
+                }
+                longFrames.mCount++;
+                longFrames.mTotalMillis += frameMillis;
+            }
+        }
+
+        void print(@NonNull String screen, @NonNull PrintWriter writer) {
+            writer.println("Screen " + screen + ": " + mFrameCount + " frames, "
+                    + mJankyFrameCount + " over " + JANKY_FRAME_MILLIS + " ms");
+            long lowerBound = 0;
+            for (int i = 0; i < BUCKET_UPPER_BOUNDS_MILLIS.length; i++) {
+                writer.println("  " + lowerBound + "-" + BUCKET_UPPER_BOUNDS_MILLIS[i] + " ms: "
+                        + mBuckets[i]);
+                lowerBound = BUCKET_UPPER_BOUNDS_MILLIS[i] + 1;
+            }
+            writer.println("  over " + (lowerBound - 1) + " ms: " + mBuckets[mBuckets.length - 1]);
+            for (Map.Entry<String, LongFrames> entry : mLongFrames.entrySet()) {
+                writer.println("  Long frames during " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+    }
+
+    private final Map<String, ScreenFrames> mScreens = new LinkedHashMap<>();
+
+    /**
+     * Time spent in each piece of work since the previous frame.
+     */
+    private final Map<String, Long> mWorkNanos = new HashMap<>();
+
+    @Nullable
+    private String mScreen;
+
+    @Nullable
+    private String mWork;
+
+    private long mWorkStartNanos;
+
+    private int mWorkDepth = 0;
+
+    private long mLastFrameNanos = 0;
+
+    @Nullable
+    private FrameCallback mFrameCallback;
+
+    private FrameMonitor() {
+    }
+
+    public static FrameMonitor getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new FrameMonitor();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Records the frames into the histogram of {@code screen} until {@link #stopScreen(String)}.
+     */
+    public void startScreen(@NonNull String screen) {
+        checkNotNull(screen);
+        if (!ENABLED) {
+            return;
+        }
+        mScreen = screen;
+        mLastFrameNanos = 0;
+        mWorkNanos.clear();
+        if (mFrameCallback == null) {
+            mFrameCallback = new FrameCallback();
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    public void stopScreen(@NonNull String screen) {
+        if (checkNotNull(screen).equals(mScreen)) {
+            mScreen = null;
+        }
+    }
+
+    /**
+     * Starts a piece of work on the main thread. Work started inside another one counts as part
+     * of it.
+     */
+    public void beginWork(@NonNull String work) {
+        if (mScreen == null) {
+            return;
+        }
+        if (mWorkDepth++ == 0) {
+            mWork = checkNotNull(work);
+            mWorkStartNanos = System.nanoTime();
+        }
+    }
+
+    public void endWork() {
+        if (mWorkDepth == 0 || --mWorkDepth > 0) {
+            return;
+        }
+        Long workNanos = mWorkNanos.get(mWork);
+        mWorkNanos.put(mWork, (workNanos != null ? workNanos : 0)
+                + System.nanoTime() - mWorkStartNanos);
+        mWork = null;
+    }
+
+    /**
+     * Writes the report to {@code file}, replacing it.
+     */
+    public void export(@NonNull File file) throws IOException {
+        FileWriter writer = new FileWriter(checkNotNull(file));
+        try {
+            writer.write(getReport());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.print(getReport());
+    }
+
+    @NonNull
+    private String getReport() {
+        StringWriter report = new StringWriter();
+        PrintWriter writer = new PrintWriter(report);
+        if (!ENABLED) {
+            writer.println("Frame monitor disabled");
+        }
+        for (Map.Entry<String, ScreenFrames> entry : mScreens.entrySet()) {
+            entry.getValue().print(entry.getKey(), writer);
+        }
+        writer.flush();
+        return report.toString();
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (mScreen == null) {
+            mFrameCallback = null;
+            return;
+        }
+        if (mLastFrameNanos != 0) {
+            ScreenFrames screenFrames = mScreens.get(mScreen);
+            if (screenFrames == null) {
+                screenFrames = new ScreenFrames();
+                mScreens.put(mScreen, screenFrames);
+            }
+            screenFrames.record(TimeUnit.NANOSECONDS.toMillis(frameTimeNanos - mLastFrameNanos),
+                    getLongestWork());
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mWorkNanos.clear();
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    @Nullable
+    private String getLongestWork() {
+        String longestWork = null;
+        long longestNanos = 0;
+        for (Map.Entry<String, Long> entry : mWorkNanos.entrySet()) {
+            if (entry.getValue() > longestNanos) {
+                longestWork = entry.getKey();
+                longestNanos = entry.getValue();
+            }
+        }
+        return longestWork;
+    }
+
+    /**
+     * Only loaded from API 16, where {@link Choreographer} exists.
+     */
+    private final class FrameCallback implements Choreographer.FrameCallback {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos);
+        }
+    }
+}
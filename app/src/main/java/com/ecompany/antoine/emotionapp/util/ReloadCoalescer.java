@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.util;
+
+import android.os.Handler;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Merges the requests to run an action that arrive within a window into one run at the end of
+ * the window, e.g. one list reload for a burst of edits.
+ * <p>
+ * The window starts with the first request, so a steady stream of requests still runs the action
+ * once per window instead of postponing it forever. A window of 0 merges the requests made before
+ * the main thread gets back to its queue, i.e. within one frame.
+ * <p>
+ * Must be created and used on the main thread.
+ */
+@MainThread
+public class ReloadCoalescer {
+
+    /**
+     * Runs the action once its window is over.
+     */
+    public interface Scheduler {
+
+        void schedule(@NonNull Runnable task, long delayMillis);
+
+        void cancel(@NonNull Runnable task);
+    }
+
+    private final Scheduler mScheduler;
+
+    private final long mWindowMillis;
+
+    private final Runnable mAction;
+
+    private boolean mScheduled = false;
+
+    private int mRequestCount = 0;
+
+    private int mRunCount = 0;
+
+    private final Runnable mRun = new Runnable() {
+        @Override
+        public void run() {
+            if (!mScheduled) {
+                // Cancelled.
+                return;
+            }
+            mScheduled = false;
+            mRunCount++;
+            mAction.run();
+        }
+    };
+
+    public ReloadCoalescer(long windowMillis, @NonNull Runnable action) {
+        this(windowMillis, action, mainThreadScheduler());
+    }
+
+    @VisibleForTesting
+    public ReloadCoalescer(long windowMillis, @NonNull Runnable action,
+                           @NonNull Scheduler scheduler) {
+        checkArgument(windowMillis >= 0);
+        mWindowMillis = windowMillis;
+        mAction = checkNotNull(action);
+        mScheduler = checkNotNull(scheduler);
+    }
+
+    /**
+     * Returns a scheduler posting to the main thread, which must be the calling thread.
+     */
+    @NonNull
+    public static Scheduler mainThreadScheduler() {
+        final Handler handler = new Handler();
+        return new Scheduler() {
+            @Override
+            public void schedule(@NonNull Runnable task, long delayMillis) {
+                handler.postDelayed(task, delayMillis);
+            }
+
+            @Override
+            public void cancel(@NonNull Runnable task) {
+                handler.removeCallbacks(task);
+            }
+        };
+    }
+
+    /**
+     * Runs the action at the end of the current window, starting one if there is none.
+     */
+    public void request() {
+        mRequestCount++;
+        if (!mScheduled) {
+            mScheduled = true;
+            mScheduler.schedule(mRun, mWindowMillis);
+        }
+    }
+
+    /**
+     * Drops the pending run, if any.
+     */
+    public void cancel() {
+        mScheduled = false;
+        mScheduler.cancel(mRun);
+    }
+
+    public boolean isPending() {
+        return mScheduled;
+    }
+
+    /**
+     * Returns the number of calls to {@link #request()} so far.
+     */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Returns the number of times the action ran so far.
+     */
+    public int getRunCount() {
+        return mRunCount;
+    }
+}
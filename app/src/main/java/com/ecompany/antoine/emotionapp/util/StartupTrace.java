@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.util;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Times the cold start of the app, from the start of the process to the first content shown.
+ * <p>
+ * Sections also appear in systrace on API 18 and up. When the start is over, see
+ * {@link #finish(Context, Executor)}, a one-line report with the time of every marker is logged
+ * and appended to {@link #REPORT_FILE_NAME}, which can be pulled off the device with
+ * {@code adb shell run-as <package> cat files/startup_times.log}. Starts over
+ * {@link #COLD_START_BUDGET_MILLIS} are logged as warnings.
+ * <p>
+ * Work that can wait is given to {@link #runAfterFirstFrame(Runnable)}, to keep it off the
+ * critical path. Must be used on the main thread.
+ */
+@MainThread
+public class StartupTrace {
+
+    public static final String REPORT_FILE_NAME = "startup_times.log";
+
+    /**
+     * Most time from the start of the process to the first content shown.
+     */
+    public static final long COLD_START_BUDGET_MILLIS = 1000;
+
+    private static final String TAG = "StartupTrace";
+
+    private static StartupTrace INSTANCE;
+
+    /**
+     * A point of the start, with the time of a section if it is one.
+     */
+    private static final class Marker {
+
+        private final String mName;
+
+        private final long mMillis;
+
+        private final long mDurationMillis;
+
+        Marker(@NonNull String name, long millis, long durationMillis) {
+            mName = name;
+            mMillis = millis;
+            mDurationMillis = durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return mDurationMillis < 0 ? mName + "=" + mMillis
+                    : mName + "=" + mMillis + "+" + mDurationMillis;
+        }
+    }
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Uptime the times are counted from: the start of the process where it is known, the first
+     * use of this class otherwise.
+     */
+    private final long mStartUptimeMillis;
+
+    private final List<Marker> mMarkers = new ArrayList<>();
+
+    private final Map<String, Long> mOpenSections = new HashMap<>();
+
+    private final List<Runnable> mAfterFirstFrame = new ArrayList<>();
+
+    private boolean mFirstFrameDrawn = false;
+
+    private boolean mWatchingFirstFrame = false;
+
+    @Nullable
+    private String mReport;
+
+    private StartupTrace() {
+        mStartUptimeMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+    }
+
+    public static StartupTrace getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new StartupTrace();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns true once the start is over, after which nothing more is recorded.
+     */
+    public boolean isFinished() {
+        return mReport != null;
+    }
+
+    public void mark(@NonNull String name) {
+        checkNotNull(name);
+        if (!isFinished()) {
+            mMarkers.add(new Marker(name, now(), -1));
+        }
+    }
+
+    /**
+     * Starts a section, which must be ended with {@link #endSection(String)} before any section
+     * started before it.
+     */
+    public void beginSection(@NonNull String name) {
+        checkNotNull(name);
+        if (isFinished()) {
+            return;
+        }
+        mOpenSections.put(name, now());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    public void endSection(@NonNull String name) {
+        Long beginMillis = mOpenSections.remove(checkNotNull(name));
+        if (beginMillis == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        mMarkers.add(new Marker(name, beginMillis, now() - beginMillis));
+    }
+
+    /**
+     * Notices when the first frame of {@code activity} is drawn, then runs the work given to
+     * {@link #runAfterFirstFrame(Runnable)}. Only the first activity watched counts.
+     */
+    public void watchFirstFrame(@NonNull Activity activity) {
+        if (mFirstFrameDrawn || mWatchingFirstFrame) {
+            return;
+        }
+        mWatchingFirstFrame = true;
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Posted from the traversal, so it runs once the frame is drawn.
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onFirstFrameDrawn();
+                            }
+                        });
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Runs {@code work} once the first frame is drawn, right away if it already was.
+     */
+    public void runAfterFirstFrame(@NonNull Runnable work) {
+        checkNotNull(work);
+        if (mFirstFrameDrawn) {
+            work.run();
+        } else {
+            mAfterFirstFrame.add(work);
+        }
+    }
+
+    /**
+     * Ends the start once the first content is shown: logs the report and appends it to
+     * {@link #REPORT_FILE_NAME} on {@code diskIO}. Later calls do nothing.
+     */
+    public void finish(@NonNull Context context, @NonNull Executor diskIO) {
+        if (isFinished()) {
+            return;
+        }
+        long totalMillis = now();
+        StringBuilder report = new StringBuilder();
+        report.append(System.currentTimeMillis()).append(" total=").append(totalMillis)
+                .append(" budget=").append(COLD_START_BUDGET_MILLIS);
+        for (Marker marker : mMarkers) {
+            report.append(' ').append(marker);
+        }
+        mReport = report.toString();
+        mMarkers.clear();
+        mOpenSections.clear();
+        if (totalMillis > COLD_START_BUDGET_MILLIS) {
+            Log.w(TAG, "Cold start over budget: " + mReport);
+        } else {
+            Log.i(TAG, "Cold start: " + mReport);
+        }
+        final Context appContext = context.getApplicationContext();
+        final String line = mReport;
+        diskIO.execute(new Runnable() {
+            @Override
+            public void run() {
+                appendToReportFile(new File(appContext.getFilesDir(), REPORT_FILE_NAME), line);
+            }
+        });
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Cold start: " + (mReport != null ? mReport : "not finished"));
+    }
+
+    private void onFirstFrameDrawn() {
+        mFirstFrameDrawn = true;
+        mark("first_frame");
+        List<Runnable> work = new ArrayList<>(mAfterFirstFrame);
+        mAfterFirstFrame.clear();
+        for (Runnable runnable : work) {
+            runnable.run();
+        }
+    }
+
+    private long now() {
+        return SystemClock.uptimeMillis() - mStartUptimeMillis;
+    }
+
+    private static void appendToReportFile(@NonNull File file, @NonNull String line) {
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write to the startup report", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // Nothing else to do.
+                }
+            }
+        }
+    }
+}
@@ -2,11 +2,22 @@ package com.ecompany.antoine.emotionapp;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 
 import com.ecompany.antoine.emotionapp.data.FakeCamerasRemoteDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasHistorySource;
 import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
 import com.ecompany.antoine.emotionapp.data.source.local.CamerasLocalDataSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasChangeFeed;
+import com.ecompany.antoine.emotionapp.data.source.remote.ConcurrencyLimitedCamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.RemoteRequestScheduler;
+import com.ecompany.antoine.emotionapp.data.source.remote.ResilientCamerasDataSource;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+import com.ecompany.antoine.emotionapp.util.StartupTrace;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -17,9 +28,82 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Injection {
 
+    private static AppExecutors sAppExecutors;
+
     public static CamerasRepository provideCamerasRepository(@NonNull Context context) {
         checkNotNull(context);
-        return CamerasRepository.getInstance(FakeCamerasRemoteDataSource.getInstance(),
-                CamerasLocalDataSource.getInstance(context));
+        CamerasRepository repository = CamerasRepository.getInstance(
+                FakeCamerasRemoteDataSource.getInstance(),
+                CamerasLocalDataSource.getInstance(context, provideAppExecutors()));
+        repository.setRemoteTreeSource(FakeCamerasRemoteDataSource.getInstance());
+        return repository;
+    }
+
+    /**
+     * The fake remote data source answers synchronously and is changed only by the app, so there
+     * are no remote changes to push.
+     */
+    @Nullable
+    public static CamerasChangeFeed provideCamerasChangeFeed(@NonNull Context context) {
+        checkNotNull(context);
+        return null;
+    }
+
+    /**
+     * The fake remote data source doesn't use the network, so nothing is scheduled.
+     */
+    @Nullable
+    public static RemoteRequestScheduler provideRemoteRequestScheduler() {
+        return null;
+    }
+
+    /**
+     * The fake remote data source never fails, so its reads aren't retried.
+     */
+    @Nullable
+    public static ResilientCamerasDataSource provideResilientCamerasDataSource() {
+        return null;
+    }
+
+    /**
+     * The fake remote data source answers right away, so its reads aren't limited.
+     */
+    @Nullable
+    public static ConcurrencyLimitedCamerasDataSource provideConcurrencyLimitedCamerasDataSource() {
+        return null;
+    }
+
+    /**
+     * Returns the repository of {@link #provideCamerasRepository(Context)}, only created by the
+     * first call to {@link Supplier#get()}, so that opening the data layer can wait until after
+     * the first frame.
+     */
+    public static Supplier<CamerasRepository> provideCamerasRepositoryLazily(
+            @NonNull Context context) {
+        final Context appContext = checkNotNull(context).getApplicationContext();
+        return Suppliers.memoize(new Supplier<CamerasRepository>() {
+            @Override
+            public CamerasRepository get() {
+                StartupTrace.getInstance().beginSection("provideCamerasRepository");
+                CamerasRepository repository = provideCamerasRepository(appContext);
+                StartupTrace.getInstance().endSection("provideCamerasRepository");
+                return repository;
+            }
+        });
+    }
+
+    /**
+     * The status history is kept by the local database.
+     */
+    public static CamerasHistorySource provideCamerasHistorySource(@NonNull Context context) {
+        checkNotNull(context);
+        return CamerasLocalDataSource.getInstance(context, provideAppExecutors());
+    }
+
+    public static AppExecutors provideAppExecutors() {
+        if (sAppExecutors == null) {
+            sAppExecutors = new AppExecutors();
+        }
+        return sAppExecutors;
     }
 }
@@ -0,0 +1,820 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.CameraMutation;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasBinaryCodec;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasJsonCodec;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasPayload;
+import com.ecompany.antoine.emotionapp.data.source.remote.NetworkProfile;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * In-process HTTP/1.1 stand-in for the cameras web service, serving the data of
+ * {@link FakeCamerasRemoteDataSource} on a loopback port, so
+ * {@link com.ecompany.antoine.emotionapp.data.source.remote.CamerasHttpDataSource} can be tested
+ * hermetically.
+ * <p>
+ * It supports keep-alive connections, gzip responses, {@code If-None-Match} and the
+ * {@link CamerasBinaryCodec} format for clients that accept it, and counts the
+ * requests, connections and mutation batches it receives and the kinds of responses it sends. Responses are delayed, or replaced by
+ * a 503, according to a {@link NetworkProfile}; the default one answers right away.
+ */
+public class FakeCamerasHttpServer {
+
+    private static final String CHARSET = "UTF-8";
+
+    private static final long FEED_CHECK_MILLIS = 100;
+
+    private final FakeCamerasRemoteDataSource mData = FakeCamerasRemoteDataSource.getInstance();
+
+    private final ServerSocket mServerSocket;
+
+    private final ExecutorService mConnectionExecutor = Executors.newCachedThreadPool();
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    private final AtomicInteger mBatchCount = new AtomicInteger();
+
+    private final AtomicInteger mGzippedCount = new AtomicInteger();
+
+    private final AtomicInteger mBinaryCount = new AtomicInteger();
+
+    private volatile boolean mRunning = true;
+
+    private volatile NetworkProfile mNetworkProfile = NetworkProfile.INSTANT;
+
+    private final Random mRandom = new Random();
+
+    private FakeCamerasHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    /**
+     * Starts a server on a free loopback port.
+     */
+    public static FakeCamerasHttpServer start() throws IOException {
+        final FakeCamerasHttpServer server = new FakeCamerasHttpServer();
+        server.mConnectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                server.acceptConnections();
+            }
+        });
+        return server;
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+            // Already closed.
+        }
+        mConnectionExecutor.shutdownNow();
+    }
+
+    /**
+     * Changes how the network between the client and this server behaves, e.g. from a test.
+     */
+    public void setNetworkProfile(@NonNull NetworkProfile networkProfile) {
+        mNetworkProfile = checkNotNull(networkProfile);
+    }
+
+    @NonNull
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    /**
+     * Returns the number of {@code POST cameras/batch} requests received.
+     */
+    public int getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    /**
+     * Returns the number of responses sent with {@code Content-Encoding: gzip}.
+     */
+    public int getGzippedCount() {
+        return mGzippedCount.get();
+    }
+
+    /**
+     * Returns the number of responses sent in the {@link CamerasBinaryCodec} format.
+     */
+    public int getBinaryCount() {
+        return mBinaryCount.get();
+    }
+
+    private void acceptConnections() {
+        while (mRunning) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mConnectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            });
+        }
+    }
+
+    private void serveConnection(@NonNull Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            Request request;
+            while (mRunning && (request = Request.read(in)) != null) {
+                mRequestCount.incrementAndGet();
+                Response response = simulateNetwork(handle(request));
+                if (response.write(out, request.acceptsGzip())) {
+                    mGzippedCount.incrementAndGet();
+                }
+                if (CamerasBinaryCodec.CONTENT_TYPE.equals(response.mContentType)) {
+                    mBinaryCount.incrementAndGet();
+                }
+                if (request.wantsClose()) {
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed.
+            }
+        }
+    }
+
+    /**
+     * Holds {@code response} back for as long as the network profile says, or replaces it with a
+     * 503. As on a real network, a request whose response is lost may still have been applied.
+     */
+    @NonNull
+    private Response simulateNetwork(@NonNull Response response) throws IOException {
+        int payloadBytes = response.mBody == null ? 0 : response.mBody.length;
+        NetworkProfile.Outcome outcome = mNetworkProfile.simulate(payloadBytes, mRandom);
+        if (outcome.getDelayMillis() > 0) {
+            try {
+                Thread.sleep(outcome.getDelayMillis());
+            } catch (InterruptedException e) {
+                throw new IOException("Server shut down", e);
+            }
+        }
+        return outcome.isFailed() ? new Response(503, null, null) : response;
+    }
+
+    @NonNull
+    private Response handle(@NonNull Request request) {
+        synchronized (mData) {
+            try {
+                return route(request);
+            } catch (JSONException e) {
+                return new Response(400, null, null);
+            } catch (IllegalArgumentException e) {
+                // Malformed numbers or tree nodes out of range.
+                return new Response(400, null, null);
+            }
+        }
+    }
+
+    @NonNull
+    private Response route(@NonNull Request request) throws JSONException {
+        String[] segments = request.mPath.split("/");
+        if (segments.length == 0 || !"cameras".equals(segments[0])) {
+            return new Response(404, null, null);
+        }
+
+        if (segments.length == 1) {
+            if ("GET".equals(request.mMethod)) {
+                List<String> cameraIds = request.queryList("ids");
+                if (cameraIds != null) {
+                    return conditional(request, encode(request, findCameras(cameraIds)));
+                }
+                List<String> buckets = request.queryList("buckets");
+                if (buckets != null) {
+                    return conditional(request,
+                            encode(request, findCamerasInBuckets(toInts(buckets))));
+                }
+                String since = request.mQuery.get("since");
+                return getCamerasChangedSince(request, since == null ? 0 : Long.parseLong(since));
+            } else if ("DELETE".equals(request.mMethod)) {
+                return status(apply(CameraMutation.deleteAll()));
+            }
+            return new Response(405, null, null);
+        }
+
+        if (segments.length == 2 && "feed".equals(segments[1]) && "GET".equals(request.mMethod)) {
+            String since = request.mQuery.get("since");
+            String wait = request.mQuery.get("wait");
+            return waitForChanges(request, since == null ? 0 : Long.parseLong(since),
+                    wait == null ? 0 : Long.parseLong(wait));
+        }
+
+        if (segments.length == 2 && "tree".equals(segments[1]) && "GET".equals(request.mMethod)) {
+            String level = request.mQuery.get("level");
+            List<String> nodes = request.queryList("nodes");
+            if (level == null || nodes == null) {
+                return new Response(400, null, null);
+            }
+            return conditional(request, getTreeChildHashes(Integer.parseInt(level),
+                    toInts(nodes)));
+        }
+
+        if (segments.length == 2 && "POST".equals(request.mMethod)) {
+            if ("batch".equals(segments[1])) {
+                mBatchCount.incrementAndGet();
+                List<CameraMutation> mutations =
+                        CamerasJsonCodec.decodeMutations(request.bodyAsString());
+                int[] statuses = new int[mutations.size()];
+                for (int i = 0; i < statuses.length; i++) {
+                    statuses[i] = apply(mutations.get(i));
+                }
+                return new Response(200, CamerasJsonCodec.encodeMutationResults(statuses), null);
+            } else if ("clear-closed".equals(segments[1])) {
+                return status(apply(CameraMutation.clearClosed()));
+            }
+        }
+
+        String cameraId = segments[1];
+        if (segments.length == 3 && "POST".equals(request.mMethod)) {
+            if ("close".equals(segments[2])) {
+                return status(apply(CameraMutation.close(cameraId)));
+            } else if ("activate".equals(segments[2])) {
+                return status(apply(CameraMutation.activate(cameraId)));
+            }
+            return new Response(404, null, null);
+        }
+
+        switch (request.mMethod) {
+            case "GET":
+                Camera camera = findCamera(cameraId);
+                if (camera == null) {
+                    return new Response(404, null, null);
+                }
+                return conditional(request, encode(request, camera));
+            case "PUT":
+                return status(apply(CameraMutation.save(
+                        CamerasJsonCodec.decodeCamera(request.bodyAsString()))));
+            case "DELETE":
+                return status(apply(CameraMutation.delete(cameraId)));
+            default:
+                return new Response(405, null, null);
+        }
+    }
+
+    /**
+     * Applies a mutation to the data and returns the HTTP status of the result.
+     */
+    private int apply(@NonNull CameraMutation mutation) {
+        // Wake up the long polls waiting for changes.
+        mData.notifyAll();
+        String cameraId = mutation.getCameraId();
+        switch (mutation.getType()) {
+            case CameraMutation.TYPE_SAVE:
+                mData.saveCamera(mutation.getCamera());
+                return 204;
+            case CameraMutation.TYPE_CLOSE:
+            case CameraMutation.TYPE_ACTIVATE:
+                Camera camera = findCamera(cameraId);
+                if (camera == null) {
+                    return 404;
+                } else if (CameraMutation.TYPE_CLOSE.equals(mutation.getType())) {
+                    mData.closeCamera(camera);
+                } else {
+                    mData.activateCamera(camera);
+                }
+                return 204;
+            case CameraMutation.TYPE_DELETE:
+                mData.deleteCamera(cameraId);
+                return 204;
+            case CameraMutation.TYPE_CLEAR_CLOSED:
+                mData.clearClosedCameras();
+                return 204;
+            case CameraMutation.TYPE_DELETE_ALL:
+                mData.deleteAllCameras();
+                return 204;
+            default:
+                return 400;
+        }
+    }
+
+    @NonNull
+    private static Response status(int status) {
+        return new Response(status, null, null);
+    }
+
+    @NonNull
+    private Response getCamerasChangedSince(@NonNull final Request request, long version) {
+        final Response[] response = new Response[1];
+        mData.getCamerasChangedSince(version, new CamerasDataSource.LoadCameraChangesCallback() {
+            @Override
+            public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                              List<String> deletedCameraIds, long latestVersion) {
+                response[0] = conditional(request, encode(request,
+                        new CamerasPayload(latestVersion, changedCameras, deletedCameraIds)));
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                response[0] = new Response(503, null, null);
+            }
+        });
+        return response[0];
+    }
+
+    /**
+     * Long poll: answers as soon as there are changes after {@code version}, or with a 204 once
+     * {@code waitMillis} have passed without any. Changes made directly on
+     * {@link FakeCamerasRemoteDataSource} are noticed within {@link #FEED_CHECK_MILLIS}.
+     */
+    @NonNull
+    private Response waitForChanges(@NonNull final Request request, long version,
+                                    long waitMillis) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            final Response[] response = new Response[1];
+            mData.getCamerasChangedSince(version, new CamerasDataSource.LoadCameraChangesCallback() {
+                @Override
+                public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                  List<String> deletedCameraIds,
+                                                  long latestVersion) {
+                    if (!changedCameras.isEmpty() || !deletedCameraIds.isEmpty()) {
+                        response[0] = encode(request, new CamerasPayload(latestVersion,
+                                changedCameras, deletedCameraIds));
+                    }
+                }
+
+                @Override
+                public void onDataNotAvailable() {
+                    response[0] = new Response(503, null, null);
+                }
+            });
+            long remainingMillis = deadline - System.currentTimeMillis();
+            if (response[0] != null || remainingMillis <= 0 || !mRunning) {
+                return response[0] != null ? response[0] : new Response(204, null, null);
+            }
+            try {
+                // Releases the lock on mData while waiting.
+                mData.wait(Math.min(remainingMillis, FEED_CHECK_MILLIS));
+            } catch (InterruptedException e) {
+                return new Response(503, null, null);
+            }
+        }
+    }
+
+    @Nullable
+    private Camera findCamera(@NonNull String cameraId) {
+        final Camera[] camera = new Camera[1];
+        mData.getCamera(cameraId, new CamerasDataSource.GetCameraCallback() {
+            @Override
+            public void onCameraLoaded(Camera loadedCamera) {
+                camera[0] = loadedCamera;
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                // Stays null.
+            }
+        });
+        return camera[0];
+    }
+
+    /**
+     * Returns the cameras with the given ids that exist, with the latest version of the data.
+     */
+    @NonNull
+    private CamerasPayload findCameras(@NonNull final List<String> cameraIds) {
+        final CamerasPayload[] payload = new CamerasPayload[1];
+        mData.getCamerasChangedSince(Long.MAX_VALUE,
+                new CamerasDataSource.LoadCameraChangesCallback() {
+                    @Override
+                    public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                                      List<String> deletedCameraIds,
+                                                      long latestVersion) {
+                        List<Camera> cameras = new ArrayList<>();
+                        for (String cameraId : cameraIds) {
+                            Camera camera = findCamera(cameraId);
+                            if (camera != null) {
+                                cameras.add(camera);
+                            }
+                        }
+                        payload[0] = new CamerasPayload(latestVersion, cameras,
+                                Collections.<String>emptyList());
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        payload[0] = new CamerasPayload(0, Collections.<Camera>emptyList(),
+                                Collections.<String>emptyList());
+                    }
+                });
+        return payload[0];
+    }
+
+    @NonNull
+    private Response getTreeChildHashes(int level, @NonNull int[] nodes) {
+        final Response[] response = new Response[1];
+        mData.getTreeChildHashes(level, nodes, new CamerasTreeSource.LoadTreeHashesCallback() {
+            @Override
+            public void onTreeHashesLoaded(long[] hashes, long latestVersion) {
+                response[0] = new Response(200,
+                        CamerasJsonCodec.encodeTreeHashes(hashes, latestVersion), null);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                response[0] = new Response(503, null, null);
+            }
+        });
+        return response[0];
+    }
+
+    /**
+     * Returns the cameras of the given leaves of the tree, with the latest version of the data.
+     */
+    @NonNull
+    private CamerasPayload findCamerasInBuckets(@NonNull int[] buckets) {
+        final CamerasPayload[] payload = new CamerasPayload[1];
+        mData.getCamerasInBuckets(buckets, new CamerasDataSource.LoadCameraChangesCallback() {
+            @Override
+            public void onCameraChangesLoaded(List<Camera> changedCameras,
+                                              List<String> deletedCameraIds, long latestVersion) {
+                payload[0] = new CamerasPayload(latestVersion, changedCameras,
+                        Collections.<String>emptyList());
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                payload[0] = new CamerasPayload(0, Collections.<Camera>emptyList(),
+                        Collections.<String>emptyList());
+            }
+        });
+        return payload[0];
+    }
+
+    @NonNull
+    private static int[] toInts(@NonNull List<String> values) {
+        int[] ints = new int[values.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = Integer.parseInt(values.get(i));
+        }
+        return ints;
+    }
+
+    /**
+     * Returns a 200 with {@code payload} in the binary format if the client accepts it, or else
+     * in JSON.
+     */
+    @NonNull
+    private static Response encode(@NonNull Request request, @NonNull CamerasPayload payload) {
+        if (request.accepts(CamerasBinaryCodec.CONTENT_TYPE)) {
+            return new Response(200, CamerasBinaryCodec.encodePayload(payload),
+                    CamerasBinaryCodec.CONTENT_TYPE, null);
+        }
+        return new Response(200, CamerasJsonCodec.encodePayload(payload), null);
+    }
+
+    @NonNull
+    private static Response encode(@NonNull Request request, @NonNull Camera camera) {
+        if (request.accepts(CamerasBinaryCodec.CONTENT_TYPE)) {
+            return new Response(200, CamerasBinaryCodec.encodeCamera(camera),
+                    CamerasBinaryCodec.CONTENT_TYPE, null);
+        }
+        return new Response(200, CamerasJsonCodec.encodeCamera(camera), null);
+    }
+
+    /**
+     * Answers with a 304 if the client already has this exact body. The ETag is derived from the
+     * body, so it changes whenever the data served at that URL, or its format, changes.
+     */
+    @NonNull
+    private Response conditional(@NonNull Request request, @NonNull Response response) {
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(response.mBody)) + "-"
+                + response.mBody.length + "\"";
+        if (eTag.equals(request.mHeaders.get("if-none-match"))) {
+            mNotModifiedCount.incrementAndGet();
+            return new Response(304, null, eTag);
+        }
+        return new Response(200, response.mBody, response.mContentType, eTag);
+    }
+
+    private static final class Request {
+
+        final String mMethod;
+
+        final String mPath;
+
+        final Map<String, String> mQuery;
+
+        /**
+         * The query parameters before URL decoding, to split lists on the unencoded commas.
+         */
+        final Map<String, String> mRawQuery;
+
+        final Map<String, String> mHeaders;
+
+        final byte[] mBody;
+
+        private Request(String method, String path, Map<String, String> query,
+                        Map<String, String> rawQuery, Map<String, String> headers, byte[] body) {
+            mMethod = method;
+            mPath = path;
+            mQuery = query;
+            mRawQuery = rawQuery;
+            mHeaders = headers;
+            mBody = body;
+        }
+
+        /**
+         * Reads the next request of a connection, or returns null once the client closed it.
+         */
+        @Nullable
+        static Request read(@NonNull InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            String method = parts[0];
+            String target = parts[1];
+
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+
+            byte[] body = new byte[0];
+            String contentLength = headers.get("content-length");
+            if (contentLength != null) {
+                body = new byte[Integer.parseInt(contentLength)];
+                int read = 0;
+                while (read < body.length) {
+                    int count = in.read(body, read, body.length - read);
+                    if (count == -1) {
+                        throw new IOException("Truncated body");
+                    }
+                    read += count;
+                }
+            }
+
+            String path = target;
+            Map<String, String> query = new HashMap<>();
+            Map<String, String> rawQuery = new HashMap<>();
+            int questionMark = target.indexOf('?');
+            if (questionMark >= 0) {
+                path = target.substring(0, questionMark);
+                for (String parameter : target.substring(questionMark + 1).split("&")) {
+                    int equals = parameter.indexOf('=');
+                    if (equals > 0) {
+                        rawQuery.put(parameter.substring(0, equals),
+                                parameter.substring(equals + 1));
+                        query.put(parameter.substring(0, equals),
+                                URLDecoder.decode(parameter.substring(equals + 1), CHARSET));
+                    }
+                }
+            }
+            // Strip the leading slash and decode each segment.
+            StringBuilder decodedPath = new StringBuilder();
+            for (String segment : path.substring(1).split("/")) {
+                if (decodedPath.length() > 0) {
+                    decodedPath.append('/');
+                }
+                decodedPath.append(URLDecoder.decode(segment, CHARSET));
+            }
+            return new Request(method, decodedPath.toString(), query, rawQuery, headers, body);
+        }
+
+        /**
+         * Returns the comma separated values of a query parameter, or null if it is missing.
+         */
+        @Nullable
+        List<String> queryList(@NonNull String name) {
+            String value = mRawQuery.get(name);
+            if (value == null) {
+                return null;
+            }
+            List<String> values = new ArrayList<>();
+            try {
+                for (String item : value.split(",")) {
+                    values.add(URLDecoder.decode(item, CHARSET));
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+            return values;
+        }
+
+        @NonNull
+        String bodyAsString() {
+            try {
+                return new String(mBody, CHARSET);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        boolean accepts(@NonNull String contentType) {
+            String accept = mHeaders.get("accept");
+            return accept != null && accept.contains(contentType);
+        }
+
+        boolean acceptsGzip() {
+            String acceptEncoding = mHeaders.get("accept-encoding");
+            return acceptEncoding != null && acceptEncoding.contains("gzip");
+        }
+
+        boolean wantsClose() {
+            return "close".equalsIgnoreCase(mHeaders.get("connection"));
+        }
+
+        @Nullable
+        private static String readLine(@NonNull InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+                line.append((char) c);
+            }
+            return line.length() == 0 ? null : line.toString();
+        }
+    }
+
+    private static final class Response {
+
+        final int mStatus;
+
+        @Nullable
+        final byte[] mBody;
+
+        @Nullable
+        final String mContentType;
+
+        @Nullable
+        final String mETag;
+
+        /**
+         * A response with a JSON body, or none.
+         */
+        Response(int status, @Nullable String body, @Nullable String eTag) {
+            this(status, body == null ? null : utf8(body),
+                    body == null ? null : CamerasJsonCodec.CONTENT_TYPE, eTag);
+        }
+
+        Response(int status, @Nullable byte[] body, @Nullable String contentType,
+                 @Nullable String eTag) {
+            mStatus = status;
+            mBody = body;
+            mContentType = contentType;
+            mETag = eTag;
+        }
+
+        /**
+         * Writes this response to {@code out}, and returns whether its body was gzipped.
+         */
+        boolean write(@NonNull OutputStream out, boolean gzip) throws IOException {
+            byte[] body = mBody == null ? new byte[0] : mBody;
+            // Binary bodies are compressed by their codec already.
+            boolean gzipped = gzip && body.length > 0
+                    && !CamerasBinaryCodec.CONTENT_TYPE.equals(mContentType);
+            if (gzipped) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+                gzipOut.write(body);
+                gzipOut.close();
+                body = compressed.toByteArray();
+            }
+
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(mStatus).append(' ').append(reason(mStatus))
+                    .append("\r\n");
+            head.append("Connection: keep-alive\r\n");
+            if (mETag != null) {
+                head.append("ETag: ").append(mETag).append("\r\n");
+            }
+            if (mContentType != null) {
+                head.append("Content-Type: ").append(mContentType).append("\r\n");
+                head.append("Vary: Accept\r\n");
+            }
+            if (gzipped) {
+                head.append("Content-Encoding: gzip\r\n");
+            }
+            if (mStatus != 204 && mStatus != 304) {
+                head.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            head.append("\r\n");
+
+            out.write(head.toString().getBytes(CHARSET));
+            out.write(body);
+            out.flush();
+            return gzipped;
+        }
+
+        @NonNull
+        private static byte[] utf8(@NonNull String body) {
+            try {
+                return body.getBytes(CHARSET);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @NonNull
+        private static String reason(int status) {
+            switch (status) {
+                case 200:
+                    return "OK";
+                case 204:
+                    return "No Content";
+                case 304:
+                    return "Not Modified";
+                case 400:
+                    return "Bad Request";
+                case 404:
+                    return "Not Found";
+                case 405:
+                    return "Method Not Allowed";
+                default:
+                    return "Service Unavailable";
+            }
+        }
+    }
+}
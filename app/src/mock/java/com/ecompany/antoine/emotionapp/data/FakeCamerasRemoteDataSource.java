@@ -20,22 +20,31 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 
+import com.ecompany.antoine.emotionapp.data.source.CamerasChangeLog;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasMerkleTree;
+import com.ecompany.antoine.emotionapp.data.source.CamerasTreeSource;
 import com.google.common.collect.Lists;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Implementation of a remote data source with static access to the data for easy testing.
  */
-public class FakeCamerasRemoteDataSource implements CamerasDataSource {
+public class FakeCamerasRemoteDataSource implements CamerasDataSource, CamerasTreeSource {
 
     private static FakeCamerasRemoteDataSource INSTANCE;
 
     private static final Map<String, Camera> CAMERAS_SERVICE_DATA = new LinkedHashMap<>();
 
+    private static final CamerasChangeLog CHANGE_LOG = new CamerasChangeLog();
+
+    private static final CamerasMerkleTree TREE = new CamerasMerkleTree();
+
     // Prevent direct instantiation.
     private FakeCamerasRemoteDataSource() {}
 
@@ -57,15 +66,51 @@ public class FakeCamerasRemoteDataSource implements CamerasDataSource {
         callback.onCameraLoaded(camera);
     }
 
+    @Override
+    public void getCamerasChangedSince(long version, @NonNull LoadCameraChangesCallback callback) {
+        List<Camera> changedCameras = new ArrayList<>();
+        for (Camera camera : CAMERAS_SERVICE_DATA.values()) {
+            if (CHANGE_LOG.hasChangedSince(camera.getId(), version)) {
+                changedCameras.add(camera);
+            }
+        }
+        callback.onCameraChangesLoaded(changedCameras, CHANGE_LOG.getDeletedSince(version),
+                CHANGE_LOG.getLatestVersion());
+    }
+
+    @Override
+    public void getTreeChildHashes(int level, @NonNull int[] nodes,
+                                   @NonNull LoadTreeHashesCallback callback) {
+        callback.onTreeHashesLoaded(TREE.getChildHashes(level, nodes),
+                CHANGE_LOG.getLatestVersion());
+    }
+
+    @Override
+    public void getCamerasInBuckets(@NonNull int[] buckets,
+                                    @NonNull LoadCameraChangesCallback callback) {
+        List<Camera> cameras = new ArrayList<>();
+        for (int bucket : buckets) {
+            for (String cameraId : TREE.getCameraIds(bucket)) {
+                cameras.add(CAMERAS_SERVICE_DATA.get(cameraId));
+            }
+        }
+        callback.onCameraChangesLoaded(cameras, new ArrayList<String>(),
+                CHANGE_LOG.getLatestVersion());
+    }
+
     @Override
     public void saveCamera(@NonNull Camera camera) {
         CAMERAS_SERVICE_DATA.put(camera.getId(), camera);
+        CHANGE_LOG.recordChange(camera.getId());
+        TREE.put(camera);
     }
 
     @Override
     public void closeCamera(@NonNull Camera camera) {
         Camera closedCamera = new Camera(camera.getTitle(), camera.getDescription(), camera.getId(), true);
         CAMERAS_SERVICE_DATA.put(camera.getId(), closedCamera);
+        CHANGE_LOG.recordChange(camera.getId());
+        TREE.put(closedCamera);
     }
 
     @Override
@@ -77,6 +122,8 @@ public class FakeCamerasRemoteDataSource implements CamerasDataSource {
     public void activateCamera(@NonNull Camera camera) {
         Camera activeCamera = new Camera(camera.getTitle(), camera.getDescription(), camera.getId());
         CAMERAS_SERVICE_DATA.put(camera.getId(), activeCamera);
+        CHANGE_LOG.recordChange(camera.getId());
+        TREE.put(activeCamera);
     }
 
     @Override
@@ -91,6 +138,8 @@ public class FakeCamerasRemoteDataSource implements CamerasDataSource {
             Map.Entry<String, Camera> entry = it.next();
             if (entry.getValue().isClosed()) {
                 it.remove();
+                CHANGE_LOG.recordDeletion(entry.getKey());
+                TREE.remove(entry.getKey());
             }
         }
     }
@@ -102,11 +151,18 @@ public class FakeCamerasRemoteDataSource implements CamerasDataSource {
 
     @Override
     public void deleteCamera(@NonNull String cameraId) {
-        CAMERAS_SERVICE_DATA.remove(cameraId);
+        if (CAMERAS_SERVICE_DATA.remove(cameraId) != null) {
+            CHANGE_LOG.recordDeletion(cameraId);
+            TREE.remove(cameraId);
+        }
     }
 
     @Override
     public void deleteAllCameras() {
+        for (String cameraId : CAMERAS_SERVICE_DATA.keySet()) {
+            CHANGE_LOG.recordDeletion(cameraId);
+            TREE.remove(cameraId);
+        }
         CAMERAS_SERVICE_DATA.clear();
     }
 
@@ -114,6 +170,8 @@ public class FakeCamerasRemoteDataSource implements CamerasDataSource {
     public void addCameras(Camera... cameras) {
         for (Camera camera : cameras) {
             CAMERAS_SERVICE_DATA.put(camera.getId(), camera);
+            CHANGE_LOG.recordChange(camera.getId());
+            TREE.put(camera);
         }
     }
 }
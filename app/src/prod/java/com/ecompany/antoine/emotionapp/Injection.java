@@ -2,11 +2,26 @@ package com.ecompany.antoine.emotionapp;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.ecompany.antoine.emotionapp.data.source.local.CamerasLocalDataSource;
 import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.RequestPriority;
+import com.ecompany.antoine.emotionapp.data.source.CamerasHistorySource;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasChangeFeed;
+import com.ecompany.antoine.emotionapp.data.source.remote.CamerasHttpDataSource;
 import com.ecompany.antoine.emotionapp.data.source.remote.CamerasRemoteDataSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.ConcurrencyLimitedCamerasDataSource;
+import com.ecompany.antoine.emotionapp.data.source.remote.NetworkProfile;
+import com.ecompany.antoine.emotionapp.data.source.remote.RemoteRequestScheduler;
+import com.ecompany.antoine.emotionapp.data.source.remote.ResiliencePolicy;
+import com.ecompany.antoine.emotionapp.data.source.remote.ResilientCamerasDataSource;
 import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+import com.ecompany.antoine.emotionapp.util.StartupTrace;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -16,9 +31,140 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Injection {
 
+    private static AppExecutors sAppExecutors;
+
+    private static ResilientCamerasDataSource sResilientCamerasDataSource;
+
+    private static ConcurrencyLimitedCamerasDataSource sConcurrencyLimitedCamerasDataSource;
+
     public static CamerasRepository provideCamerasRepository(@NonNull Context context) {
         checkNotNull(context);
-        return CamerasRepository.getInstance(CamerasRemoteDataSource.getInstance(),
-                CamerasLocalDataSource.getInstance(context));
+        CamerasRepository repository = CamerasRepository.getInstance(
+                provideResilientCamerasDataSource(),
+                CamerasLocalDataSource.getInstance(context, provideAppExecutors()));
+        repository.setRemoteTreeSource(provideResilientCamerasDataSource(),
+                provideFullReloadParallelism());
+        return repository;
+    }
+
+    /**
+     * Returns the feed pushing remote changes into the repository, or null when there is no
+     * cameras web service to listen to.
+     */
+    @Nullable
+    public static CamerasChangeFeed provideCamerasChangeFeed(@NonNull Context context) {
+        checkNotNull(context);
+        if (Strings.isNullOrEmpty(BuildConfig.CAMERAS_API_URL)) {
+            return null;
+        }
+        CamerasHttpDataSource dataSource = CamerasHttpDataSource.getInstance(
+                BuildConfig.CAMERAS_API_URL, provideAppExecutors());
+        return new CamerasChangeFeed(dataSource, provideCamerasRepository(context),
+                provideAppExecutors());
+    }
+
+    /**
+     * Returns the scheduler of the requests to the cameras web service, or null when there is no
+     * web service.
+     */
+    @Nullable
+    public static RemoteRequestScheduler provideRemoteRequestScheduler() {
+        if (Strings.isNullOrEmpty(BuildConfig.CAMERAS_API_URL)) {
+            return null;
+        }
+        return CamerasHttpDataSource.getInstance(BuildConfig.CAMERAS_API_URL,
+                provideAppExecutors()).getRequestScheduler();
+    }
+
+    /**
+     * Returns {@link BuildConfig#FULL_RELOAD_PARALLELISM}, capped to the requests the web service
+     * runs at once for a full reload, at {@link RequestPriority#VISIBLE_PREFETCH} unless its
+     * caller asks for another priority: the shards over that cap would only wait in the queue of
+     * the {@link RemoteRequestScheduler}.
+     */
+    private static int provideFullReloadParallelism() {
+        RemoteRequestScheduler scheduler = provideRemoteRequestScheduler();
+        if (scheduler == null) {
+            return BuildConfig.FULL_RELOAD_PARALLELISM;
+        }
+        return Math.min(BuildConfig.FULL_RELOAD_PARALLELISM,
+                scheduler.getMaxRunning(RequestPriority.VISIBLE_PREFETCH));
+    }
+
+    /**
+     * Returns the repository of {@link #provideCamerasRepository(Context)}, only created by the
+     * first call to {@link Supplier#get()}, so that opening the data layer can wait until after
+     * the first frame.
+     */
+    public static Supplier<CamerasRepository> provideCamerasRepositoryLazily(
+            @NonNull Context context) {
+        final Context appContext = checkNotNull(context).getApplicationContext();
+        return Suppliers.memoize(new Supplier<CamerasRepository>() {
+            @Override
+            public CamerasRepository get() {
+                StartupTrace.getInstance().beginSection("provideCamerasRepository");
+                CamerasRepository repository = provideCamerasRepository(appContext);
+                StartupTrace.getInstance().endSection("provideCamerasRepository");
+                return repository;
+            }
+        });
+    }
+
+    /**
+     * The status history is kept by the local database.
+     */
+    public static CamerasHistorySource provideCamerasHistorySource(@NonNull Context context) {
+        checkNotNull(context);
+        return CamerasLocalDataSource.getInstance(context, provideAppExecutors());
+    }
+
+    public static AppExecutors provideAppExecutors() {
+        if (sAppExecutors == null) {
+            sAppExecutors = new AppExecutors();
+        }
+        return sAppExecutors;
+    }
+
+    /**
+     * Returns the retrying wrapper of the remote data source that the repository reads through,
+     * tree syncs and sharded full reloads included. Reads are retried, hedged and cut off by a
+     * circuit breaker when the backend fails.
+     */
+    @NonNull
+    public static synchronized ResilientCamerasDataSource provideResilientCamerasDataSource() {
+        if (sResilientCamerasDataSource == null) {
+            sResilientCamerasDataSource = new ResilientCamerasDataSource(
+                    provideConcurrencyLimitedCamerasDataSource(), ResiliencePolicy.defaults());
+        }
+        return sResilientCamerasDataSource;
+    }
+
+    /**
+     * Returns the remote data source under {@link #provideResilientCamerasDataSource()}, which
+     * keeps the attempts in flight under a limit that adapts to the load of the backend.
+     * <p>
+     * Uses the cameras web service if {@link BuildConfig#CAMERAS_API_URL} is set, and the
+     * simulated remote data source otherwise, on the network named by
+     * {@link BuildConfig#SIMULATED_NETWORK_PROFILE}.
+     */
+    @NonNull
+    public static synchronized ConcurrencyLimitedCamerasDataSource
+            provideConcurrencyLimitedCamerasDataSource() {
+        if (sConcurrencyLimitedCamerasDataSource != null) {
+            return sConcurrencyLimitedCamerasDataSource;
+        }
+        CamerasDataSource remoteDataSource;
+        if (Strings.isNullOrEmpty(BuildConfig.CAMERAS_API_URL)) {
+            CamerasRemoteDataSource simulatedDataSource = CamerasRemoteDataSource.getInstance();
+            simulatedDataSource.setNetworkProfile(
+                    NetworkProfile.forName(BuildConfig.SIMULATED_NETWORK_PROFILE));
+            remoteDataSource = simulatedDataSource;
+        } else {
+            remoteDataSource = CamerasHttpDataSource.getInstance(BuildConfig.CAMERAS_API_URL,
+                    provideAppExecutors());
+        }
+        sConcurrencyLimitedCamerasDataSource =
+                new ConcurrencyLimitedCamerasDataSource(remoteDataSource);
+        return sConcurrencyLimitedCamerasDataSource;
     }
 }
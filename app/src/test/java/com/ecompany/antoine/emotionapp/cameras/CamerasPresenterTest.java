@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ecompany.antoine.emotionapp.cameras;
+
+import android.support.annotation.NonNull;
+
+import com.ecompany.antoine.emotionapp.data.Camera;
+import com.ecompany.antoine.emotionapp.data.source.CamerasDataSource.LoadCamerasCallback;
+import com.ecompany.antoine.emotionapp.data.source.CamerasRepository;
+import com.ecompany.antoine.emotionapp.util.AppExecutors;
+import com.ecompany.antoine.emotionapp.util.ReloadCoalescer;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the coalescing of list refreshes in {@link CamerasPresenter}.
+ */
+public class CamerasPresenterTest {
+
+    private static final List<Camera> CAMERAS = Lists.newArrayList(
+            new Camera("Title1", "Description1", "id1"),
+            new Camera("Title2", "Description2", "id2", true),
+            new Camera("Title3", "Description3", "id3"));
+
+    @Mock
+    private CamerasRepository mCamerasRepository;
+
+    @Mock
+    private CamerasContract.View mCamerasView;
+
+    @Captor
+    private ArgumentCaptor<LoadCamerasCallback> mLoadCamerasCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<CamerasRepository.CamerasObserver> mCamerasObserverCaptor;
+
+    private FakeScheduler mRefreshScheduler;
+
+    private CamerasPresenter mCamerasPresenter;
+
+    @Before
+    public void setupCamerasPresenter() {
+        MockitoAnnotations.initMocks(this);
+
+        // The presenter won't update the view unless it's active.
+        when(mCamerasView.isActive()).thenReturn(true);
+
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        };
+        mRefreshScheduler = new FakeScheduler();
+        mCamerasPresenter = new CamerasPresenter(Suppliers.ofInstance(mCamerasRepository),
+                mCamerasView,
+                new AppExecutors(directExecutor, directExecutor, directExecutor, directExecutor),
+                mRefreshScheduler);
+
+        mCamerasPresenter.start();
+        verify(mCamerasRepository).addObserver(mCamerasObserverCaptor.capture());
+        verify(mCamerasRepository).getCameras(mLoadCamerasCallbackCaptor.capture());
+        mLoadCamerasCallbackCaptor.getValue().onCamerasLoaded(CAMERAS);
+        verify(mCamerasView).showCameras(anyListOf(Camera.class));
+    }
+
+    @Test
+    public void burstOfEdits_showsCamerasOncePerWindow() {
+        mCamerasPresenter.closeCamera(CAMERAS.get(0));
+        mCamerasPresenter.activateCamera(CAMERAS.get(1));
+        mCamerasPresenter.closeCamera(CAMERAS.get(2));
+
+        // Nothing is shown before the window ends.
+        verify(mCamerasView, times(1)).showCameras(anyListOf(Camera.class));
+        assertEquals(1, mRefreshScheduler.getPendingCount());
+
+        mRefreshScheduler.runPending();
+        verify(mCamerasView, times(2)).showCameras(anyListOf(Camera.class));
+
+        // The next edit opens a new window.
+        mCamerasPresenter.activateCamera(CAMERAS.get(0));
+        mRefreshScheduler.runPending();
+        verify(mCamerasView, times(3)).showCameras(anyListOf(Camera.class));
+    }
+
+    @Test
+    public void burstOfRemoteChanges_reloadsOncePerWindow() {
+        CamerasRepository.CamerasObserver observer = mCamerasObserverCaptor.getValue();
+        observer.onCamerasChanged();
+        observer.onCamerasChanged();
+        observer.onCamerasChanged();
+
+        verify(mCamerasRepository, times(1)).getCameras(any(LoadCamerasCallback.class));
+        assertEquals(1, mRefreshScheduler.getPendingCount());
+
+        mRefreshScheduler.runPending();
+        verify(mCamerasRepository, times(2)).getCameras(mLoadCamerasCallbackCaptor.capture());
+        mLoadCamerasCallbackCaptor.getValue().onCamerasLoaded(CAMERAS);
+        verify(mCamerasView, times(2)).showCameras(anyListOf(Camera.class));
+    }
+
+    @Test
+    public void stop_dropsThePendingRefresh() {
+        mCamerasPresenter.closeCamera(CAMERAS.get(0));
+
+        mCamerasPresenter.stop();
+
+        assertEquals(0, mRefreshScheduler.getPendingCount());
+        verify(mCamerasView, times(1)).showCameras(anyListOf(Camera.class));
+    }
+
+    /**
+     * Holds the scheduled tasks until the test ends the window.
+     */
+    private static class FakeScheduler implements ReloadCoalescer.Scheduler {
+
+        private final List<Runnable> mPending = new ArrayList<>();
+
+        @Override
+        public void schedule(@NonNull Runnable task, long delayMillis) {
+            mPending.add(task);
+        }
+
+        @Override
+        public void cancel(@NonNull Runnable task) {
+            mPending.remove(task);
+        }
+
+        int getPendingCount() {
+            return mPending.size();
+        }
+
+        void runPending() {
+            List<Runnable> tasks = new ArrayList<>(mPending);
+            mPending.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+}